@@ -0,0 +1,131 @@
+package com.spirit.bench;
+
+import com.spirit.treemap.RBTree;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 有序微批次写入：逐个put/remove 与 putAll/removeAll(finger下降) 的对比
+ * <p>
+ * 每次调用把一个批次插入再删除，树的大小保持为size；
+ * 辅助计数器comparisons是每个key平均的compareTo次数
+ *
+ * @author Spirit
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class BatchBenchmark {
+
+	/**
+	 * 计数compareTo调用次数的key
+	 */
+	static final class CountingKey implements Comparable<CountingKey> {
+
+		static long comparisons;
+
+		final long value;
+
+		CountingKey(long value) {
+			this.value = value;
+		}
+
+		@Override
+		public int compareTo(CountingKey o) {
+			comparisons++;
+			return Long.compare(value, o.value);
+		}
+	}
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Comparisons {
+
+		public long comparisons;
+		public long keys;
+
+		public double comparisonsPerKey() {
+			return keys == 0 ? 0 : (double) comparisons / keys;
+		}
+	}
+
+	@Param({"1000000"})
+	public int size;
+
+	@Param({"1000", "10000", "100000"})
+	public int batchSize;
+
+	private RBTree<CountingKey, Long> tree;
+	private List<TreeMap<CountingKey, Long>> batches;
+	private int cursor;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Random random = new Random(42);
+		tree = new RBTree<>();
+		for (int i = 0; i < size; i++) {
+			// 树中都是偶数，批次中都是奇数，保证批次里的key都是新插入的
+			long key = (random.nextLong() >>> 2) << 1;
+			tree.put(new CountingKey(key), key);
+		}
+
+		batches = new ArrayList<>();
+		for (int b = 0; b < 16; b++) {
+			TreeMap<CountingKey, Long> batch = new TreeMap<>();
+			long start = (random.nextLong() >>> 2) | 1;
+			for (int i = 0; i < batchSize; i++) {
+				long key = start + ((long) i << 20);
+				batch.put(new CountingKey(key), key);
+			}
+			batches.add(batch);
+		}
+	}
+
+	private TreeMap<CountingKey, Long> nextBatch() {
+		return batches.get(cursor++ & 15);
+	}
+
+	@Benchmark
+	public void putOneByOne(Comparisons counters) {
+		TreeMap<CountingKey, Long> batch = nextBatch();
+		long before = CountingKey.comparisons;
+		for (CountingKey key : batch.keySet()) {
+			tree.put(key, key.value);
+		}
+		for (CountingKey key : batch.keySet()) {
+			tree.remove(key);
+		}
+		counters.comparisons += CountingKey.comparisons - before;
+		counters.keys += 2L * batch.size();
+	}
+
+	@Benchmark
+	public void putAll(Comparisons counters) {
+		TreeMap<CountingKey, Long> batch = nextBatch();
+		long before = CountingKey.comparisons;
+		tree.putAll(batch);
+		tree.removeAll(batch.keySet());
+		counters.comparisons += CountingKey.comparisons - before;
+		counters.keys += 2L * batch.size();
+	}
+}
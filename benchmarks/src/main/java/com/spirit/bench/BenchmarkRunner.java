@@ -0,0 +1,28 @@
+package com.spirit.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 基准测试入口：在JMH命令行参数的基础上默认打开gc profiler，
+ * 输出里的gc.alloc.rate.norm就是每次操作分配的字节数
+ * <p>
+ * 例：java -jar target/benchmarks.jar TreeBenchmark.get -p size=1000000 -p distribution=zipfian
+ *
+ * @author Spirit
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,64 @@
+package com.spirit.bench;
+
+import com.spirit.treemap.RBTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用有序数据重建整棵树：逐个put 与 bulkLoad 的对比，结果是一次完整重建的耗时
+ *
+ * @author Spirit
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class BulkLoadBenchmark {
+
+	@Param({"1000", "100000", "1000000"})
+	public int size;
+
+	private List<Map.Entry<Long, Long>> entries;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		entries = new ArrayList<>(size);
+		for (long i = 0; i < size; i++) {
+			entries.add(new AbstractMap.SimpleImmutableEntry<>(i, i));
+		}
+	}
+
+	@Benchmark
+	public RBTree<Long, Long> put() {
+		RBTree<Long, Long> tree = new RBTree<>();
+		for (Map.Entry<Long, Long> entry : entries) {
+			tree.put(entry.getKey(), entry.getValue());
+		}
+		return tree;
+	}
+
+	@Benchmark
+	public RBTree<Long, Long> bulkLoad() {
+		RBTree<Long, Long> tree = new RBTree<>();
+		tree.bulkLoad(entries.iterator(), size);
+		return tree;
+	}
+}
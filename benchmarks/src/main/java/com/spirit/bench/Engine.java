@@ -0,0 +1,178 @@
+package com.spirit.bench;
+
+import java.util.Iterator;
+import java.util.TreeMap;
+
+/**
+ * 基准测试中被测的有序Map实现的统一适配层，
+ * 让同一套负载可以分别跑在两个RBTree实现和java.util.TreeMap上
+ *
+ * @author Spirit
+ */
+public abstract class Engine {
+
+	public abstract void put(Long key, Long value);
+
+	public abstract Object get(Long key);
+
+	public abstract Object remove(Long key);
+
+	/**
+	 * 游标前进一步(后继节点)，走到末尾后从最小节点重新开始
+	 *
+	 * @return 当前游标所在的key
+	 */
+	public abstract Object advance();
+
+	/**
+	 * 从最小节点开始沿后继遍历整棵树
+	 *
+	 * @return 遍历到的节点个数
+	 */
+	public abstract int scan();
+
+	public static Engine create(String name) {
+		switch (name) {
+			case "treemap":
+				return new SpiritTree();
+			case "treemap1":
+				return new SpiritTree1();
+			case "jdk":
+				return new JdkTreeMap();
+			default:
+				throw new IllegalArgumentException("unknown engine: " + name);
+		}
+	}
+
+	static class SpiritTree extends Engine {
+
+		private final com.spirit.treemap.RBTree<Long, Long> tree = new com.spirit.treemap.RBTree<>();
+		private com.spirit.treemap.RBTree.RBNode cursor;
+
+		@Override
+		public void put(Long key, Long value) {
+			tree.put(key, value);
+		}
+
+		@Override
+		public Object get(Long key) {
+			return tree.getNode(key);
+		}
+
+		@Override
+		public Object remove(Long key) {
+			return tree.remove(key);
+		}
+
+		private com.spirit.treemap.RBTree.RBNode first() {
+			com.spirit.treemap.RBTree.RBNode node = tree.getRoot();
+			while (node != null && node.getLeft() != null) {
+				node = node.getLeft();
+			}
+			return node;
+		}
+
+		@Override
+		public Object advance() {
+			cursor = cursor == null ? first() : tree.successor(cursor);
+			if (cursor == null) {
+				cursor = first();
+			}
+			return cursor.getK();
+		}
+
+		@Override
+		public int scan() {
+			int count = 0;
+			for (com.spirit.treemap.RBTree.RBNode node = first(); node != null; node = tree.successor(node)) {
+				count++;
+			}
+			return count;
+		}
+	}
+
+	static class SpiritTree1 extends Engine {
+
+		private final com.spirit.treemap1.RBTree<Long, Long> tree = new com.spirit.treemap1.RBTree<>();
+		private com.spirit.treemap1.RBNode cursor;
+
+		@Override
+		public void put(Long key, Long value) {
+			tree.put(key, value);
+		}
+
+		@Override
+		public Object get(Long key) {
+			return tree.getNode(key);
+		}
+
+		@Override
+		public Object remove(Long key) {
+			return tree.remove(key);
+		}
+
+		private com.spirit.treemap1.RBNode first() {
+			com.spirit.treemap1.RBNode node = tree.getRoot();
+			while (node != null && node.getLeft() != null) {
+				node = node.getLeft();
+			}
+			return node;
+		}
+
+		@Override
+		public Object advance() {
+			cursor = cursor == null ? first() : tree.successor(cursor);
+			if (cursor == null) {
+				cursor = first();
+			}
+			return cursor.getKey();
+		}
+
+		@Override
+		public int scan() {
+			int count = 0;
+			for (com.spirit.treemap1.RBNode node = first(); node != null; node = tree.successor(node)) {
+				count++;
+			}
+			return count;
+		}
+	}
+
+	static class JdkTreeMap extends Engine {
+
+		private final TreeMap<Long, Long> tree = new TreeMap<>();
+		private Iterator<Long> cursor;
+
+		@Override
+		public void put(Long key, Long value) {
+			tree.put(key, value);
+		}
+
+		@Override
+		public Object get(Long key) {
+			return tree.get(key);
+		}
+
+		@Override
+		public Object remove(Long key) {
+			return tree.remove(key);
+		}
+
+		@Override
+		public Object advance() {
+			if (cursor == null || !cursor.hasNext()) {
+				cursor = tree.keySet().iterator();
+			}
+			return cursor.next();
+		}
+
+		@Override
+		public int scan() {
+			int count = 0;
+			for (Iterator<Long> it = tree.keySet().iterator(); it.hasNext(); it.next()) {
+				count++;
+			}
+			return count;
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package com.spirit.bench;
+
+import java.util.Random;
+
+/**
+ * 基准测试的key分布：
+ * 1、sequential：key按顺序插入，按顺序查找
+ * 2、random：key随机且不重复，均匀随机查找
+ * 3、zipfian：key同random，查找按Zipf分布集中在少数热点key上
+ * <p>
+ * 树中存放的key都是偶数，奇数key保证不在树中，用于插入新key的负载
+ *
+ * @author Spirit
+ */
+public final class KeyDistribution {
+
+	/**
+	 * Zipf分布的偏斜参数，与YCSB的默认值一致
+	 */
+	static final double ZIPF_THETA = 0.99;
+
+	private KeyDistribution() {
+	}
+
+	/**
+	 * 生成size个互不相同的key(都是偶数)，按插入顺序排列
+	 */
+	public static Long[] keys(String distribution, int size, long seed) {
+		Long[] keys = new Long[size];
+		if ("sequential".equals(distribution)) {
+			for (int i = 0; i < size; i++) {
+				keys[i] = (long) i << 1;
+			}
+			return keys;
+		}
+		// 随机排列：先顺序填充再打乱，保证不重复
+		for (int i = 0; i < size; i++) {
+			keys[i] = (long) i << 1;
+		}
+		Random random = new Random(seed);
+		for (int i = size - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			Long tmp = keys[i];
+			keys[i] = keys[j];
+			keys[j] = tmp;
+		}
+		return keys;
+	}
+
+	/**
+	 * 生成count个查找下标(0 ~ size-1)，下标对应keys()返回数组中的位置
+	 */
+	public static int[] probes(String distribution, int size, int count, long seed) {
+		int[] probes = new int[count];
+		if ("sequential".equals(distribution)) {
+			for (int i = 0; i < count; i++) {
+				probes[i] = i % size;
+			}
+		} else if ("random".equals(distribution)) {
+			Random random = new Random(seed);
+			for (int i = 0; i < count; i++) {
+				probes[i] = random.nextInt(size);
+			}
+		} else if ("zipfian".equals(distribution)) {
+			Zipf zipf = new Zipf(size, ZIPF_THETA, seed);
+			for (int i = 0; i < count; i++) {
+				probes[i] = zipf.next();
+			}
+		} else {
+			throw new IllegalArgumentException("unknown distribution: " + distribution);
+		}
+		return probes;
+	}
+
+	/**
+	 * Gray等人"Quickly Generating Billion-Record Synthetic Databases"中的Zipf生成算法，
+	 * 初始化时计算一次zeta(n)，之后每次生成都是O(1)
+	 */
+	static final class Zipf {
+
+		private final int n;
+		private final double theta;
+		private final double alpha;
+		private final double zetan;
+		private final double eta;
+		private final Random random;
+
+		Zipf(int n, double theta, long seed) {
+			this.n = n;
+			this.theta = theta;
+			this.random = new Random(seed);
+			this.zetan = zeta(n, theta);
+			this.alpha = 1.0 / (1.0 - theta);
+			this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+		}
+
+		private static double zeta(int n, double theta) {
+			double sum = 0;
+			for (int i = 1; i <= n; i++) {
+				sum += 1 / Math.pow(i, theta);
+			}
+			return sum;
+		}
+
+		int next() {
+			double u = random.nextDouble();
+			double uz = u * zetan;
+			if (uz < 1.0) {
+				return 0;
+			}
+			if (uz < 1.0 + Math.pow(0.5, theta)) {
+				return Math.min(1, n - 1);
+			}
+			int rank = (int) (n * Math.pow(eta * u - eta + 1, alpha));
+			return Math.min(rank, n - 1);
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package com.spirit.bench;
+
+import com.spirit.treemap.RBTree;
+import com.spirit.treemap.RBTreeParallel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 全树聚合(对所有value求和)的并行扩展性：顺序流、并行流、RBTreeParallel.reduce
+ * <p>
+ * threads是ForkJoinPool的并行度，并行流也提交到这个池里执行。
+ * 1亿个节点需要更大的堆：-p size=100000000 -jvmArgsAppend -Xmx24g
+ *
+ * @author Spirit
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class ParallelBenchmark {
+
+	@Param({"1000000", "10000000"})
+	public int size;
+
+	@Param({"1", "2", "4", "8"})
+	public int threads;
+
+	private RBTree<Long, Long> tree;
+	private ForkJoinPool pool;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		tree = new RBTree<>();
+		tree.bulkLoad(new Iterator<Map.Entry<Long, Long>>() {
+			private long next;
+
+			@Override
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			@Override
+			public Map.Entry<Long, Long> next() {
+				long k = next++;
+				return new AbstractMap.SimpleImmutableEntry<>(k, k);
+			}
+		}, size);
+		pool = new ForkJoinPool(threads);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Benchmark
+	public long sequentialStream() {
+		return tree.stream().mapToLong(RBTree.RBNode::getV).sum();
+	}
+
+	@Benchmark
+	public long parallelStream() throws ExecutionException, InterruptedException {
+		return pool.submit(() -> tree.parallelStream().mapToLong(RBTree.RBNode::getV).sum()).get();
+	}
+
+	@Benchmark
+	public long parallelReduce() {
+		return RBTreeParallel.reduce(pool, tree, size / (threads * 8L), (k, v) -> v, Long::sum);
+	}
+}
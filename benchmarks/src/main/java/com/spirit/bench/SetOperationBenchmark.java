@@ -0,0 +1,69 @@
+package com.spirit.bench;
+
+import com.spirit.treemap.RBTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 合并两棵同样大小的随机树：逐个put 与 基于split/join的union 的对比
+ * <p>
+ * union会消耗掉输入的两棵树，所以每次调用前重新建树，用SingleShotTime测一次完整合并的耗时
+ *
+ * @author Spirit
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class SetOperationBenchmark {
+
+	@Param({"1000000", "10000000"})
+	public int size;
+
+	private RBTree<Long, Long> a;
+	private RBTree<Long, Long> b;
+	private int seed;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		Random random = new Random(seed++);
+		a = new RBTree<>();
+		b = new RBTree<>();
+		for (int i = 0; i < size; i++) {
+			long x = random.nextLong();
+			a.put(x, x);
+			long y = random.nextLong();
+			b.put(y, y);
+		}
+	}
+
+	@Benchmark
+	public RBTree<Long, Long> putOneByOne() {
+		RBTree.RBNode node = b.getFirstNode();
+		while (node != null) {
+			a.put((Long) node.getK(), (Long) node.getV());
+			node = b.successor(node);
+		}
+		return a;
+	}
+
+	@Benchmark
+	public RBTree<Long, Long> union() {
+		return RBTree.union(a, b);
+	}
+}
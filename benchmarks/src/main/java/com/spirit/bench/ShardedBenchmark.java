@@ -0,0 +1,89 @@
+package com.spirit.bench;
+
+import com.spirit.treemap.ConcurrentRBTree;
+import com.spirit.treemap.ShardedRBTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多线程写吞吐：一把锁的ConcurrentRBTree 与 按范围分片的ShardedRBTree
+ * <p>
+ * key在[0, keySpace)中均匀随机，先写入一半，每次操作随机put一个key再随机remove一个key，大小基本不变。
+ * 分片边界按keySpace等分。线程数用JMH的-t指定，ConcurrentRBTree的写操作串行，
+ * ShardedRBTree的吞吐应该随线程数增长，直到接近分片数或者核数
+ * <p>
+ * 例：java -jar target/benchmarks.jar ShardedBenchmark -t 8 -p shards=16
+ *
+ * @author Spirit
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class ShardedBenchmark {
+
+	@Param({"concurrent", "sharded"})
+	public String impl;
+
+	@Param({"1000000"})
+	public int keySpace;
+
+	@Param({"16", "64"})
+	public int shards;
+
+	private ConcurrentRBTree<Long, Long> concurrent;
+	private ShardedRBTree<Long, Long> sharded;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		if (impl.equals("concurrent")) {
+			concurrent = new ConcurrentRBTree<>();
+		} else {
+			List<Long> boundaries = new ArrayList<>();
+			for (int i = 1; i < shards; i++) {
+				boundaries.add((long) keySpace * i / shards);
+			}
+			sharded = new ShardedRBTree<>(boundaries);
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < keySpace / 2; i++) {
+			put((long) random.nextInt(keySpace));
+		}
+	}
+
+	private void put(Long k) {
+		if (concurrent != null) {
+			concurrent.put(k, k);
+		} else {
+			sharded.put(k, k);
+		}
+	}
+
+	private Long remove(Long k) {
+		return concurrent != null ? concurrent.remove(k) : sharded.remove(k);
+	}
+
+	@Benchmark
+	public Long putAndRemove() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		put((long) random.nextInt(keySpace));
+		return remove((long) random.nextInt(keySpace));
+	}
+}
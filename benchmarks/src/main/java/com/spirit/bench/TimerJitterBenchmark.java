@@ -0,0 +1,129 @@
+package com.spirit.bench;
+
+import com.spirit.treemap.DeadlineScheduler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 定时器的调度抖动和取消开销：DeadlineScheduler 与 ScheduledThreadPoolExecutor 的对比
+ * <p>
+ * fire：调度一个delayMicros之后的任务并等它执行完，SampleTime输出的分位数减去delayMicros就是抖动
+ * (包含唤醒等待线程的时间，两种实现相同)。任务直接在定时器线程上执行，只测调度本身。
+ * scheduleAndCancel：调度一个很远的任务再立即取消，ScheduledThreadPoolExecutor打开removeOnCancel，
+ * 否则取消的任务会一直留在堆里。
+ * pending是背景中一小时后才到期的任务数，用来看大量挂起的定时器对两者的影响
+ * <p>
+ * 例：java -jar target/benchmarks.jar TimerJitterBenchmark.fire -p pending=1000000
+ *
+ * @author Spirit
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class TimerJitterBenchmark {
+
+	@Param({"rbtree", "stpe"})
+	public String impl;
+
+	@Param({"0", "1000000"})
+	public int pending;
+
+	@Param({"200", "1000"})
+	public int delayMicros;
+
+	private DeadlineScheduler scheduler;
+	private ScheduledThreadPoolExecutor executor;
+	private Random random;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		random = new Random(24);
+		Runnable noop = new Runnable() {
+			@Override
+			public void run() {
+			}
+		};
+		if (impl.equals("rbtree")) {
+			scheduler = new DeadlineScheduler(new Executor() {
+				@Override
+				public void execute(Runnable command) {
+					command.run();
+				}
+			});
+			for (int i = 0; i < pending; i++) {
+				scheduler.schedule(noop, 3600_000_000L + random.nextInt(1000000), TimeUnit.MICROSECONDS);
+			}
+		} else {
+			executor = new ScheduledThreadPoolExecutor(1);
+			executor.setRemoveOnCancelPolicy(true);
+			for (int i = 0; i < pending; i++) {
+				executor.schedule(noop, 3600_000_000L + random.nextInt(1000000), TimeUnit.MICROSECONDS);
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (scheduler != null) {
+			scheduler.close();
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void fire() throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(1);
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		};
+		if (scheduler != null) {
+			scheduler.schedule(task, delayMicros, TimeUnit.MICROSECONDS);
+		} else {
+			executor.schedule(task, delayMicros, TimeUnit.MICROSECONDS);
+		}
+		done.await();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public boolean scheduleAndCancel() {
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+			}
+		};
+		long delay = 1800_000_000L + random.nextInt(1000000);
+		if (scheduler != null) {
+			return scheduler.schedule(task, delay, TimeUnit.MICROSECONDS).cancel();
+		}
+		ScheduledFuture<?> future = executor.schedule(task, delay, TimeUnit.MICROSECONDS);
+		return future.cancel(false);
+	}
+}
@@ -0,0 +1,114 @@
+package com.spirit.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 红黑树的基准测试：在三种key分布、1K ~ 10M的数据量下，
+ * 对比com.spirit.treemap.RBTree、com.spirit.treemap1.RBTree和java.util.TreeMap
+ * <p>
+ * 负载：
+ * 1、get：按分布查找已存在的key(getNode)
+ * 2、update：对已存在的key执行put，只走查找路径不做平衡
+ * 3、putRemove：插入一个不存在的key再删除它，树的大小保持为size，插入和删除的平衡都会计入
+ * 4、successor：游标沿后继节点前进一步
+ * 5、scan：沿后继节点遍历整棵树，结果是一次完整遍历的耗时
+ * <p>
+ * Throughput给出吞吐量，SampleTime给出延迟的百分位，配合 -prof gc 可以得到每次操作的分配字节数
+ *
+ * @author Spirit
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class TreeBenchmark {
+
+	/**
+	 * 预先生成的查找序列长度，取2的幂便于取模
+	 */
+	private static final int PROBES = 1 << 20;
+
+	private static final long SEED = 42L;
+
+	@Param({"treemap", "treemap1", "jdk"})
+	public String engine;
+
+	@Param({"random", "sequential", "zipfian"})
+	public String distribution;
+
+	@Param({"1000", "10000", "100000", "1000000", "10000000"})
+	public int size;
+
+	private Engine tree;
+	private Long[] keys;
+	private Long[] absentKeys;
+	private int[] probes;
+	private int cursor;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		keys = KeyDistribution.keys(distribution, size, SEED);
+		probes = KeyDistribution.probes(distribution, size, PROBES, SEED + 1);
+
+		// 树里都是偶数key，key + 1一定不存在，并且落在目标key的旁边
+		absentKeys = new Long[size];
+		for (int i = 0; i < size; i++) {
+			absentKeys[i] = keys[i] + 1;
+		}
+
+		tree = Engine.create(engine);
+		for (Long key : keys) {
+			tree.put(key, key);
+		}
+		cursor = 0;
+	}
+
+	private int nextProbe() {
+		return probes[cursor++ & (PROBES - 1)];
+	}
+
+	@Benchmark
+	public Object get() {
+		return tree.get(keys[nextProbe()]);
+	}
+
+	@Benchmark
+	public void update() {
+		Long key = keys[nextProbe()];
+		tree.put(key, key);
+	}
+
+	@Benchmark
+	public Object putRemove() {
+		Long key = absentKeys[nextProbe()];
+		tree.put(key, key);
+		return tree.remove(key);
+	}
+
+	@Benchmark
+	public Object successor() {
+		return tree.advance();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int scan() {
+		return tree.scan();
+	}
+}
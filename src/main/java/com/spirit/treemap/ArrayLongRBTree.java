@@ -0,0 +1,498 @@
+package com.spirit.treemap;
+
+import java.util.Arrays;
+
+/**
+ * 基于数组的红黑树，key为long
+ * <p>
+ * 节点不再是RBNode对象，而是几个并列数组中的同一个下标：
+ * left[i]、right[i]、parent[i]、keys[i]、values[i]，
+ * 颜色存放在parent[i]的最高位，下标0作为空节点(相当于null)
+ * <p>
+ * 删除的节点下标放入空闲链表(借用left[]串起来)，下一次put优先复用，
+ * 所以整棵树只有这几个数组，没有每个节点的对象头，GC需要扫描的对象也只剩values
+ * <p>
+ * 平衡逻辑与{@link RBTree}相同，只是把引用换成了下标
+ *
+ * @author Spirit
+ */
+public class ArrayLongRBTree<V> {
+
+	/**
+	 * 空节点的下标
+	 */
+	public static final int NIL = 0;
+
+	/**
+	 * parent[i]的最高位表示红色，其余位是父节点下标
+	 */
+	private static final int RED_BIT = 0x80000000;
+	private static final int INDEX_MASK = 0x7FFFFFFF;
+
+	private static final boolean RED = true;
+	private static final boolean BLACK = false;
+
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+	private int[] left;
+	private int[] right;
+	private int[] parent;
+	private long[] keys;
+	private Object[] values;
+
+	private int root = NIL;
+	private int size;
+
+	/**
+	 * 下一个从未使用过的下标
+	 */
+	private int next = 1;
+
+	/**
+	 * 空闲链表的头，链表通过left[]串联
+	 */
+	private int free = NIL;
+
+	public ArrayLongRBTree() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public ArrayLongRBTree(int initialCapacity) {
+		if (initialCapacity < 0) {
+			throw new IllegalArgumentException("initialCapacity: " + initialCapacity);
+		}
+		// 下标0留给NIL
+		int capacity = Math.max(initialCapacity, 1) + 1;
+		left = new int[capacity];
+		right = new int[capacity];
+		parent = new int[capacity];
+		keys = new long[capacity];
+		values = new Object[capacity];
+	}
+
+	public int getRoot() {
+		return root;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getK(int node) {
+		return keys[node];
+	}
+
+	@SuppressWarnings("unchecked")
+	public V getV(int node) {
+		return (V) values[node];
+	}
+
+	public void setV(int node, V v) {
+		values[node] = v;
+	}
+
+	public int getLeft(int node) {
+		return left[node];
+	}
+
+	public int getRight(int node) {
+		return right[node];
+	}
+
+	public int getParent(int node) {
+		return parent[node] & INDEX_MASK;
+	}
+
+	public boolean isColor(int node) {
+		return (parent[node] & RED_BIT) != 0;
+	}
+
+	private int parentOf(int node) {
+		return node != NIL ? parent[node] & INDEX_MASK : NIL;
+	}
+
+	private int leftOf(int node) {
+		return node != NIL ? left[node] : NIL;
+	}
+
+	private int rightOf(int node) {
+		return node != NIL ? right[node] : NIL;
+	}
+
+	private boolean colorOf(int node) {
+		return node != NIL ? (parent[node] & RED_BIT) != 0 : BLACK;
+	}
+
+	private void setColor(int node, boolean color) {
+		if (node != NIL) {
+			parent[node] = color ? parent[node] | RED_BIT : parent[node] & INDEX_MASK;
+		}
+	}
+
+	private void setParent(int node, int p) {
+		parent[node] = (parent[node] & RED_BIT) | p;
+	}
+
+	/**
+	 * 分配一个节点下标，优先复用空闲链表
+	 */
+	private int allocate(int p, long k, V v) {
+		int node;
+		if (free != NIL) {
+			node = free;
+			free = left[node];
+		} else {
+			if (next == keys.length) {
+				grow();
+			}
+			node = next++;
+		}
+		left[node] = NIL;
+		right[node] = NIL;
+		// 新节点都是红色
+		parent[node] = p | RED_BIT;
+		keys[node] = k;
+		values[node] = v;
+		size++;
+		return node;
+	}
+
+	private void release(int node) {
+		values[node] = null;
+		right[node] = NIL;
+		parent[node] = NIL;
+		left[node] = free;
+		free = node;
+		size--;
+	}
+
+	private void grow() {
+		int oldCapacity = keys.length;
+		if (oldCapacity >= MAX_CAPACITY) {
+			throw new IllegalStateException("tree is full: " + size);
+		}
+		int newCapacity = (int) Math.min((long) oldCapacity + (oldCapacity >> 1) + 1, MAX_CAPACITY);
+		left = Arrays.copyOf(left, newCapacity);
+		right = Arrays.copyOf(right, newCapacity);
+		parent = Arrays.copyOf(parent, newCapacity);
+		keys = Arrays.copyOf(keys, newCapacity);
+		values = Arrays.copyOf(values, newCapacity);
+	}
+
+	public V remove(long key) {
+		int node = getNode(key);
+		if (node == NIL) {
+			return null;
+		}
+
+		V value = getV(node);
+
+		deleteNode(node);
+		return value;
+	}
+
+
+	/**
+	 * @return key所在的节点下标，不存在返回{@link #NIL}
+	 */
+	public int getNode(long key) {
+		int node = root;
+		long[] keys = this.keys;
+
+		while (node != NIL) {
+			long k = keys[node];
+			if (key < k) {
+				node = left[node];
+			} else if (key > k) {
+				node = right[node];
+			} else {
+				return node;
+			}
+		}
+
+		return NIL;
+	}
+
+
+	/**
+	 * 删除的三种情况，与{@link RBTree#deleteNode}相同，删除的下标回收到空闲链表
+	 *
+	 * @param node
+	 * @author Spirit
+	 */
+	public void deleteNode(int node) {
+		if (left[node] != NIL && right[node] != NIL) {
+			int predecessor = predecessor(node);
+			keys[node] = keys[predecessor];
+			values[node] = values[predecessor];
+			node = predecessor;
+		}
+
+		int replaceNode = left[node] != NIL ? left[node] : right[node];
+		int p = parentOf(node);
+
+		if (replaceNode != NIL) {
+			setParent(replaceNode, p);
+			if (p == NIL) {
+				root = replaceNode;
+			} else if (left[p] == node) {
+				left[p] = replaceNode;
+			} else {
+				right[p] = replaceNode;
+			}
+
+			if (colorOf(node) == BLACK) {
+				fixAfterRemove(replaceNode);
+			}
+		} else if (p == NIL) {
+			root = NIL;
+		} else {
+			// 先调整再删除
+			if (colorOf(node) == BLACK) {
+				fixAfterRemove(node);
+			}
+
+			p = parentOf(node);
+			if (p != NIL) {
+				if (left[p] == node) {
+					left[p] = NIL;
+				} else {
+					right[p] = NIL;
+				}
+			}
+		}
+
+		release(node);
+	}
+
+	private void fixAfterRemove(int node) {
+
+		while (node != root && colorOf(node) == BLACK) {
+			if (leftOf(parentOf(node)) == node) {
+				int rnode = rightOf(parentOf(node));
+				if (colorOf(rnode) == RED) {
+					setColor(parentOf(node), RED);
+					setColor(rnode, BLACK);
+					leftRotate(parentOf(node));
+					rnode = rightOf(parentOf(node));
+				}
+
+				if (colorOf(leftOf(rnode)) == BLACK && colorOf(rightOf(rnode)) == BLACK) {
+					setColor(rnode, RED);
+					node = parentOf(node);
+				} else {
+					if (colorOf(rightOf(rnode)) == BLACK) {
+						setColor(leftOf(rnode), BLACK);
+						setColor(rnode, RED);
+						rightRotate(rnode);
+						rnode = rightOf(parentOf(node));
+					}
+					setColor(rnode, colorOf(parentOf(node)));
+					setColor(parentOf(node), BLACK);
+					setColor(rightOf(rnode), BLACK);
+					leftRotate(parentOf(node));
+					node = root;
+				}
+			} else {
+				int lnode = leftOf(parentOf(node));
+				if (colorOf(lnode) == RED) {
+					setColor(lnode, BLACK);
+					setColor(parentOf(node), RED);
+					rightRotate(parentOf(node));
+					lnode = leftOf(parentOf(node));
+				}
+
+				if (colorOf(leftOf(lnode)) == BLACK && colorOf(rightOf(lnode)) == BLACK) {
+					setColor(lnode, RED);
+					node = parentOf(node);
+				} else {
+					if (colorOf(leftOf(lnode)) == BLACK) {
+						setColor(lnode, RED);
+						setColor(rightOf(lnode), BLACK);
+						leftRotate(lnode);
+						lnode = leftOf(parentOf(node));
+					}
+					setColor(lnode, colorOf(parentOf(node)));
+					setColor(parentOf(node), BLACK);
+					setColor(leftOf(lnode), BLACK);
+					rightRotate(parentOf(node));
+					node = root;
+				}
+			}
+		}
+
+		setColor(node, BLACK);
+	}
+
+
+	/**
+	 * 前驱节点：比当前节点小的最大节点
+	 */
+	public int predecessor(int node) {
+		if (node == NIL) {
+			return NIL;
+		} else if (left[node] != NIL) {
+			int p = left[node];
+			while (right[p] != NIL) {
+				p = right[p];
+			}
+			return p;
+		} else {
+			int p = parentOf(node);
+			int ch = node;
+			while (p != NIL && left[p] == ch) {
+				ch = p;
+				p = parentOf(p);
+			}
+			return p;
+		}
+	}
+
+	/**
+	 * 后继节点：大于当前节点的最小节点
+	 */
+	public int successor(int node) {
+		if (node == NIL) {
+			return NIL;
+		} else if (right[node] != NIL) {
+			int r = right[node];
+			while (left[r] != NIL) {
+				r = left[r];
+			}
+			return r;
+		} else {
+			int p = parentOf(node);
+			int ch = node;
+			while (p != NIL && right[p] == ch) {
+				ch = p;
+				p = parentOf(p);
+			}
+			return p;
+		}
+	}
+
+
+	public void put(long k, V v) {
+
+		int t = root;
+		if (t == NIL) {
+			root = allocate(NIL, k, v);
+			setColor(root, BLACK);
+			return;
+		}
+
+		int p;
+		do {
+			p = t;
+			if (k > keys[t]) {
+				t = right[t];
+			} else if (k < keys[t]) {
+				t = left[t];
+			} else {
+				values[t] = v;
+				return;
+			}
+		} while (t != NIL);
+
+		int e = allocate(p, k, v);
+		if (k > keys[p]) {
+			right[p] = e;
+		} else {
+			left[p] = e;
+		}
+
+		fixAfterPut(e);
+	}
+
+	/**
+	 * 插入后的调整，分类与{@link RBTree}中的fixAfterPut相同
+	 *
+	 * @param x 新插入的节点下标
+	 * @author Spirit
+	 */
+	private void fixAfterPut(int x) {
+
+		setColor(x, RED);
+
+		while (x != NIL && x != root && colorOf(parentOf(x)) == RED) {
+			if (parentOf(x) == leftOf(parentOf(parentOf(x)))) {
+				int uncle = rightOf(parentOf(parentOf(x)));
+				if (colorOf(uncle) == RED) {
+					setColor(uncle, BLACK);
+					setColor(parentOf(x), BLACK);
+					setColor(parentOf(parentOf(x)), RED);
+					x = parentOf(parentOf(x));
+				} else {
+					if (x == rightOf(parentOf(x))) {
+						x = parentOf(x);
+						leftRotate(x);
+					}
+					setColor(parentOf(x), BLACK);
+					setColor(parentOf(parentOf(x)), RED);
+					rightRotate(parentOf(parentOf(x)));
+				}
+			} else {
+				int uncle = leftOf(parentOf(parentOf(x)));
+				if (colorOf(uncle) == RED) {
+					setColor(uncle, BLACK);
+					setColor(parentOf(x), BLACK);
+					setColor(parentOf(parentOf(x)), RED);
+					x = parentOf(parentOf(x));
+				} else {
+					if (x == leftOf(parentOf(x))) {
+						x = parentOf(x);
+						rightRotate(x);
+					}
+					setColor(parentOf(x), BLACK);
+					setColor(parentOf(parentOf(x)), RED);
+					leftRotate(parentOf(parentOf(x)));
+				}
+			}
+		}
+
+		setColor(root, BLACK);
+	}
+
+	private void leftRotate(int p) {
+		if (p != NIL) {
+			int r = right[p];
+			int pp = parentOf(p);
+			right[p] = left[r];
+			if (left[r] != NIL) {
+				setParent(left[r], p);
+			}
+			setParent(r, pp);
+			if (pp == NIL) {
+				root = r;
+			} else if (left[pp] == p) {
+				left[pp] = r;
+			} else {
+				right[pp] = r;
+			}
+			left[r] = p;
+			setParent(p, r);
+		}
+	}
+
+	private void rightRotate(int p) {
+		if (p != NIL) {
+			int l = left[p];
+			int pp = parentOf(p);
+			left[p] = right[l];
+			if (right[l] != NIL) {
+				setParent(right[l], p);
+			}
+			setParent(l, pp);
+			if (pp == NIL) {
+				root = l;
+			} else if (left[pp] == p) {
+				left[pp] = l;
+			} else {
+				right[pp] = l;
+			}
+			right[l] = p;
+			setParent(p, l);
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package com.spirit.treemap;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 线程安全的红黑树，内部是一棵{@link RBTree}加一把StampedLock
+ * <p>
+ * 1、put/remove拿写锁，同一时刻只有一个线程在修改(包括旋转)
+ * 2、get/successorKey/predecessorKey先用乐观读：不加锁直接下降，结束后validate，
+ * 期间没有写操作就直接返回；有写操作则说明可能读到了旋转到一半的父子关系，丢弃结果改用读锁重来
+ * <p>
+ * 乐观读时节点之间的引用可能是不一致的，所以下降的步数有上限(红黑树的高度不会超过2log(n+1))，
+ * 超过上限或者抛出异常都按"被写操作干扰"处理。读线程之间不写任何共享状态，读多写少时可以随核数扩展
+ * <p>
+ * 读方法只返回key和value，不返回RBNode，因为节点在锁外可能随时被修改或删除
+ *
+ * @author Spirit
+ */
+public class ConcurrentRBTree<K extends Comparable<K>, V> {
+
+	/**
+	 * 乐观读下降的最大步数，超过说明读到了不一致的结构
+	 */
+	private static final int MAX_DEPTH = 128;
+
+	/**
+	 * 乐观读时表示"结构不一致"的标记节点
+	 */
+	private static final RBTree.RBNode INCONSISTENT = new RBTree.RBNode();
+
+	private final RBTree<K, V> tree = new RBTree<>();
+	private final StampedLock lock = new StampedLock();
+
+	public void put(K k, V v) {
+		long stamp = lock.writeLock();
+		try {
+			tree.put(k, v);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	public V remove(K key) {
+		long stamp = lock.writeLock();
+		try {
+			return tree.remove(key);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	public V get(K key) {
+		if (key == null) {
+			throw new NullPointerException();
+		}
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				RBTree.RBNode node = find(key);
+				if (node != INCONSISTENT) {
+					V value = node == null ? null : (V) node.getV();
+					if (lock.validate(stamp)) {
+						return value;
+					}
+				}
+			} catch (RuntimeException e) {
+				if (lock.validate(stamp)) {
+					throw e;
+				}
+			}
+		}
+
+		stamp = lock.readLock();
+		try {
+			RBTree.RBNode node = tree.getNode(key);
+			return node == null ? null : (V) node.getV();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	public boolean containsKey(K key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * @return 大于key的最小key，没有返回null
+	 */
+	public K successorKey(K key) {
+		return neighbourKey(key, true);
+	}
+
+	/**
+	 * @return 小于key的最大key，没有返回null
+	 */
+	public K predecessorKey(K key) {
+		return neighbourKey(key, false);
+	}
+
+	private K neighbourKey(K key, boolean successor) {
+		if (key == null) {
+			throw new NullPointerException();
+		}
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				RBTree.RBNode node = neighbour(key, successor);
+				if (node != INCONSISTENT) {
+					K result = node == null ? null : (K) node.getK();
+					if (lock.validate(stamp)) {
+						return result;
+					}
+				}
+			} catch (RuntimeException e) {
+				if (lock.validate(stamp)) {
+					throw e;
+				}
+			}
+		}
+
+		stamp = lock.readLock();
+		try {
+			RBTree.RBNode node = neighbour(key, successor);
+			return node == null ? null : (K) node.getK();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	private RBTree.RBNode find(K key) {
+		RBTree.RBNode node = tree.getRoot();
+		for (int depth = 0; node != null; depth++) {
+			if (depth > MAX_DEPTH) {
+				return INCONSISTENT;
+			}
+			int cmp = key.compareTo((K) node.getK());
+			if (cmp < 0) {
+				node = node.getLeft();
+			} else if (cmp > 0) {
+				node = node.getRight();
+			} else {
+				return node;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 一次下降找到严格大于(或小于)key的最近节点，不依赖parent指针
+	 */
+	private RBTree.RBNode neighbour(K key, boolean successor) {
+		RBTree.RBNode node = tree.getRoot();
+		RBTree.RBNode best = null;
+		for (int depth = 0; node != null; depth++) {
+			if (depth > MAX_DEPTH) {
+				return INCONSISTENT;
+			}
+			int cmp = key.compareTo((K) node.getK());
+			if (successor) {
+				if (cmp < 0) {
+					best = node;
+					node = node.getLeft();
+				} else {
+					node = node.getRight();
+				}
+			} else {
+				if (cmp > 0) {
+					best = node;
+					node = node.getRight();
+				} else {
+					node = node.getLeft();
+				}
+			}
+		}
+		return best;
+	}
+}
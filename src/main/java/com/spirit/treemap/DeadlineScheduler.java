@@ -0,0 +1,273 @@
+package com.spirit.treemap;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 基于{@link RBTree}的定时器：按(截止时间, 序号)排序，
+ * 取消时用插入时拿到的节点句柄直接删除，不需要比较，也不会像堆那样留下已取消的任务
+ * <p>
+ * 一个后台线程等待最小节点(缓存的leftmost，O(1))到期，到期后在锁内从最左边连续摘下一批，
+ * 释放锁后再交给executor执行，任务本身不占用定时器线程。
+ * 截止时间相同的任务按调度的先后执行。
+ * executor默认是ForkJoinPool.commonPool()，Java 21以上可以传入
+ * Executors.newVirtualThreadPerTaskExecutor()让每个任务跑在虚拟线程上
+ * <p>
+ * 等待用Condition.awaitNanos，精度比Object.wait的毫秒高，延迟分布见benchmarks中的TimerJitterBenchmark
+ *
+ * @author Spirit
+ */
+public class DeadlineScheduler implements Closeable {
+
+	/**
+	 * 一次持锁最多摘下的到期任务数，避免大量任务同时到期时长时间挡住调度和取消
+	 */
+	private static final int MAX_BATCH = 1024;
+
+	private final Executor executor;
+
+	/**
+	 * key和value都是Timeout本身(put的value为null时存放key)
+	 */
+	private final RBTree<Timeout, Timeout> timers = new RBTree<>();
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * 最早的截止时间变了，或者关闭了
+	 */
+	private final Condition changed = lock.newCondition();
+	private final Thread timerThread;
+
+	// 以下字段由lock保护
+
+	private long sequence;
+	private boolean closed;
+
+	public DeadlineScheduler() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param executor 执行到期的任务，拒绝执行时任务被丢弃。
+	 *                 在定时器线程上直接执行的executor(比如Runnable::run)中任务抛出的异常交给定时器线程的
+	 *                 UncaughtExceptionHandler，定时器线程继续运行
+	 */
+	public DeadlineScheduler(Executor executor) {
+		if (executor == null) {
+			throw new NullPointerException();
+		}
+		this.executor = executor;
+		timerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runTimer();
+			}
+		}, "deadline-scheduler");
+		timerThread.setDaemon(true);
+		timerThread.start();
+	}
+
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		return scheduleAt(task, System.nanoTime() + unit.toNanos(delay));
+	}
+
+	/**
+	 * O(log n)
+	 *
+	 * @param deadlineNanos 以System.nanoTime()为基准的截止时间，已经过去的时间会尽快执行
+	 * @throws IllegalStateException 已经关闭
+	 */
+	public Timeout scheduleAt(Runnable task, long deadlineNanos) {
+		if (task == null) {
+			throw new NullPointerException();
+		}
+		lock.lock();
+		try {
+			if (closed) {
+				throw new IllegalStateException("closed");
+			}
+			Timeout timeout = new Timeout(task, deadlineNanos, sequence++);
+			timeout.node = timers.putAndGetHandle(timeout, null);
+			// 成为新的最小节点时定时器线程需要重新计算等待时间
+			if (timers.getFirstNode() == timeout.node) {
+				changed.signal();
+			}
+			return timeout;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return 还没有到期也没有取消的任务数
+	 */
+	public int size() {
+		lock.lock();
+		try {
+			return timers.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 停止定时器线程，还没有到期的任务不再执行。已经交给executor的任务不受影响。
+	 * 定时器线程被中断时也会这样关闭。
+	 * 在定时器线程上执行的任务中调用时不等待定时器线程结束，它在任务返回后退出
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			changed.signal();
+		} finally {
+			lock.unlock();
+		}
+		if (Thread.currentThread() == timerThread) {
+			return;
+		}
+		try {
+			timerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void runTimer() {
+		List<Timeout> expired = new ArrayList<>();
+		while (true) {
+			lock.lock();
+			try {
+				while (true) {
+					if (closed) {
+						timers.setRoot(null);
+						return;
+					}
+					RBTree.RBNode first = timers.getFirstNode();
+					if (first == null) {
+						changed.await();
+						continue;
+					}
+					long wait = ((Timeout) first.getK()).deadlineNanos - System.nanoTime();
+					if (wait <= 0) {
+						break;
+					}
+					changed.awaitNanos(wait);
+				}
+
+				// 从最左边连续摘下已经到期的
+				long now = System.nanoTime();
+				RBTree.RBNode first;
+				while (expired.size() < MAX_BATCH && (first = timers.getFirstNode()) != null) {
+					Timeout timeout = (Timeout) first.getK();
+					if (timeout.deadlineNanos - now > 0) {
+						break;
+					}
+					timers.deleteNode(first);
+					timeout.node = null;
+					expired.add(timeout);
+				}
+			} catch (InterruptedException e) {
+				// await抛出时已经重新拿到了锁。线程被中断后没有人再执行任务，与close()一样关闭，
+				// 否则scheduleAt会继续接受永远不会执行的任务，cancel()也会继续返回true
+				closed = true;
+				timers.setRoot(null);
+				return;
+			} finally {
+				lock.unlock();
+			}
+
+			for (Timeout timeout : expired) {
+				try {
+					executor.execute(timeout.task);
+				} catch (RejectedExecutionException e) {
+					// executor已经关闭
+				} catch (Throwable e) {
+					// 任务在本线程上执行时抛出的异常不能让定时器线程退出，否则之后的任务都不会再执行
+					Thread thread = Thread.currentThread();
+					thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+				}
+			}
+			expired.clear();
+		}
+	}
+
+	/**
+	 * 调度返回的句柄
+	 */
+	public final class Timeout implements Comparable<Timeout> {
+
+		private final Runnable task;
+		private final long deadlineNanos;
+		private final long sequence;
+
+		/**
+		 * 在树中的节点，到期摘下或者取消后为null。由lock保护
+		 */
+		private RBTree.RBNode<Timeout, Timeout> node;
+		private boolean cancelled;
+
+		private Timeout(Runnable task, long deadlineNanos, long sequence) {
+			this.task = task;
+			this.deadlineNanos = deadlineNanos;
+			this.sequence = sequence;
+		}
+
+		public long getDeadlineNanos() {
+			return deadlineNanos;
+		}
+
+		/**
+		 * 用节点句柄直接删除，O(log n)，不比较key
+		 *
+		 * @return 取消成功返回true；已经到期、已经取消或者定时器已经关闭返回false
+		 */
+		public boolean cancel() {
+			lock.lock();
+			try {
+				if (node == null || closed) {
+					return false;
+				}
+				// 不需要唤醒定时器线程：取消的是最早的任务时它只是到点白醒一次，再重新看最小节点
+				timers.deleteNode(node);
+				node = null;
+				cancelled = true;
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		public boolean isCancelled() {
+			lock.lock();
+			try {
+				return cancelled;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * 按截止时间排序，System.nanoTime()可能溢出，所以比较差值；相同时按调度的先后
+		 */
+		@Override
+		public int compareTo(Timeout o) {
+			long diff = deadlineNanos - o.deadlineNanos;
+			if (diff != 0) {
+				return diff < 0 ? -1 : 1;
+			}
+			return Long.compare(sequence, o.sequence);
+		}
+	}
+}
@@ -0,0 +1,647 @@
+package com.spirit.treemap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 带预写日志(WAL)的红黑树，数据保存在一个目录中
+ * <p>
+ * put/remove先修改内存中的树，再把一条很小的记录追加到内存缓冲区，然后立即返回；
+ * 后台线程最多等latencyBudget就把缓冲区一次写入日志文件并fsync(组提交)，
+ * 所以崩溃时最多丢失最近latencyBudget内的修改。
+ * 需要同步持久化时在put之后调用{@link #awaitDurable()}，同时等待的多个线程共用一次fsync。
+ * <p>
+ * 日志超过checkpointBytes时做一次检查点：切换到新的日志段wal-N，把整棵树写成快照snapshot-N
+ * (先写临时文件再原子重命名)，然后删掉更早的日志段和快照。
+ * 内存中的树是{@link PersistentRBTree}，每次修改复制O(log n)个节点，
+ * 检查点在锁内只写出缓冲区、切换日志段并取当前版本(O(1))，序列化和fsync在锁外进行，不阻塞读写。
+ * 打开时加载编号最大的快照，再按顺序重放编号不小于它的日志段；
+ * 最后一个日志段末尾写了一半的记录(校验失败)会被截掉。
+ * <p>
+ * 日志记录：[payload长度][payload的CRC32][payload]，payload是操作类型、key，以及put的value，
+ * key和value的编码与{@link RBTreeSnapshot}相同。
+ * 所有方法都是线程安全的，读写都在同一把锁上
+ *
+ * @author Spirit
+ */
+public class DurableRBTree<K extends Comparable<K>, V> implements Closeable {
+
+	private static final byte PUT = 1;
+	private static final byte REMOVE = 2;
+
+	private static final int VALUE_IS_KEY = 0;
+	private static final int VALUE_FOLLOWS = 1;
+
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+	private static final String WAL_PREFIX = "wal-";
+	private static final String TMP_SUFFIX = ".tmp";
+
+	public static final long DEFAULT_LATENCY_BUDGET_MILLIS = 10;
+	public static final long DEFAULT_CHECKPOINT_BYTES = 64L * 1024 * 1024;
+
+	private final File dir;
+	private final SnapshotCodec<K> keyCodec;
+	private final SnapshotCodec<V> valueCodec;
+	private final long latencyBudgetNanos;
+	private final long checkpointBytes;
+
+	// 以下字段由this保护
+
+	private PersistentRBTree<K, V> tree;
+
+	/**
+	 * 编码单条记录用的缓冲区
+	 */
+	private final Buffer record = new Buffer();
+	private final DataOutputStream recordData = new DataOutputStream(record);
+	private final CRC32 crc = new CRC32();
+
+	/**
+	 * 等待写入日志的记录，写入时与spare交换，写入期间追加的记录进入另一个缓冲区
+	 */
+	private Buffer pending = new Buffer();
+	private Buffer spare = new Buffer();
+	private final DataOutputStream pendingData = new DataOutputStream(new OutputStream() {
+		@Override
+		public void write(int b) {
+			pending.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			pending.write(b, off, len);
+		}
+	});
+
+	/**
+	 * 缓冲区中第一条记录的追加时间，缓冲区不为空时才有意义
+	 */
+	private long pendingSince;
+	private long appendedSeq;
+	private long durableSeq;
+	private boolean flushRequested;
+	private boolean closed;
+	private IOException failure;
+
+	/**
+	 * 当前日志段已经写入和等待写入的字节数
+	 */
+	private long segmentBytes;
+
+	/**
+	 * 日志文件的写入、切换都在ioLock上串行，检查点在checkpointLock上串行，
+	 * 加锁顺序总是checkpointLock、ioLock、this
+	 */
+	private final Object checkpointLock = new Object();
+	private final Object ioLock = new Object();
+	private FileChannel channel;
+	private long segment;
+
+	private final Thread flusher;
+
+	private DurableRBTree(File dir, SnapshotCodec<K> keyCodec, SnapshotCodec<V> valueCodec,
+						  long latencyBudgetMillis, long checkpointBytes) throws IOException {
+		this.dir = dir;
+		this.keyCodec = keyCodec;
+		this.valueCodec = valueCodec;
+		this.latencyBudgetNanos = TimeUnit.MILLISECONDS.toNanos(latencyBudgetMillis);
+		this.checkpointBytes = checkpointBytes;
+		this.tree = recover();
+
+		flusher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				flushLoop();
+			}
+		}, "rbtree-wal-" + dir.getName());
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	public static <K extends Comparable<K>, V> DurableRBTree<K, V> open(File dir, SnapshotCodec<K> keyCodec,
+																		 SnapshotCodec<V> valueCodec) throws IOException {
+		return open(dir, keyCodec, valueCodec, DEFAULT_LATENCY_BUDGET_MILLIS, DEFAULT_CHECKPOINT_BYTES);
+	}
+
+	/**
+	 * 打开(或创建)目录中的树，加载快照并重放日志
+	 *
+	 * @param latencyBudgetMillis 一条记录最多在内存中等待多久就会被fsync，也就是崩溃时可能丢失的时间窗口
+	 * @param checkpointBytes     当前日志段超过这个大小时做检查点
+	 * @throws IOException 快照或者不是最后一个的日志段损坏
+	 */
+	public static <K extends Comparable<K>, V> DurableRBTree<K, V> open(File dir, SnapshotCodec<K> keyCodec, SnapshotCodec<V> valueCodec,
+																		 long latencyBudgetMillis, long checkpointBytes) throws IOException {
+		if (latencyBudgetMillis < 0 || checkpointBytes <= 0) {
+			throw new IllegalArgumentException("latencyBudgetMillis: " + latencyBudgetMillis + ", checkpointBytes: " + checkpointBytes);
+		}
+		return new DurableRBTree<>(dir, keyCodec, valueCodec, latencyBudgetMillis, checkpointBytes);
+	}
+
+	// ---------------- 读写 ----------------
+
+	public synchronized V get(K key) {
+		return tree.get(key);
+	}
+
+	public synchronized boolean containsKey(K key) {
+		return tree.getNode(key) != null;
+	}
+
+	public synchronized int size() {
+		return tree.size();
+	}
+
+	/**
+	 * 修改内存中的树并追加日志记录，不等待fsync
+	 */
+	public synchronized void put(K k, V v) {
+		if (k == null) {
+			throw new NullPointerException();
+		}
+		checkOpen();
+		// 先编码，编码失败时树不受影响
+		encode(PUT, k, v);
+		// 与RBTree的put(k, null)一样存放key，快照据此只写一个标记
+		tree = tree.put(k, v != null ? v : (V) k);
+		append();
+	}
+
+	/**
+	 * @return 被删除的value，key不存在时返回null并且不写日志
+	 */
+	public synchronized V remove(K k) {
+		checkOpen();
+		encode(REMOVE, k, null);
+		PersistentRBTree.Node<K, V> node = tree.getNode(k);
+		if (node == null) {
+			return null;
+		}
+		tree = tree.remove(k);
+		append();
+		return node.getV();
+	}
+
+	private void encode(byte type, K k, V v) {
+		record.reset();
+		try {
+			recordData.writeByte(type);
+			keyCodec.write(null, k, recordData);
+			if (type == PUT) {
+				if (v == null) {
+					recordData.writeByte(VALUE_IS_KEY);
+				} else {
+					recordData.writeByte(VALUE_FOLLOWS);
+					valueCodec.write(null, v, recordData);
+				}
+			}
+		} catch (IOException e) {
+			// 写内存缓冲区不会有IO异常，只可能是codec自己抛出的
+			throw new IllegalArgumentException("failed to encode " + k, e);
+		}
+	}
+
+	private void append() {
+		crc.reset();
+		crc.update(record.array(), 0, record.size());
+		try {
+			pendingData.writeInt(record.size());
+			pendingData.writeInt((int) crc.getValue());
+			pendingData.write(record.array(), 0, record.size());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		segmentBytes += 8 + record.size();
+		appendedSeq++;
+		if (pending.size() == 8 + record.size()) {
+			// 缓冲区中的第一条记录，通知后台线程开始计时
+			pendingSince = System.nanoTime();
+			notifyAll();
+		}
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("closed");
+		}
+		if (failure != null) {
+			throw new IllegalStateException("write-ahead log failed", failure);
+		}
+	}
+
+	// ---------------- 组提交 ----------------
+
+	/**
+	 * 等待到目前为止的所有修改都已经fsync，最多等待latencyBudget加上一次fsync的时间
+	 *
+	 * @throws IOException 写日志失败
+	 */
+	public synchronized void awaitDurable() throws IOException {
+		long target = appendedSeq;
+		while (durableSeq < target) {
+			if (failure != null) {
+				throw new IOException("write-ahead log failed", failure);
+			}
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+	}
+
+	/**
+	 * 不等latencyBudget，立即把缓冲区写入日志并fsync
+	 */
+	public void sync() throws IOException {
+		synchronized (this) {
+			flushRequested = true;
+			notifyAll();
+		}
+		awaitDurable();
+	}
+
+	private void flushLoop() {
+		while (true) {
+			synchronized (this) {
+				try {
+					while (!closed && !flushRequested) {
+						if (pending.size() == 0) {
+							wait();
+							continue;
+						}
+						long remaining = pendingSince + latencyBudgetNanos - System.nanoTime();
+						if (remaining <= 0) {
+							break;
+						}
+						TimeUnit.NANOSECONDS.timedWait(this, remaining);
+					}
+				} catch (InterruptedException e) {
+					// 没有线程再写日志了：之后的写操作和awaitDurable都会失败，而不是一直等下去
+					fail(new InterruptedIOException("write-ahead log flusher interrupted"));
+					return;
+				}
+				if (closed) {
+					// close()自己做最后一次写入
+					return;
+				}
+			}
+			flush();
+
+			boolean checkpoint;
+			synchronized (this) {
+				checkpoint = segmentBytes > checkpointBytes && failure == null && !closed;
+			}
+			if (checkpoint) {
+				try {
+					checkpoint();
+				} catch (IOException e) {
+					fail(e);
+				} catch (IllegalStateException e) {
+					// 检查点之前已经被关闭或者写日志失败
+				}
+			}
+		}
+	}
+
+	/**
+	 * 交换缓冲区后在锁外写文件，写入期间put/remove不会被阻塞
+	 */
+	private void flush() {
+		synchronized (ioLock) {
+			Buffer batch;
+			long target;
+			synchronized (this) {
+				flushRequested = false;
+				if (pending.size() == 0) {
+					return;
+				}
+				batch = pending;
+				pending = spare;
+				spare = null;
+				target = appendedSeq;
+			}
+			try {
+				write(batch);
+			} catch (IOException e) {
+				fail(e);
+				return;
+			}
+			synchronized (this) {
+				batch.reset();
+				spare = batch;
+				durableSeq = target;
+				notifyAll();
+			}
+		}
+	}
+
+	private void write(Buffer batch) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(batch.array(), 0, batch.size());
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		channel.force(false);
+	}
+
+	private synchronized void fail(IOException e) {
+		if (failure == null) {
+			failure = e;
+		}
+		notifyAll();
+	}
+
+	// ---------------- 检查点 ----------------
+
+	/**
+	 * 切换日志段并把整棵树写成快照，然后删除旧的日志段和快照。
+	 * 锁内只写出缓冲区、切换日志段、取当前版本，写快照期间读写和组提交都不受影响
+	 */
+	public void checkpoint() throws IOException {
+		synchronized (checkpointLock) {
+			long next;
+			PersistentRBTree<K, V> view;
+			synchronized (ioLock) {
+				synchronized (this) {
+					checkOpen();
+					// 缓冲区中剩下的记录写入当前日志段
+					if (pending.size() > 0) {
+						write(pending);
+						pending.reset();
+					}
+					durableSeq = appendedSeq;
+					notifyAll();
+
+					next = segment + 1;
+					FileChannel newChannel = openSegment(next);
+					channel.close();
+					channel = newChannel;
+					segment = next;
+					segmentBytes = 0;
+
+					// 快照包含日志段next之前的全部修改，之后的修改只会生成新版本
+					view = tree;
+				}
+			}
+
+			File tmp = new File(dir, SNAPSHOT_PREFIX + next + TMP_SUFFIX);
+			try {
+				try (FileOutputStream out = new FileOutputStream(tmp)) {
+					BufferedOutputStream buffered = new BufferedOutputStream(out, 1 << 16);
+					RBTreeSnapshot.write(view, buffered, keyCodec, valueCodec);
+					buffered.flush();
+					out.getFD().sync();
+				}
+				Files.move(tmp.toPath(), new File(dir, SNAPSHOT_PREFIX + next).toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException | RuntimeException e) {
+				// 写了一半的快照不能用，旧的快照和日志段都还在
+				tmp.delete();
+				throw e;
+			}
+			syncDirectory();
+			deleteOlderThan(next);
+		}
+	}
+
+	private FileChannel openSegment(long index) throws IOException {
+		FileChannel ch = FileChannel.open(new File(dir, WAL_PREFIX + index).toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		ch.position(ch.size());
+		return ch;
+	}
+
+	/**
+	 * 让重命名和新建的文件本身落盘，不支持的平台上忽略
+	 */
+	private void syncDirectory() {
+		try (FileChannel ch = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+			ch.force(true);
+		} catch (IOException ignored) {
+			// 例如Windows上不能打开目录
+		}
+	}
+
+	private void deleteOlderThan(long index) {
+		for (long i : list(SNAPSHOT_PREFIX)) {
+			if (i < index) {
+				new File(dir, SNAPSHOT_PREFIX + i).delete();
+			}
+		}
+		for (long i : list(WAL_PREFIX)) {
+			if (i < index) {
+				new File(dir, WAL_PREFIX + i).delete();
+			}
+		}
+	}
+
+	/**
+	 * @return 目录中prefix-N文件的编号，升序
+	 */
+	private List<Long> list(String prefix) {
+		List<Long> result = new ArrayList<>();
+		String[] names = dir.list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.startsWith(prefix) && !name.endsWith(TMP_SUFFIX)) {
+					try {
+						result.add(Long.parseLong(name.substring(prefix.length())));
+					} catch (NumberFormatException ignored) {
+						// 不是我们的文件
+					}
+				}
+			}
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	// ---------------- 恢复 ----------------
+
+	private PersistentRBTree<K, V> recover() throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("cannot create directory: " + dir);
+		}
+		String[] names = dir.list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.endsWith(TMP_SUFFIX)) {
+					// 没有写完的快照
+					new File(dir, name).delete();
+				}
+			}
+		}
+
+		List<Long> snapshots = list(SNAPSHOT_PREFIX);
+		long base = snapshots.isEmpty() ? 0 : snapshots.get(snapshots.size() - 1);
+		PersistentRBTree<K, V> recovered;
+		if (snapshots.isEmpty()) {
+			recovered = PersistentRBTree.empty();
+		} else {
+			try (InputStream in = new BufferedInputStream(new FileInputStream(new File(dir, SNAPSHOT_PREFIX + base)), 1 << 16)) {
+				recovered = RBTreeSnapshot.readPersistent(in, keyCodec, valueCodec);
+			}
+		}
+
+		List<Long> segments = new ArrayList<>();
+		for (long i : list(WAL_PREFIX)) {
+			if (i >= base) {
+				segments.add(i);
+			}
+		}
+		for (int i = 0; i < segments.size(); i++) {
+			recovered = replay(recovered, segments.get(i), i == segments.size() - 1);
+		}
+
+		segment = segments.isEmpty() ? base : segments.get(segments.size() - 1);
+		channel = openSegment(segment);
+		segmentBytes = channel.size();
+		deleteOlderThan(base);
+		return recovered;
+	}
+
+	/**
+	 * 重放一个日志段。最后一个日志段遇到不完整或校验失败的记录时截断到上一条完整记录为止
+	 *
+	 * @return 重放之后的版本
+	 */
+	private PersistentRBTree<K, V> replay(PersistentRBTree<K, V> target, long index, boolean last) throws IOException {
+		File file = new File(dir, WAL_PREFIX + index);
+		long length = file.length();
+		long valid = 0;
+		boolean torn = false;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			CRC32 check = new CRC32();
+			byte[] payload = new byte[256];
+			while (valid < length) {
+				int size;
+				int expectedCrc;
+				try {
+					size = in.readInt();
+					expectedCrc = in.readInt();
+					if (size <= 0 || valid + 8 + size > length) {
+						torn = true;
+						break;
+					}
+					if (payload.length < size) {
+						payload = new byte[size];
+					}
+					in.readFully(payload, 0, size);
+				} catch (EOFException e) {
+					torn = true;
+					break;
+				}
+				check.reset();
+				check.update(payload, 0, size);
+				if ((int) check.getValue() != expectedCrc) {
+					torn = true;
+					break;
+				}
+				target = apply(target, new DataInputStream(new ByteArrayInputStream(payload, 0, size)));
+				valid += 8 + size;
+			}
+		}
+		if (torn) {
+			if (!last) {
+				throw new IOException("corrupted write-ahead log segment: " + file + " at " + valid);
+			}
+			try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+				ch.truncate(valid);
+				ch.force(true);
+			}
+		}
+		return target;
+	}
+
+	private PersistentRBTree<K, V> apply(PersistentRBTree<K, V> target, DataInputStream in) throws IOException {
+		int type = in.readUnsignedByte();
+		K k = keyCodec.read(null, in);
+		if (type == PUT) {
+			int marker = in.readUnsignedByte();
+			if (marker == VALUE_IS_KEY) {
+				return target.put(k, (V) k);
+			} else if (marker == VALUE_FOLLOWS) {
+				return target.put(k, valueCodec.read(null, in));
+			} else {
+				throw new IOException("corrupted write-ahead log: bad value marker " + marker);
+			}
+		} else if (type == REMOVE) {
+			return target.remove(k);
+		} else {
+			throw new IOException("corrupted write-ahead log: bad record type " + type);
+		}
+	}
+
+	// ---------------- 关闭 ----------------
+
+	/**
+	 * 写入缓冲区中剩下的记录后关闭日志文件，不做检查点
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			notifyAll();
+		}
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		synchronized (ioLock) {
+			synchronized (this) {
+				try {
+					if (pending.size() > 0 && failure == null) {
+						write(pending);
+						pending.reset();
+						durableSeq = appendedSeq;
+					}
+				} finally {
+					notifyAll();
+					channel.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * 可以直接拿到内部数组的ByteArrayOutputStream
+	 */
+	private static final class Buffer extends ByteArrayOutputStream {
+
+		Buffer() {
+			super(4096);
+		}
+
+		byte[] array() {
+			return buf;
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package com.spirit.treemap;
+
+/**
+ * 遍历回调，直接拿到key和value，不创建Map.Entry
+ *
+ * @author Spirit
+ */
+public interface EntryVisitor<K, V> {
+
+	/**
+	 * @return false表示提前结束遍历
+	 */
+	boolean visit(K k, V v);
+}
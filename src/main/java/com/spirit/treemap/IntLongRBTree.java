@@ -0,0 +1,427 @@
+package com.spirit.treemap;
+
+/**
+ * key为int、value为long的红黑树，API与{@link RBTree}保持一致
+ * <p>
+ * key和value直接存放在节点的int/long字段里，比较用 &lt; 和 &gt;，
+ * 省掉了key和value的装箱对象和每一步compareTo的虚调用
+ *
+ * @author Spirit
+ */
+public class IntLongRBTree {
+
+	private static final boolean RED = true;
+	private static final boolean BLACK = false;
+
+	/**
+	 * remove()找不到key时的返回值
+	 */
+	private final long missingValue;
+
+	private RBNode root;
+
+	public IntLongRBTree() {
+		this(0L);
+	}
+
+	public IntLongRBTree(long missingValue) {
+		this.missingValue = missingValue;
+	}
+
+	public long getMissingValue() {
+		return missingValue;
+	}
+
+	public RBNode getRoot() {
+		return root;
+	}
+
+	public static class RBNode {
+
+		private RBNode parent;
+		private RBNode left;
+		private RBNode right;
+
+		private boolean color;
+		private int k;
+		private long v;
+
+		public RBNode(RBNode parent, int k, long v) {
+			this.parent = parent;
+			this.k = k;
+			this.v = v;
+		}
+
+		public RBNode getParent() {
+			return parent;
+		}
+
+		public RBNode getLeft() {
+			return left;
+		}
+
+		public RBNode getRight() {
+			return right;
+		}
+
+		public boolean isColor() {
+			return color;
+		}
+
+		public int getK() {
+			return k;
+		}
+
+		public long getV() {
+			return v;
+		}
+
+		public void setV(long v) {
+			this.v = v;
+		}
+
+		@Override
+		public String toString() {
+			return "RBNode{" +
+					" left=" + left +
+					", right=" + right +
+					", color=" + color +
+					", k=" + k +
+					", v=" + v +
+					'}';
+		}
+	}
+
+
+	private static RBNode parentOf(RBNode node) {
+		return node != null ? node.parent : null;
+	}
+
+	private static RBNode leftOf(RBNode node) {
+		return node != null ? node.left : null;
+	}
+
+	private static RBNode rightOf(RBNode node) {
+		return node != null ? node.right : null;
+	}
+
+	private static boolean colorOf(RBNode node) {
+		return node != null ? node.color : BLACK;
+	}
+
+	private static void setColor(RBNode node, boolean color) {
+		if (node != null) {
+			node.color = color;
+		}
+	}
+
+	public long remove(int key) {
+		RBNode node = getNode(key);
+		if (node == null) {
+			return missingValue;
+		}
+
+		long value = node.v;
+
+		deleteNode(node);
+		return value;
+	}
+
+
+	public RBNode getNode(int key) {
+		RBNode node = this.root;
+
+		while (node != null) {
+			if (key < node.k) {
+				node = node.left;
+			} else if (key > node.k) {
+				node = node.right;
+			} else {
+				return node;
+			}
+		}
+
+		return null;
+	}
+
+
+	/**
+	 * 删除的三种情况，与{@link RBTree#deleteNode}相同：
+	 * 1、直接删除叶子节点
+	 * 2、删除的节点只有一个子节点，用子节点代替
+	 * 3、删除节点有两个子节点，用前驱节点替换，从而转为 情况1或者情况2
+	 *
+	 * @param node
+	 * @author Spirit
+	 */
+	public void deleteNode(RBNode node) {
+		if (node.left != null && node.right != null) {
+			RBNode predecessor = predecessor(node);
+			node.k = predecessor.k;
+			node.v = predecessor.v;
+			node = predecessor;
+		}
+
+		RBNode replaceNode = node.left != null ? node.left : node.right;
+
+		if (replaceNode != null) {
+			replaceNode.parent = node.parent;
+			if (node.parent == null) {
+				root = replaceNode;
+			} else if (node.parent.left == node) {
+				node.parent.left = replaceNode;
+			} else {
+				node.parent.right = replaceNode;
+			}
+			node.parent = node.left = node.right = null;
+
+			if (node.color == BLACK) {
+				fixAfterRemove(replaceNode);
+			}
+		} else if (node.parent == null) {
+			root = null;
+		} else {
+			// 先调整再删除
+			if (node.color == BLACK) {
+				fixAfterRemove(node);
+			}
+
+			if (node.parent != null) {
+				if (node.parent.left == node) {
+					node.parent.left = null;
+				} else {
+					node.parent.right = null;
+				}
+				node.parent = null;
+			}
+		}
+	}
+
+	private void fixAfterRemove(RBNode node) {
+
+		while (node != root && node.color == BLACK) {
+			if (leftOf(parentOf(node)) == node) {
+				RBNode rnode = rightOf(parentOf(node));
+				if (colorOf(rnode) == RED) {
+					setColor(parentOf(node), RED);
+					setColor(rnode, BLACK);
+					leftRotate(parentOf(node));
+					rnode = rightOf(parentOf(node));
+				}
+
+				if (colorOf(leftOf(rnode)) == BLACK && colorOf(rightOf(rnode)) == BLACK) {
+					setColor(rnode, RED);
+					node = parentOf(node);
+				} else {
+					if (colorOf(rightOf(rnode)) == BLACK) {
+						setColor(leftOf(rnode), BLACK);
+						setColor(rnode, RED);
+						rightRotate(rnode);
+						rnode = rightOf(parentOf(node));
+					}
+					setColor(rnode, colorOf(parentOf(node)));
+					setColor(parentOf(node), BLACK);
+					setColor(rightOf(rnode), BLACK);
+					leftRotate(parentOf(node));
+					node = root;
+				}
+			} else {
+				RBNode lnode = leftOf(parentOf(node));
+				if (colorOf(lnode) == RED) {
+					setColor(lnode, BLACK);
+					setColor(parentOf(node), RED);
+					rightRotate(parentOf(node));
+					lnode = leftOf(parentOf(node));
+				}
+
+				if (colorOf(leftOf(lnode)) == BLACK && colorOf(rightOf(lnode)) == BLACK) {
+					setColor(lnode, RED);
+					node = parentOf(node);
+				} else {
+					if (colorOf(leftOf(lnode)) == BLACK) {
+						setColor(lnode, RED);
+						setColor(rightOf(lnode), BLACK);
+						leftRotate(lnode);
+						lnode = leftOf(parentOf(node));
+					}
+					setColor(lnode, colorOf(parentOf(node)));
+					setColor(parentOf(node), BLACK);
+					setColor(leftOf(lnode), BLACK);
+					rightRotate(parentOf(node));
+					node = root;
+				}
+			}
+		}
+
+		setColor(node, BLACK);
+	}
+
+
+	/**
+	 * 前驱节点：比当前节点小的最大节点
+	 */
+	public RBNode predecessor(RBNode node) {
+		if (node == null) {
+			return null;
+		} else if (node.left != null) {
+			RBNode p = node.left;
+			while (p.right != null) {
+				p = p.right;
+			}
+			return p;
+		} else {
+			RBNode p = node.parent;
+			RBNode ch = node;
+			while (p != null && p.left == ch) {
+				ch = p;
+				p = p.parent;
+			}
+			return p;
+		}
+	}
+
+	/**
+	 * 后继节点：大于当前节点的最小节点
+	 */
+	public RBNode successor(RBNode node) {
+		if (node == null) {
+			return null;
+		} else if (node.right != null) {
+			RBNode r = node.right;
+			while (r.left != null) {
+				r = r.left;
+			}
+			return r;
+		} else {
+			RBNode p = node.parent;
+			RBNode ch = node;
+			while (p != null && p.right == ch) {
+				ch = p;
+				p = p.parent;
+			}
+			return p;
+		}
+	}
+
+
+	public void put(int k, long v) {
+
+		RBNode t = root;
+		if (t == null) {
+			root = new RBNode(null, k, v);
+			root.color = BLACK;
+			return;
+		}
+
+		RBNode parent;
+		do {
+			parent = t;
+			if (k > t.k) {
+				t = t.right;
+			} else if (k < t.k) {
+				t = t.left;
+			} else {
+				t.v = v;
+				return;
+			}
+		} while (t != null);
+
+		RBNode e = new RBNode(parent, k, v);
+		if (k > parent.k) {
+			parent.right = e;
+		} else {
+			parent.left = e;
+		}
+
+		fixAfterPut(e);
+	}
+
+	/**
+	 * 插入后的调整，分类与{@link RBTree}中的fixAfterPut相同
+	 *
+	 * @param x 新插入的节点
+	 * @author Spirit
+	 */
+	private void fixAfterPut(RBNode x) {
+
+		setColor(x, RED);
+
+		while (x != null && x != root && parentOf(x).color == RED) {
+			if (parentOf(x) == leftOf(parentOf(parentOf(x)))) {
+				RBNode uncle = rightOf(parentOf(parentOf(x)));
+				if (colorOf(uncle) == RED) {
+					setColor(uncle, BLACK);
+					setColor(parentOf(x), BLACK);
+					setColor(parentOf(parentOf(x)), RED);
+					x = parentOf(parentOf(x));
+				} else {
+					if (x == rightOf(parentOf(x))) {
+						x = parentOf(x);
+						leftRotate(x);
+					}
+					setColor(parentOf(x), BLACK);
+					setColor(parentOf(parentOf(x)), RED);
+					rightRotate(parentOf(parentOf(x)));
+				}
+			} else {
+				RBNode uncle = leftOf(parentOf(parentOf(x)));
+				if (colorOf(uncle) == RED) {
+					setColor(uncle, BLACK);
+					setColor(parentOf(x), BLACK);
+					setColor(parentOf(parentOf(x)), RED);
+					x = parentOf(parentOf(x));
+				} else {
+					if (x == leftOf(parentOf(x))) {
+						x = parentOf(x);
+						rightRotate(x);
+					}
+					setColor(parentOf(x), BLACK);
+					setColor(parentOf(parentOf(x)), RED);
+					leftRotate(parentOf(parentOf(x)));
+				}
+			}
+		}
+
+		setColor(root, BLACK);
+	}
+
+	private void leftRotate(RBNode p) {
+		if (p != null) {
+			RBNode r = p.right;
+			p.right = r.left;
+			if (r.left != null) {
+				r.left.parent = p;
+			}
+			r.parent = p.parent;
+			if (p.parent == null) {
+				root = r;
+			} else if (p.parent.left == p) {
+				p.parent.left = r;
+			} else {
+				p.parent.right = r;
+			}
+			r.left = p;
+			p.parent = r;
+		}
+	}
+
+	private void rightRotate(RBNode p) {
+		if (p != null) {
+			RBNode l = p.left;
+			p.left = l.right;
+			if (l.right != null) {
+				l.right.parent = p;
+			}
+			l.parent = p.parent;
+			if (p.parent == null) {
+				root = l;
+			} else if (p.parent.left == p) {
+				p.parent.left = l;
+			} else {
+				p.parent.right = l;
+			}
+			l.right = p;
+			p.parent = l;
+		}
+	}
+}
@@ -0,0 +1,577 @@
+package com.spirit.treemap;
+
+/**
+ * 区间树：以红黑树为基础，存放左闭右开的区间[start, end)
+ * <p>
+ * 节点按(start, end)排序，相同的区间只保存一份。
+ * 每个节点额外记录子树中所有区间end的最大值maxEnd，查询时据此剪掉不可能相交的子树：
+ * 左子树的maxEnd不超过查询的下界，整个左子树都不用看；
+ * 中序遍历到start超过查询上界的节点，后面的节点也都不用看。
+ * maxEnd在插入、删除和旋转时维护，调整颜色的逻辑与{@link RBTree}相同
+ *
+ * @author Spirit
+ */
+public class IntervalRBTree<K extends Comparable<K>, V> {
+
+	private static final boolean RED = true;
+	private static final boolean BLACK = false;
+
+	private RBNode<K, V> root;
+
+	private int size;
+
+	public RBNode<K, V> getRoot() {
+		return root;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public static class RBNode<K extends Comparable<K>, V> {
+
+		private RBNode<K, V> parent;
+		private RBNode<K, V> left;
+		private RBNode<K, V> right;
+
+		private boolean color;
+		private K start;
+		private K end;
+		private V v;
+
+		/**
+		 * 子树中最大的end，删除过程中暂时为null表示该节点不再计入
+		 */
+		private K maxEnd;
+
+		public RBNode(RBNode<K, V> parent, K start, K end, V v) {
+			this.parent = parent;
+			this.start = start;
+			this.end = end;
+			this.v = v;
+			this.maxEnd = end;
+		}
+
+		public RBNode<K, V> getParent() {
+			return parent;
+		}
+
+		public RBNode<K, V> getLeft() {
+			return left;
+		}
+
+		public RBNode<K, V> getRight() {
+			return right;
+		}
+
+		public boolean isColor() {
+			return color;
+		}
+
+		public K getStart() {
+			return start;
+		}
+
+		public K getEnd() {
+			return end;
+		}
+
+		public K getMaxEnd() {
+			return maxEnd;
+		}
+
+		public V getV() {
+			return v;
+		}
+
+		public void setV(V v) {
+			this.v = v;
+		}
+
+		@Override
+		public String toString() {
+			return "RBNode{" +
+					" left=" + left +
+					", right=" + right +
+					", color=" + color +
+					", start=" + start +
+					", end=" + end +
+					", maxEnd=" + maxEnd +
+					", v=" + v +
+					'}';
+		}
+	}
+
+
+	private static <K extends Comparable<K>, V> RBNode<K, V> parentOf(RBNode<K, V> node) {
+		return node != null ? node.parent : null;
+	}
+
+	private static <K extends Comparable<K>, V> RBNode<K, V> leftOf(RBNode<K, V> node) {
+		return node != null ? node.left : null;
+	}
+
+	private static <K extends Comparable<K>, V> RBNode<K, V> rightOf(RBNode<K, V> node) {
+		return node != null ? node.right : null;
+	}
+
+	private static <K extends Comparable<K>, V> boolean colorOf(RBNode<K, V> node) {
+		return node != null ? node.color : BLACK;
+	}
+
+	private static <K extends Comparable<K>, V> void setColor(RBNode<K, V> node, boolean color) {
+		if (node != null) {
+			node.color = color;
+		}
+	}
+
+	private static <K extends Comparable<K>> K max(K a, K b) {
+		if (a == null) {
+			return b;
+		}
+		if (b == null) {
+			return a;
+		}
+		return a.compareTo(b) >= 0 ? a : b;
+	}
+
+	/**
+	 * 根据自己的end和两个子节点的maxEnd重新计算maxEnd
+	 */
+	private static <K extends Comparable<K>, V> void updateMaxEnd(RBNode<K, V> node) {
+		K m = node.end;
+		if (node.left != null) {
+			m = max(m, node.left.maxEnd);
+		}
+		if (node.right != null) {
+			m = max(m, node.right.maxEnd);
+		}
+		node.maxEnd = m;
+	}
+
+	/**
+	 * 从node到根依次重新计算maxEnd
+	 */
+	private static <K extends Comparable<K>, V> void updateMaxEndUpward(RBNode<K, V> node) {
+		for (; node != null; node = node.parent) {
+			updateMaxEnd(node);
+		}
+	}
+
+	private static <K extends Comparable<K>, V> int compare(K start, K end, RBNode<K, V> node) {
+		int cmp = start.compareTo(node.start);
+		return cmp != 0 ? cmp : end.compareTo(node.end);
+	}
+
+
+	public RBNode<K, V> getNode(K start, K end) {
+		RBNode<K, V> node = this.root;
+
+		while (node != null) {
+			int cmp = compare(start, end, node);
+			if (cmp < 0) {
+				node = node.left;
+			} else if (cmp > 0) {
+				node = node.right;
+			} else {
+				return node;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * 插入区间[start, end)，区间已经存在时替换value
+	 *
+	 * @throws IllegalArgumentException start不小于end
+	 */
+	public void put(K start, K end, V v) {
+		if (start == null || end == null) {
+			throw new NullPointerException();
+		}
+		if (start.compareTo(end) >= 0) {
+			throw new IllegalArgumentException("empty interval: [" + start + ", " + end + ")");
+		}
+
+		RBNode<K, V> t = root;
+		if (t == null) {
+			root = new RBNode<>(null, start, end, v);
+			root.color = BLACK;
+			size = 1;
+			return;
+		}
+
+		RBNode<K, V> parent;
+		int cmp;
+		do {
+			parent = t;
+			cmp = compare(start, end, t);
+			if (cmp > 0) {
+				t = t.right;
+			} else if (cmp < 0) {
+				t = t.left;
+			} else {
+				t.v = v;
+				return;
+			}
+		} while (t != null);
+
+		RBNode<K, V> e = new RBNode<>(parent, start, end, v);
+		if (cmp > 0) {
+			parent.right = e;
+		} else {
+			parent.left = e;
+		}
+		size++;
+
+		// 新区间只会让祖先的maxEnd变大，遇到不需要变的祖先就可以停下
+		for (RBNode<K, V> p = parent; p != null && p.maxEnd.compareTo(end) < 0; p = p.parent) {
+			p.maxEnd = end;
+		}
+
+		fixAfterPut(e);
+	}
+
+	public V remove(K start, K end) {
+		RBNode<K, V> node = getNode(start, end);
+		if (node == null) {
+			return null;
+		}
+
+		V value = node.v;
+
+		deleteNode(node);
+		return value;
+	}
+
+	/**
+	 * 删除的三种情况，与{@link RBTree#deleteNode}相同，另外维护maxEnd：
+	 * 被摘除节点的祖先在调整之前先重新计算，调整中的旋转自己维护旋转的两个节点
+	 *
+	 * @param node
+	 * @author Spirit
+	 */
+	public void deleteNode(RBNode<K, V> node) {
+		if (node.left != null && node.right != null) {
+			RBNode<K, V> predecessor = predecessor(node);
+			node.start = predecessor.start;
+			node.end = predecessor.end;
+			node.v = predecessor.v;
+			// node在predecessor的祖先中，下面从predecessor向上重新计算时会覆盖到
+			node = predecessor;
+		}
+		size--;
+
+		RBNode<K, V> replaceNode = node.left != null ? node.left : node.right;
+
+		if (replaceNode != null) {
+			replaceNode.parent = node.parent;
+			if (node.parent == null) {
+				root = replaceNode;
+			} else if (node.parent.left == node) {
+				node.parent.left = replaceNode;
+			} else {
+				node.parent.right = replaceNode;
+			}
+			node.parent = node.left = node.right = null;
+			updateMaxEndUpward(replaceNode.parent);
+
+			if (node.color == BLACK) {
+				fixAfterRemove(replaceNode);
+			}
+		} else if (node.parent == null) {
+			root = null;
+		} else {
+			// 先调整再删除，调整过程中node还挂在树上，maxEnd置为null让它不再被计入
+			node.maxEnd = null;
+			updateMaxEndUpward(node.parent);
+			if (node.color == BLACK) {
+				fixAfterRemove(node);
+			}
+
+			if (node.parent != null) {
+				if (node.parent.left == node) {
+					node.parent.left = null;
+				} else {
+					node.parent.right = null;
+				}
+				node.parent = null;
+			}
+		}
+	}
+
+	/**
+	 * 查找包含point的所有区间，即start &lt;= point &lt; end，按(start, end)升序输出
+	 */
+	public void stab(K point, IntervalVisitor<K, V> visitor) {
+		query(point, point, true, visitor);
+	}
+
+	/**
+	 * 查找与[lo, hi)相交的所有区间，即start &lt; hi 并且 end &gt; lo，按(start, end)升序输出
+	 *
+	 * @throws IllegalArgumentException lo大于hi
+	 */
+	public void overlap(K lo, K hi, IntervalVisitor<K, V> visitor) {
+		if (lo.compareTo(hi) > 0) {
+			throw new IllegalArgumentException("lo > hi: " + lo + " > " + hi);
+		}
+		query(lo, hi, false, visitor);
+	}
+
+	/**
+	 * 带剪枝的中序遍历，沿parent指针移动，不用栈也不用递归：
+	 * 只进入maxEnd大于lo的子树，遇到start越过hi的节点就结束。
+	 * <p>
+	 * 复杂度是O(min(n, k log n))，k是结果数，不是O(log n + k)：
+	 * 走过的节点要么是结果，要么是某个结果的祖先，要么在最后一条越过hi的路径上，
+	 * 结果在中序中被end不超过lo的区间隔开时，每个结果都可能要多走O(log n)步。
+	 * 结果在中序中连续时(比如区间互不重叠)才接近O(log n + k)
+	 *
+	 * @param hiInclusive start等于hi的区间是否算相交
+	 */
+	private void query(K lo, K hi, boolean hiInclusive, IntervalVisitor<K, V> visitor) {
+		if (root == null || root.maxEnd.compareTo(lo) <= 0) {
+			return;
+		}
+		RBNode<K, V> node = descendLeft(root, lo);
+		while (node != null) {
+			int c = node.start.compareTo(hi);
+			if (c > 0 || (c == 0 && !hiInclusive)) {
+				return;
+			}
+			if (node.end.compareTo(lo) > 0 && !visitor.visit(node.start, node.end, node.v)) {
+				return;
+			}
+
+			if (node.right != null && node.right.maxEnd.compareTo(lo) > 0) {
+				node = descendLeft(node.right, lo);
+			} else {
+				// 右子树已经处理完(或者被剪掉)，向上找到第一个从左边回来的祖先
+				RBNode<K, V> ch = node;
+				node = node.parent;
+				while (node != null && node.right == ch) {
+					ch = node;
+					node = node.parent;
+				}
+			}
+		}
+	}
+
+	/**
+	 * 从node开始一直往左走，直到左子树中没有end大于lo的区间
+	 */
+	private static <K extends Comparable<K>, V> RBNode<K, V> descendLeft(RBNode<K, V> node, K lo) {
+		while (node.left != null && node.left.maxEnd.compareTo(lo) > 0) {
+			node = node.left;
+		}
+		return node;
+	}
+
+
+	private void fixAfterRemove(RBNode<K, V> node) {
+
+		while (node != root && node.color == BLACK) {
+			if (leftOf(parentOf(node)) == node) {
+				RBNode<K, V> rnode = rightOf(parentOf(node));
+				if (colorOf(rnode) == RED) {
+					setColor(parentOf(node), RED);
+					setColor(rnode, BLACK);
+					leftRotate(parentOf(node));
+					rnode = rightOf(parentOf(node));
+				}
+
+				if (colorOf(leftOf(rnode)) == BLACK && colorOf(rightOf(rnode)) == BLACK) {
+					setColor(rnode, RED);
+					node = parentOf(node);
+				} else {
+					if (colorOf(rightOf(rnode)) == BLACK) {
+						setColor(leftOf(rnode), BLACK);
+						setColor(rnode, RED);
+						rightRotate(rnode);
+						rnode = rightOf(parentOf(node));
+					}
+					setColor(rnode, colorOf(parentOf(node)));
+					setColor(parentOf(node), BLACK);
+					setColor(rightOf(rnode), BLACK);
+					leftRotate(parentOf(node));
+					node = root;
+				}
+			} else {
+				RBNode<K, V> lnode = leftOf(parentOf(node));
+				if (colorOf(lnode) == RED) {
+					setColor(lnode, BLACK);
+					setColor(parentOf(node), RED);
+					rightRotate(parentOf(node));
+					lnode = leftOf(parentOf(node));
+				}
+
+				if (colorOf(leftOf(lnode)) == BLACK && colorOf(rightOf(lnode)) == BLACK) {
+					setColor(lnode, RED);
+					node = parentOf(node);
+				} else {
+					if (colorOf(leftOf(lnode)) == BLACK) {
+						setColor(lnode, RED);
+						setColor(rightOf(lnode), BLACK);
+						leftRotate(lnode);
+						lnode = leftOf(parentOf(node));
+					}
+					setColor(lnode, colorOf(parentOf(node)));
+					setColor(parentOf(node), BLACK);
+					setColor(leftOf(lnode), BLACK);
+					rightRotate(parentOf(node));
+					node = root;
+				}
+			}
+		}
+
+		setColor(node, BLACK);
+	}
+
+
+	/**
+	 * 前驱节点：比当前节点小的最大节点
+	 */
+	public RBNode<K, V> predecessor(RBNode<K, V> node) {
+		if (node == null) {
+			return null;
+		} else if (node.left != null) {
+			RBNode<K, V> p = node.left;
+			while (p.right != null) {
+				p = p.right;
+			}
+			return p;
+		} else {
+			RBNode<K, V> p = node.parent;
+			RBNode<K, V> ch = node;
+			while (p != null && p.left == ch) {
+				ch = p;
+				p = p.parent;
+			}
+			return p;
+		}
+	}
+
+	/**
+	 * 后继节点：大于当前节点的最小节点
+	 */
+	public RBNode<K, V> successor(RBNode<K, V> node) {
+		if (node == null) {
+			return null;
+		} else if (node.right != null) {
+			RBNode<K, V> r = node.right;
+			while (r.left != null) {
+				r = r.left;
+			}
+			return r;
+		} else {
+			RBNode<K, V> p = node.parent;
+			RBNode<K, V> ch = node;
+			while (p != null && p.right == ch) {
+				ch = p;
+				p = p.parent;
+			}
+			return p;
+		}
+	}
+
+
+	/**
+	 * 插入后的调整，分类与{@link RBTree}中的fixAfterPut相同
+	 *
+	 * @param x 新插入的节点
+	 * @author Spirit
+	 */
+	private void fixAfterPut(RBNode<K, V> x) {
+
+		setColor(x, RED);
+
+		while (x != null && x != root && parentOf(x).color == RED) {
+			if (parentOf(x) == leftOf(parentOf(parentOf(x)))) {
+				RBNode<K, V> uncle = rightOf(parentOf(parentOf(x)));
+				if (colorOf(uncle) == RED) {
+					setColor(uncle, BLACK);
+					setColor(parentOf(x), BLACK);
+					setColor(parentOf(parentOf(x)), RED);
+					x = parentOf(parentOf(x));
+				} else {
+					if (x == rightOf(parentOf(x))) {
+						x = parentOf(x);
+						leftRotate(x);
+					}
+					setColor(parentOf(x), BLACK);
+					setColor(parentOf(parentOf(x)), RED);
+					rightRotate(parentOf(parentOf(x)));
+				}
+			} else {
+				RBNode<K, V> uncle = leftOf(parentOf(parentOf(x)));
+				if (colorOf(uncle) == RED) {
+					setColor(uncle, BLACK);
+					setColor(parentOf(x), BLACK);
+					setColor(parentOf(parentOf(x)), RED);
+					x = parentOf(parentOf(x));
+				} else {
+					if (x == leftOf(parentOf(x))) {
+						x = parentOf(x);
+						rightRotate(x);
+					}
+					setColor(parentOf(x), BLACK);
+					setColor(parentOf(parentOf(x)), RED);
+					leftRotate(parentOf(parentOf(x)));
+				}
+			}
+		}
+
+		setColor(root, BLACK);
+	}
+
+	/**
+	 * 旋转前后子树包含的区间不变：r接替p的maxEnd，p根据新的子节点重新计算
+	 */
+	private void leftRotate(RBNode<K, V> p) {
+		if (p != null) {
+			RBNode<K, V> r = p.right;
+			p.right = r.left;
+			if (r.left != null) {
+				r.left.parent = p;
+			}
+			r.parent = p.parent;
+			if (p.parent == null) {
+				root = r;
+			} else if (p.parent.left == p) {
+				p.parent.left = r;
+			} else {
+				p.parent.right = r;
+			}
+			r.left = p;
+			p.parent = r;
+
+			r.maxEnd = p.maxEnd;
+			updateMaxEnd(p);
+		}
+	}
+
+	private void rightRotate(RBNode<K, V> p) {
+		if (p != null) {
+			RBNode<K, V> l = p.left;
+			p.left = l.right;
+			if (l.right != null) {
+				l.right.parent = p;
+			}
+			l.parent = p.parent;
+			if (p.parent == null) {
+				root = l;
+			} else if (p.parent.left == p) {
+				p.parent.left = l;
+			} else {
+				p.parent.right = l;
+			}
+			l.right = p;
+			p.parent = l;
+
+			l.maxEnd = p.maxEnd;
+			updateMaxEnd(p);
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package com.spirit.treemap;
+
+/**
+ * 区间查询的回调，区间为[start, end)
+ *
+ * @author Spirit
+ */
+public interface IntervalVisitor<K, V> {
+
+	/**
+	 * @return false表示提前结束查询
+	 */
+	boolean visit(K start, K end, V v);
+}
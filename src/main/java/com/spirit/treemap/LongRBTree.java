@@ -0,0 +1,410 @@
+package com.spirit.treemap;
+
+/**
+ * key为long的红黑树，API与{@link RBTree}保持一致
+ * <p>
+ * key直接存放在节点的long字段里，比较用 &lt; 和 &gt;，
+ * 省掉了Long的装箱对象和每一步compareTo的虚调用
+ *
+ * @author Spirit
+ */
+public class LongRBTree<V> {
+
+	private static final boolean RED = true;
+	private static final boolean BLACK = false;
+
+	private RBNode<V> root;
+
+	public RBNode<V> getRoot() {
+		return root;
+	}
+
+	public static class RBNode<V> {
+
+		private RBNode<V> parent;
+		private RBNode<V> left;
+		private RBNode<V> right;
+
+		private boolean color;
+		private long k;
+		private V v;
+
+		public RBNode(RBNode<V> parent, long k, V v) {
+			this.parent = parent;
+			this.k = k;
+			this.v = v;
+		}
+
+		public RBNode<V> getParent() {
+			return parent;
+		}
+
+		public RBNode<V> getLeft() {
+			return left;
+		}
+
+		public RBNode<V> getRight() {
+			return right;
+		}
+
+		public boolean isColor() {
+			return color;
+		}
+
+		public long getK() {
+			return k;
+		}
+
+		public V getV() {
+			return v;
+		}
+
+		public void setV(V v) {
+			this.v = v;
+		}
+
+		@Override
+		public String toString() {
+			return "RBNode{" +
+					" left=" + left +
+					", right=" + right +
+					", color=" + color +
+					", k=" + k +
+					", v=" + v +
+					'}';
+		}
+	}
+
+
+	private static <V> RBNode<V> parentOf(RBNode<V> node) {
+		return node != null ? node.parent : null;
+	}
+
+	private static <V> RBNode<V> leftOf(RBNode<V> node) {
+		return node != null ? node.left : null;
+	}
+
+	private static <V> RBNode<V> rightOf(RBNode<V> node) {
+		return node != null ? node.right : null;
+	}
+
+	private static <V> boolean colorOf(RBNode<V> node) {
+		return node != null ? node.color : BLACK;
+	}
+
+	private static <V> void setColor(RBNode<V> node, boolean color) {
+		if (node != null) {
+			node.color = color;
+		}
+	}
+
+	public V remove(long key) {
+		RBNode<V> node = getNode(key);
+		if (node == null) {
+			return null;
+		}
+
+		V value = node.v;
+
+		deleteNode(node);
+		return value;
+	}
+
+
+	public RBNode<V> getNode(long key) {
+		RBNode<V> node = this.root;
+
+		while (node != null) {
+			if (key < node.k) {
+				node = node.left;
+			} else if (key > node.k) {
+				node = node.right;
+			} else {
+				return node;
+			}
+		}
+
+		return null;
+	}
+
+
+	/**
+	 * 删除的三种情况，与{@link RBTree#deleteNode}相同：
+	 * 1、直接删除叶子节点
+	 * 2、删除的节点只有一个子节点，用子节点代替
+	 * 3、删除节点有两个子节点，用前驱节点替换，从而转为 情况1或者情况2
+	 *
+	 * @param node
+	 * @author Spirit
+	 */
+	public void deleteNode(RBNode<V> node) {
+		if (node.left != null && node.right != null) {
+			RBNode<V> predecessor = predecessor(node);
+			node.k = predecessor.k;
+			node.v = predecessor.v;
+			node = predecessor;
+		}
+
+		RBNode<V> replaceNode = node.left != null ? node.left : node.right;
+
+		if (replaceNode != null) {
+			replaceNode.parent = node.parent;
+			if (node.parent == null) {
+				root = replaceNode;
+			} else if (node.parent.left == node) {
+				node.parent.left = replaceNode;
+			} else {
+				node.parent.right = replaceNode;
+			}
+			node.parent = node.left = node.right = null;
+
+			if (node.color == BLACK) {
+				fixAfterRemove(replaceNode);
+			}
+		} else if (node.parent == null) {
+			root = null;
+		} else {
+			// 先调整再删除
+			if (node.color == BLACK) {
+				fixAfterRemove(node);
+			}
+
+			if (node.parent != null) {
+				if (node.parent.left == node) {
+					node.parent.left = null;
+				} else {
+					node.parent.right = null;
+				}
+				node.parent = null;
+			}
+		}
+	}
+
+	private void fixAfterRemove(RBNode<V> node) {
+
+		while (node != root && node.color == BLACK) {
+			if (leftOf(parentOf(node)) == node) {
+				RBNode<V> rnode = rightOf(parentOf(node));
+				if (colorOf(rnode) == RED) {
+					setColor(parentOf(node), RED);
+					setColor(rnode, BLACK);
+					leftRotate(parentOf(node));
+					rnode = rightOf(parentOf(node));
+				}
+
+				if (colorOf(leftOf(rnode)) == BLACK && colorOf(rightOf(rnode)) == BLACK) {
+					setColor(rnode, RED);
+					node = parentOf(node);
+				} else {
+					if (colorOf(rightOf(rnode)) == BLACK) {
+						setColor(leftOf(rnode), BLACK);
+						setColor(rnode, RED);
+						rightRotate(rnode);
+						rnode = rightOf(parentOf(node));
+					}
+					setColor(rnode, colorOf(parentOf(node)));
+					setColor(parentOf(node), BLACK);
+					setColor(rightOf(rnode), BLACK);
+					leftRotate(parentOf(node));
+					node = root;
+				}
+			} else {
+				RBNode<V> lnode = leftOf(parentOf(node));
+				if (colorOf(lnode) == RED) {
+					setColor(lnode, BLACK);
+					setColor(parentOf(node), RED);
+					rightRotate(parentOf(node));
+					lnode = leftOf(parentOf(node));
+				}
+
+				if (colorOf(leftOf(lnode)) == BLACK && colorOf(rightOf(lnode)) == BLACK) {
+					setColor(lnode, RED);
+					node = parentOf(node);
+				} else {
+					if (colorOf(leftOf(lnode)) == BLACK) {
+						setColor(lnode, RED);
+						setColor(rightOf(lnode), BLACK);
+						leftRotate(lnode);
+						lnode = leftOf(parentOf(node));
+					}
+					setColor(lnode, colorOf(parentOf(node)));
+					setColor(parentOf(node), BLACK);
+					setColor(leftOf(lnode), BLACK);
+					rightRotate(parentOf(node));
+					node = root;
+				}
+			}
+		}
+
+		setColor(node, BLACK);
+	}
+
+
+	/**
+	 * 前驱节点：比当前节点小的最大节点
+	 */
+	public RBNode<V> predecessor(RBNode<V> node) {
+		if (node == null) {
+			return null;
+		} else if (node.left != null) {
+			RBNode<V> p = node.left;
+			while (p.right != null) {
+				p = p.right;
+			}
+			return p;
+		} else {
+			RBNode<V> p = node.parent;
+			RBNode<V> ch = node;
+			while (p != null && p.left == ch) {
+				ch = p;
+				p = p.parent;
+			}
+			return p;
+		}
+	}
+
+	/**
+	 * 后继节点：大于当前节点的最小节点
+	 */
+	public RBNode<V> successor(RBNode<V> node) {
+		if (node == null) {
+			return null;
+		} else if (node.right != null) {
+			RBNode<V> r = node.right;
+			while (r.left != null) {
+				r = r.left;
+			}
+			return r;
+		} else {
+			RBNode<V> p = node.parent;
+			RBNode<V> ch = node;
+			while (p != null && p.right == ch) {
+				ch = p;
+				p = p.parent;
+			}
+			return p;
+		}
+	}
+
+
+	public void put(long k, V v) {
+
+		RBNode<V> t = root;
+		if (t == null) {
+			root = new RBNode<>(null, k, v);
+			root.color = BLACK;
+			return;
+		}
+
+		RBNode<V> parent;
+		do {
+			parent = t;
+			if (k > t.k) {
+				t = t.right;
+			} else if (k < t.k) {
+				t = t.left;
+			} else {
+				t.v = v;
+				return;
+			}
+		} while (t != null);
+
+		RBNode<V> e = new RBNode<>(parent, k, v);
+		if (k > parent.k) {
+			parent.right = e;
+		} else {
+			parent.left = e;
+		}
+
+		fixAfterPut(e);
+	}
+
+	/**
+	 * 插入后的调整，分类与{@link RBTree}中的fixAfterPut相同
+	 *
+	 * @param x 新插入的节点
+	 * @author Spirit
+	 */
+	private void fixAfterPut(RBNode<V> x) {
+
+		setColor(x, RED);
+
+		while (x != null && x != root && parentOf(x).color == RED) {
+			if (parentOf(x) == leftOf(parentOf(parentOf(x)))) {
+				RBNode<V> uncle = rightOf(parentOf(parentOf(x)));
+				if (colorOf(uncle) == RED) {
+					setColor(uncle, BLACK);
+					setColor(parentOf(x), BLACK);
+					setColor(parentOf(parentOf(x)), RED);
+					x = parentOf(parentOf(x));
+				} else {
+					if (x == rightOf(parentOf(x))) {
+						x = parentOf(x);
+						leftRotate(x);
+					}
+					setColor(parentOf(x), BLACK);
+					setColor(parentOf(parentOf(x)), RED);
+					rightRotate(parentOf(parentOf(x)));
+				}
+			} else {
+				RBNode<V> uncle = leftOf(parentOf(parentOf(x)));
+				if (colorOf(uncle) == RED) {
+					setColor(uncle, BLACK);
+					setColor(parentOf(x), BLACK);
+					setColor(parentOf(parentOf(x)), RED);
+					x = parentOf(parentOf(x));
+				} else {
+					if (x == leftOf(parentOf(x))) {
+						x = parentOf(x);
+						rightRotate(x);
+					}
+					setColor(parentOf(x), BLACK);
+					setColor(parentOf(parentOf(x)), RED);
+					leftRotate(parentOf(parentOf(x)));
+				}
+			}
+		}
+
+		setColor(root, BLACK);
+	}
+
+	private void leftRotate(RBNode<V> p) {
+		if (p != null) {
+			RBNode<V> r = p.right;
+			p.right = r.left;
+			if (r.left != null) {
+				r.left.parent = p;
+			}
+			r.parent = p.parent;
+			if (p.parent == null) {
+				root = r;
+			} else if (p.parent.left == p) {
+				p.parent.left = r;
+			} else {
+				p.parent.right = r;
+			}
+			r.left = p;
+			p.parent = r;
+		}
+	}
+
+	private void rightRotate(RBNode<V> p) {
+		if (p != null) {
+			RBNode<V> l = p.left;
+			p.left = l.right;
+			if (l.right != null) {
+				l.right.parent = p;
+			}
+			l.parent = p.parent;
+			if (p.parent == null) {
+				root = l;
+			} else if (p.parent.left == p) {
+				p.parent.left = l;
+			} else {
+				p.parent.right = l;
+			}
+			l.right = p;
+			p.parent = l;
+		}
+	}
+}
@@ -0,0 +1,439 @@
+package com.spirit.treemap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * 持久化到文件的红黑树，key和value都是long
+ * <p>
+ * 节点布局与{@link OffHeapRBTree}相同，只是每个slab换成了文件中的一段映射(FileChannel.map)，
+ * 节点之间用下标相连，下标换算成文件偏移就是 HEADER_BYTES + slab号 * slab大小 + slab内偏移。
+ * 重新打开时只需要读文件头并映射各个slab，不需要重放put，查找直接走page cache
+ * <p>
+ * 崩溃一致性：slab用MapMode.PRIVATE映射，修改只落在进程私有的页上，文件在两次{@link #sync()}之间不变，
+ * 文件头(A/B两份，各带序号和CRC，打开时取校验通过且序号最大的一份)描述的总是一棵完整的树。
+ * 修改节点时按页记录脏页，sync分四步：
+ * 1、把脏页和新的文件头字段写入日志文件(路径加.journal)，带CRC，fsync；
+ * 2、把脏页写回文件，fsync；
+ * 3、写入新的文件头，fsync；
+ * 4、清空日志。
+ * 打开时如果日志完整就重做第2、3步(重复执行结果相同)，不完整说明崩溃在第1步，文件还没动过，直接丢弃。
+ * 所以任何时候崩溃，重新打开看到的都是最后一次完成或者已经写完日志的sync时的树
+ * <p>
+ * 修改过的私有页在close之前一直占用内存
+ *
+ * @author Spirit
+ */
+public class MappedLongRBTree extends OffHeapLongRBTree {
+
+	private static final long MAGIC = 0x5342_5452_4545_4D31L;
+	private static final long JOURNAL_MAGIC = 0x5342_5452_4545_4A31L;
+	private static final int VERSION = 1;
+
+	static final int HEADER_BYTES = 4096;
+	private static final int[] HEADER_SLOTS = {0, HEADER_BYTES / 2};
+
+	/**
+	 * 脏页和日志的粒度，slab大小是它的整数倍，一页不会跨slab
+	 */
+	static final int PAGE_BYTES = 4096;
+
+	/**
+	 * 文件头中各字段的偏移，CRC覆盖它前面的所有字段
+	 */
+	private static final int H_MAGIC = 0;
+	private static final int H_VERSION = 8;
+	private static final int H_NODE_SIZE = 12;
+	private static final int H_SEQ = 16;
+	private static final int H_ROOT = 24;
+	private static final int H_SIZE = 28;
+	private static final int H_NEXT = 32;
+	private static final int H_FREE = 36;
+	private static final int H_SLABS = 40;
+	private static final int H_CRC = 44;
+
+	/**
+	 * 日志的固定部分：MAGIC、序号、5个文件头字段、页数
+	 */
+	private static final int J_FIXED = 8 + 8 + 5 * 4 + 4;
+
+	private final File path;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+	private final RandomAccessFile journal;
+
+	private long seq;
+
+	/**
+	 * 上次sync之后是否修改过
+	 */
+	private boolean modified;
+
+	/**
+	 * 上次sync之后修改过的页，页号从数据区(文件头之后)开始算
+	 */
+	private final BitSet dirtyPages = new BitSet();
+
+	private MappedLongRBTree(File path, RandomAccessFile file, RandomAccessFile journal, long missingValue) throws IOException {
+		super(missingValue);
+		if (slabBytes() % PAGE_BYTES != 0) {
+			throw new IllegalStateException("slab size " + slabBytes() + " is not a multiple of " + PAGE_BYTES);
+		}
+		this.path = path;
+		this.file = file;
+		this.journal = journal;
+		this.channel = file.getChannel();
+		this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+		this.header.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * 打开(不存在时创建)树文件，上次sync时崩溃的话先用日志恢复
+	 *
+	 * @throws IOException 文件格式不对
+	 */
+	public static MappedLongRBTree open(File path) throws IOException {
+		return open(path, 0L);
+	}
+
+	public static MappedLongRBTree open(File path, long missingValue) throws IOException {
+		File journalPath = journalPath(path);
+		boolean journalExists = journalPath.exists();
+		RandomAccessFile file = new RandomAccessFile(path, "rw");
+		RandomAccessFile journal = null;
+		MappedLongRBTree tree = null;
+		try {
+			journal = new RandomAccessFile(journalPath, "rw");
+			boolean created = file.length() == 0;
+			tree = new MappedLongRBTree(path, file, journal, missingValue);
+			if (created) {
+				// 没有引用过的日志(比如树文件被删掉后留下的)
+				tree.clearJournal();
+				tree.writeHeader();
+				tree.header.force();
+			} else {
+				tree.recover();
+				tree.load();
+			}
+			if (created || !journalExists) {
+				syncDirectory(path);
+			}
+			return tree;
+		} catch (IOException | RuntimeException e) {
+			if (tree != null) {
+				tree.discard();
+			} else {
+				if (journal != null) {
+					journal.close();
+				}
+				file.close();
+			}
+			throw e;
+		}
+	}
+
+	private static File journalPath(File path) {
+		return new File(path.getPath() + ".journal");
+	}
+
+	/**
+	 * 新建的文件要等目录项落盘才算持久。Windows等不支持打开目录的平台上跳过
+	 */
+	private static void syncDirectory(File path) {
+		File dir = path.getAbsoluteFile().getParentFile();
+		try (FileChannel ch = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+			ch.force(true);
+		} catch (IOException e) {
+			// 不支持
+		}
+	}
+
+	public File getPath() {
+		return path;
+	}
+
+	private void load() throws IOException {
+		int best = bestSlot();
+		if (best < 0) {
+			throw new IOException("not a tree file or header corrupted: " + path);
+		}
+		if (header.getInt(best + H_NODE_SIZE) != nodeSize) {
+			throw new IOException("node size mismatch: " + header.getInt(best + H_NODE_SIZE) + " != " + nodeSize);
+		}
+		seq = header.getLong(best + H_SEQ);
+		restore(header.getInt(best + H_SLABS), header.getInt(best + H_ROOT), header.getInt(best + H_SIZE),
+				header.getInt(best + H_NEXT), header.getInt(best + H_FREE));
+	}
+
+	/**
+	 * @return 校验通过且序号最大的一份文件头，都不通过返回-1
+	 */
+	private int bestSlot() {
+		int best = -1;
+		long bestSeq = -1;
+		for (int slot : HEADER_SLOTS) {
+			if (validSlot(slot) && header.getLong(slot + H_SEQ) > bestSeq) {
+				best = slot;
+				bestSeq = header.getLong(slot + H_SEQ);
+			}
+		}
+		return best;
+	}
+
+	private boolean validSlot(int slot) {
+		return header.getLong(slot + H_MAGIC) == MAGIC
+				&& header.getInt(slot + H_VERSION) == VERSION
+				&& header.getLong(slot + H_CRC) == crc(slot);
+	}
+
+	private long crc(int slot) {
+		byte[] bytes = new byte[H_CRC];
+		for (int i = 0; i < H_CRC; i++) {
+			bytes[i] = header.get(slot + i);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		return crc.getValue();
+	}
+
+	/**
+	 * 用当前的状态写入下一个序号的文件头
+	 */
+	private void writeHeader() {
+		seq++;
+		writeHeader(seq, getRoot(), size(), nextNode(), freeNode(), slabCount());
+	}
+
+	/**
+	 * 写入序号对应的那一份文件头，另一份保持不变
+	 */
+	private void writeHeader(long seq, int root, int size, int next, int free, int slabs) {
+		int slot = HEADER_SLOTS[(int) (seq & 1)];
+		header.putLong(slot + H_MAGIC, MAGIC);
+		header.putInt(slot + H_VERSION, VERSION);
+		header.putInt(slot + H_NODE_SIZE, nodeSize);
+		header.putLong(slot + H_SEQ, seq);
+		header.putInt(slot + H_ROOT, root);
+		header.putInt(slot + H_SIZE, size);
+		header.putInt(slot + H_NEXT, next);
+		header.putInt(slot + H_FREE, free);
+		header.putInt(slot + H_SLABS, slabs);
+		header.putLong(slot + H_CRC, crc(slot));
+	}
+
+	/**
+	 * 私有映射：修改不会写回文件，只由sync写回
+	 */
+	@Override
+	protected ByteBuffer allocateSlab(int index, int bytes) {
+		try {
+			long position = HEADER_BYTES + (long) index * bytes;
+			// 新增的区域还没有被任何文件头引用，崩溃后只是文件多出一段
+			if (file.length() < position + bytes) {
+				file.setLength(position + bytes);
+			}
+			return channel.map(FileChannel.MapMode.PRIVATE, position, bytes).order(ByteOrder.LITTLE_ENDIAN);
+		} catch (IOException e) {
+			throw new IllegalStateException("failed to map slab " + index + " of " + path, e);
+		}
+	}
+
+	@Override
+	protected void beforeWrite() {
+		modified = true;
+	}
+
+	@Override
+	protected void beforeWrite(int node) {
+		long position = position(node);
+		dirtyPages.set((int) (position / PAGE_BYTES), (int) ((position + nodeSize - 1) / PAGE_BYTES) + 1);
+	}
+
+	/**
+	 * 先写日志，再把脏页写回文件，最后写入新的文件头，见类的说明
+	 */
+	public void sync() {
+		ensureOpen();
+		if (!modified) {
+			return;
+		}
+		try {
+			writeJournal();
+			byte[] page = new byte[PAGE_BYTES];
+			for (int p = dirtyPages.nextSetBit(0); p >= 0; p = dirtyPages.nextSetBit(p + 1)) {
+				readPage(p, page);
+				writePage(p, page);
+			}
+			channel.force(false);
+			writeHeader();
+			header.force();
+			clearJournal();
+		} catch (IOException e) {
+			throw new IllegalStateException("failed to sync " + path, e);
+		}
+		dirtyPages.clear();
+		modified = false;
+	}
+
+	private void readPage(int page, byte[] bytes) {
+		long position = (long) page * PAGE_BYTES;
+		ByteBuffer slab = slabAt((int) (position / slabBytes())).duplicate();
+		slab.position((int) (position % slabBytes()));
+		slab.get(bytes);
+	}
+
+	private void writePage(int page, byte[] bytes) throws IOException {
+		ByteBuffer src = ByteBuffer.wrap(bytes);
+		long position = HEADER_BYTES + (long) page * PAGE_BYTES;
+		while (src.hasRemaining()) {
+			channel.write(src, position + src.position());
+		}
+	}
+
+	/**
+	 * [MAGIC][新序号][root][size][next][free][slabs][页数]{[页号][页内容]}[CRC32]
+	 */
+	void writeJournal() throws IOException {
+		journal.setLength(0);
+		CRC32 crc = new CRC32();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new CheckedOutputStream(Channels.newOutputStream(journal.getChannel()), crc), 1 << 16));
+		out.writeLong(JOURNAL_MAGIC);
+		out.writeLong(seq + 1);
+		out.writeInt(getRoot());
+		out.writeInt(size());
+		out.writeInt(nextNode());
+		out.writeInt(freeNode());
+		out.writeInt(slabCount());
+		out.writeInt(dirtyPages.cardinality());
+		byte[] page = new byte[PAGE_BYTES];
+		for (int p = dirtyPages.nextSetBit(0); p >= 0; p = dirtyPages.nextSetBit(p + 1)) {
+			readPage(p, page);
+			out.writeInt(p);
+			out.write(page);
+		}
+		// 不能close，会关闭journal
+		out.flush();
+		journal.writeLong(crc.getValue());
+		journal.getFD().sync();
+	}
+
+	private void clearJournal() throws IOException {
+		journal.setLength(0);
+		journal.getFD().sync();
+	}
+
+	/**
+	 * 日志完整时把其中的页和文件头写入文件，然后清空日志；不完整时直接清空
+	 */
+	private void recover() throws IOException {
+		long length = journal.length();
+		if (length == 0) {
+			return;
+		}
+		if (length < J_FIXED + 8 || (length - J_FIXED - 8) % (4 + PAGE_BYTES) != 0 || !journalChecksumMatches(length)) {
+			clearJournal();
+			return;
+		}
+
+		DataInputStream in = new DataInputStream(journalInput(0));
+		if (in.readLong() != JOURNAL_MAGIC) {
+			clearJournal();
+			return;
+		}
+		long journalSeq = in.readLong();
+		int root = in.readInt();
+		int size = in.readInt();
+		int next = in.readInt();
+		int free = in.readInt();
+		int slabs = in.readInt();
+		int pages = in.readInt();
+		if ((long) pages * (4 + PAGE_BYTES) != length - J_FIXED - 8) {
+			throw new IOException("corrupted journal: " + journalPath(path));
+		}
+		long maxPage = (long) slabs * slabBytes() / PAGE_BYTES;
+		byte[] page = new byte[PAGE_BYTES];
+		for (int i = 0; i < pages; i++) {
+			int p = in.readInt();
+			if (p < 0 || p >= maxPage) {
+				throw new IOException("corrupted journal: page " + p + " out of range");
+			}
+			in.readFully(page);
+			writePage(p, page);
+		}
+		channel.force(false);
+		int best = bestSlot();
+		// 崩溃在写完文件头、清空日志之前时文件头已经是新的了
+		if (best < 0 || header.getLong(best + H_SEQ) < journalSeq) {
+			writeHeader(journalSeq, root, size, next, free, slabs);
+			header.force();
+		}
+		clearJournal();
+	}
+
+	private boolean journalChecksumMatches(long length) throws IOException {
+		CheckedInputStream in = new CheckedInputStream(journalInput(0), new CRC32());
+		byte[] buffer = new byte[1 << 16];
+		long remaining = length - 8;
+		while (remaining > 0) {
+			int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+			if (n < 0) {
+				return false;
+			}
+			remaining -= n;
+		}
+		journal.seek(length - 8);
+		return journal.readLong() == in.getChecksum().getValue();
+	}
+
+	/**
+	 * 不能close，会关闭journal
+	 */
+	private InputStream journalInput(long position) throws IOException {
+		journal.seek(position);
+		return new BufferedInputStream(Channels.newInputStream(journal.getChannel()), 1 << 16);
+	}
+
+	/**
+	 * sync后解除映射并关闭文件
+	 */
+	@Override
+	public void close() {
+		if (isClosed()) {
+			return;
+		}
+		sync();
+		discard();
+	}
+
+	/**
+	 * 解除slab和文件头的映射，关闭文件，不写回任何修改。测试中用来模拟崩溃
+	 */
+	void discard() {
+		super.close();
+		free(header);
+		try {
+			journal.close();
+			file.close();
+		} catch (IOException e) {
+			throw new IllegalStateException("failed to close " + path, e);
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package com.spirit.treemap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 堆外红黑树，key和value都是定长的byte[]
+ * <p>
+ * key按无符号字节逐个比较(字典序)，长度必须等于keySize；value长度必须等于valueSize
+ *
+ * @author Spirit
+ * @see OffHeapRBTree
+ */
+public class OffHeapBytesRBTree extends OffHeapRBTree {
+
+	public OffHeapBytesRBTree(int keySize, int valueSize) {
+		super(keySize, valueSize);
+	}
+
+	public int getKeySize() {
+		return keySize;
+	}
+
+	public int getValueSize() {
+		return valueSize;
+	}
+
+	public byte[] getK(int node) {
+		return read(node, PAYLOAD, keySize);
+	}
+
+	public byte[] getV(int node) {
+		return read(node, PAYLOAD + keySize, valueSize);
+	}
+
+	public void setV(int node, byte[] v) {
+		checkLength(v, valueSize);
+		ensureWritable();
+		write(node, PAYLOAD + keySize, v);
+	}
+
+	private byte[] read(int node, int field, int length) {
+		ByteBuffer slab = slab(node);
+		int offset = offset(node) + field;
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = slab.get(offset + i);
+		}
+		return bytes;
+	}
+
+	private void write(int node, int field, byte[] bytes) {
+		beforeWrite(node);
+		ByteBuffer slab = slab(node);
+		int offset = offset(node) + field;
+		for (int i = 0; i < bytes.length; i++) {
+			slab.put(offset + i, bytes[i]);
+		}
+	}
+
+	private static void checkLength(byte[] bytes, int expected) {
+		if (bytes == null) {
+			throw new NullPointerException();
+		}
+		if (bytes.length != expected) {
+			throw new IllegalArgumentException("expected " + expected + " bytes, got " + bytes.length);
+		}
+	}
+
+	/**
+	 * 直接在堆外比较，不拷贝节点中的key
+	 */
+	private int compare(byte[] key, int node) {
+		ByteBuffer slab = slab(node);
+		int offset = offset(node) + PAYLOAD;
+		for (int i = 0; i < keySize; i++) {
+			int a = key[i] & 0xFF;
+			int b = slab.get(offset + i) & 0xFF;
+			if (a != b) {
+				return a - b;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return key所在的节点，不存在返回{@link #NIL}
+	 */
+	public int getNode(byte[] key) {
+		ensureOpen();
+		checkLength(key, keySize);
+		int node = getRoot();
+		while (node != NIL) {
+			int cmp = compare(key, node);
+			if (cmp < 0) {
+				node = getLeft(node);
+			} else if (cmp > 0) {
+				node = getRight(node);
+			} else {
+				return node;
+			}
+		}
+		return NIL;
+	}
+
+	public void put(byte[] k, byte[] v) {
+		ensureWritable();
+		checkLength(k, keySize);
+		checkLength(v, valueSize);
+		int t = getRoot();
+		int parent = NIL;
+		int cmp = 0;
+		while (t != NIL) {
+			parent = t;
+			cmp = compare(k, t);
+			if (cmp > 0) {
+				t = getRight(t);
+			} else if (cmp < 0) {
+				t = getLeft(t);
+			} else {
+				write(t, PAYLOAD + keySize, v);
+				return;
+			}
+		}
+
+		int e = linkNew(parent, cmp);
+		write(e, PAYLOAD, k);
+		write(e, PAYLOAD + keySize, v);
+		afterLink(e);
+	}
+
+	public byte[] remove(byte[] key) {
+		int node = getNode(key);
+		if (node == NIL) {
+			return null;
+		}
+		byte[] value = getV(node);
+		deleteNode(node);
+		return value;
+	}
+}
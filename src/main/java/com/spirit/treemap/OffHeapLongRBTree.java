@@ -0,0 +1,98 @@
+package com.spirit.treemap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 堆外红黑树，key和value都是long，每个节点32字节
+ *
+ * @author Spirit
+ * @see OffHeapRBTree
+ */
+public class OffHeapLongRBTree extends OffHeapRBTree {
+
+	/**
+	 * remove()找不到key时的返回值
+	 */
+	private final long missingValue;
+
+	public OffHeapLongRBTree() {
+		this(0L);
+	}
+
+	public OffHeapLongRBTree(long missingValue) {
+		super(8, 8);
+		this.missingValue = missingValue;
+	}
+
+	public long getK(int node) {
+		return slab(node).getLong(offset(node) + PAYLOAD);
+	}
+
+	public long getV(int node) {
+		return slab(node).getLong(offset(node) + PAYLOAD + 8);
+	}
+
+	public void setV(int node, long v) {
+		ensureWritable();
+		beforeWrite(node);
+		slab(node).putLong(offset(node) + PAYLOAD + 8, v);
+	}
+
+	/**
+	 * @return key所在的节点，不存在返回{@link #NIL}
+	 */
+	public int getNode(long key) {
+		ensureOpen();
+		int node = getRoot();
+		while (node != NIL) {
+			long k = getK(node);
+			if (key < k) {
+				node = getLeft(node);
+			} else if (key > k) {
+				node = getRight(node);
+			} else {
+				return node;
+			}
+		}
+		return NIL;
+	}
+
+	public void put(long k, long v) {
+		ensureWritable();
+		int t = getRoot();
+		int parent = NIL;
+		int cmp = 0;
+		while (t != NIL) {
+			parent = t;
+			long tk = getK(t);
+			if (k > tk) {
+				cmp = 1;
+				t = getRight(t);
+			} else if (k < tk) {
+				cmp = -1;
+				t = getLeft(t);
+			} else {
+				setV(t, v);
+				return;
+			}
+		}
+
+		int e = linkNew(parent, cmp);
+		beforeWrite(e);
+		ByteBuffer slab = slab(e);
+		int offset = offset(e) + PAYLOAD;
+		slab.putLong(offset, k);
+		slab.putLong(offset + 8, v);
+		afterLink(e);
+	}
+
+	public long remove(long key) {
+		int node = getNode(key);
+		if (node == NIL) {
+			return missingValue;
+		}
+		long value = getV(node);
+		deleteNode(node);
+		return value;
+	}
+}
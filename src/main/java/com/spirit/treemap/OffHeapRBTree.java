@@ -0,0 +1,626 @@
+package com.spirit.treemap;
+
+import java.io.Closeable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * 堆外红黑树的公共部分：节点存放在direct ByteBuffer组成的arena中，不占用GC管理的堆
+ * <p>
+ * 节点用int下标表示(下标0相当于null)，每个节点的布局：
+ * <pre>
+ * 0  left    int
+ * 4  right   int
+ * 8  parent  int，最高位表示红色
+ * 12 (对齐)
+ * 16 key     keySize个字节
+ * .. value   valueSize个字节
+ * </pre>
+ * arena按块(slab)增长，每块固定容纳{@link #SLAB_NODES}个节点，扩容时只新增一块，不拷贝已有节点；
+ * deleteNode释放的节点放入空闲链表(借用left串起来)，put时优先复用
+ * <p>
+ * key的比较由子类完成：子类负责查找和插入时的下降，这里负责分配、平衡和删除
+ *
+ * @author Spirit
+ */
+public abstract class OffHeapRBTree implements Closeable {
+
+	public static final int NIL = 0;
+
+	private static final boolean RED = true;
+	private static final boolean BLACK = false;
+
+	private static final int RED_BIT = 0x80000000;
+	private static final int INDEX_MASK = 0x7FFFFFFF;
+
+	private static final int LEFT = 0;
+	private static final int RIGHT = 4;
+	private static final int PARENT = 8;
+	protected static final int PAYLOAD = 16;
+
+	/**
+	 * 每个slab的节点数，取2的幂，下标拆成 slab号 和 slab内偏移
+	 */
+	static final int SLAB_SHIFT = 16;
+	static final int SLAB_NODES = 1 << SLAB_SHIFT;
+	private static final int SLAB_MASK = SLAB_NODES - 1;
+
+	protected final int keySize;
+	protected final int valueSize;
+	protected final int nodeSize;
+
+	private ByteBuffer[] slabs = new ByteBuffer[4];
+	private int slabCount;
+
+	private int root = NIL;
+	private int size;
+	private int next = 1;
+	private int free = NIL;
+	private boolean closed;
+
+	protected OffHeapRBTree(int keySize, int valueSize) {
+		if (keySize <= 0 || valueSize < 0) {
+			throw new IllegalArgumentException("keySize: " + keySize + ", valueSize: " + valueSize);
+		}
+		this.keySize = keySize;
+		this.valueSize = valueSize;
+		// 按8字节对齐，保证long类型的key和value读写是对齐的
+		this.nodeSize = (PAYLOAD + keySize + valueSize + 7) & ~7;
+		if ((long) nodeSize * SLAB_NODES > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("entry too large: " + (keySize + valueSize));
+		}
+	}
+
+	public int getRoot() {
+		return root;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * 已经向操作系统申请的堆外字节数
+	 */
+	public long allocatedBytes() {
+		return (long) slabCount * SLAB_NODES * nodeSize;
+	}
+
+	// ---------------- arena ----------------
+
+	protected final ByteBuffer slab(int node) {
+		return slabs[node >>> SLAB_SHIFT];
+	}
+
+	protected final int offset(int node) {
+		return (node & SLAB_MASK) * nodeSize;
+	}
+
+	private int readInt(int node, int field) {
+		return slabs[node >>> SLAB_SHIFT].getInt((node & SLAB_MASK) * nodeSize + field);
+	}
+
+	private void writeInt(int node, int field, int value) {
+		beforeWrite(node);
+		slabs[node >>> SLAB_SHIFT].putInt((node & SLAB_MASK) * nodeSize + field, value);
+	}
+
+	private void addSlab() {
+		if (slabCount == slabs.length) {
+			slabs = Arrays.copyOf(slabs, slabCount << 1);
+		}
+		slabs[slabCount] = allocateSlab(slabCount, SLAB_NODES * nodeSize);
+		slabCount++;
+	}
+
+	/**
+	 * 申请第index块slab，默认是direct ByteBuffer，子类可以换成映射文件等其他存储
+	 */
+	protected ByteBuffer allocateSlab(int index, int bytes) {
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+
+	protected final int slabCount() {
+		return slabCount;
+	}
+
+	protected final ByteBuffer slabAt(int index) {
+		return slabs[index];
+	}
+
+	protected final int slabBytes() {
+		return SLAB_NODES * nodeSize;
+	}
+
+	/**
+	 * 节点在所有slab首尾相接后的字节偏移
+	 */
+	protected final long position(int node) {
+		return (long) (node >>> SLAB_SHIFT) * slabBytes() + offset(node);
+	}
+
+	/**
+	 * 下一个从未使用过的节点
+	 */
+	protected final int nextNode() {
+		return next;
+	}
+
+	/**
+	 * 空闲链表的头
+	 */
+	protected final int freeNode() {
+		return free;
+	}
+
+	/**
+	 * 恢复已有数据的状态：先按slabs个数申请存储，再设置树的元数据
+	 */
+	protected final void restore(int slabs, int root, int size, int next, int free) {
+		while (slabCount < slabs) {
+			addSlab();
+		}
+		this.root = root;
+		this.size = size;
+		this.next = next;
+		this.free = free;
+	}
+
+	/**
+	 * 分配一个红色的新节点，key和value由子类写入
+	 */
+	protected final int allocate(int p) {
+		ensureWritable();
+		int node;
+		if (free != NIL) {
+			node = free;
+			free = readInt(node, LEFT);
+		} else {
+			if (next == INDEX_MASK) {
+				throw new IllegalStateException("tree is full: " + size);
+			}
+			if ((next >>> SLAB_SHIFT) >= slabCount) {
+				addSlab();
+			}
+			node = next++;
+		}
+		writeInt(node, LEFT, NIL);
+		writeInt(node, RIGHT, NIL);
+		writeInt(node, PARENT, p | RED_BIT);
+		size++;
+		return node;
+	}
+
+	private void release(int node) {
+		writeInt(node, RIGHT, NIL);
+		writeInt(node, PARENT, NIL);
+		writeInt(node, LEFT, free);
+		free = node;
+		size--;
+	}
+
+	protected final void ensureOpen() {
+		if (closed) {
+			throw new IllegalStateException("tree is closed");
+		}
+	}
+
+	protected final boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * 修改树之前调用
+	 */
+	protected final void ensureWritable() {
+		ensureOpen();
+		beforeWrite();
+	}
+
+	/**
+	 * 每次修改前的回调，默认什么都不做
+	 */
+	protected void beforeWrite() {
+	}
+
+	/**
+	 * 修改节点node的字节之前调用，默认什么都不做。子类直接写key或value时也要调用
+	 */
+	protected void beforeWrite(int node) {
+	}
+
+	/**
+	 * 释放全部堆外内存，之后不能再使用
+	 * <p>
+	 * direct ByteBuffer本身要等GC回收才会释放内存，这里尽量通过Cleaner立即释放；
+	 * 当前JDK不支持时退化为只断开引用
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		for (int i = 0; i < slabCount; i++) {
+			free(slabs[i]);
+			slabs[i] = null;
+		}
+		slabCount = 0;
+		root = NIL;
+		size = 0;
+	}
+
+	static void free(ByteBuffer buffer) {
+		try {
+			// JDK 9+：sun.misc.Unsafe.invokeCleaner
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			return;
+		} catch (Exception ignored) {
+			// 继续尝试JDK 8的方式
+		}
+		try {
+			Method cleaner = buffer.getClass().getMethod("cleaner");
+			cleaner.setAccessible(true);
+			Object c = cleaner.invoke(buffer);
+			if (c != null) {
+				c.getClass().getMethod("clean").invoke(c);
+			}
+		} catch (Exception ignored) {
+			// 交给GC回收
+		}
+	}
+
+	// ---------------- 节点字段 ----------------
+
+	public int getLeft(int node) {
+		return readInt(node, LEFT);
+	}
+
+	public int getRight(int node) {
+		return readInt(node, RIGHT);
+	}
+
+	public int getParent(int node) {
+		return readInt(node, PARENT) & INDEX_MASK;
+	}
+
+	public boolean isColor(int node) {
+		return (readInt(node, PARENT) & RED_BIT) != 0;
+	}
+
+	private int parentOf(int node) {
+		return node != NIL ? readInt(node, PARENT) & INDEX_MASK : NIL;
+	}
+
+	private int leftOf(int node) {
+		return node != NIL ? readInt(node, LEFT) : NIL;
+	}
+
+	private int rightOf(int node) {
+		return node != NIL ? readInt(node, RIGHT) : NIL;
+	}
+
+	private boolean colorOf(int node) {
+		return node != NIL && (readInt(node, PARENT) & RED_BIT) != 0;
+	}
+
+	private void setColor(int node, boolean color) {
+		if (node != NIL) {
+			int p = readInt(node, PARENT);
+			writeInt(node, PARENT, color ? p | RED_BIT : p & INDEX_MASK);
+		}
+	}
+
+	private void setParent(int node, int p) {
+		writeInt(node, PARENT, (readInt(node, PARENT) & RED_BIT) | p);
+	}
+
+	private void setLeft(int node, int l) {
+		writeInt(node, LEFT, l);
+	}
+
+	private void setRight(int node, int r) {
+		writeInt(node, RIGHT, r);
+	}
+
+	/**
+	 * 把from节点的key和value拷贝到to节点
+	 */
+	private void copyPayload(int from, int to) {
+		ByteBuffer src = slab(from);
+		ByteBuffer dst = slab(to);
+		beforeWrite(to);
+		int s = offset(from) + PAYLOAD;
+		int d = offset(to) + PAYLOAD;
+		int n = keySize + valueSize;
+		int i = 0;
+		for (; i + 8 <= n; i += 8) {
+			dst.putLong(d + i, src.getLong(s + i));
+		}
+		for (; i < n; i++) {
+			dst.put(d + i, src.get(s + i));
+		}
+	}
+
+	// ---------------- 插入 ----------------
+
+	/**
+	 * 把新节点挂到parent下，并做插入后的调整
+	 *
+	 * @param parent 查找结束时的父节点，NIL表示空树
+	 * @param cmp    新key与parent的比较结果
+	 * @return 新节点
+	 */
+	protected final int linkNew(int parent, int cmp) {
+		int e = allocate(parent);
+		if (parent == NIL) {
+			root = e;
+			setColor(e, BLACK);
+			return e;
+		}
+		if (cmp > 0) {
+			setRight(parent, e);
+		} else {
+			setLeft(parent, e);
+		}
+		return e;
+	}
+
+	/**
+	 * 子类写完新节点的key和value后调用
+	 */
+	protected final void afterLink(int e) {
+		if (e != root) {
+			fixAfterPut(e);
+		}
+	}
+
+	private void fixAfterPut(int x) {
+
+		setColor(x, RED);
+
+		while (x != NIL && x != root && colorOf(parentOf(x)) == RED) {
+			if (parentOf(x) == leftOf(parentOf(parentOf(x)))) {
+				int uncle = rightOf(parentOf(parentOf(x)));
+				if (colorOf(uncle) == RED) {
+					setColor(uncle, BLACK);
+					setColor(parentOf(x), BLACK);
+					setColor(parentOf(parentOf(x)), RED);
+					x = parentOf(parentOf(x));
+				} else {
+					if (x == rightOf(parentOf(x))) {
+						x = parentOf(x);
+						leftRotate(x);
+					}
+					setColor(parentOf(x), BLACK);
+					setColor(parentOf(parentOf(x)), RED);
+					rightRotate(parentOf(parentOf(x)));
+				}
+			} else {
+				int uncle = leftOf(parentOf(parentOf(x)));
+				if (colorOf(uncle) == RED) {
+					setColor(uncle, BLACK);
+					setColor(parentOf(x), BLACK);
+					setColor(parentOf(parentOf(x)), RED);
+					x = parentOf(parentOf(x));
+				} else {
+					if (x == leftOf(parentOf(x))) {
+						x = parentOf(x);
+						rightRotate(x);
+					}
+					setColor(parentOf(x), BLACK);
+					setColor(parentOf(parentOf(x)), RED);
+					leftRotate(parentOf(parentOf(x)));
+				}
+			}
+		}
+
+		setColor(root, BLACK);
+	}
+
+	// ---------------- 删除 ----------------
+
+	/**
+	 * 删除的三种情况，与{@link RBTree#deleteNode}相同，删除的节点回收到空闲链表
+	 *
+	 * @param node
+	 * @author Spirit
+	 */
+	public void deleteNode(int node) {
+		ensureWritable();
+		if (leftOf(node) != NIL && rightOf(node) != NIL) {
+			int predecessor = predecessor(node);
+			copyPayload(predecessor, node);
+			node = predecessor;
+		}
+
+		int replaceNode = leftOf(node) != NIL ? leftOf(node) : rightOf(node);
+		int p = parentOf(node);
+
+		if (replaceNode != NIL) {
+			setParent(replaceNode, p);
+			if (p == NIL) {
+				root = replaceNode;
+			} else if (leftOf(p) == node) {
+				setLeft(p, replaceNode);
+			} else {
+				setRight(p, replaceNode);
+			}
+
+			if (colorOf(node) == BLACK) {
+				fixAfterRemove(replaceNode);
+			}
+		} else if (p == NIL) {
+			root = NIL;
+		} else {
+			if (colorOf(node) == BLACK) {
+				fixAfterRemove(node);
+			}
+
+			p = parentOf(node);
+			if (p != NIL) {
+				if (leftOf(p) == node) {
+					setLeft(p, NIL);
+				} else {
+					setRight(p, NIL);
+				}
+			}
+		}
+
+		release(node);
+	}
+
+	private void fixAfterRemove(int node) {
+
+		while (node != root && colorOf(node) == BLACK) {
+			if (leftOf(parentOf(node)) == node) {
+				int rnode = rightOf(parentOf(node));
+				if (colorOf(rnode) == RED) {
+					setColor(parentOf(node), RED);
+					setColor(rnode, BLACK);
+					leftRotate(parentOf(node));
+					rnode = rightOf(parentOf(node));
+				}
+
+				if (colorOf(leftOf(rnode)) == BLACK && colorOf(rightOf(rnode)) == BLACK) {
+					setColor(rnode, RED);
+					node = parentOf(node);
+				} else {
+					if (colorOf(rightOf(rnode)) == BLACK) {
+						setColor(leftOf(rnode), BLACK);
+						setColor(rnode, RED);
+						rightRotate(rnode);
+						rnode = rightOf(parentOf(node));
+					}
+					setColor(rnode, colorOf(parentOf(node)));
+					setColor(parentOf(node), BLACK);
+					setColor(rightOf(rnode), BLACK);
+					leftRotate(parentOf(node));
+					node = root;
+				}
+			} else {
+				int lnode = leftOf(parentOf(node));
+				if (colorOf(lnode) == RED) {
+					setColor(lnode, BLACK);
+					setColor(parentOf(node), RED);
+					rightRotate(parentOf(node));
+					lnode = leftOf(parentOf(node));
+				}
+
+				if (colorOf(leftOf(lnode)) == BLACK && colorOf(rightOf(lnode)) == BLACK) {
+					setColor(lnode, RED);
+					node = parentOf(node);
+				} else {
+					if (colorOf(leftOf(lnode)) == BLACK) {
+						setColor(lnode, RED);
+						setColor(rightOf(lnode), BLACK);
+						leftRotate(lnode);
+						lnode = leftOf(parentOf(node));
+					}
+					setColor(lnode, colorOf(parentOf(node)));
+					setColor(parentOf(node), BLACK);
+					setColor(leftOf(lnode), BLACK);
+					rightRotate(parentOf(node));
+					node = root;
+				}
+			}
+		}
+
+		setColor(node, BLACK);
+	}
+
+	// ---------------- 遍历 ----------------
+
+	public int predecessor(int node) {
+		if (node == NIL) {
+			return NIL;
+		} else if (leftOf(node) != NIL) {
+			int p = leftOf(node);
+			while (rightOf(p) != NIL) {
+				p = rightOf(p);
+			}
+			return p;
+		} else {
+			int p = parentOf(node);
+			int ch = node;
+			while (p != NIL && leftOf(p) == ch) {
+				ch = p;
+				p = parentOf(p);
+			}
+			return p;
+		}
+	}
+
+	public int successor(int node) {
+		if (node == NIL) {
+			return NIL;
+		} else if (rightOf(node) != NIL) {
+			int r = rightOf(node);
+			while (leftOf(r) != NIL) {
+				r = leftOf(r);
+			}
+			return r;
+		} else {
+			int p = parentOf(node);
+			int ch = node;
+			while (p != NIL && rightOf(p) == ch) {
+				ch = p;
+				p = parentOf(p);
+			}
+			return p;
+		}
+	}
+
+	// ---------------- 旋转 ----------------
+
+	private void leftRotate(int p) {
+		if (p != NIL) {
+			int r = rightOf(p);
+			int pp = parentOf(p);
+			int rl = leftOf(r);
+			setRight(p, rl);
+			if (rl != NIL) {
+				setParent(rl, p);
+			}
+			setParent(r, pp);
+			if (pp == NIL) {
+				root = r;
+			} else if (leftOf(pp) == p) {
+				setLeft(pp, r);
+			} else {
+				setRight(pp, r);
+			}
+			setLeft(r, p);
+			setParent(p, r);
+		}
+	}
+
+	private void rightRotate(int p) {
+		if (p != NIL) {
+			int l = leftOf(p);
+			int pp = parentOf(p);
+			int lr = rightOf(l);
+			setLeft(p, lr);
+			if (lr != NIL) {
+				setParent(lr, p);
+			}
+			setParent(l, pp);
+			if (pp == NIL) {
+				root = l;
+			} else if (leftOf(pp) == p) {
+				setLeft(pp, l);
+			} else {
+				setRight(pp, l);
+			}
+			setRight(l, p);
+			setParent(p, l);
+		}
+	}
+}
@@ -0,0 +1,412 @@
+package com.spirit.treemap;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * 不可变(持久化)的红黑树：put/remove不修改当前树，而是返回一棵新树
+ * <p>
+ * 节点没有parent指针，修改时只复制从根到目标节点路径上的O(log n)个节点，其余子树新旧版本共享，
+ * 所以旧版本始终可读，持有某个版本的引用就是一个快照，代价O(1)
+ * <p>
+ * 平衡规则与{@link RBTree}的fixAfterPut/fixAfterRemove等价，写成不依赖parent指针的递归形式：
+ * 1、插入：沿路径递归插入红节点，回溯时遇到 黑-红-红 的组合就通过balance旋转+变色，最后根节点染黑
+ * 2、删除：沿路径递归删除，删掉黑节点导致一侧黑高度少1时，回溯中用balanceLeft/balanceRight向兄弟借节点或者把问题交给父节点，
+ * 与fixAfterRemove中"兄弟能借/兄弟不能借"的几种情况一一对应；删除两个子节点的节点时用append把左右子树合并
+ *
+ * @author Spirit
+ */
+public final class PersistentRBTree<K extends Comparable<K>, V> implements Iterable<PersistentRBTree.Node<K, V>> {
+
+	private static final boolean RED = true;
+	private static final boolean BLACK = false;
+
+	private static final PersistentRBTree EMPTY = new PersistentRBTree<>(null, 0);
+
+	private final Node<K, V> root;
+	private final int size;
+
+	private PersistentRBTree(Node<K, V> root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <K extends Comparable<K>, V> PersistentRBTree<K, V> empty() {
+		return (PersistentRBTree<K, V>) EMPTY;
+	}
+
+	/**
+	 * 不可变的节点，创建后不再修改
+	 */
+	public static final class Node<K, V> {
+
+		private final K k;
+		private final V v;
+		private final Node<K, V> left;
+		private final Node<K, V> right;
+		private final boolean color;
+
+		Node(boolean color, Node<K, V> left, K k, V v, Node<K, V> right) {
+			this.color = color;
+			this.left = left;
+			this.k = k;
+			this.v = v;
+			this.right = right;
+		}
+
+		public K getK() {
+			return k;
+		}
+
+		public V getV() {
+			return v;
+		}
+
+		public Node<K, V> getLeft() {
+			return left;
+		}
+
+		public Node<K, V> getRight() {
+			return right;
+		}
+
+		public boolean isColor() {
+			return color;
+		}
+
+		@Override
+		public String toString() {
+			return "Node{" +
+					" left=" + left +
+					", right=" + right +
+					", color=" + color +
+					", k=" + k +
+					", v=" + v +
+					'}';
+		}
+	}
+
+	public Node<K, V> getRoot() {
+		return root;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * 快照：树本身不可变，直接返回自己
+	 */
+	public PersistentRBTree<K, V> snapshot() {
+		return this;
+	}
+
+	public Node<K, V> getNode(K key) {
+		Node<K, V> node = root;
+		while (node != null) {
+			int cmp = key.compareTo(node.k);
+			if (cmp < 0) {
+				node = node.left;
+			} else if (cmp > 0) {
+				node = node.right;
+			} else {
+				return node;
+			}
+		}
+		return null;
+	}
+
+	public V get(K key) {
+		Node<K, V> node = getNode(key);
+		return node == null ? null : node.v;
+	}
+
+	public boolean containsKey(K key) {
+		return getNode(key) != null;
+	}
+
+	// ---------------- 插入 ----------------
+
+	/**
+	 * @return 包含(k, v)的新树，当前树不变
+	 */
+	public PersistentRBTree<K, V> put(K k, V v) {
+		if (k == null) {
+			throw new NullPointerException();
+		}
+		boolean[] added = new boolean[1];
+		Node<K, V> newRoot = blacken(insert(root, k, v, added));
+		return new PersistentRBTree<>(newRoot, added[0] ? size + 1 : size);
+	}
+
+	private static <K extends Comparable<K>, V> Node<K, V> insert(Node<K, V> node, K k, V v, boolean[] added) {
+		if (node == null) {
+			added[0] = true;
+			return new Node<>(RED, null, k, v, null);
+		}
+		int cmp = k.compareTo(node.k);
+		if (cmp < 0) {
+			Node<K, V> left = insert(node.left, k, v, added);
+			return node.color == BLACK ? balance(left, node.k, node.v, node.right)
+					: new Node<>(RED, left, node.k, node.v, node.right);
+		} else if (cmp > 0) {
+			Node<K, V> right = insert(node.right, k, v, added);
+			return node.color == BLACK ? balance(node.left, node.k, node.v, right)
+					: new Node<>(RED, node.left, node.k, node.v, right);
+		} else {
+			return new Node<>(node.color, node.left, k, v, node.right);
+		}
+	}
+
+	/**
+	 * 以黑节点(k, v)为根，左右子树中出现连续红节点时旋转并变色，
+	 * 对应fixAfterPut中叔叔节点为黑的 左左/左右/右右/右左 四种情况，以及叔叔节点为红时的变色
+	 */
+	private static <K, V> Node<K, V> balance(Node<K, V> left, K k, V v, Node<K, V> right) {
+		if (isRed(left) && isRed(right)) {
+			return new Node<>(RED, blacken(left), k, v, blacken(right));
+		}
+		if (isRed(left)) {
+			if (isRed(left.left)) {
+				return new Node<>(RED, blacken(left.left), left.k, left.v, new Node<>(BLACK, left.right, k, v, right));
+			}
+			if (isRed(left.right)) {
+				Node<K, V> lr = left.right;
+				return new Node<>(RED, new Node<>(BLACK, left.left, left.k, left.v, lr.left), lr.k, lr.v,
+						new Node<>(BLACK, lr.right, k, v, right));
+			}
+		}
+		if (isRed(right)) {
+			if (isRed(right.right)) {
+				return new Node<>(RED, new Node<>(BLACK, left, k, v, right.left), right.k, right.v, blacken(right.right));
+			}
+			if (isRed(right.left)) {
+				Node<K, V> rl = right.left;
+				return new Node<>(RED, new Node<>(BLACK, left, k, v, rl.left), rl.k, rl.v,
+						new Node<>(BLACK, rl.right, right.k, right.v, right.right));
+			}
+		}
+		return new Node<>(BLACK, left, k, v, right);
+	}
+
+	/**
+	 * 用按key升序排好的数据直接构造一棵树，O(n)，构造方式与{@link RBTree#bulkLoad}相同：
+	 * 完全平衡，最底下那层不满的节点染红，其余都是黑的
+	 *
+	 * @param sortedEntries 按key严格升序的数据，value原样保存
+	 * @param size          数据的个数
+	 * @throws IllegalArgumentException key不是严格升序，或者数据个数与size不符
+	 */
+	public static <K extends Comparable<K>, V> PersistentRBTree<K, V> fromSorted(Iterator<Map.Entry<K, V>> sortedEntries, int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("size: " + size);
+		}
+		int redLevel = 0;
+		for (int m = size - 1; m >= 0; m = m / 2 - 1) {
+			redLevel++;
+		}
+		Object[] last = new Object[1];
+		Node<K, V> root = buildFromSorted(0, 0, size - 1, redLevel, sortedEntries, last);
+		if (sortedEntries.hasNext()) {
+			throw new IllegalArgumentException("more than " + size + " entries");
+		}
+		return root == null ? PersistentRBTree.<K, V>empty() : new PersistentRBTree<>(root, size);
+	}
+
+	/**
+	 * 先构造左子树，再取出当前节点，最后构造右子树，数据按中序依次消费
+	 */
+	private static <K extends Comparable<K>, V> Node<K, V> buildFromSorted(int level, int lo, int hi, int redLevel,
+																		   Iterator<Map.Entry<K, V>> it, Object[] last) {
+		if (hi < lo) {
+			return null;
+		}
+		int mid = (lo + hi) >>> 1;
+		Node<K, V> left = buildFromSorted(level + 1, lo, mid - 1, redLevel, it, last);
+
+		if (!it.hasNext()) {
+			throw new IllegalArgumentException("fewer entries than expected");
+		}
+		Map.Entry<K, V> entry = it.next();
+		K k = entry.getKey();
+		if (k == null) {
+			throw new NullPointerException();
+		}
+		if (last[0] != null && k.compareTo((K) last[0]) <= 0) {
+			throw new IllegalArgumentException("keys are not strictly ascending: " + last[0] + " then " + k);
+		}
+		last[0] = k;
+
+		Node<K, V> right = buildFromSorted(level + 1, mid + 1, hi, redLevel, it, last);
+		return new Node<>(level == redLevel ? RED : BLACK, left, k, entry.getValue(), right);
+	}
+
+	// ---------------- 删除 ----------------
+
+	/**
+	 * @return 删除key之后的新树，key不存在时返回当前树
+	 */
+	public PersistentRBTree<K, V> remove(K key) {
+		if (getNode(key) == null) {
+			return this;
+		}
+		Node<K, V> newRoot = blacken(delete(root, key));
+		return newRoot == null ? PersistentRBTree.<K, V>empty() : new PersistentRBTree<>(newRoot, size - 1);
+	}
+
+	/**
+	 * 删除后返回的子树：如果删掉的是黑节点，子树的黑高度比原来少1，由上层的balanceLeft/balanceRight补齐
+	 */
+	private static <K extends Comparable<K>, V> Node<K, V> delete(Node<K, V> node, K key) {
+		int cmp = key.compareTo(node.k);
+		if (cmp < 0) {
+			if (isBlack(node.left)) {
+				return balanceLeft(delete(node.left, key), node.k, node.v, node.right);
+			}
+			return new Node<>(RED, delete(node.left, key), node.k, node.v, node.right);
+		} else if (cmp > 0) {
+			if (isBlack(node.right)) {
+				return balanceRight(node.left, node.k, node.v, delete(node.right, key));
+			}
+			return new Node<>(RED, node.left, node.k, node.v, delete(node.right, key));
+		} else {
+			return append(node.left, node.right);
+		}
+	}
+
+	/**
+	 * 左子树黑高度少1：
+	 * 1、左子树根是红的：直接染黑(对应fixAfterRemove最后的setColor(node, BLACK))
+	 * 2、兄弟是黑的：兄弟染红后重新balance，相当于"兄弟借不了，交给父节点"或者"兄弟能借，旋转"
+	 * 3、兄弟是红的：先旋转找到真正的兄弟节点，再按2处理
+	 */
+	private static <K, V> Node<K, V> balanceLeft(Node<K, V> left, K k, V v, Node<K, V> right) {
+		if (isRed(left)) {
+			return new Node<>(RED, blacken(left), k, v, right);
+		}
+		if (isBlack(right)) {
+			return balance(left, k, v, redden(right));
+		}
+		if (isRed(right) && isBlack(right.left)) {
+			Node<K, V> rl = right.left;
+			return new Node<>(RED, new Node<>(BLACK, left, k, v, rl.left), rl.k, rl.v,
+					balance(rl.right, right.k, right.v, redden(right.right)));
+		}
+		throw new IllegalStateException("red-black invariant violated");
+	}
+
+	private static <K, V> Node<K, V> balanceRight(Node<K, V> left, K k, V v, Node<K, V> right) {
+		if (isRed(right)) {
+			return new Node<>(RED, left, k, v, blacken(right));
+		}
+		if (isBlack(left)) {
+			return balance(redden(left), k, v, right);
+		}
+		if (isRed(left) && isBlack(left.right)) {
+			Node<K, V> lr = left.right;
+			return new Node<>(RED, balance(redden(left.left), left.k, left.v, lr.left), lr.k, lr.v,
+					new Node<>(BLACK, lr.right, k, v, right));
+		}
+		throw new IllegalStateException("red-black invariant violated");
+	}
+
+	/**
+	 * 合并被删除节点的左右子树(左子树的key都小于右子树)
+	 */
+	private static <K, V> Node<K, V> append(Node<K, V> left, Node<K, V> right) {
+		if (left == null) {
+			return right;
+		}
+		if (right == null) {
+			return left;
+		}
+		if (isRed(left) && isRed(right)) {
+			Node<K, V> middle = append(left.right, right.left);
+			if (isRed(middle)) {
+				return new Node<>(RED, new Node<>(RED, left.left, left.k, left.v, middle.left), middle.k, middle.v,
+						new Node<>(RED, middle.right, right.k, right.v, right.right));
+			}
+			return new Node<>(RED, left.left, left.k, left.v, new Node<>(RED, middle, right.k, right.v, right.right));
+		}
+		if (isBlack(left) && isBlack(right)) {
+			Node<K, V> middle = append(left.right, right.left);
+			if (isRed(middle)) {
+				return new Node<>(RED, new Node<>(BLACK, left.left, left.k, left.v, middle.left), middle.k, middle.v,
+						new Node<>(BLACK, middle.right, right.k, right.v, right.right));
+			}
+			return balanceLeft(left.left, left.k, left.v, new Node<>(BLACK, middle, right.k, right.v, right.right));
+		}
+		if (isRed(right)) {
+			return new Node<>(RED, append(left, right.left), right.k, right.v, right.right);
+		}
+		return new Node<>(RED, left.left, left.k, left.v, append(left.right, right));
+	}
+
+	// ---------------- 颜色 ----------------
+
+	private static boolean isRed(Node<?, ?> node) {
+		return node != null && node.color == RED;
+	}
+
+	private static boolean isBlack(Node<?, ?> node) {
+		return node != null && node.color == BLACK;
+	}
+
+	private static <K, V> Node<K, V> blacken(Node<K, V> node) {
+		return node == null || node.color == BLACK ? node : new Node<>(BLACK, node.left, node.k, node.v, node.right);
+	}
+
+	private static <K, V> Node<K, V> redden(Node<K, V> node) {
+		if (node == null || node.color == RED) {
+			throw new IllegalStateException("red-black invariant violated");
+		}
+		return new Node<>(RED, node.left, node.k, node.v, node.right);
+	}
+
+	// ---------------- 遍历 ----------------
+
+	/**
+	 * 中序遍历，节点没有parent指针，用一个深度为O(log n)的栈
+	 */
+	@Override
+	public Iterator<Node<K, V>> iterator() {
+		return new Iterator<Node<K, V>>() {
+
+			private final Deque<Node<K, V>> stack = new ArrayDeque<>();
+
+			{
+				pushLeft(root);
+			}
+
+			private void pushLeft(Node<K, V> node) {
+				while (node != null) {
+					stack.push(node);
+					node = node.left;
+				}
+			}
+
+			@Override
+			public boolean hasNext() {
+				return !stack.isEmpty();
+			}
+
+			@Override
+			public Node<K, V> next() {
+				if (stack.isEmpty()) {
+					throw new NoSuchElementException();
+				}
+				Node<K, V> node = stack.pop();
+				pushLeft(node.right);
+				return node;
+			}
+		};
+	}
+}
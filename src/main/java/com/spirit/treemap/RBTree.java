@@ -1,8 +1,22 @@
 package com.spirit.treemap;
 
-import com.sun.org.apache.regexp.internal.RE;
-
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.Spliterator;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * @author Spirit
@@ -20,15 +34,73 @@ public class RBTree<K extends Comparable<K>, V> {
 
 	private RBNode root;
 
+	/**
+	 * 为null时不记录任何计数
+	 */
+	private RBTreeMetrics metrics;
+
+	/**
+	 * 插入和删除调整中旋转的累计次数，前后相减得到一次操作的旋转次数，用于{@link RBTreeEvents}
+	 */
+	private long rotationCount;
+
+	/**
+	 * 缓存的最小和最大节点(类似Linux的rb_root_cached)，空树时为null。
+	 * 插入时看新节点是不是挂在它们外侧，删除它们时换成后继或前驱；旋转不改变中序，不需要更新
+	 */
+	private RBNode leftmost;
+	private RBNode rightmost;
+
+	/**
+	 * 结构修改(增删节点、整棵换掉根节点)的次数，与TreeMap的modCount一样，
+	 * 用来发现compute、merge等方法的函数中对树的修改。只替换value不算
+	 */
+	private int modCount;
+
 	public RBNode getRoot() {
 		return root;
 	}
 
 	public void setRoot(RBNode root) {
-		this.root = root;
+		replaceRoot(root);
+	}
+
+	/**
+	 * 整棵换掉根节点时用，重新找最小和最大节点，O(log n)
+	 */
+	private void replaceRoot(RBNode newRoot) {
+		modCount++;
+		root = newRoot;
+		RBNode first = newRoot;
+		RBNode last = newRoot;
+		if (newRoot != null) {
+			while (first.left != null) {
+				first = first.left;
+			}
+			while (last.right != null) {
+				last = last.right;
+			}
+		}
+		leftmost = first;
+		rightmost = last;
+	}
+
+	public RBTreeMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * 挂上计数器后，getNode、put、putAll和deleteNode都会记录比较次数、旋转、变色和调整的循环次数。
+	 * 每次操作在局部变量里计数，结束时才判断一次metrics是否为null，传null就关闭。
+	 * 字段不是volatile，应当在其它线程访问这棵树之前设置好
+	 *
+	 * @param metrics 可以被多棵树共用
+	 */
+	public void setMetrics(RBTreeMetrics metrics) {
+		this.metrics = metrics;
 	}
 
-	static class RBNode<K extends Comparable<K>, V> {
+	public static class RBNode<K extends Comparable<K>, V> {
 
 		private RBNode parent;
 		private RBNode left;
@@ -38,6 +110,11 @@ public class RBTree<K extends Comparable<K>, V> {
 		private K k;
 		private V v;
 
+		/**
+		 * 以当前节点为根的子树中的节点个数，用于按排名查找
+		 */
+		private int size = 1;
+
 		public RBNode(RBNode parent, RBNode left, RBNode right, boolean color, K k, V v) {
 			this.parent = parent;
 			this.left = left;
@@ -63,6 +140,10 @@ public class RBTree<K extends Comparable<K>, V> {
 		public RBNode() {
 		}
 
+		public int getSize() {
+			return size;
+		}
+
 		public RBNode getParent() {
 			return parent;
 		}
@@ -136,6 +217,10 @@ public class RBTree<K extends Comparable<K>, V> {
 		return node != null ? node.right : null;
 	}
 
+	private static int sizeOf(RBNode node) {
+		return node != null ? node.size : 0;
+	}
+
 	private static boolean colorOf(RBNode node) {
 		return node != null ? node.color : BLACK;
 	}
@@ -147,60 +232,372 @@ public class RBTree<K extends Comparable<K>, V> {
 	}
 
 	public V remove(K key) {
-		RBNode node = getNode(key);
-		if (node == null) {
-			return null;
-		}
+		RBTreeEvents event = RBTreeEvents.begin(rotationCount);
 
-		V value = (V) node.getV();
+		RBNode node = find(key, event);
+		V value = null;
+		if (node != null) {
+			value = (V) node.getV();
+			deleteNode(node);
+		}
 
-		deleteNode(node);
+		if (event != null) {
+			event.end("remove", key, rotationCount, size());
+		}
 		return value;
 	}
 
 
 	public RBNode getNode(K key) {
-		RBNode node = this.root;
+		RBTreeEvents event = RBTreeEvents.begin(rotationCount);
 
-		if (node == null) {
-			return null;
+		RBNode node = find(key, event);
+
+		if (event != null) {
+			event.end("get", key, rotationCount, size());
 		}
+		return node;
+	}
+
+	/**
+	 * @param event 不为null时比较次数写到event.depth
+	 */
+	private RBNode find(K key, RBTreeEvents event) {
+		RBNode node = this.root;
+		int comparisons = 0;
 
 		// 循环判断找到对应的节点并返回
 		while (node != null) {
+			comparisons++;
 			int cmp = key.compareTo((K) node.getK());
 			if (cmp < 0) {
 				node = leftOf(node);
 			} else if (cmp > 0) {
 				node = rightOf(node);
+			} else {
+				break;
+			}
+		}
+
+		if (metrics != null) {
+			metrics.recordLookup(comparisons);
+		}
+		if (event != null) {
+			event.depth = comparisons;
+		}
+		return node;
+	}
+
+
+	/**
+	 * 每个节点都记录了子树的大小，所以这里是O(1)
+	 */
+	public int size() {
+		return sizeOf(root);
+	}
+
+	/**
+	 * 按排名查找：第index小的节点(从0开始)，沿着左子树的大小下降，O(log n)
+	 *
+	 * @throws IndexOutOfBoundsException index小于0或者不小于size()
+	 */
+	public RBNode select(int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("index: " + index + ", size: " + size());
+		}
+		RBNode node = root;
+		while (true) {
+			int leftSize = sizeOf(node.left);
+			if (index < leftSize) {
+				node = node.left;
+			} else if (index > leftSize) {
+				index -= leftSize + 1;
+				node = node.right;
 			} else {
 				return node;
 			}
 		}
+	}
 
-		return null;
+	/**
+	 * @return 小于key的节点个数，也就是key在树中的排名(从0开始)，key不需要存在于树中
+	 */
+	public int rank(K key) {
+		return rank(key, false);
+	}
+
+	/**
+	 * 一次下降：每往右走一步，左子树和当前节点都比key小，累加起来，O(log n)
+	 *
+	 * @param inclusive true时统计小于等于key的节点个数
+	 */
+	public int rank(K key, boolean inclusive) {
+		RBNode node = root;
+		int count = 0;
+		while (node != null) {
+			int cmp = key.compareTo((K) node.k);
+			if (cmp < 0) {
+				node = node.left;
+			} else if (cmp > 0) {
+				count += sizeOf(node.left) + 1;
+				node = node.right;
+			} else {
+				return count + sizeOf(node.left) + (inclusive ? 1 : 0);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return [lo, hi]范围内的节点个数
+	 */
+	public int countInRange(K lo, K hi) {
+		return countInRange(lo, true, hi, true);
+	}
+
+	/**
+	 * 两次rank相减，O(log n)，与范围内有多少数据无关
+	 *
+	 * @throws IllegalArgumentException lo大于hi
+	 */
+	public int countInRange(K lo, boolean loInclusive, K hi, boolean hiInclusive) {
+		if (lo.compareTo(hi) > 0) {
+			throw new IllegalArgumentException("lo > hi: " + lo + " > " + hi);
+		}
+		return Math.max(0, rank(hi, hiInclusive) - rank(lo, !loInclusive));
+	}
+
+	/**
+	 * @return 最小的节点，空树返回null，O(1)
+	 */
+	public RBNode getFirstNode() {
+		return leftmost;
+	}
+
+	/**
+	 * @return 最大的节点，空树返回null，O(1)
+	 */
+	public RBNode getLastNode() {
+		return rightmost;
+	}
+
+	/**
+	 * @return 大于等于key的最小节点
+	 */
+	public RBNode getCeilingNode(K key) {
+		return getNearNode(key, true, true);
+	}
+
+	/**
+	 * @return 大于key的最小节点
+	 */
+	public RBNode getHigherNode(K key) {
+		return getNearNode(key, true, false);
+	}
+
+	/**
+	 * @return 小于等于key的最大节点
+	 */
+	public RBNode getFloorNode(K key) {
+		return getNearNode(key, false, true);
+	}
+
+	/**
+	 * @return 小于key的最大节点
+	 */
+	public RBNode getLowerNode(K key) {
+		return getNearNode(key, false, false);
+	}
+
+	// ---------------- 与NavigableMap同名的Entry方法 ----------------
+	// 返回的是不可修改的拷贝，调用方拿着它不会影响树；需要O(1)修改或删除时用节点句柄。
+	// 配合缓存的最小节点，按截止时间排序的树可以直接当优先队列用：
+	// firstEntry是O(1)，pollFirstEntry不需要下降，只有删除后的调整(均摊O(1))和更新祖先的子树大小
+
+	public Map.Entry<K, V> firstEntry() {
+		return exportEntry(leftmost);
+	}
+
+	public Map.Entry<K, V> lastEntry() {
+		return exportEntry(rightmost);
+	}
+
+	/**
+	 * 删除并返回最小的数据，空树返回null
+	 */
+	public Map.Entry<K, V> pollFirstEntry() {
+		RBNode node = leftmost;
+		Map.Entry<K, V> entry = exportEntry(node);
+		if (node != null) {
+			deleteNode(node);
+		}
+		return entry;
+	}
+
+	/**
+	 * 删除并返回最大的数据，空树返回null
+	 */
+	public Map.Entry<K, V> pollLastEntry() {
+		RBNode node = rightmost;
+		Map.Entry<K, V> entry = exportEntry(node);
+		if (node != null) {
+			deleteNode(node);
+		}
+		return entry;
+	}
+
+	public Map.Entry<K, V> floorEntry(K key) {
+		return exportEntry(getFloorNode(key));
+	}
+
+	public Map.Entry<K, V> ceilingEntry(K key) {
+		return exportEntry(getCeilingNode(key));
+	}
+
+	public Map.Entry<K, V> higherEntry(K key) {
+		return exportEntry(getHigherNode(key));
+	}
+
+	public Map.Entry<K, V> lowerEntry(K key) {
+		return exportEntry(getLowerNode(key));
+	}
+
+	private static <K extends Comparable<K>, V> Map.Entry<K, V> exportEntry(RBNode node) {
+		return node == null ? null : new AbstractMap.SimpleImmutableEntry<>((K) node.k, (V) node.v);
+	}
+
+	/**
+	 * 一次下降找到离key最近的节点：往左走时记下当前节点(它比key大)，往右走时同理
+	 *
+	 * @param above     true找比key大的节点，false找比key小的节点
+	 * @param inclusive 是否包含等于key的节点
+	 */
+	private RBNode getNearNode(K key, boolean above, boolean inclusive) {
+		RBNode node = root;
+		RBNode best = null;
+		while (node != null) {
+			int cmp = key.compareTo((K) node.k);
+			if (cmp == 0 && inclusive) {
+				return node;
+			}
+			if (above ? cmp < 0 : cmp > 0) {
+				best = node;
+				node = above ? node.left : node.right;
+			} else {
+				node = above ? node.right : node.left;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * [lo, hi]范围内的节点视图，下降一次定位到下界，然后沿successor输出，O(log n + k)
+	 * <p>
+	 * 视图是"活"的：不复制数据，之后对树的修改在视图中可见，对视图的修改也直接作用在树上
+	 *
+	 * @param lo          下界
+	 * @param loInclusive 是否包含下界
+	 * @param hi          上界
+	 * @param hiInclusive 是否包含上界
+	 * @throws IllegalArgumentException lo大于hi
+	 */
+	public RBTreeView<K, V> subMap(K lo, boolean loInclusive, K hi, boolean hiInclusive) {
+		if (lo == null || hi == null) {
+			throw new NullPointerException();
+		}
+		if (lo.compareTo(hi) > 0) {
+			throw new IllegalArgumentException("lo > hi: " + lo + " > " + hi);
+		}
+		return new RBTreeView<>(this, false, lo, loInclusive, false, hi, hiInclusive, false);
 	}
 
+	/**
+	 * 小于(或等于)hi的节点视图
+	 */
+	public RBTreeView<K, V> headMap(K hi, boolean inclusive) {
+		if (hi == null) {
+			throw new NullPointerException();
+		}
+		return new RBTreeView<>(this, true, null, false, false, hi, inclusive, false);
+	}
+
+	/**
+	 * 大于(或等于)lo的节点视图
+	 */
+	public RBTreeView<K, V> tailMap(K lo, boolean inclusive) {
+		if (lo == null) {
+			throw new NullPointerException();
+		}
+		return new RBTreeView<>(this, false, lo, inclusive, true, null, false, false);
+	}
+
+	/**
+	 * 整棵树按key降序的视图
+	 */
+	public RBTreeView<K, V> descendingMap() {
+		return new RBTreeView<>(this, true, null, false, true, null, false, true);
+	}
+
+	/**
+	 * 按key升序依次处理[lo, hi]范围内的数据，visitor返回false时提前结束
+	 */
+	public void rangeScan(K lo, boolean loInclusive, K hi, boolean hiInclusive, EntryVisitor<K, V> visitor) {
+		subMap(lo, loInclusive, hi, hiInclusive).scan(visitor);
+	}
+
+	/**
+	 * 按key升序遍历所有节点的Spliterator，按子树大小从中间排名切分，特性为SORTED|ORDERED|SIZED|SUBSIZED
+	 * <p>
+	 * 大小在创建时确定，遍历期间不能修改树
+	 */
+	public Spliterator<RBNode<K, V>> spliterator() {
+		return new RBTreeSpliterator<>(this, 0, size(), null);
+	}
+
+	public Stream<RBNode<K, V>> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	/**
+	 * 并行流，在ForkJoinPool.commonPool()上执行
+	 */
+	public Stream<RBNode<K, V>> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
 
 	/**
 	 * 删除的三种情况：(先删除在调整)
 	 * 1、直接删除叶子节点
 	 * 2、删除的节点只有一个子节点，用子节点代替
 	 * 3、删除节点有两个子节点，找到前驱或者后继节点来进行替换，从而转为 情况1或者情况2
+	 * <p>
+	 * 情况3不复制key和value，而是把node和前驱节点在树中的位置互换，被摘除的始终是node本身，
+	 * 其它节点的key和value不会变，外部持有的节点引用可以作为句柄使用
 	 *
 	 * @param node
 	 * @return V
 	 * @author Spirit
 	 */
 	public void deleteNode(RBNode node) {
-		//情况3：存在两个子节点的情况，使用前驱或者后继替换，替换完就转换为情况1或者2了
+		modCount++;
+		if (metrics != null) {
+			metrics.recordDelete();
+		}
+		// 最小节点没有左子节点，后继是右子节点或者父节点，O(1)；最大节点同理
+		if (node == leftmost) {
+			leftmost = successor(node);
+		}
+		if (node == rightmost) {
+			rightmost = predecessor(node);
+		}
+		//情况3：存在两个子节点的情况，和前驱节点互换位置，换完node最多只有一个左子节点，转换为情况1或者2了
 		if (rightOf(node) != null && leftOf(node) != null) {
-			RBNode successor = predecessor(node);
-			// 修改位置
-			node.k = successor.k;
-			node.v = successor.v;
-			// 获取successor的引用
-			node = successor;
+			swapWithPredecessor(node, predecessor(node));
+		}
+
+		// 真正被摘除的是node，先把它所有祖先的子树大小减一
+		for (RBNode p = node.parent; p != null; p = p.parent) {
+			p.size--;
 		}
 
 		RBNode replaceNode = node.left != null ? node.left : node.right;
@@ -210,7 +607,6 @@ public class RBTree<K extends Comparable<K>, V> {
 			replaceNode.parent = node.parent;
 			if (node.parent == null) {
 				root = replaceNode;
-				System.out.println(root);
 			} else if (leftOf(parentOf(node)) == node) {
 				parentOf(node).left = replaceNode;
 			} else {
@@ -226,7 +622,8 @@ public class RBTree<K extends Comparable<K>, V> {
 			root = null;
 		} else {
 			// 情况1：不存在子节点的情况
-			// 先调整
+			// 先调整，调整过程中node还挂在树上，旋转时不能再把它计入子树大小
+			node.size = 0;
 			if (node.color == BLACK) {
 				fixAfterRemove(node);
 			}
@@ -240,9 +637,111 @@ public class RBTree<K extends Comparable<K>, V> {
 				}
 			}
 
-			node = null;
+			// 摘除后parent为null并且不是根节点，句柄就能判断出节点已经不在树中
+			node.parent = null;
+		}
+
+	}
+
+	/**
+	 * 交换两个节点在树中的位置，连同颜色和子树大小，key和value跟着节点走
+	 *
+	 * @param node 有两个子节点的节点
+	 * @param pred node的前驱，即左子树中最大的节点，没有右子节点，可能就是node.left
+	 */
+	private void swapWithPredecessor(RBNode node, RBNode pred) {
+		RBNode parent = node.parent;
+		RBNode left = node.left;
+		RBNode right = node.right;
+		RBNode predParent = pred.parent;
+		RBNode predLeft = pred.left;
+
+		boolean color = node.color;
+		node.color = pred.color;
+		pred.color = color;
+		int size = node.size;
+		node.size = pred.size;
+		pred.size = size;
+
+		// pred接替node的位置
+		pred.parent = parent;
+		if (parent == null) {
+			root = pred;
+		} else if (parent.left == node) {
+			parent.left = pred;
+		} else {
+			parent.right = pred;
+		}
+		pred.right = right;
+		right.parent = pred;
+		if (predParent == node) {
+			pred.left = node;
+			node.parent = pred;
+		} else {
+			pred.left = left;
+			left.parent = pred;
+			predParent.right = node;
+			node.parent = predParent;
+		}
+
+		// node接替pred的位置
+		node.left = predLeft;
+		if (predLeft != null) {
+			predLeft.parent = node;
 		}
+		node.right = null;
+	}
+
+	// ---------------- 句柄 ----------------
+	// 节点从插入到被删除一直存放同一个key，调用方可以保存put返回的节点，
+	// 之后删除或者修改value时不用再从根节点比较下降。
+	// bulkLoad会换掉所有节点，split、join和集合运算会把节点移到别的树，之后旧句柄不再属于这棵树
+
+	/**
+	 * 与put相同，返回存放k的节点
+	 */
+	public RBNode<K, V> putAndGetHandle(K k, V v) {
+		if (k == null) {
+			throw new NullPointerException();
+		}
+		return insertFrom(root, k, v != null ? v : k);
+	}
+
+	/**
+	 * 删除句柄对应的节点，不需要比较key。
+	 * 先沿parent确认节点在这棵树中(O(log n)的指针跳转，删除时更新祖先的子树大小本身也是这个代价)，
+	 * 调整部分均摊O(1)
+	 *
+	 * @return 被删除的value
+	 * @throws IllegalArgumentException 节点已经被删除，或者不属于这棵树
+	 */
+	public V removeByHandle(RBNode<K, V> handle) {
+		RBNode top = handle;
+		while (top.parent != null) {
+			top = top.parent;
+		}
+		if (top != root) {
+			throw new IllegalArgumentException("node is not in this tree: " + handle);
+		}
+		V value = handle.v;
+		deleteNode(handle);
+		return value;
+	}
 
+	/**
+	 * O(1)修改句柄对应的value，value为null时与put一样存放key。
+	 * 只检查节点有没有被删除，不检查节点是不是属于这棵树
+	 *
+	 * @return 原来的value
+	 * @throws IllegalArgumentException 节点已经被删除
+	 */
+	public V updateValueByHandle(RBNode<K, V> handle, V v) {
+		if (handle.parent == null && handle != root) {
+			throw new IllegalArgumentException("node has been removed: " + handle);
+		}
+		V old = handle.v;
+		handle.v = v != null ? v : (V) handle.k;
+		return old;
 	}
 
 	/**
@@ -255,8 +754,13 @@ public class RBTree<K extends Comparable<K>, V> {
 	 * @author Spirit
 	 */
 	public void fixAfterRemove(RBNode node) {
+		// 只在局部变量里计数，最后判断一次metrics
+		int iterations = 0;
+		int rotations = 0;
+		int recolors = 0;
 
 		while (node != root && node.color == BLACK) {
+			iterations++;
 			if (leftOf(parentOf(node)) == node) {
 				// 获取兄弟节点
 				RBNode rnode = rightOf(parentOf(node));
@@ -267,6 +771,8 @@ public class RBTree<K extends Comparable<K>, V> {
 					setColor(rnode, BLACK);
 					leftRotate(parentOf(node));
 					rnode = rightOf(parentOf(node));
+					rotations++;
+					recolors += 2;
 				}
 
 				if (colorOf(leftOf(rnode)) == BLACK && colorOf(rightOf(rnode)) == BLACK) {
@@ -274,6 +780,7 @@ public class RBTree<K extends Comparable<K>, V> {
 					// 做法：将兄弟节点设置为红色，然后递归处理。简单来说就是当前节点不符合，那就使用父结点去调整
 					setColor(rnode, RED);
 					node = parentOf(node);
+					recolors++;
 				} else {
 					// 情况二：兄弟能借，但是不借，父节点下来帮忙
 					// 情况二.1：兄弟节点能借的节点不是右节点的情况，那么此时就需要变色右旋转换为右节点进行处理
@@ -282,11 +789,15 @@ public class RBTree<K extends Comparable<K>, V> {
 						setColor(rnode, RED);
 						rightRotate(rnode);
 						rnode = rightOf(parentOf(node));
+						rotations++;
+						recolors += 2;
 					}
 					setColor(rnode, colorOf(parentOf(node)));
 					setColor(parentOf(node), BLACK);
 					setColor(rightOf(rnode), BLACK);
 					leftRotate(parentOf(node));
+					rotations++;
+					recolors += 3;
 
 					node = root;
 				}
@@ -302,10 +813,13 @@ public class RBTree<K extends Comparable<K>, V> {
 					setColor(parentOf(node), RED);
 					rightRotate(parentOf(node));
 					lnode = leftOf(parentOf(node));
+					rotations++;
+					recolors += 2;
 				}
 				if (colorOf(leftOf(lnode)) == BLACK && colorOf(rightOf(lnode)) == BLACK) {
 					setColor(lnode, RED);
 					node = parentOf(node);
+					recolors++;
 				} else {
 
 					if (colorOf(leftOf(lnode)) == BLACK) {
@@ -313,12 +827,16 @@ public class RBTree<K extends Comparable<K>, V> {
 						setColor(rightOf(lnode), BLACK);
 						leftRotate(lnode);
 						lnode = leftOf(parentOf(node));
+						rotations++;
+						recolors += 2;
 					}
 
 					setColor(lnode, colorOf(parentOf(node)));
 					setColor(parentOf(node), BLACK);
 					setColor(leftOf(lnode), BLACK);
 					rightRotate(parentOf(node));
+					rotations++;
+					recolors += 3;
 
 					node = root;
 				}
@@ -330,6 +848,11 @@ public class RBTree<K extends Comparable<K>, V> {
 
 		//情况1，直接将红节点设置为黑节点
 		setColor(node, BLACK);
+
+		rotationCount += rotations;
+		if (metrics != null) {
+			metrics.recordDeleteFixup(iterations, rotations, recolors);
+		}
 	}
 
 
@@ -408,26 +931,134 @@ public class RBTree<K extends Comparable<K>, V> {
 	}
 
 
-	public void put(K k, V v) {
+	/**
+	 * 用已经按key升序排好的数据重建整棵树，原有的数据会被替换
+	 * <p>
+	 * 不走put：按中序位置自底向上直接构造一棵完全平衡的树，O(n)，没有旋转也不需要调整颜色。
+	 * 除了最底下那层不满的节点染红以外其余节点都是黑的，这样每条路径上的黑节点数相同
+	 *
+	 * @param sortedEntries 按key严格升序的数据，value为null时与put一样存放key
+	 * @param size          数据的个数
+	 * @throws IllegalArgumentException key不是严格升序，或者数据个数与size不符
+	 * @author Spirit
+	 */
+	public void bulkLoad(Iterator<Map.Entry<K, V>> sortedEntries, int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("size: " + size);
+		}
+		Object[] last = new Object[1];
+		RBNode newRoot = buildFromSorted(0, 0, size - 1, redLevel(size), sortedEntries, last);
+		if (sortedEntries.hasNext()) {
+			throw new IllegalArgumentException("more than " + size + " entries");
+		}
+		// 全部构造成功后再替换，失败时原来的树不受影响
+		replaceRoot(newRoot);
+	}
 
-		RBNode t = root;
-		if (t == null) {
-			root = new RBNode(null, null, null, BLACK, k, v == null ? k : v);
-			return;
+	/**
+	 * 完全平衡的树中，最底下一层(可能不满)所在的层数，这一层的节点染红
+	 */
+	private static int redLevel(int size) {
+		int level = 0;
+		for (int m = size - 1; m >= 0; m = m / 2 - 1) {
+			level++;
 		}
+		return level;
+	}
 
-		if (k == null) {
-			throw new NullPointerException();
+	/**
+	 * 先构造左子树，再取出当前节点，最后构造右子树，这样数据是按中序依次消费的
+	 *
+	 * @param level 当前节点所在的层数，根为0
+	 * @param lo    当前子树第一个数据的下标
+	 * @param hi    当前子树最后一个数据的下标
+	 * @param last  上一个key，用于检查顺序
+	 */
+	private RBNode buildFromSorted(int level, int lo, int hi, int redLevel,
+								   Iterator<Map.Entry<K, V>> it, Object[] last) {
+		if (hi < lo) {
+			return null;
 		}
 
-		// 作为插入节点的父结点
-		RBNode parent;
+		int mid = (lo + hi) >>> 1;
 
-		// 比较大小的值
-		int cmp;
+		RBNode left = null;
+		if (lo < mid) {
+			left = buildFromSorted(level + 1, lo, mid - 1, redLevel, it, last);
+		}
+
+		if (!it.hasNext()) {
+			throw new IllegalArgumentException("fewer entries than expected");
+		}
+		Map.Entry<K, V> entry = it.next();
+		K k = entry.getKey();
+		if (k == null) {
+			throw new NullPointerException();
+		}
+		if (last[0] != null && k.compareTo((K) last[0]) <= 0) {
+			throw new IllegalArgumentException("keys are not strictly ascending: " + last[0] + " then " + k);
+		}
+		last[0] = k;
+		V v = entry.getValue();
+
+		RBNode middle = new RBNode(null, null, null, BLACK, k, v != null ? v : k);
+		if (level == redLevel) {
+			middle.color = RED;
+		}
+
+		if (left != null) {
+			middle.left = left;
+			left.parent = middle;
+		}
+
+		if (mid < hi) {
+			RBNode right = buildFromSorted(level + 1, mid + 1, hi, redLevel, it, last);
+			middle.right = right;
+			right.parent = middle;
+		}
+		middle.size = hi - lo + 1;
+
+		return middle;
+	}
+
+	public void put(K k, V v) {
+		RBTreeEvents event = RBTreeEvents.begin(rotationCount);
+
+		insert(k, v, event);
+
+		if (event != null) {
+			event.end("put", k, rotationCount, size());
+		}
+	}
+
+	/**
+	 * @param event 不为null时比较次数写到event.depth
+	 */
+	private void insert(K k, V v, RBTreeEvents event) {
+
+		RBNode t = root;
+		if (t == null) {
+			addEntryToEmptyTree(k, v == null ? k : v);
+			if (metrics != null) {
+				metrics.recordInsert(0);
+			}
+			return;
+		}
+
+		if (k == null) {
+			throw new NullPointerException();
+		}
+
+		// 作为插入节点的父结点
+		RBNode parent;
+
+		// 比较大小的值
+		int cmp;
+		int comparisons = 0;
 
 		do {
 			parent = t;
+			comparisons++;
 			cmp = k.compareTo((K) t.getK());
 			if (cmp > 0) {
 				t = t.right;
@@ -435,20 +1066,854 @@ public class RBTree<K extends Comparable<K>, V> {
 				t = t.left;
 			} else {
 				t.setV(v != null ? v : k);
+				if (metrics != null) {
+					metrics.recordInsert(comparisons);
+				}
+				if (event != null) {
+					event.depth = comparisons;
+				}
 				return;
 			}
 		} while (t != null);
 
+		if (metrics != null) {
+			metrics.recordInsert(comparisons);
+		}
+		if (event != null) {
+			event.depth = comparisons;
+		}
 
-		RBNode e = new RBNode(parent, k, v != null ? v : k);
-		if (cmp > 0) {
-			parent.right = e;
-		} else {
+		addEntry(parent, cmp < 0, k, v != null ? v : k);
+	}
+
+	private RBNode addEntryToEmptyTree(K k, Object v) {
+		modCount++;
+		root = new RBNode(null, null, null, BLACK, k, v);
+		leftmost = rightmost = root;
+		return root;
+	}
+
+	/**
+	 * 在下降时记下的父节点下挂上新节点，然后调整
+	 *
+	 * @param left 挂在parent的左边还是右边
+	 * @return 新节点
+	 */
+	private RBNode addEntry(RBNode parent, boolean left, K k, Object v) {
+		modCount++;
+		RBNode e = new RBNode(parent, k, v);
+		if (left) {
 			parent.left = e;
+			if (parent == leftmost) {
+				leftmost = e;
+			}
+		} else {
+			parent.right = e;
+			if (parent == rightmost) {
+				rightmost = e;
+			}
 		}
+		incrementSizes(parent);
 
 		fixAfterPut(e);
+		return e;
+	}
+
+	// ---------------- 一次下降的读-改-写 ----------------
+	// 与TreeMap一样，每个方法自己下降一次：找到key就在原节点上修改或者直接deleteNode，
+	// 没找到就用下降时记下的父节点addEntry，不需要先getNode再put。
+	// 树中的value不会是null(put的value为null时存放key)，所以value为null就表示key不存在。
+	// 函数返回null表示删除或者不插入。函数中不能修改这棵树：调用函数前后modCount不同就抛ConcurrentModificationException，
+	// 否则下降时记下的节点可能已经被摘除或者移动了
+
+	/**
+	 * @return 原来的value，不存在时插入v并返回null
+	 */
+	public V putIfAbsent(K k, V v) {
+		RBTreeEvents event = RBTreeEvents.begin(rotationCount);
+
+		V old = putIfAbsent(k, v, event);
+
+		if (event != null) {
+			event.end("putIfAbsent", k, rotationCount, size());
+		}
+		return old;
+	}
+
+	private V putIfAbsent(K k, V v, RBTreeEvents event) {
+		if (k == null) {
+			throw new NullPointerException();
+		}
+		RBNode t = root;
+		if (t == null) {
+			addEntryToEmptyTree(k, v != null ? v : k);
+			recordDescent(0, true, event);
+			return null;
+		}
+		RBNode parent;
+		int cmp;
+		int comparisons = 0;
+		do {
+			parent = t;
+			comparisons++;
+			cmp = k.compareTo((K) t.k);
+			if (cmp < 0) {
+				t = t.left;
+			} else if (cmp > 0) {
+				t = t.right;
+			} else {
+				recordDescent(comparisons, false, event);
+				return (V) t.v;
+			}
+		} while (t != null);
+		recordDescent(comparisons, true, event);
+		addEntry(parent, cmp < 0, k, v != null ? v : k);
+		return null;
+	}
+
+	/**
+	 * 只在key存在时替换value，value为null时与put一样存放key
+	 *
+	 * @return 原来的value，不存在时返回null
+	 */
+	public V replace(K k, V v) {
+		RBTreeEvents event = RBTreeEvents.begin(rotationCount);
+
+		V old = replace(k, v, event);
+
+		if (event != null) {
+			event.end("replace", k, rotationCount, size());
+		}
+		return old;
+	}
+
+	private V replace(K k, V v, RBTreeEvents event) {
+		if (k == null) {
+			throw new NullPointerException();
+		}
+		RBNode t = root;
+		int comparisons = 0;
+		while (t != null) {
+			comparisons++;
+			int cmp = k.compareTo((K) t.k);
+			if (cmp < 0) {
+				t = t.left;
+			} else if (cmp > 0) {
+				t = t.right;
+			} else {
+				recordDescent(comparisons, true, event);
+				V old = (V) t.v;
+				t.v = v != null ? v : k;
+				return old;
+			}
+		}
+		recordDescent(comparisons, false, event);
+		return null;
+	}
+
+	/**
+	 * @return key对应的value：已经存在的value，或者新插入的value；函数返回null时不插入，返回null
+	 */
+	public V computeIfAbsent(K k, Function<? super K, ? extends V> mappingFunction) {
+		RBTreeEvents event = RBTreeEvents.begin(rotationCount);
+
+		V v = computeIfAbsent(k, mappingFunction, event);
+
+		if (event != null) {
+			event.end("computeIfAbsent", k, rotationCount, size());
+		}
+		return v;
+	}
+
+	private V computeIfAbsent(K k, Function<? super K, ? extends V> mappingFunction, RBTreeEvents event) {
+		if (k == null || mappingFunction == null) {
+			throw new NullPointerException();
+		}
+		RBNode t = root;
+		RBNode parent = null;
+		int cmp = 0;
+		int comparisons = 0;
+		while (t != null) {
+			parent = t;
+			comparisons++;
+			cmp = k.compareTo((K) t.k);
+			if (cmp < 0) {
+				t = t.left;
+			} else if (cmp > 0) {
+				t = t.right;
+			} else {
+				recordDescent(comparisons, false, event);
+				return (V) t.v;
+			}
+		}
+		int expectedModCount = modCount;
+		V v = mappingFunction.apply(k);
+		checkUnmodified(expectedModCount);
+		recordDescent(comparisons, v != null, event);
+		if (v != null) {
+			insertAt(parent, cmp, k, v);
+		}
+		return v;
+	}
+
+	/**
+	 * key存在时用函数计算新value，函数返回null时删除
+	 *
+	 * @return 新的value，不存在或者被删除时返回null
+	 */
+	public V computeIfPresent(K k, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+		RBTreeEvents event = RBTreeEvents.begin(rotationCount);
+
+		V v = computeIfPresent(k, remappingFunction, event);
+
+		if (event != null) {
+			event.end("computeIfPresent", k, rotationCount, size());
+		}
+		return v;
+	}
+
+	private V computeIfPresent(K k, BiFunction<? super K, ? super V, ? extends V> remappingFunction, RBTreeEvents event) {
+		if (k == null || remappingFunction == null) {
+			throw new NullPointerException();
+		}
+		RBNode t = root;
+		int comparisons = 0;
+		while (t != null) {
+			comparisons++;
+			int cmp = k.compareTo((K) t.k);
+			if (cmp < 0) {
+				t = t.left;
+			} else if (cmp > 0) {
+				t = t.right;
+			} else {
+				int expectedModCount = modCount;
+				return remapNode(t, remappingFunction.apply(k, (V) t.v), expectedModCount, comparisons, event);
+			}
+		}
+		recordDescent(comparisons, false, event);
+		return null;
+	}
+
+	/**
+	 * 用key和原来的value(不存在时为null)计算新value，函数返回null时删除或者不插入
+	 *
+	 * @return 新的value
+	 */
+	public V compute(K k, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+		RBTreeEvents event = RBTreeEvents.begin(rotationCount);
+
+		V v = compute(k, remappingFunction, event);
+
+		if (event != null) {
+			event.end("compute", k, rotationCount, size());
+		}
+		return v;
+	}
+
+	private V compute(K k, BiFunction<? super K, ? super V, ? extends V> remappingFunction, RBTreeEvents event) {
+		if (k == null || remappingFunction == null) {
+			throw new NullPointerException();
+		}
+		RBNode t = root;
+		RBNode parent = null;
+		int cmp = 0;
+		int comparisons = 0;
+		while (t != null) {
+			parent = t;
+			comparisons++;
+			cmp = k.compareTo((K) t.k);
+			if (cmp < 0) {
+				t = t.left;
+			} else if (cmp > 0) {
+				t = t.right;
+			} else {
+				int expectedModCount = modCount;
+				return remapNode(t, remappingFunction.apply(k, (V) t.v), expectedModCount, comparisons, event);
+			}
+		}
+		int expectedModCount = modCount;
+		V v = remappingFunction.apply(k, null);
+		checkUnmodified(expectedModCount);
+		recordDescent(comparisons, v != null, event);
+		if (v != null) {
+			insertAt(parent, cmp, k, v);
+		}
+		return v;
+	}
+
+	/**
+	 * key不存在时插入value，存在时用函数合并原来的value和value，函数返回null时删除。
+	 * 计数器自增可以写成 merge(key, 1L, Long::sum)
+	 *
+	 * @return 新的value
+	 */
+	public V merge(K k, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+		RBTreeEvents event = RBTreeEvents.begin(rotationCount);
+
+		V v = merge(k, value, remappingFunction, event);
+
+		if (event != null) {
+			event.end("merge", k, rotationCount, size());
+		}
+		return v;
+	}
+
+	private V merge(K k, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction, RBTreeEvents event) {
+		if (k == null || value == null || remappingFunction == null) {
+			throw new NullPointerException();
+		}
+		RBNode t = root;
+		RBNode parent = null;
+		int cmp = 0;
+		int comparisons = 0;
+		while (t != null) {
+			parent = t;
+			comparisons++;
+			cmp = k.compareTo((K) t.k);
+			if (cmp < 0) {
+				t = t.left;
+			} else if (cmp > 0) {
+				t = t.right;
+			} else {
+				int expectedModCount = modCount;
+				return remapNode(t, remappingFunction.apply((V) t.v, value), expectedModCount, comparisons, event);
+			}
+		}
+		recordDescent(comparisons, true, event);
+		insertAt(parent, cmp, k, value);
+		return value;
+	}
+
+	/**
+	 * 读-改-写方法下降结束时记录，与put/remove相同：插入或者替换value按insert计，
+	 * 没有修改或者要删除时按lookup计，删除本身由deleteNode记录
+	 *
+	 * @param event 不为null时比较次数写到event.depth
+	 */
+	private void recordDescent(int comparisons, boolean write, RBTreeEvents event) {
+		if (metrics != null) {
+			if (write) {
+				metrics.recordInsert(comparisons);
+			} else {
+				metrics.recordLookup(comparisons);
+			}
+		}
+		if (event != null) {
+			event.depth = comparisons;
+		}
+	}
+
+	/**
+	 * @param parent 下降时最后经过的节点，树为空时为null
+	 * @param cmp    key与parent的比较结果
+	 */
+	private void insertAt(RBNode parent, int cmp, K k, V v) {
+		if (parent == null) {
+			addEntryToEmptyTree(k, v);
+		} else {
+			addEntry(parent, cmp < 0, k, v);
+		}
+	}
+
+	/**
+	 * 找到的节点换成函数算出的value，null就删除节点
+	 *
+	 * @param comparisons 找到node用的比较次数
+	 */
+	private V remapNode(RBNode node, V v, int expectedModCount, int comparisons, RBTreeEvents event) {
+		// 节点可能已经在函数中被删除了，这时不管v是不是null都不能再写
+		checkUnmodified(expectedModCount);
+		recordDescent(comparisons, v != null, event);
+		if (v == null) {
+			deleteNode(node);
+		} else {
+			node.v = v;
+		}
+		return v;
+	}
+
+	private void checkUnmodified(int expectedModCount) {
+		if (modCount != expectedModCount) {
+			throw new ConcurrentModificationException();
+		}
+	}
+
+	/**
+	 * 批量插入：先按key排序(已经是自然顺序的SortedMap则跳过)，再依次插入
+	 * <p>
+	 * 每个key不从根开始下降，而是从上一个key插入的节点(finger)出发：
+	 * 沿parent向上爬到第一个范围能覆盖新key的祖先，再从那里向下找插入位置。
+	 * 有序的批量数据相邻key在树中通常也相邻，比较次数从每个key O(log n) 降到 O(log d)，d是相邻两个key在树中的距离。
+	 * 插入后的调整仍然是fixAfterPut，均摊到每个key是O(1)的变色和最多两次旋转
+	 *
+	 * @param batch 要插入的数据，value为null时与put一样存放key
+	 * @author Spirit
+	 */
+	public void putAll(Map<? extends K, ? extends V> batch) {
+		Map.Entry<? extends K, ? extends V>[] entries = batch.entrySet().toArray(new Map.Entry[0]);
+		if (!(batch instanceof SortedMap && ((SortedMap) batch).comparator() == null)) {
+			// 归并排序是稳定的
+			Arrays.sort(entries, new Comparator<Map.Entry<? extends K, ? extends V>>() {
+				@Override
+				public int compare(Map.Entry<? extends K, ? extends V> a, Map.Entry<? extends K, ? extends V> b) {
+					return a.getKey().compareTo(b.getKey());
+				}
+			});
+		}
+
+		RBNode finger = null;
+		for (Map.Entry<? extends K, ? extends V> entry : entries) {
+			K k = entry.getKey();
+			if (k == null) {
+				throw new NullPointerException();
+			}
+			V v = entry.getValue();
+			finger = insertFrom(climb(finger, k), k, v != null ? v : k);
+		}
+	}
+
+	/**
+	 * 批量删除，与putAll一样先排序，然后从上一次删除的位置出发查找下一个key
+	 *
+	 * @return 实际删除的个数
+	 * @author Spirit
+	 */
+	public int removeAll(Collection<? extends K> keys) {
+		K[] sorted = (K[]) keys.toArray(new Comparable[0]);
+		if (!(keys instanceof SortedSet && ((SortedSet) keys).comparator() == null)) {
+			Arrays.sort(sorted);
+		}
+
+		int removed = 0;
+		RBNode finger = null;
+		for (K key : sorted) {
+			RBNode node = findFrom(climb(finger, key), key);
+			if (node == null) {
+				continue;
+			}
+			// 被摘除的总是node本身，它的前驱仍然在树中，并且key小于后面所有key，作为下一次的finger
+			finger = predecessor(node);
+			deleteNode(node);
+			removed++;
+		}
+		return removed;
+	}
+
+	/**
+	 * 从finger(key比目标key小)向上找到子树范围能覆盖key的最低祖先：
+	 * 某个节点是其父节点的左子节点并且key小于父节点时，它的子树范围上界就是父节点，key一定在这棵子树里(或者该插入到这里)
+	 *
+	 * @return 开始向下查找的节点，finger为null时返回根节点
+	 */
+	private RBNode climb(RBNode finger, K key) {
+		if (finger == null) {
+			return root;
+		}
+		RBNode node = finger;
+		while (node.parent != null) {
+			if (node.parent.left == node && key.compareTo((K) node.parent.k) < 0) {
+				return node;
+			}
+			node = node.parent;
+		}
+		return node;
+	}
+
+	private RBNode findFrom(RBNode node, K key) {
+		while (node != null) {
+			int cmp = key.compareTo((K) node.k);
+			if (cmp < 0) {
+				node = node.left;
+			} else if (cmp > 0) {
+				node = node.right;
+			} else {
+				return node;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 从start开始向下插入，与put的区别只是起点不是根节点
+	 *
+	 * @return 存放k的节点
+	 */
+	private RBNode insertFrom(RBNode start, K k, Object v) {
+		if (start == null) {
+			addEntryToEmptyTree(k, v);
+			if (metrics != null) {
+				metrics.recordInsert(0);
+			}
+			return root;
+		}
+
+		RBNode t = start;
+		RBNode parent;
+		int cmp;
+		int comparisons = 0;
+		do {
+			parent = t;
+			comparisons++;
+			cmp = k.compareTo((K) t.k);
+			if (cmp > 0) {
+				t = t.right;
+			} else if (cmp < 0) {
+				t = t.left;
+			} else {
+				t.v = v;
+				if (metrics != null) {
+					metrics.recordInsert(comparisons);
+				}
+				return t;
+			}
+		} while (t != null);
+
+		if (metrics != null) {
+			metrics.recordInsert(comparisons);
+		}
+
+		return addEntry(parent, cmp < 0, k, v);
+	}
+
+	/**
+	 * 插入新节点后，从它的父节点到根的子树大小都加一
+	 */
+	private static void incrementSizes(RBNode node) {
+		for (; node != null; node = node.parent) {
+			node.size++;
+		}
+	}
+
+	// ---------------- split/join与集合运算 ----------------
+
+	/**
+	 * 一棵独立的子树：parent为null，根为黑色，bh是黑高度(空树为0)
+	 */
+	private static final class Part {
+
+		static final Part EMPTY = new Part(null, 0);
+
+		final RBNode root;
+		final int bh;
+
+		Part(RBNode root, int bh) {
+			this.root = root;
+			this.bh = bh;
+		}
+	}
+
+	/**
+	 * split的结果：小于key的部分、等于key的节点(没有则为null)、大于key的部分
+	 */
+	private static final class Split {
+
+		Part left;
+		RBNode mid;
+		Part right;
+
+		Split(Part left, RBNode mid, Part right) {
+			this.left = left;
+			this.mid = mid;
+			this.right = right;
+		}
+	}
+
+	/**
+	 * 沿最左边的路径数黑节点
+	 */
+	private static int blackHeight(RBNode node) {
+		int h = 0;
+		for (; node != null; node = node.left) {
+			if (node.color == BLACK) {
+				h++;
+			}
+		}
+		return h;
+	}
 
+	/**
+	 * 把整棵树取出来作为Part，当前树变为空
+	 */
+	private Part detach() {
+		RBNode r = root;
+		replaceRoot(null);
+		if (r == null) {
+			return Part.EMPTY;
+		}
+		r.color = BLACK;
+		return new Part(r, blackHeight(r));
+	}
+
+	/**
+	 * 把黑高度为parentBh的黑节点的一个子节点摘下来作为Part：
+	 * 黑色子节点的黑高度少一；红色子节点染黑后黑高度与父节点相同
+	 */
+	private static Part child(RBNode child, int parentBh) {
+		if (child == null) {
+			return Part.EMPTY;
+		}
+		child.parent = null;
+		if (child.color == RED) {
+			child.color = BLACK;
+			return new Part(child, parentBh);
+		}
+		return new Part(child, parentBh - 1);
+	}
+
+	/**
+	 * 用mid连接l和r，要求l中的key都小于mid，r中的key都大于mid
+	 * <p>
+	 * 黑高度相同时mid直接作为新的根；否则沿着较高那棵树的右(左)边界往下走，
+	 * 找到黑高度与较矮那棵树相同的黑节点c，mid染红后替换c的位置，c和较矮的树作为mid的两个子节点。
+	 * 这样所有路径的黑节点数不变，唯一可能的问题是mid和父节点都是红色，与插入后的情况完全相同，交给fixAfterPut。
+	 * 代价是O(|l.bh - r.bh| + 1)
+	 * <p>
+	 * 过程中借用当前树的root字段给旋转使用，结束后清空
+	 */
+	private Part join(Part l, RBNode mid, Part r) {
+		mid.parent = mid.left = mid.right = null;
+		if (l.bh == r.bh) {
+			mid.color = BLACK;
+			mid.left = l.root;
+			mid.right = r.root;
+			if (l.root != null) {
+				l.root.parent = mid;
+			}
+			if (r.root != null) {
+				r.root.parent = mid;
+			}
+			mid.size = sizeOf(l.root) + sizeOf(r.root) + 1;
+			return new Part(mid, l.bh + 1);
+		}
+
+		boolean alongRight = l.bh > r.bh;
+		Part tall = alongRight ? l : r;
+		Part low = alongRight ? r : l;
+
+		RBNode parent = null;
+		RBNode node = tall.root;
+		int h = tall.bh;
+		while (node != null && (node.color == RED || h > low.bh)) {
+			if (node.color == BLACK) {
+				h--;
+			}
+			parent = node;
+			node = alongRight ? node.right : node.left;
+		}
+
+		if (alongRight) {
+			mid.left = node;
+			mid.right = low.root;
+			parent.right = mid;
+		} else {
+			mid.left = low.root;
+			mid.right = node;
+			parent.left = mid;
+		}
+		mid.parent = parent;
+		if (node != null) {
+			node.parent = mid;
+		}
+		if (low.root != null) {
+			low.root.parent = mid;
+		}
+		mid.size = sizeOf(node) + sizeOf(low.root) + 1;
+		int added = sizeOf(low.root) + 1;
+		for (RBNode p = parent; p != null; p = p.parent) {
+			p.size += added;
+		}
+
+		root = tall.root;
+		boolean grew = fixAfterPut(mid);
+		RBNode joined = root;
+		root = null;
+		return new Part(joined, grew ? tall.bh + 1 : tall.bh);
+	}
+
+	/**
+	 * 没有中间节点的连接：从l中拆出最大的节点作为中间节点
+	 */
+	private Part join2(Part l, Part r) {
+		if (l.root == null) {
+			return r;
+		}
+		if (r.root == null) {
+			return l;
+		}
+		RBNode last = l.root;
+		while (last.right != null) {
+			last = last.right;
+		}
+		Split s = split(l, (K) last.k);
+		return join(s.left, s.mid, r);
+	}
+
+	/**
+	 * 沿着查找key的路径拆开t，把路径两侧挂着的子树分别连接起来。
+	 * 路径上相邻两次join的黑高度差加起来不超过树高，所以总共O(log n)
+	 */
+	private Split split(Part t, K key) {
+		RBNode node = t.root;
+		if (node == null) {
+			return new Split(Part.EMPTY, null, Part.EMPTY);
+		}
+		Part l = child(node.left, t.bh);
+		Part r = child(node.right, t.bh);
+		node.left = node.right = null;
+		node.size = 1;
+
+		int cmp = key.compareTo((K) node.k);
+		if (cmp == 0) {
+			return new Split(l, node, r);
+		}
+		if (cmp < 0) {
+			Split s = split(l, key);
+			s.right = join(s.right, node, r);
+			return s;
+		}
+		Split s = split(r, key);
+		s.left = join(l, node, s.left);
+		return s;
+	}
+
+	/**
+	 * 把大于等于key的数据拆到一棵新树中返回，当前树只保留小于key的数据，O(log n)
+	 *
+	 * @return 大于等于key的数据
+	 */
+	public RBTree<K, V> split(K key) {
+		if (key == null) {
+			throw new NullPointerException();
+		}
+		Split s = split(detach(), key);
+		Part right = s.mid == null ? s.right : join(Part.EMPTY, s.mid, s.right);
+		replaceRoot(s.left.root);
+
+		RBTree<K, V> result = new RBTree<>();
+		result.replaceRoot(right.root);
+		return result;
+	}
+
+	/**
+	 * 连接两棵树和一个中间的key，O(log n)。left和right中的节点直接复用，调用后这两棵树变为空
+	 *
+	 * @param value 为null时与put一样存放key
+	 * @throws IllegalArgumentException left中有key不小于key，或者right中有key不大于key
+	 */
+	public static <K extends Comparable<K>, V> RBTree<K, V> join(RBTree<K, V> left, K key, V value, RBTree<K, V> right) {
+		if (key == null) {
+			throw new NullPointerException();
+		}
+		RBNode last = left.getLastNode();
+		if (last != null && key.compareTo((K) last.k) <= 0) {
+			throw new IllegalArgumentException("left contains " + last.k + " >= " + key);
+		}
+		RBNode first = right.getFirstNode();
+		if (first != null && key.compareTo((K) first.k) >= 0) {
+			throw new IllegalArgumentException("right contains " + first.k + " <= " + key);
+		}
+
+		RBTree<K, V> result = new RBTree<>();
+		Part joined = result.join(left.detach(), new RBNode(null, key, value != null ? value : key), right.detach());
+		result.replaceRoot(joined.root);
+		return result;
+	}
+
+	private static final int UNION = 0;
+	private static final int INTERSECTION = 1;
+	private static final int DIFFERENCE = 2;
+
+	/**
+	 * 两棵树合计小于这个大小时不再fork
+	 */
+	private static final int SET_OPERATION_THRESHOLD = 1 << 13;
+
+	/**
+	 * 并集，key相同时保留a中的value。
+	 * 两棵树的节点直接复用，调用后a和b都变为空。
+	 * 代价是O(m log(n/m + 1))，m、n是较小和较大的树的大小，在ForkJoinPool.commonPool()上并行执行
+	 */
+	public static <K extends Comparable<K>, V> RBTree<K, V> union(RBTree<K, V> a, RBTree<K, V> b) {
+		return setOperation(UNION, a, b);
+	}
+
+	/**
+	 * 交集，value取自a，调用后a和b都变为空
+	 */
+	public static <K extends Comparable<K>, V> RBTree<K, V> intersection(RBTree<K, V> a, RBTree<K, V> b) {
+		return setOperation(INTERSECTION, a, b);
+	}
+
+	/**
+	 * 差集：a中有而b中没有的数据，调用后a和b都变为空
+	 */
+	public static <K extends Comparable<K>, V> RBTree<K, V> difference(RBTree<K, V> a, RBTree<K, V> b) {
+		return setOperation(DIFFERENCE, a, b);
+	}
+
+	private static <K extends Comparable<K>, V> RBTree<K, V> setOperation(int op, RBTree<K, V> a, RBTree<K, V> b) {
+		if (a == b) {
+			throw new IllegalArgumentException("a and b are the same tree");
+		}
+		Part result = ForkJoinPool.commonPool().invoke(new SetOperationTask<K, V>(op, a.detach(), b.detach()));
+		RBTree<K, V> tree = new RBTree<>();
+		tree.replaceRoot(result.root);
+		return tree;
+	}
+
+	/**
+	 * 分治：拆下a的根节点，用它的key把b拆成两半，左右两边递归处理后再用这个根节点连接起来(不保留时用join2)。
+	 * 左右两边互不相关，足够大时左边fork出去
+	 */
+	private static final class SetOperationTask<K extends Comparable<K>, V> extends RecursiveTask<Part> {
+
+		private final int op;
+		private final Part a;
+		private final Part b;
+
+		SetOperationTask(int op, Part a, Part b) {
+			this.op = op;
+			this.a = a;
+			this.b = b;
+		}
+
+		@Override
+		protected Part compute() {
+			// join/split借用root字段做旋转，每个任务用自己的一棵空树
+			return run(new RBTree<K, V>(), a, b);
+		}
+
+		private Part run(RBTree<K, V> work, Part a, Part b) {
+			if (a.root == null) {
+				return op == UNION ? b : Part.EMPTY;
+			}
+			if (b.root == null) {
+				return op == INTERSECTION ? Part.EMPTY : a;
+			}
+			boolean fork = a.root.size + b.root.size > SET_OPERATION_THRESHOLD;
+
+			RBNode node = a.root;
+			Part l = child(node.left, a.bh);
+			Part r = child(node.right, a.bh);
+			node.left = node.right = null;
+			node.size = 1;
+			Split s = work.split(b, (K) node.k);
+
+			Part left;
+			Part right;
+			if (fork) {
+				SetOperationTask<K, V> task = new SetOperationTask<>(op, l, s.left);
+				task.fork();
+				right = run(work, r, s.right);
+				left = task.join();
+			} else {
+				left = run(work, l, s.left);
+				right = run(work, r, s.right);
+			}
+
+			boolean keep = op == UNION || (op == INTERSECTION) == (s.mid != null);
+			return keep ? work.join(left, node, right) : work.join2(left, right);
+		}
 	}
 
 	/**
@@ -466,13 +1931,18 @@ public class RBTree<K extends Comparable<K>, V> {
 	 * @param x 两种情况；左左左
 	 *          1、爷爷左节点为红右节点为null或者为黑
 	 *          2、爷爷节点的左右节点为红
+	 * @return 根节点是否由红变黑，也就是整棵树的黑高度是否加了一
 	 * @author Spirit
 	 */
-	private void fixAfterPut(RBNode x) {
+	private boolean fixAfterPut(RBNode x) {
 
 		setColor(x, RED);
+		int iterations = 0;
+		int rotations = 0;
+		int recolors = 0;
 
 		while (x != null && x != root && parentOf(x).color == RED) {
+			iterations++;
 
 			// 1、当前节点的父结点是爷爷节点的左节点
 			if (parentOf(x) == parentOf(parentOf(x)).left) {
@@ -485,6 +1955,7 @@ public class RBTree<K extends Comparable<K>, V> {
 					setColor(parentOf(rightNode), RED);
 					// 递归处理，因为可能爷爷节点的父结点也是RED的情况
 					x = parentOf(parentOf(x));
+					recolors += 3;
 				} else {
 					// 不存在叔叔节点或者叔叔节点为BLACK
 					/**
@@ -495,10 +1966,13 @@ public class RBTree<K extends Comparable<K>, V> {
 						// 将父结点作为x目的：因为左旋完父结点就会变成叶子节点(变成当前节点的子节点)
 						x = parentOf(x);
 						leftRotate(x);
+						rotations++;
 					}
 					setColor(parentOf(x), BLACK);
 					setColor(parentOf(parentOf(x)), RED);
 					rightRotate(parentOf(parentOf(x)));
+					rotations++;
+					recolors += 2;
 				}
 
 			} else {
@@ -511,17 +1985,21 @@ public class RBTree<K extends Comparable<K>, V> {
 					setColor(parentOf(parentOf(x)), RED);
 					// 递归处理
 					x = parentOf(parentOf(x));
+					recolors += 3;
 				} else {
 					// 1、首先判断是否是右右左的情况，是就进行右旋
 					if (parentOf(x).left == x) {
 						//2、 进行右旋
 						x = parentOf(x);
-						rightRotate(parentOf(x));
+						rightRotate(x);
+						rotations++;
 					}
 					// 3、进行左旋变色
 					setColor(parentOf(x), BLACK);
 					setColor(parentOf(parentOf(x)), RED);
 					leftRotate(parentOf(parentOf(x)));
+					rotations++;
+					recolors += 2;
 				}
 
 			}
@@ -529,8 +2007,12 @@ public class RBTree<K extends Comparable<K>, V> {
 		}
 
 
+		boolean grew = colorOf(root) == RED;
 		setColor(root, BLACK);
-
+		rotationCount += rotations;
+		if (metrics != null) {
+			metrics.recordInsertFixup(iterations, rotations, recolors);
+		}
 
 
 		/*RBNode pg = x.parent.parent;
@@ -565,6 +2047,7 @@ public class RBTree<K extends Comparable<K>, V> {
 			}
 
 		}*/
+		return grew;
 	}
 
 	public static void main(String[] args) {
@@ -608,6 +2091,10 @@ public class RBTree<K extends Comparable<K>, V> {
 			r.parent = p.parent;
 			r.left = p;
 			p.parent = r;
+
+			// 旋转前后整棵子树的节点没变，r接替p的大小，p重新计算
+			r.size = p.size;
+			p.size = sizeOf(p.left) + sizeOf(p.right) + 1;
 		}
 	}
 
@@ -634,6 +2121,9 @@ public class RBTree<K extends Comparable<K>, V> {
 			l.parent = p.parent;
 			l.right = p;
 			p.parent = l;
+
+			l.size = p.size;
+			p.size = sizeOf(p.left) + sizeOf(p.right) + 1;
 		}
 	}
 
@@ -0,0 +1,70 @@
+package com.spirit.treemap;
+
+/**
+ * {@link RBTree}和JFR之间的隔离层：RBTree只引用这个类，不直接引用jdk.jfr中的任何类型
+ * <p>
+ * 类加载时检查一次jdk.jfr是否存在(JDK 8u262之前的JDK 8或者去掉了JFR的运行时都没有)，
+ * 存在时注册一个监听器，录制开始和结束时缓存{@link RBTreeOperationEvent}是否在某个录制中启用。
+ * 没有启用时RBTree的每次操作只多读一次{@link #enabled}，不创建事件对象，
+ * 包括有录制在进行、但录制的配置没有启用这个事件的情况；启用时才创建本类的实例，由它创建和提交事件
+ *
+ * @author Spirit
+ */
+final class RBTreeEvents {
+
+	/**
+	 * jdk.jfr是否存在
+	 */
+	static final boolean AVAILABLE = isAvailable();
+
+	/**
+	 * 操作事件在正在进行的某个录制中启用时为true，JFR不存在时一直是false。
+	 * 只在录制状态变化时更新，录制过程中用Recording.enable/disable修改设置要等下一次状态变化才生效
+	 */
+	static volatile boolean enabled;
+
+	static {
+		if (AVAILABLE) {
+			RBTreeOperationEvent.trackRecordings();
+		}
+	}
+
+	private static boolean isAvailable() {
+		try {
+			Class.forName("jdk.jfr.FlightRecorder", false, RBTreeEvents.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+
+	/**
+	 * RBTreeOperationEvent，声明成Object是为了不在本类的字段上出现JFR的类型
+	 */
+	private final Object event;
+	private final long rotationsBefore;
+
+	/**
+	 * 下降过程中比较的节点数，由RBTree填写
+	 */
+	int depth;
+
+	private RBTreeEvents(long rotationsBefore) {
+		this.event = RBTreeOperationEvent.started();
+		this.rotationsBefore = rotationsBefore;
+	}
+
+	/**
+	 * @return 事件没有启用时返回null，RBTree据此跳过所有记录
+	 */
+	static RBTreeEvents begin(long rotationCount) {
+		return enabled ? new RBTreeEvents(rotationCount) : null;
+	}
+
+	/**
+	 * 耗时超过阈值时才提交，其余字段在这里填
+	 */
+	void end(String operation, Object key, long rotationCount, int size) {
+		((RBTreeOperationEvent) event).finish(operation, key, depth, (int) (rotationCount - rotationsBefore), size);
+	}
+}
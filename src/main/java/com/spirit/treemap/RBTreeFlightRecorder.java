@@ -0,0 +1,93 @@
+package com.spirit.treemap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import jdk.jfr.FlightRecorder;
+
+/**
+ * 登记需要定期记录形状的树，见{@link RBTreeShapeEvent}
+ * <p>
+ * 周期事件在JFR自己的线程上读取树，不加锁。每个周期只沿最左边的路径数黑高度，O(log n)，
+ * 不遍历整棵树；高度报告的是红黑树保证的上界2*黑高度(根是黑的，每个红节点下面都是黑节点)。
+ * 被其它线程同时修改的树读到的可能是某个中间状态的值，路径长度有上限，不会因为读到旋转到一半的指针而出错
+ * <p>
+ * 这个类直接使用jdk.jfr，只能在带JFR的运行时上调用；RBTree本身不依赖它
+ *
+ * @author Spirit
+ */
+public final class RBTreeFlightRecorder {
+
+	/**
+	 * int个节点的红黑树高度不超过2*log2(n+1) < 64，超过这个深度说明读到了修改中的树
+	 */
+	private static final int MAX_HEIGHT = 128;
+
+	/**
+	 * key是树本身(按引用比较)，树不再被引用时自动移除
+	 */
+	private static final Map<RBTree<?, ?>, String> TREES = new WeakHashMap<>();
+
+	static {
+		FlightRecorder.addPeriodicEvent(RBTreeShapeEvent.class, new Runnable() {
+			@Override
+			public void run() {
+				emitShapes();
+			}
+		});
+	}
+
+	private RBTreeFlightRecorder() {
+	}
+
+	/**
+	 * @param name 事件中用来区分不同树的名字
+	 */
+	public static void monitor(String name, RBTree<?, ?> tree) {
+		synchronized (TREES) {
+			TREES.put(tree, name);
+		}
+	}
+
+	public static void unmonitor(RBTree<?, ?> tree) {
+		synchronized (TREES) {
+			TREES.remove(tree);
+		}
+	}
+
+	private static void emitShapes() {
+		List<Map.Entry<RBTree<?, ?>, String>> trees;
+		synchronized (TREES) {
+			trees = new ArrayList<>(TREES.entrySet());
+		}
+		for (Map.Entry<RBTree<?, ?>, String> entry : trees) {
+			RBTree<?, ?> tree = entry.getKey();
+			if (tree == null) {
+				continue;
+			}
+			RBTreeShapeEvent event = new RBTreeShapeEvent();
+			RBTree.RBNode root = tree.getRoot();
+			event.tree = entry.getValue();
+			event.size = tree.size();
+			event.blackHeight = blackHeight(root);
+			event.heightBound = 2 * event.blackHeight;
+			event.commit();
+		}
+	}
+
+	/**
+	 * 沿最左边的路径数黑节点，每条路径上都一样
+	 */
+	private static int blackHeight(RBTree.RBNode node) {
+		int blackHeight = 0;
+		for (int depth = 0; node != null && depth < MAX_HEIGHT; depth++) {
+			if (!node.isColor()) {
+				blackHeight++;
+			}
+			node = node.getLeft();
+		}
+		return blackHeight;
+	}
+}
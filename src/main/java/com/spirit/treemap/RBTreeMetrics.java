@@ -0,0 +1,337 @@
+package com.spirit.treemap;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * {@link RBTree}热路径上的计数器：比较次数、旋转、变色、调整循环次数和查找路径长度的直方图
+ * <p>
+ * 用{@link RBTree#setMetrics}挂到树上才会记录。树在一次操作中先用局部变量计数，
+ * 结束时判断一次metrics是否为null再累加到这里，没有挂metrics时只多一次null判断。
+ * 每个指标是一个LongAdder，多个线程同时更新不会争用同一个缓存行
+ *
+ * @author Spirit
+ */
+public class RBTreeMetrics implements RBTreeMetricsMXBean {
+
+	/**
+	 * 路径长度直方图的桶数，最后一个桶包含所有更长的路径
+	 */
+	public static final int PATH_BUCKETS = 64;
+
+	private final LongAdder lookups = new LongAdder();
+	private final LongAdder lookupComparisons = new LongAdder();
+	private final LongAdder inserts = new LongAdder();
+	private final LongAdder insertComparisons = new LongAdder();
+	private final LongAdder deletes = new LongAdder();
+	private final LongAdder insertRotations = new LongAdder();
+	private final LongAdder deleteRotations = new LongAdder();
+	private final LongAdder insertRecolors = new LongAdder();
+	private final LongAdder deleteRecolors = new LongAdder();
+	private final LongAdder insertFixupIterations = new LongAdder();
+	private final LongAdder deleteFixupIterations = new LongAdder();
+	private final LongAccumulator maxFixupIterations = new LongAccumulator(Math::max, 0);
+	private final LongAdder[] pathLengths = new LongAdder[PATH_BUCKETS];
+
+	private ObjectName registeredName;
+
+	public RBTreeMetrics() {
+		for (int i = 0; i < PATH_BUCKETS; i++) {
+			pathLengths[i] = new LongAdder();
+		}
+	}
+
+	// ---------------- 由RBTree调用 ----------------
+
+	void recordLookup(int comparisons) {
+		lookups.increment();
+		lookupComparisons.add(comparisons);
+		pathLengths[Math.min(comparisons, PATH_BUCKETS - 1)].increment();
+	}
+
+	void recordInsert(int comparisons) {
+		inserts.increment();
+		insertComparisons.add(comparisons);
+		pathLengths[Math.min(comparisons, PATH_BUCKETS - 1)].increment();
+	}
+
+	void recordDelete() {
+		deletes.increment();
+	}
+
+	void recordInsertFixup(int iterations, int rotations, int recolors) {
+		insertFixupIterations.add(iterations);
+		insertRotations.add(rotations);
+		insertRecolors.add(recolors);
+		maxFixupIterations.accumulate(iterations);
+	}
+
+	void recordDeleteFixup(int iterations, int rotations, int recolors) {
+		deleteFixupIterations.add(iterations);
+		deleteRotations.add(rotations);
+		deleteRecolors.add(recolors);
+		maxFixupIterations.accumulate(iterations);
+	}
+
+	// ---------------- 读取 ----------------
+
+	/**
+	 * @return 当前所有计数的一份拷贝。各个计数分别读取，并发更新时彼此之间不保证是同一时刻的值
+	 */
+	public Snapshot snapshot() {
+		long[] histogram = getPathLengthHistogram();
+		return new Snapshot(lookups.sum(), lookupComparisons.sum(), inserts.sum(), insertComparisons.sum(), deletes.sum(),
+				insertRotations.sum(), deleteRotations.sum(), insertRecolors.sum(), deleteRecolors.sum(),
+				insertFixupIterations.sum(), deleteFixupIterations.sum(), maxFixupIterations.get(), histogram);
+	}
+
+	@Override
+	public long getLookups() {
+		return lookups.sum();
+	}
+
+	@Override
+	public double getAverageLookupComparisons() {
+		return average(lookupComparisons.sum(), lookups.sum());
+	}
+
+	@Override
+	public long getInserts() {
+		return inserts.sum();
+	}
+
+	@Override
+	public double getAverageInsertComparisons() {
+		return average(insertComparisons.sum(), inserts.sum());
+	}
+
+	@Override
+	public long getDeletes() {
+		return deletes.sum();
+	}
+
+	@Override
+	public long getInsertRotations() {
+		return insertRotations.sum();
+	}
+
+	@Override
+	public long getDeleteRotations() {
+		return deleteRotations.sum();
+	}
+
+	@Override
+	public long getInsertRecolors() {
+		return insertRecolors.sum();
+	}
+
+	@Override
+	public long getDeleteRecolors() {
+		return deleteRecolors.sum();
+	}
+
+	@Override
+	public long getInsertFixupIterations() {
+		return insertFixupIterations.sum();
+	}
+
+	@Override
+	public long getDeleteFixupIterations() {
+		return deleteFixupIterations.sum();
+	}
+
+	@Override
+	public long getMaxFixupIterations() {
+		return maxFixupIterations.get();
+	}
+
+	@Override
+	public long[] getPathLengthHistogram() {
+		long[] histogram = new long[PATH_BUCKETS];
+		for (int i = 0; i < PATH_BUCKETS; i++) {
+			histogram[i] = pathLengths[i].sum();
+		}
+		return histogram;
+	}
+
+	@Override
+	public void reset() {
+		lookups.reset();
+		lookupComparisons.reset();
+		inserts.reset();
+		insertComparisons.reset();
+		deletes.reset();
+		insertRotations.reset();
+		deleteRotations.reset();
+		insertRecolors.reset();
+		deleteRecolors.reset();
+		insertFixupIterations.reset();
+		deleteFixupIterations.reset();
+		maxFixupIterations.reset();
+		for (LongAdder adder : pathLengths) {
+			adder.reset();
+		}
+	}
+
+	private static double average(long total, long count) {
+		return count == 0 ? 0 : (double) total / count;
+	}
+
+	// ---------------- JMX ----------------
+
+	/**
+	 * 注册到平台MBeanServer，名字为 com.spirit.treemap:type=RBTree,name=name
+	 *
+	 * @throws IllegalStateException 名字已经被占用或者不合法
+	 */
+	public synchronized void register(String name) {
+		try {
+			ObjectName objectName = new ObjectName("com.spirit.treemap:type=RBTree,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			registeredName = objectName;
+		} catch (JMException e) {
+			throw new IllegalStateException("failed to register metrics " + name, e);
+		}
+	}
+
+	public synchronized void unregister() {
+		if (registeredName == null) {
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.unregisterMBean(registeredName);
+		} catch (JMException e) {
+			throw new IllegalStateException("failed to unregister metrics " + registeredName, e);
+		} finally {
+			registeredName = null;
+		}
+	}
+
+	/**
+	 * {@link #snapshot()}的结果
+	 */
+	public static final class Snapshot {
+
+		private final long lookups;
+		private final long lookupComparisons;
+		private final long inserts;
+		private final long insertComparisons;
+		private final long deletes;
+		private final long insertRotations;
+		private final long deleteRotations;
+		private final long insertRecolors;
+		private final long deleteRecolors;
+		private final long insertFixupIterations;
+		private final long deleteFixupIterations;
+		private final long maxFixupIterations;
+		private final long[] pathLengthHistogram;
+
+		Snapshot(long lookups, long lookupComparisons, long inserts, long insertComparisons, long deletes,
+				 long insertRotations, long deleteRotations, long insertRecolors, long deleteRecolors,
+				 long insertFixupIterations, long deleteFixupIterations, long maxFixupIterations, long[] pathLengthHistogram) {
+			this.lookups = lookups;
+			this.lookupComparisons = lookupComparisons;
+			this.inserts = inserts;
+			this.insertComparisons = insertComparisons;
+			this.deletes = deletes;
+			this.insertRotations = insertRotations;
+			this.deleteRotations = deleteRotations;
+			this.insertRecolors = insertRecolors;
+			this.deleteRecolors = deleteRecolors;
+			this.insertFixupIterations = insertFixupIterations;
+			this.deleteFixupIterations = deleteFixupIterations;
+			this.maxFixupIterations = maxFixupIterations;
+			this.pathLengthHistogram = pathLengthHistogram;
+		}
+
+		public long getLookups() {
+			return lookups;
+		}
+
+		public double getAverageLookupComparisons() {
+			return average(lookupComparisons, lookups);
+		}
+
+		public long getInserts() {
+			return inserts;
+		}
+
+		public double getAverageInsertComparisons() {
+			return average(insertComparisons, inserts);
+		}
+
+		public long getDeletes() {
+			return deletes;
+		}
+
+		public long getInsertRotations() {
+			return insertRotations;
+		}
+
+		public long getDeleteRotations() {
+			return deleteRotations;
+		}
+
+		/**
+		 * 每次插入平均的旋转次数
+		 */
+		public double getRotationsPerInsert() {
+			return average(insertRotations, inserts);
+		}
+
+		/**
+		 * 每次删除平均的旋转次数
+		 */
+		public double getRotationsPerDelete() {
+			return average(deleteRotations, deletes);
+		}
+
+		public long getInsertRecolors() {
+			return insertRecolors;
+		}
+
+		public long getDeleteRecolors() {
+			return deleteRecolors;
+		}
+
+		public long getInsertFixupIterations() {
+			return insertFixupIterations;
+		}
+
+		public long getDeleteFixupIterations() {
+			return deleteFixupIterations;
+		}
+
+		public long getMaxFixupIterations() {
+			return maxFixupIterations;
+		}
+
+		public long[] getPathLengthHistogram() {
+			return pathLengthHistogram.clone();
+		}
+
+		@Override
+		public String toString() {
+			return "Snapshot{" +
+					"lookups=" + lookups +
+					", avgLookupComparisons=" + getAverageLookupComparisons() +
+					", inserts=" + inserts +
+					", avgInsertComparisons=" + getAverageInsertComparisons() +
+					", deletes=" + deletes +
+					", rotationsPerInsert=" + getRotationsPerInsert() +
+					", rotationsPerDelete=" + getRotationsPerDelete() +
+					", insertRecolors=" + insertRecolors +
+					", deleteRecolors=" + deleteRecolors +
+					", insertFixupIterations=" + insertFixupIterations +
+					", deleteFixupIterations=" + deleteFixupIterations +
+					", maxFixupIterations=" + maxFixupIterations +
+					'}';
+		}
+	}
+}
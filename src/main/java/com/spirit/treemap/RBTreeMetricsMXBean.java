@@ -0,0 +1,43 @@
+package com.spirit.treemap;
+
+/**
+ * {@link RBTreeMetrics}通过JMX暴露的属性
+ *
+ * @author Spirit
+ */
+public interface RBTreeMetricsMXBean {
+
+	long getLookups();
+
+	double getAverageLookupComparisons();
+
+	long getInserts();
+
+	double getAverageInsertComparisons();
+
+	long getDeletes();
+
+	long getInsertRotations();
+
+	long getDeleteRotations();
+
+	long getInsertRecolors();
+
+	long getDeleteRecolors();
+
+	long getInsertFixupIterations();
+
+	long getDeleteFixupIterations();
+
+	/**
+	 * 单次插入或删除调整中循环次数的最大值
+	 */
+	long getMaxFixupIterations();
+
+	/**
+	 * 下标i是查找路径上经过i个节点的次数，最后一个桶包含所有更长的路径
+	 */
+	long[] getPathLengthHistogram();
+
+	void reset();
+}
@@ -0,0 +1,101 @@
+package com.spirit.treemap;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.Threshold;
+
+/**
+ * {@link RBTree}的put、remove、getNode以及putIfAbsent、compute、merge等读-改-写方法耗时超过阈值时提交的JFR事件
+ * <p>
+ * 默认不启用，否则任何录制(包括只用默认配置的)都会让每次操作多创建一个事件对象。
+ * 启用和阈值用JFR的配置调整，例如 -XX:StartFlightRecording:com.spirit.treemap.Operation#enabled=true,com.spirit.treemap.Operation#threshold=100us，
+ * 或者Recording.enable(RBTreeOperationEvent.class).withThreshold(...)。
+ * 只通过{@link RBTreeEvents}使用，没有录制启用这个事件时不会创建
+ *
+ * @author Spirit
+ */
+@Name("com.spirit.treemap.Operation")
+@Label("RBTree Operation")
+@Category("RBTree")
+@Description("A put, remove, get or read-modify-write operation on an RBTree that took longer than the threshold")
+@Threshold("1 ms")
+@Enabled(false)
+final class RBTreeOperationEvent extends jdk.jfr.Event {
+
+	@Label("Operation")
+	String operation;
+
+	@Label("Key Hash")
+	int keyHash;
+
+	@Label("Path Depth")
+	@Description("Number of nodes compared while descending from the root")
+	int depth;
+
+	@Label("Rotations")
+	int rotations;
+
+	@Label("Size")
+	int size;
+
+	static RBTreeOperationEvent started() {
+		RBTreeOperationEvent event = new RBTreeOperationEvent();
+		event.begin();
+		return event;
+	}
+
+	void finish(String operation, Object key, int depth, int rotations, int size) {
+		end();
+		if (shouldCommit()) {
+			this.operation = operation;
+			this.keyHash = key == null ? 0 : key.hashCode();
+			this.depth = depth;
+			this.rotations = rotations;
+			this.size = size;
+			commit();
+		}
+	}
+
+	/**
+	 * 录制开始和结束时更新{@link RBTreeEvents#enabled}。
+	 * 不会主动初始化JFR，已经初始化时立即更新一次
+	 */
+	static void trackRecordings() {
+		FlightRecorder.addListener(new FlightRecorderListener() {
+			@Override
+			public void recorderInitialized(FlightRecorder recorder) {
+				update(recorder);
+			}
+
+			@Override
+			public void recordingStateChanged(Recording recording) {
+				update(FlightRecorder.getFlightRecorder());
+			}
+		});
+		if (FlightRecorder.isInitialized()) {
+			update(FlightRecorder.getFlightRecorder());
+		}
+	}
+
+	/**
+	 * 监听器在录制的设置生效之后才被调用，此时EventType.isEnabled()已经反映了所有正在进行的录制
+	 */
+	private static void update(FlightRecorder recorder) {
+		boolean running = false;
+		for (Recording recording : recorder.getRecordings()) {
+			if (recording.getState() == RecordingState.RUNNING) {
+				running = true;
+				break;
+			}
+		}
+		RBTreeEvents.enabled = running && EventType.getEventType(RBTreeOperationEvent.class).isEnabled();
+	}
+}
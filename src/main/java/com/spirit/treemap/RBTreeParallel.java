@@ -0,0 +1,189 @@
+package com.spirit.treemap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+
+/**
+ * 在ForkJoinPool上对{@link RBTree}做并行的forEach/reduce/search
+ * <p>
+ * 任务按{@link RBTree#spliterator()}切分：剩余元素多于parallelismThreshold时切出前一半fork出去，
+ * 自己继续处理后一半，直到不超过阈值再顺序遍历。阈值大于等于树的大小时就是单线程执行。
+ * 执行期间不能修改树
+ *
+ * @author Spirit
+ */
+public final class RBTreeParallel {
+
+	private RBTreeParallel() {
+	}
+
+	public static <K extends Comparable<K>, V> void forEach(RBTree<K, V> tree, long parallelismThreshold,
+															  BiConsumer<? super K, ? super V> action) {
+		forEach(ForkJoinPool.commonPool(), tree, parallelismThreshold, action);
+	}
+
+	/**
+	 * 对每个元素执行action，不保证顺序
+	 */
+	public static <K extends Comparable<K>, V> void forEach(ForkJoinPool pool, RBTree<K, V> tree, long parallelismThreshold,
+															  final BiConsumer<? super K, ? super V> action) {
+		if (action == null) {
+			throw new NullPointerException();
+		}
+		pool.invoke(new Task<>(tree.spliterator(), parallelismThreshold, new Op<K, V, Object>() {
+			@Override
+			Object leaf(Spliterator<RBTree.RBNode<K, V>> s) {
+				s.forEachRemaining(new Consumer<RBTree.RBNode<K, V>>() {
+					@Override
+					public void accept(RBTree.RBNode<K, V> node) {
+						action.accept(node.getK(), node.getV());
+					}
+				});
+				return null;
+			}
+		}));
+	}
+
+	public static <K extends Comparable<K>, V, U> U reduce(RBTree<K, V> tree, long parallelismThreshold,
+															BiFunction<? super K, ? super V, ? extends U> transformer,
+															BinaryOperator<U> reducer) {
+		return reduce(ForkJoinPool.commonPool(), tree, parallelismThreshold, transformer, reducer);
+	}
+
+	/**
+	 * 把每个元素用transformer转换后用reducer按key的顺序合并，transformer返回null的元素被忽略
+	 *
+	 * @return 合并的结果，没有任何结果时返回null
+	 */
+	public static <K extends Comparable<K>, V, U> U reduce(ForkJoinPool pool, RBTree<K, V> tree, long parallelismThreshold,
+															final BiFunction<? super K, ? super V, ? extends U> transformer,
+															final BinaryOperator<U> reducer) {
+		if (transformer == null || reducer == null) {
+			throw new NullPointerException();
+		}
+		return pool.invoke(new Task<>(tree.spliterator(), parallelismThreshold, new Op<K, V, U>() {
+			@Override
+			U leaf(Spliterator<RBTree.RBNode<K, V>> s) {
+				final Object[] result = new Object[1];
+				s.forEachRemaining(new Consumer<RBTree.RBNode<K, V>>() {
+					@Override
+					public void accept(RBTree.RBNode<K, V> node) {
+						U u = transformer.apply(node.getK(), node.getV());
+						if (u != null) {
+							result[0] = result[0] == null ? u : reducer.apply((U) result[0], u);
+						}
+					}
+				});
+				return (U) result[0];
+			}
+
+			@Override
+			U combine(U a, U b) {
+				return a == null ? b : b == null ? a : reducer.apply(a, b);
+			}
+		}));
+	}
+
+	public static <K extends Comparable<K>, V, U> U search(RBTree<K, V> tree, long parallelismThreshold,
+															BiFunction<? super K, ? super V, ? extends U> searchFunction) {
+		return search(ForkJoinPool.commonPool(), tree, parallelismThreshold, searchFunction);
+	}
+
+	/**
+	 * 查找searchFunction返回非null的元素，找到一个之后其它任务尽快停止
+	 *
+	 * @return 任意一个非null的结果(不一定是key最小的)，都没有时返回null
+	 */
+	public static <K extends Comparable<K>, V, U> U search(ForkJoinPool pool, RBTree<K, V> tree, long parallelismThreshold,
+															final BiFunction<? super K, ? super V, ? extends U> searchFunction) {
+		if (searchFunction == null) {
+			throw new NullPointerException();
+		}
+		final AtomicReference<U> found = new AtomicReference<>();
+		pool.invoke(new Task<>(tree.spliterator(), parallelismThreshold, new Op<K, V, Object>() {
+			@Override
+			boolean cancelled() {
+				return found.get() != null;
+			}
+
+			@Override
+			Object leaf(Spliterator<RBTree.RBNode<K, V>> s) {
+				Consumer<RBTree.RBNode<K, V>> action = new Consumer<RBTree.RBNode<K, V>>() {
+					@Override
+					public void accept(RBTree.RBNode<K, V> node) {
+						U u = searchFunction.apply(node.getK(), node.getV());
+						if (u != null) {
+							found.compareAndSet(null, u);
+						}
+					}
+				};
+				// 逐个前进，每一步都检查是否已经有任务找到了
+				while (found.get() == null && s.tryAdvance(action)) {
+				}
+				return null;
+			}
+		}));
+		return found.get();
+	}
+
+	/**
+	 * 任务的具体行为，同一次调用切分出来的所有任务共用一个Op
+	 */
+	private abstract static class Op<K extends Comparable<K>, V, R> {
+
+		/**
+		 * 顺序处理s中剩余的元素
+		 */
+		abstract R leaf(Spliterator<RBTree.RBNode<K, V>> s);
+
+		/**
+		 * 合并相邻两段的结果，a在b之前
+		 */
+		R combine(R a, R b) {
+			return null;
+		}
+
+		boolean cancelled() {
+			return false;
+		}
+	}
+
+	private static final class Task<K extends Comparable<K>, V, R> extends RecursiveTask<R> {
+
+		private final Spliterator<RBTree.RBNode<K, V>> spliterator;
+		private final long threshold;
+		private final Op<K, V, R> op;
+
+		Task(Spliterator<RBTree.RBNode<K, V>> spliterator, long threshold, Op<K, V, R> op) {
+			this.spliterator = spliterator;
+			this.threshold = Math.max(1, threshold);
+			this.op = op;
+		}
+
+		@Override
+		protected R compute() {
+			Spliterator<RBTree.RBNode<K, V>> s = spliterator;
+			// 不断切出前一半fork出去，自己留下后一半，forked中的任务依次排在s之前
+			List<Task<K, V, R>> forked = new ArrayList<>();
+			Spliterator<RBTree.RBNode<K, V>> prefix;
+			while (s.estimateSize() > threshold && !op.cancelled() && (prefix = s.trySplit()) != null) {
+				Task<K, V, R> task = new Task<>(prefix, threshold, op);
+				task.fork();
+				forked.add(task);
+			}
+			R result = op.cancelled() ? null : op.leaf(s);
+			for (int i = forked.size() - 1; i >= 0; i--) {
+				result = op.combine(forked.get(i).join(), result);
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package com.spirit.treemap;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+
+/**
+ * 通过{@link RBTreeFlightRecorder#monitor}登记的树，每个周期提交一次当前的大小、黑高度和高度上界
+ * <p>
+ * 每个周期的代价是O(log n)，周期可以用 com.spirit.treemap.Shape#period 调整
+ *
+ * @author Spirit
+ */
+@Name("com.spirit.treemap.Shape")
+@Label("RBTree Shape")
+@Category("RBTree")
+@Description("Periodic size, black-height and height bound of a monitored RBTree")
+@Period("10 s")
+final class RBTreeShapeEvent extends jdk.jfr.Event {
+
+	@Label("Tree")
+	String tree;
+
+	@Label("Size")
+	int size;
+
+	@Label("Black Height")
+	int blackHeight;
+
+	@Label("Height Bound")
+	@Description("Upper bound of the height guaranteed by the red-black rules, twice the black height")
+	int heightBound;
+}
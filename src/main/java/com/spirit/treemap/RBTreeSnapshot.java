@@ -0,0 +1,495 @@
+package com.spirit.treemap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+
+/**
+ * {@link RBTree}的二进制快照，按key升序流式写出和读入
+ * <p>
+ * 格式：文件头[MAGIC][VERSION][数据条数][CRC32]，CRC32覆盖前面三项，然后是若干个块，每个块为
+ * [payload长度][块内条数][payload][CRC32]，CRC32覆盖长度、条数和payload。
+ * 块内每条数据是 key、一个标记字节(0表示value就是key本身，与put(k, null)的约定相同)、value。
+ * key和value由{@link SnapshotCodec}编码，编码时能拿到块内的上一条数据，
+ * 所以升序的整数key可以只写差值的varint，String key可以只写与上一个key不同的后缀。
+ * 每个块从头开始差分，块之间互不依赖
+ * <p>
+ * 读入时边解码边交给{@link RBTree#bulkLoad}，O(n)建树，没有put的查找和旋转
+ *
+ * @author Spirit
+ */
+public final class RBTreeSnapshot {
+
+	private static final long MAGIC = 0x5342_5452_4545_534EL;
+	private static final int VERSION = 1;
+
+	/**
+	 * 文件头中CRC32之前的字节数
+	 */
+	private static final int HEADER_BYTES = 8 + 4 + 8;
+
+	/**
+	 * 块的payload超过这个大小就写出
+	 */
+	static final int BLOCK_BYTES = 64 * 1024;
+
+	/**
+	 * payload的上限：块满之前的最后一条数据可以超出BLOCK_BYTES，但单条数据不能超过1MB。
+	 * 读入时先检查长度再分配缓冲区，损坏的块头不会导致分配巨大的数组
+	 */
+	static final int MAX_BLOCK_BYTES = BLOCK_BYTES + (1 << 20);
+
+	private static final int VALUE_IS_KEY = 0;
+	private static final int VALUE_FOLLOWS = 1;
+
+	private RBTreeSnapshot() {
+	}
+
+	// ---------------- 写 ----------------
+
+	/**
+	 * 按key升序写出整棵树，不会关闭out
+	 * <p>
+	 * 块写满就写出，所以抛出IOException时(包括单条数据超过1MB)out中可能已经有了一部分块，
+	 * 这样的输出不是完整的快照(读入时会因为条数不够而拒绝)，调用方应该丢弃，比如删除写了一半的文件
+	 */
+	public static <K extends Comparable<K>, V> void write(RBTree<K, V> tree, OutputStream out,
+														   SnapshotCodec<K> keyCodec, SnapshotCodec<V> valueCodec) throws IOException {
+		Writer<K, V> writer = new Writer<>(out, tree.size(), keyCodec, valueCodec);
+		for (RBTree.RBNode node = tree.getFirstNode(); node != null; node = tree.successor(node)) {
+			writer.add((K) node.getK(), (V) node.getV());
+		}
+		writer.finish();
+	}
+
+	/**
+	 * 写出PersistentRBTree的某个版本，格式与上面相同，写出期间其他线程可以继续生成新版本
+	 */
+	public static <K extends Comparable<K>, V> void write(PersistentRBTree<K, V> tree, OutputStream out,
+														   SnapshotCodec<K> keyCodec, SnapshotCodec<V> valueCodec) throws IOException {
+		Writer<K, V> writer = new Writer<>(out, tree.size(), keyCodec, valueCodec);
+		for (PersistentRBTree.Node<K, V> node : tree) {
+			writer.add(node.getK(), node.getV());
+		}
+		writer.finish();
+	}
+
+	/**
+	 * 写出文件头，然后按升序逐条接收数据，块满就写出
+	 */
+	private static final class Writer<K, V> {
+
+		private final DataOutputStream out;
+		private final SnapshotCodec<K> keyCodec;
+		private final SnapshotCodec<V> valueCodec;
+		private final Block block = new Block();
+		private final DataOutputStream data = new DataOutputStream(block);
+		private final CRC32 crc = new CRC32();
+		private int count;
+		private K previous;
+
+		Writer(OutputStream out, long size, SnapshotCodec<K> keyCodec, SnapshotCodec<V> valueCodec) throws IOException {
+			this.out = new DataOutputStream(out);
+			this.keyCodec = keyCodec;
+			this.valueCodec = valueCodec;
+			ByteBuffer fileHeader = ByteBuffer.allocate(HEADER_BYTES);
+			fileHeader.putLong(MAGIC).putInt(VERSION).putLong(size);
+			crc.update(fileHeader.array(), 0, HEADER_BYTES);
+			this.out.write(fileHeader.array());
+			this.out.writeInt((int) crc.getValue());
+		}
+
+		void add(K k, V v) throws IOException {
+			keyCodec.write(previous, k, data);
+			if (v == (Object) k) {
+				data.writeByte(VALUE_IS_KEY);
+			} else {
+				data.writeByte(VALUE_FOLLOWS);
+				valueCodec.write(null, v, data);
+			}
+			previous = k;
+			count++;
+
+			if (block.size() >= BLOCK_BYTES) {
+				flushBlock();
+			}
+		}
+
+		void finish() throws IOException {
+			if (count > 0) {
+				flushBlock();
+			}
+			out.flush();
+		}
+
+		private void flushBlock() throws IOException {
+			if (block.size() > MAX_BLOCK_BYTES) {
+				throw new IOException("entry too large for a snapshot block: " + previous);
+			}
+			block.flushTo(out, count, crc);
+			count = 0;
+			previous = null;
+		}
+	}
+
+	/**
+	 * 可以直接拿到内部数组的ByteArrayOutputStream，避免每个块复制一次
+	 */
+	private static final class Block extends ByteArrayOutputStream {
+
+		Block() {
+			super(BLOCK_BYTES + 1024);
+		}
+
+		void flushTo(DataOutputStream out, int count, CRC32 crc) throws IOException {
+			crc.reset();
+			updateHeader(crc, this.count, count);
+			crc.update(buf, 0, this.count);
+			out.writeInt(this.count);
+			out.writeInt(count);
+			out.write(buf, 0, this.count);
+			out.writeInt((int) crc.getValue());
+			reset();
+		}
+	}
+
+	/**
+	 * 块头的两个int按大端序计入CRC，与DataOutputStream写出的字节相同
+	 */
+	private static void updateHeader(CRC32 crc, int length, int count) {
+		for (int shift = 24; shift >= 0; shift -= 8) {
+			crc.update(length >>> shift);
+		}
+		for (int shift = 24; shift >= 0; shift -= 8) {
+			crc.update(count >>> shift);
+		}
+	}
+
+	// ---------------- 读 ----------------
+
+	/**
+	 * 读入快照建一棵新树
+	 *
+	 * @throws IOException 格式不对、校验失败或者数据不完整
+	 */
+	public static <K extends Comparable<K>, V> RBTree<K, V> read(InputStream in,
+																  SnapshotCodec<K> keyCodec, SnapshotCodec<V> valueCodec) throws IOException {
+		DataInputStream input = new DataInputStream(in);
+		int size = readHeader(input);
+		RBTree<K, V> tree = new RBTree<>();
+		try {
+			tree.bulkLoad(new EntryReader<>(input, keyCodec, valueCodec, size), size);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} catch (IllegalArgumentException e) {
+			throw new IOException("corrupted snapshot: " + e.getMessage(), e);
+		}
+		return tree;
+	}
+
+	/**
+	 * 读入快照建一棵PersistentRBTree，同样是O(n)
+	 *
+	 * @throws IOException 格式不对、校验失败或者数据不完整
+	 */
+	public static <K extends Comparable<K>, V> PersistentRBTree<K, V> readPersistent(InputStream in,
+																					  SnapshotCodec<K> keyCodec, SnapshotCodec<V> valueCodec) throws IOException {
+		DataInputStream input = new DataInputStream(in);
+		int size = readHeader(input);
+		try {
+			return PersistentRBTree.fromSorted(new EntryReader<>(input, keyCodec, valueCodec, size), size);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} catch (IllegalArgumentException e) {
+			throw new IOException("corrupted snapshot: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return 数据条数
+	 */
+	private static int readHeader(DataInputStream input) throws IOException {
+		byte[] bytes = new byte[HEADER_BYTES];
+		input.readFully(bytes);
+		ByteBuffer fileHeader = ByteBuffer.wrap(bytes);
+		if (fileHeader.getLong() != MAGIC) {
+			throw new IOException("not a tree snapshot");
+		}
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, HEADER_BYTES);
+		if (input.readInt() != (int) crc.getValue()) {
+			throw new IOException("corrupted snapshot: header checksum mismatch");
+		}
+		int version = fileHeader.getInt();
+		if (version != VERSION) {
+			throw new IOException("unsupported snapshot version: " + version);
+		}
+		long size = fileHeader.getLong();
+		if (size < 0 || size > Integer.MAX_VALUE) {
+			throw new IOException("bad entry count: " + size);
+		}
+		return (int) size;
+	}
+
+	/**
+	 * 按块读入、校验、解码，作为bulkLoad的输入
+	 */
+	private static final class EntryReader<K, V> implements Iterator<Map.Entry<K, V>> {
+
+		private final DataInputStream in;
+		private final SnapshotCodec<K> keyCodec;
+		private final SnapshotCodec<V> valueCodec;
+		private final CRC32 crc = new CRC32();
+
+		private int remaining;
+		private byte[] buffer = new byte[BLOCK_BYTES + 1024];
+		private DataInputStream block;
+		private int remainingInBlock;
+		private K previous;
+
+		EntryReader(DataInputStream in, SnapshotCodec<K> keyCodec, SnapshotCodec<V> valueCodec, int size) {
+			this.in = in;
+			this.keyCodec = keyCodec;
+			this.valueCodec = valueCodec;
+			this.remaining = size;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return remaining > 0;
+		}
+
+		@Override
+		public Map.Entry<K, V> next() {
+			if (remaining == 0) {
+				throw new NoSuchElementException();
+			}
+			try {
+				if (remainingInBlock == 0) {
+					nextBlock();
+				}
+				K k = keyCodec.read(previous, block);
+				int marker = block.readUnsignedByte();
+				V v;
+				if (marker == VALUE_IS_KEY) {
+					v = (V) k;
+				} else if (marker == VALUE_FOLLOWS) {
+					v = valueCodec.read(null, block);
+				} else {
+					throw new IOException("corrupted snapshot: bad value marker " + marker);
+				}
+				previous = k;
+				remaining--;
+				remainingInBlock--;
+				if (remainingInBlock == 0 && block.available() != 0) {
+					throw new IOException("corrupted snapshot: " + block.available() + " trailing bytes in block");
+				}
+				return new AbstractMap.SimpleImmutableEntry<>(k, v);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		private void nextBlock() throws IOException {
+			int length;
+			try {
+				length = in.readInt();
+			} catch (EOFException e) {
+				throw new IOException("truncated snapshot: " + remaining + " entries missing", e);
+			}
+			int count = in.readInt();
+			if (length < 0 || length > MAX_BLOCK_BYTES || count <= 0 || count > remaining) {
+				throw new IOException("corrupted snapshot: bad block header " + length + "/" + count);
+			}
+			if (buffer.length < length) {
+				buffer = new byte[length];
+			}
+			in.readFully(buffer, 0, length);
+			crc.reset();
+			updateHeader(crc, length, count);
+			crc.update(buffer, 0, length);
+			if (in.readInt() != (int) crc.getValue()) {
+				throw new IOException("corrupted snapshot: block checksum mismatch");
+			}
+			block = new DataInputStream(new ByteArrayInputStream(buffer, 0, length));
+			remainingInBlock = count;
+			previous = null;
+		}
+	}
+
+	// ---------------- varint ----------------
+
+	/**
+	 * 无符号varint，每个字节7位，最高位表示后面还有字节
+	 */
+	public static void writeVarLong(DataOutput out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	public static long readVarLong(DataInput in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("varint too long");
+	}
+
+	/**
+	 * zigzag编码，绝对值小的负数也只占很少的字节
+	 */
+	public static void writeVarSignedLong(DataOutput out, long value) throws IOException {
+		writeVarLong(out, (value << 1) ^ (value >> 63));
+	}
+
+	public static long readVarSignedLong(DataInput in) throws IOException {
+		long v = readVarLong(in);
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	// ---------------- 常用的编码 ----------------
+
+	/**
+	 * 升序的Long key：第一个写zigzag varint，之后写与上一个key的差值(无符号，溢出也能正确还原)
+	 */
+	public static final SnapshotCodec<Long> LONG_KEYS = new SnapshotCodec<Long>() {
+		@Override
+		public void write(Long previous, Long value, DataOutput out) throws IOException {
+			if (previous == null) {
+				writeVarSignedLong(out, value);
+			} else {
+				writeVarLong(out, value - previous);
+			}
+		}
+
+		@Override
+		public Long read(Long previous, DataInput in) throws IOException {
+			return previous == null ? readVarSignedLong(in) : previous + readVarLong(in);
+		}
+	};
+
+	public static final SnapshotCodec<Integer> INTEGER_KEYS = new SnapshotCodec<Integer>() {
+		@Override
+		public void write(Integer previous, Integer value, DataOutput out) throws IOException {
+			if (previous == null) {
+				writeVarSignedLong(out, value);
+			} else {
+				writeVarLong(out, (long) value - previous);
+			}
+		}
+
+		@Override
+		public Integer read(Integer previous, DataInput in) throws IOException {
+			return (int) (previous == null ? readVarSignedLong(in) : previous + readVarLong(in));
+		}
+	};
+
+	/**
+	 * 升序的String key：写与上一个key相同前缀的长度，再写剩下的后缀(UTF-8)。
+	 * 像"001"、"002"这样补零的key，每条只需要写最后一两个字符
+	 */
+	public static final SnapshotCodec<String> STRING_KEYS = new SnapshotCodec<String>() {
+		@Override
+		public void write(String previous, String value, DataOutput out) throws IOException {
+			int shared = 0;
+			if (previous != null) {
+				int max = Math.min(previous.length(), value.length());
+				while (shared < max && previous.charAt(shared) == value.charAt(shared)) {
+					shared++;
+				}
+				// 不把一个代理对拆到前缀和后缀两边
+				if (shared > 0 && Character.isHighSurrogate(value.charAt(shared - 1))) {
+					shared--;
+				}
+			}
+			writeVarLong(out, shared);
+			writeBytes(out, value.substring(shared).getBytes(StandardCharsets.UTF_8));
+		}
+
+		@Override
+		public String read(String previous, DataInput in) throws IOException {
+			long shared = readVarLong(in);
+			String suffix = new String(readBytes(in), StandardCharsets.UTF_8);
+			if (shared == 0) {
+				return suffix;
+			}
+			if (previous == null || shared > previous.length()) {
+				throw new IOException("corrupted snapshot: bad shared prefix " + shared);
+			}
+			return previous.substring(0, (int) shared).concat(suffix);
+		}
+	};
+
+	public static final SnapshotCodec<Long> LONG_VALUES = new SnapshotCodec<Long>() {
+		@Override
+		public void write(Long previous, Long value, DataOutput out) throws IOException {
+			writeVarSignedLong(out, value);
+		}
+
+		@Override
+		public Long read(Long previous, DataInput in) throws IOException {
+			return readVarSignedLong(in);
+		}
+	};
+
+	public static final SnapshotCodec<Integer> INTEGER_VALUES = new SnapshotCodec<Integer>() {
+		@Override
+		public void write(Integer previous, Integer value, DataOutput out) throws IOException {
+			writeVarSignedLong(out, value);
+		}
+
+		@Override
+		public Integer read(Integer previous, DataInput in) throws IOException {
+			return (int) readVarSignedLong(in);
+		}
+	};
+
+	public static final SnapshotCodec<String> STRING_VALUES = new SnapshotCodec<String>() {
+		@Override
+		public void write(String previous, String value, DataOutput out) throws IOException {
+			writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+		}
+
+		@Override
+		public String read(String previous, DataInput in) throws IOException {
+			return new String(readBytes(in), StandardCharsets.UTF_8);
+		}
+	};
+
+	private static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+		writeVarLong(out, bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(DataInput in) throws IOException {
+		long length = readVarLong(in);
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("corrupted snapshot: bad length " + length);
+		}
+		byte[] bytes = new byte[(int) length];
+		in.readFully(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,106 @@
+package com.spirit.treemap;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * 按中序排名[index, fence)划分的Spliterator
+ * <p>
+ * 每个节点都记录了子树大小，所以切分点取排名的中间值，从根沿左右子树下降一次(select)就能定位，
+ * 切出来的两半大小完全相等，SIZED和SUBSIZED都是精确的。
+ * 即使红黑树左右子树高度相差一倍，并行任务的负载也是均匀的。
+ * 起始节点在第一次访问时才定位，之后沿successor前进，遍历期间不能修改树
+ *
+ * @author Spirit
+ */
+final class RBTreeSpliterator<K extends Comparable<K>, V> implements Spliterator<RBTree.RBNode<K, V>> {
+
+	private final RBTree<K, V> tree;
+
+	/**
+	 * 下一个要访问的节点的排名
+	 */
+	private int index;
+
+	/**
+	 * 结束的排名(不包含)
+	 */
+	private final int fence;
+
+	/**
+	 * 排名为index的节点，还没有定位时为null
+	 */
+	private RBTree.RBNode<K, V> current;
+
+	RBTreeSpliterator(RBTree<K, V> tree, int index, int fence, RBTree.RBNode<K, V> current) {
+		this.tree = tree;
+		this.index = index;
+		this.fence = fence;
+		this.current = current;
+	}
+
+	@Override
+	public Spliterator<RBTree.RBNode<K, V>> trySplit() {
+		int lo = index;
+		int mid = (lo + fence) >>> 1;
+		if (mid <= lo) {
+			return null;
+		}
+		// 前一半从当前位置开始，自己从mid开始，mid对应的节点等到访问时再定位
+		RBTreeSpliterator<K, V> prefix = new RBTreeSpliterator<>(tree, lo, mid, current);
+		index = mid;
+		current = null;
+		return prefix;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super RBTree.RBNode<K, V>> action) {
+		if (index >= fence) {
+			return false;
+		}
+		RBTree.RBNode<K, V> node = current != null ? current : tree.select(index);
+		index++;
+		current = index < fence ? tree.successor(node) : null;
+		action.accept(node);
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super RBTree.RBNode<K, V>> action) {
+		if (index >= fence) {
+			return;
+		}
+		RBTree.RBNode<K, V> node = current != null ? current : tree.select(index);
+		int remaining = fence - index;
+		index = fence;
+		current = null;
+		while (true) {
+			action.accept(node);
+			if (--remaining == 0) {
+				return;
+			}
+			node = tree.successor(node);
+		}
+	}
+
+	@Override
+	public long estimateSize() {
+		return fence - index;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | SORTED | DISTINCT | NONNULL | SIZED | SUBSIZED;
+	}
+
+	@Override
+	public Comparator<? super RBTree.RBNode<K, V>> getComparator() {
+		return new Comparator<RBTree.RBNode<K, V>>() {
+			@Override
+			public int compare(RBTree.RBNode<K, V> a, RBTree.RBNode<K, V> b) {
+				return a.getK().compareTo(b.getK());
+			}
+		};
+	}
+}
@@ -0,0 +1,251 @@
+package com.spirit.treemap;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link RBTree}中一段key范围的视图，由subMap/headMap/tailMap/descendingMap创建
+ * <p>
+ * 视图不保存数据，每次访问都直接在树上操作：
+ * 定位边界节点是一次O(log n)的下降，之后沿successor(降序时predecessor)逐个前进，
+ * 所以访问k个元素的代价是O(log n + k)
+ * <p>
+ * 和TreeMap一样，降序视图上的subMap/headMap/tailMap按视图自己的顺序理解，
+ * 例如降序视图的headMap(k)是比k大的那部分。遍历期间不能修改树
+ *
+ * @author Spirit
+ */
+public class RBTreeView<K extends Comparable<K>, V> implements Iterable<RBTree.RBNode> {
+
+	private final RBTree<K, V> tree;
+
+	/**
+	 * fromStart为true表示没有下界，toEnd为true表示没有上界
+	 */
+	private final boolean fromStart;
+	private final K lo;
+	private final boolean loInclusive;
+	private final boolean toEnd;
+	private final K hi;
+	private final boolean hiInclusive;
+
+	private final boolean descending;
+
+	RBTreeView(RBTree<K, V> tree, boolean fromStart, K lo, boolean loInclusive,
+			   boolean toEnd, K hi, boolean hiInclusive, boolean descending) {
+		this.tree = tree;
+		this.fromStart = fromStart;
+		this.lo = lo;
+		this.loInclusive = loInclusive;
+		this.toEnd = toEnd;
+		this.hi = hi;
+		this.hiInclusive = hiInclusive;
+		this.descending = descending;
+	}
+
+	public boolean isDescending() {
+		return descending;
+	}
+
+	// ---------------- 范围判断 ----------------
+
+	private boolean tooLow(K key) {
+		if (!fromStart) {
+			int c = key.compareTo(lo);
+			return c < 0 || (c == 0 && !loInclusive);
+		}
+		return false;
+	}
+
+	private boolean tooHigh(K key) {
+		if (!toEnd) {
+			int c = key.compareTo(hi);
+			return c > 0 || (c == 0 && !hiInclusive);
+		}
+		return false;
+	}
+
+	public boolean inRange(K key) {
+		return !tooLow(key) && !tooHigh(key);
+	}
+
+	/**
+	 * 包含两端边界的范围判断，用于检查exclusive的新边界
+	 */
+	private boolean inClosedRange(K key) {
+		return (fromStart || key.compareTo(lo) >= 0) && (toEnd || key.compareTo(hi) <= 0);
+	}
+
+	private boolean inRange(K key, boolean inclusive) {
+		return inclusive ? inRange(key) : inClosedRange(key);
+	}
+
+	// ---------------- 边界节点 ----------------
+
+	private RBTree.RBNode lowestNode() {
+		RBTree.RBNode node = fromStart ? tree.getFirstNode()
+				: loInclusive ? tree.getCeilingNode(lo) : tree.getHigherNode(lo);
+		return node == null || tooHigh((K) node.getK()) ? null : node;
+	}
+
+	private RBTree.RBNode highestNode() {
+		RBTree.RBNode node = toEnd ? tree.getLastNode()
+				: hiInclusive ? tree.getFloorNode(hi) : tree.getLowerNode(hi);
+		return node == null || tooLow((K) node.getK()) ? null : node;
+	}
+
+	/**
+	 * @return 按视图顺序的第一个节点，视图为空时返回null
+	 */
+	public RBTree.RBNode firstNode() {
+		return descending ? highestNode() : lowestNode();
+	}
+
+	/**
+	 * @return 按视图顺序的最后一个节点，视图为空时返回null
+	 */
+	public RBTree.RBNode lastNode() {
+		return descending ? lowestNode() : highestNode();
+	}
+
+	/**
+	 * 按视图顺序的下一个节点，超出范围返回null
+	 */
+	private RBTree.RBNode next(RBTree.RBNode node) {
+		if (descending) {
+			RBTree.RBNode p = tree.predecessor(node);
+			return p == null || tooLow((K) p.getK()) ? null : p;
+		}
+		RBTree.RBNode s = tree.successor(node);
+		return s == null || tooHigh((K) s.getK()) ? null : s;
+	}
+
+	// ---------------- 读写 ----------------
+
+	public RBTree.RBNode getNode(K key) {
+		return inRange(key) ? tree.getNode(key) : null;
+	}
+
+	public V get(K key) {
+		RBTree.RBNode node = getNode(key);
+		return node == null ? null : (V) node.getV();
+	}
+
+	public boolean containsKey(K key) {
+		return getNode(key) != null;
+	}
+
+	/**
+	 * @throws IllegalArgumentException key不在视图范围内
+	 */
+	public void put(K k, V v) {
+		if (!inRange(k)) {
+			throw new IllegalArgumentException("key out of range: " + k);
+		}
+		tree.put(k, v);
+	}
+
+	public V remove(K key) {
+		return inRange(key) ? tree.remove(key) : null;
+	}
+
+	public boolean isEmpty() {
+		return lowestNode() == null;
+	}
+
+	/**
+	 * 视图中的元素个数，用两端的排名相减得到，O(log n)
+	 */
+	public int size() {
+		int below = fromStart ? 0 : tree.rank(lo, !loInclusive);
+		int upTo = toEnd ? tree.size() : tree.rank(hi, hiInclusive);
+		return Math.max(0, upTo - below);
+	}
+
+	/**
+	 * 按视图顺序依次处理每个元素，visitor返回false时提前结束
+	 */
+	public void scan(EntryVisitor<K, V> visitor) {
+		for (RBTree.RBNode node = firstNode(); node != null; node = next(node)) {
+			if (!visitor.visit((K) node.getK(), (V) node.getV())) {
+				return;
+			}
+		}
+	}
+
+	@Override
+	public Iterator<RBTree.RBNode> iterator() {
+		return new Iterator<RBTree.RBNode>() {
+
+			private RBTree.RBNode next = firstNode();
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public RBTree.RBNode next() {
+				RBTree.RBNode node = next;
+				if (node == null) {
+					throw new NoSuchElementException();
+				}
+				next = RBTreeView.this.next(node);
+				return node;
+			}
+		};
+	}
+
+	// ---------------- 子视图 ----------------
+
+	/**
+	 * @throws IllegalArgumentException 新的边界超出当前视图的范围
+	 */
+	public RBTreeView<K, V> subMap(K from, boolean fromInclusive, K to, boolean toInclusive) {
+		if (descending) {
+			return narrow(to, toInclusive, from, fromInclusive);
+		}
+		return narrow(from, fromInclusive, to, toInclusive);
+	}
+
+	public RBTreeView<K, V> headMap(K to, boolean inclusive) {
+		checkBound(to, inclusive);
+		if (descending) {
+			return new RBTreeView<>(tree, false, to, inclusive, toEnd, hi, hiInclusive, true);
+		}
+		return new RBTreeView<>(tree, fromStart, lo, loInclusive, false, to, inclusive, false);
+	}
+
+	public RBTreeView<K, V> tailMap(K from, boolean inclusive) {
+		checkBound(from, inclusive);
+		if (descending) {
+			return new RBTreeView<>(tree, fromStart, lo, loInclusive, false, from, inclusive, true);
+		}
+		return new RBTreeView<>(tree, false, from, inclusive, toEnd, hi, hiInclusive, false);
+	}
+
+	/**
+	 * 按自然顺序收窄到[lo, hi]
+	 */
+	private RBTreeView<K, V> narrow(K lo, boolean loInclusive, K hi, boolean hiInclusive) {
+		checkBound(lo, loInclusive);
+		checkBound(hi, hiInclusive);
+		if (lo.compareTo(hi) > 0) {
+			throw new IllegalArgumentException("lo > hi: " + lo + " > " + hi);
+		}
+		return new RBTreeView<>(tree, false, lo, loInclusive, false, hi, hiInclusive, descending);
+	}
+
+	public RBTreeView<K, V> descendingMap() {
+		return new RBTreeView<>(tree, fromStart, lo, loInclusive, toEnd, hi, hiInclusive, !descending);
+	}
+
+	private void checkBound(K key, boolean inclusive) {
+		if (key == null) {
+			throw new NullPointerException();
+		}
+		if (!inRange(key, inclusive)) {
+			throw new IllegalArgumentException("bound out of range: " + key);
+		}
+	}
+}
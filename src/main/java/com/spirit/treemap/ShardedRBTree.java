@@ -0,0 +1,485 @@
+package com.spirit.treemap;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 按key的范围分成多个分片的线程安全有序Map，每个分片是一棵{@link RBTree}加一把StampedLock
+ * <p>
+ * 一棵树的put可能一直旋转到根节点，所有写操作只能串行。分片之后落在不同分片的写操作互不影响，
+ * key分布均匀时写吞吐可以随核数扩展。分片i包含[boundaries[i-1], boundaries[i])范围内的key
+ * <p>
+ * 边界可以在线调整({@link #rebalance(int)})：同时锁住相邻两个分片，用join把两棵树连起来，
+ * 再在中位数处split，都是O(log n)。调整后换上新的分片数组，旧分片标记为失效，
+ * 拿到失效分片锁的操作重新查找分片。写操作每REBALANCE_CHECK_WRITES次检查一次所在分片是否明显偏大，
+ * 偏大就和较小的邻居平分。
+ * 注意边界只能按数据量平分：如果写入的key一直递增，热点始终是最后一个分片，调整边界也分散不了
+ * <p>
+ * 遍历和范围查询按key的游标分批进行：每批在一个分片的读锁内取最多SCAN_BATCH条，释放锁之后再回调，
+ * 下一批从上一批最后一个key之后重新查找分片，所以跨分片、遇到边界调整时都不会重复或者遗漏未修改的数据。
+ * 遍历和size()都不是整体的快照
+ *
+ * @author Spirit
+ */
+public class ShardedRBTree<K extends Comparable<K>, V> {
+
+	private static final int SCAN_BATCH = 256;
+
+	/**
+	 * 每个分片每写这么多次检查一次是否需要调整边界，必须是2的幂
+	 */
+	private static final int REBALANCE_CHECK_WRITES = 8192;
+
+	/**
+	 * 分片小于这个大小时不自动调整
+	 */
+	private static final int MIN_REBALANCE_SIZE = 1024;
+
+	private static final class Shard<K extends Comparable<K>, V> {
+
+		/**
+		 * 下界(包含)，第一个分片为null
+		 */
+		final K lo;
+		final RBTree<K, V> tree;
+		final StampedLock lock = new StampedLock();
+
+		// 以下字段在写锁内修改
+
+		/**
+		 * 边界调整后为true，这个分片不再使用
+		 */
+		boolean retired;
+		/**
+		 * 写操作的次数，选择热点分片时不加锁读取
+		 */
+		long writes;
+
+		Shard(K lo, RBTree<K, V> tree) {
+			this.lo = lo;
+			this.tree = tree;
+		}
+	}
+
+	/**
+	 * 只替换不修改
+	 */
+	private volatile Shard<K, V>[] shards;
+
+	/**
+	 * 同一时刻只做一次边界调整
+	 */
+	private final ReentrantLock rebalanceLock = new ReentrantLock();
+
+	/**
+	 * @param boundaries 严格升序的分片边界，n个边界分成n+1个分片
+	 * @throws IllegalArgumentException 边界不是严格升序
+	 */
+	public ShardedRBTree(List<K> boundaries) {
+		Shard<K, V>[] initial = new Shard[boundaries.size() + 1];
+		initial[0] = new Shard<>(null, new RBTree<K, V>());
+		for (int i = 0; i < boundaries.size(); i++) {
+			K lo = boundaries.get(i);
+			if (lo == null) {
+				throw new NullPointerException();
+			}
+			if (i > 0 && boundaries.get(i - 1).compareTo(lo) >= 0) {
+				throw new IllegalArgumentException("boundaries not ascending: " + boundaries.get(i - 1) + " >= " + lo);
+			}
+			initial[i + 1] = new Shard<>(lo, new RBTree<K, V>());
+		}
+		shards = initial;
+	}
+
+	/**
+	 * 最后一个下界不大于key的分片
+	 */
+	private static <K extends Comparable<K>> int indexOf(Shard<K, ?>[] shards, K key) {
+		int low = 1;
+		int high = shards.length - 1;
+		int found = 0;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (shards[mid].lo.compareTo(key) <= 0) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	public V get(K key) {
+		if (key == null) {
+			throw new NullPointerException();
+		}
+		while (true) {
+			Shard<K, V> shard = shards[indexOf(shards, key)];
+			long stamp = shard.lock.readLock();
+			try {
+				if (shard.retired) {
+					continue;
+				}
+				RBTree.RBNode node = shard.tree.getNode(key);
+				return node == null ? null : (V) node.getV();
+			} finally {
+				shard.lock.unlockRead(stamp);
+			}
+		}
+	}
+
+	public boolean containsKey(K key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * value为null时与RBTree.put一样存放key
+	 */
+	public void put(K k, V v) {
+		if (k == null) {
+			throw new NullPointerException();
+		}
+		Shard<K, V> shard;
+		long writes;
+		while (true) {
+			shard = shards[indexOf(shards, k)];
+			long stamp = shard.lock.writeLock();
+			try {
+				if (shard.retired) {
+					continue;
+				}
+				shard.tree.put(k, v);
+				writes = ++shard.writes;
+			} finally {
+				shard.lock.unlockWrite(stamp);
+			}
+			break;
+		}
+		if ((writes & (REBALANCE_CHECK_WRITES - 1)) == 0) {
+			maybeRebalance(shard);
+		}
+	}
+
+	public V remove(K key) {
+		if (key == null) {
+			throw new NullPointerException();
+		}
+		Shard<K, V> shard;
+		long writes;
+		V removed;
+		while (true) {
+			shard = shards[indexOf(shards, key)];
+			long stamp = shard.lock.writeLock();
+			try {
+				if (shard.retired) {
+					continue;
+				}
+				removed = shard.tree.remove(key);
+				writes = ++shard.writes;
+			} finally {
+				shard.lock.unlockWrite(stamp);
+			}
+			break;
+		}
+		if ((writes & (REBALANCE_CHECK_WRITES - 1)) == 0) {
+			maybeRebalance(shard);
+		}
+		return removed;
+	}
+
+	/**
+	 * 各分片大小之和，分片之间不是同一时刻的值
+	 */
+	public int size() {
+		int size = 0;
+		for (int size1 : shardSizes()) {
+			size += size1;
+		}
+		return size;
+	}
+
+	public int shardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * @return 当前的分片边界
+	 */
+	public List<K> boundaries() {
+		Shard<K, V>[] current = shards;
+		List<K> boundaries = new ArrayList<>(current.length - 1);
+		for (int i = 1; i < current.length; i++) {
+			boundaries.add(current[i].lo);
+		}
+		return boundaries;
+	}
+
+	/**
+	 * @return 每个分片的大小，逐个加读锁读取
+	 */
+	public int[] shardSizes() {
+		while (true) {
+			Shard<K, V>[] current = shards;
+			int[] sizes = new int[current.length];
+			boolean retired = false;
+			for (int i = 0; i < current.length && !retired; i++) {
+				long stamp = current[i].lock.readLock();
+				try {
+					retired = current[i].retired;
+					sizes[i] = current[i].tree.size();
+				} finally {
+					current[i].lock.unlockRead(stamp);
+				}
+			}
+			if (!retired) {
+				return sizes;
+			}
+		}
+	}
+
+	// ---------------- 遍历 ----------------
+
+	public void scan(EntryVisitor<K, V> visitor) {
+		scan(null, false, null, false, visitor);
+	}
+
+	/**
+	 * 按key升序处理范围内的数据，visitor返回false时提前结束。回调时不持有任何锁，可以修改这个Map
+	 *
+	 * @param lo 下界，null表示不限
+	 * @param hi 上界，null表示不限
+	 */
+	public void scan(K lo, boolean loInclusive, K hi, boolean hiInclusive, EntryVisitor<K, V> visitor) {
+		Object[] keys = new Object[SCAN_BATCH];
+		Object[] values = new Object[SCAN_BATCH];
+		K from = lo;
+		boolean inclusive = loInclusive;
+		while (true) {
+			int n = fetch(from, inclusive, hi, hiInclusive, keys, values);
+			if (n == 0) {
+				return;
+			}
+			for (int i = 0; i < n; i++) {
+				if (!visitor.visit((K) keys[i], (V) values[i])) {
+					return;
+				}
+			}
+			from = (K) keys[n - 1];
+			inclusive = false;
+		}
+	}
+
+	/**
+	 * 按key升序遍历全部数据，不支持remove
+	 */
+	public Iterator<Map.Entry<K, V>> iterator() {
+		return new Iterator<Map.Entry<K, V>>() {
+			private final Object[] keys = new Object[SCAN_BATCH];
+			private final Object[] values = new Object[SCAN_BATCH];
+			private int count;
+			private int next;
+			private boolean started;
+			private boolean finished;
+
+			@Override
+			public boolean hasNext() {
+				if (next < count) {
+					return true;
+				}
+				if (finished) {
+					return false;
+				}
+				K from = started ? (K) keys[count - 1] : null;
+				count = fetch(from, false, null, false, keys, values);
+				next = 0;
+				started = true;
+				finished = count == 0;
+				return !finished;
+			}
+
+			@Override
+			public Map.Entry<K, V> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Map.Entry<K, V> entry = new AbstractMap.SimpleImmutableEntry<>((K) keys[next], (V) values[next]);
+				next++;
+				return entry;
+			}
+		};
+	}
+
+	/**
+	 * 在from所在的一个分片中取出from之后的最多SCAN_BATCH条数据，这个分片中没有时转到下一个分片
+	 *
+	 * @param from 起点，null表示从头开始
+	 * @return 取出的条数，0表示已经没有了
+	 */
+	private int fetch(K from, boolean fromInclusive, K hi, boolean hiInclusive, Object[] keys, Object[] values) {
+		while (true) {
+			Shard<K, V>[] current = shards;
+			int index = from == null ? 0 : indexOf(current, from);
+			Shard<K, V> shard = current[index];
+			int n = 0;
+			long stamp = shard.lock.readLock();
+			try {
+				if (shard.retired) {
+					continue;
+				}
+				RBTree<K, V> tree = shard.tree;
+				RBTree.RBNode node = from == null ? tree.getFirstNode()
+						: fromInclusive ? tree.getCeilingNode(from) : tree.getHigherNode(from);
+				while (node != null && n < keys.length) {
+					K k = (K) node.getK();
+					if (hi != null) {
+						int cmp = k.compareTo(hi);
+						if (cmp > 0 || cmp == 0 && !hiInclusive) {
+							break;
+						}
+					}
+					keys[n] = k;
+					values[n] = node.getV();
+					n++;
+					node = tree.successor(node);
+				}
+			} finally {
+				shard.lock.unlockRead(stamp);
+			}
+			if (n > 0) {
+				return n;
+			}
+			// 这个分片里已经没有了，从下一个分片的下界继续
+			if (index + 1 == current.length) {
+				return 0;
+			}
+			from = current[index + 1].lo;
+			fromInclusive = true;
+			if (hi != null) {
+				int cmp = from.compareTo(hi);
+				if (cmp > 0 || cmp == 0 && !hiInclusive) {
+					return 0;
+				}
+			}
+		}
+	}
+
+	// ---------------- 边界调整 ----------------
+
+	/**
+	 * 写操作较多的分片，如果明显大于平均大小，就和相邻的较小分片平分。只用tryLock，不阻塞写线程
+	 */
+	private void maybeRebalance(Shard<K, V> shard) {
+		Shard<K, V>[] current = shards;
+		int index = shard.lo == null ? 0 : indexOf(current, shard.lo);
+		if (current[index] != shard || current.length == 1) {
+			return;
+		}
+		// 不加锁读取大小，只用来判断
+		long total = 0;
+		for (Shard<K, V> s : current) {
+			total += s.tree.size();
+		}
+		int size = shard.tree.size();
+		if (size < MIN_REBALANCE_SIZE || size <= 2 * total / current.length) {
+			return;
+		}
+		if (rebalanceLock.tryLock()) {
+			try {
+				rebalance(smallerPair(current, index));
+			} finally {
+				rebalanceLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * 找出上次调整以来写操作最多的分片，和相邻的较小分片平分数据
+	 *
+	 * @return 是否做了调整
+	 */
+	public boolean rebalance() {
+		Shard<K, V>[] current = shards;
+		if (current.length == 1) {
+			return false;
+		}
+		int hottest = 0;
+		for (int i = 1; i < current.length; i++) {
+			if (current[i].writes > current[hottest].writes) {
+				hottest = i;
+			}
+		}
+		return rebalance(smallerPair(current, hottest));
+	}
+
+	/**
+	 * @return 分片index和较小的那个邻居中，左边那个的下标
+	 */
+	private static int smallerPair(Shard<?, ?>[] shards, int index) {
+		if (index == 0) {
+			return 0;
+		}
+		if (index == shards.length - 1) {
+			return index - 1;
+		}
+		return shards[index - 1].tree.size() <= shards[index + 1].tree.size() ? index - 1 : index;
+	}
+
+	/**
+	 * 让分片index和index+1的数据量相等：锁住两个分片，join成一棵树后在中位数处split，O(log n)
+	 *
+	 * @return 是否做了调整，两个分片加起来不到两条数据时不调整
+	 * @throws IndexOutOfBoundsException 没有分片index+1
+	 */
+	public boolean rebalance(int index) {
+		rebalanceLock.lock();
+		try {
+			Shard<K, V>[] current = shards;
+			if (index < 0 || index + 1 >= current.length) {
+				throw new IndexOutOfBoundsException("index: " + index + ", shards: " + current.length);
+			}
+			Shard<K, V> left = current[index];
+			Shard<K, V> right = current[index + 1];
+			// 按下标顺序加锁，写操作一次只持有一个分片的锁
+			long leftStamp = left.lock.writeLock();
+			long rightStamp = right.lock.writeLock();
+			try {
+				int total = left.tree.size() + right.tree.size();
+				if (total < 2) {
+					return false;
+				}
+				RBTree<K, V> all;
+				if (right.tree.getRoot() == null) {
+					all = left.tree;
+				} else if (left.tree.getRoot() == null) {
+					all = right.tree;
+				} else {
+					Map.Entry<K, V> first = right.tree.pollFirstEntry();
+					all = RBTree.join(left.tree, first.getKey(), first.getValue(), right.tree);
+				}
+				// total >= 2，中位数一定大于最小的key，也就大于左边分片的下界
+				K boundary = (K) all.select(total / 2).getK();
+				RBTree<K, V> upper = all.split(boundary);
+
+				Shard<K, V>[] next = current.clone();
+				next[index] = new Shard<>(left.lo, all);
+				next[index + 1] = new Shard<>(boundary, upper);
+				shards = next;
+				left.retired = true;
+				right.retired = true;
+				return true;
+			} finally {
+				right.lock.unlockWrite(rightStamp);
+				left.lock.unlockWrite(leftStamp);
+			}
+		} finally {
+			rebalanceLock.unlock();
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package com.spirit.treemap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * 快照中key或value的编码方式，常用的实现见{@link RBTreeSnapshot}中的常量
+ *
+ * @author Spirit
+ */
+public interface SnapshotCodec<T> {
+
+	/**
+	 * @param previous 同一个块中上一条数据的值，块中第一条数据为null，可以用来做差分或前缀编码
+	 */
+	void write(T previous, T value, DataOutput out) throws IOException;
+
+	/**
+	 * @param previous 与写入时相同，上一条读出的值
+	 */
+	T read(T previous, DataInput in) throws IOException;
+}
@@ -0,0 +1,40 @@
+package com.spirit.treemap;
+
+/**
+ * 支持O(1)快照的可变红黑树：内部持有当前版本的{@link PersistentRBTree}
+ * <p>
+ * 写操作串行地生成新版本并替换引用；读操作和snapshot()只读取当前引用，永远不会被写操作阻塞。
+ * 拿到的快照是不可变的，之后的写操作不会影响它，适合在写入持续进行时做一致性的统计和报表
+ *
+ * @author Spirit
+ */
+public class SnapshotRBTree<K extends Comparable<K>, V> {
+
+	private volatile PersistentRBTree<K, V> current = PersistentRBTree.empty();
+
+	public synchronized void put(K k, V v) {
+		current = current.put(k, v);
+	}
+
+	public synchronized V remove(K key) {
+		PersistentRBTree<K, V> tree = current;
+		V value = tree.get(key);
+		current = tree.remove(key);
+		return value;
+	}
+
+	public V get(K key) {
+		return current.get(key);
+	}
+
+	public int size() {
+		return current.size();
+	}
+
+	/**
+	 * @return 当前版本，O(1)
+	 */
+	public PersistentRBTree<K, V> snapshot() {
+		return current;
+	}
+}
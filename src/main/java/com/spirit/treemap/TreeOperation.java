@@ -1,10 +1,54 @@
 package com.spirit.treemap;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+
 public class TreeOperation {
 
+	/**
+	 * show按二维网格排版，宽度是2的深度次方，超过这个深度改为输出{@link #writeText}的格式
+	 */
+	private static final int SHOW_MAX_DEPTH = 7;
+
+	/**
+	 * 沿parent指针遍历，不递归也不用栈，额外空间O(1)。
+	 * root可以是任意子树的根，只遍历这棵子树。
+	 * RBTree没有记录高度(旋转和删除都会改变高度，维护代价不小)，所以这里仍然要O(n)遍历
+	 */
 	public static int getTreeDepth(RBTree.RBNode root) {
-		return root == null ? 0 : (1 + Math.max(getTreeDepth(root.getLeft()), getTreeDepth(root.getRight())));
+		if (root == null) {
+			return 0;
+		}
+		int maxDepth = 0;
+		int depth = 1;
+		RBTree.RBNode node = root;
+		RBTree.RBNode prev = root.getParent();
+		while (true) {
+			RBTree.RBNode next;
+			if (prev == node.getParent()) {
+				// 从上面下来
+				maxDepth = Math.max(maxDepth, depth);
+				next = node.getLeft() != null ? node.getLeft() : node.getRight();
+			} else if (prev == node.getLeft()) {
+				// 左子树遍历完了
+				next = node.getRight();
+			} else {
+				next = null;
+			}
 
+			if (next != null) {
+				depth++;
+			} else if (node == root) {
+				return maxDepth;
+			} else {
+				next = node.getParent();
+				depth--;
+			}
+			prev = node;
+			node = next;
+		}
 	}
 
 	private static void writeArray(RBTree.RBNode currNode, int rowIndex, int columnIndex, String[][] res, int treeDepth) {
@@ -49,10 +93,17 @@ public class TreeOperation {
 	}
 
 	public static void show(RBTree.RBNode root) {
-		if (root == null) System.out.println("EMPTY!");
+		if (root == null) {
+			System.out.println("EMPTY!");
+			return;
+		}
 
 		// 得到树的深度
 		int treeDepth = getTreeDepth(root);
+		if (treeDepth > SHOW_MAX_DEPTH) {
+			show(root, System.out);
+			return;
+		}
 		// 最后一行的宽度为2的(n - 1)次方乘3，再加1
 		// 作为整个二维数组的宽度
 		int arrayHeight = treeDepth * 2 - 1;
@@ -81,5 +132,233 @@ public class TreeOperation {
 			System.out.println(sb.toString());
 		}
 	}
-}
 
+	private static void show(RBTree.RBNode root, PrintStream out) {
+		Writer writer = new OutputStreamWriter(out);
+		try {
+			writeText(root, writer);
+			writer.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// ---------------- 流式输出 ----------------
+	// 下面三种格式都是边遍历边写，除了输出本身只占用O(树高)的内存：
+	// maxDepth限制输出的层数，maxNodes限制输出的节点数，传入任意节点就只输出那棵子树。
+	// 节点数不够时按左右子树的大小按比例分配，输出的是均匀抽样的上半部分，
+	// 没有输出的子树只写一个占位并注明其中的节点数
+
+	public static void writeText(RBTree.RBNode root, Writer out) throws IOException {
+		writeText(root, out, Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * 每个节点一行，按先序缩进输出，左子节点在前：
+	 * <pre>
+	 * 050-B
+	 * |-- 030-R
+	 * |   |-- 020-B
+	 * |   `-- 040-B
+	 * `-- 070-B
+	 *     |-- -
+	 *     `-- 080-R
+	 * </pre>
+	 * 只有一个子节点时另一个写成"-"
+	 *
+	 * @param maxDepth 最多输出的层数，根节点是第1层
+	 * @param maxNodes 最多输出的节点数
+	 * @throws IllegalArgumentException maxDepth或maxNodes小于1
+	 */
+	public static void writeText(RBTree.RBNode root, Writer out, int maxDepth, int maxNodes) throws IOException {
+		checkLimits(maxDepth, maxNodes);
+		if (root == null) {
+			out.write("EMPTY!\n");
+			return;
+		}
+		out.write(label(root));
+		out.write('\n');
+		writeTextChildren(root, new StringBuilder(), 1, maxDepth, Math.min(maxNodes, sizeOf(root)), out);
+	}
+
+	private static void writeTextChildren(RBTree.RBNode node, StringBuilder prefix, int depth, int maxDepth, int budget,
+										  Writer out) throws IOException {
+		RBTree.RBNode left = node.getLeft();
+		RBTree.RBNode right = node.getRight();
+		if (left == null && right == null) {
+			return;
+		}
+		if (depth >= maxDepth) {
+			out.append(prefix).append("`-- ").append(elided(sizeOf(left) + sizeOf(right))).append('\n');
+			return;
+		}
+		int leftBudget = leftBudget(node, budget);
+		writeTextChild(left, prefix, "|-- ", "|   ", depth + 1, maxDepth, leftBudget, out);
+		writeTextChild(right, prefix, "`-- ", "    ", depth + 1, maxDepth, budget - 1 - leftBudget, out);
+	}
+
+	private static void writeTextChild(RBTree.RBNode child, StringBuilder prefix, String branch, String indent,
+									   int depth, int maxDepth, int budget, Writer out) throws IOException {
+		out.append(prefix).append(branch);
+		if (child == null) {
+			out.write("-\n");
+			return;
+		}
+		if (budget <= 0) {
+			out.append(elided(child.getSize())).append('\n');
+			return;
+		}
+		out.append(label(child)).append('\n');
+		int length = prefix.length();
+		prefix.append(indent);
+		writeTextChildren(child, prefix, depth, maxDepth, budget, out);
+		prefix.setLength(length);
+	}
+
+	public static void writeDot(RBTree.RBNode root, Writer out) throws IOException {
+		writeDot(root, out, Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * 输出Graphviz的DOT格式，节点按颜色填充，省略的子树画成虚线框
+	 *
+	 * @see #writeText(RBTree.RBNode, Writer, int, int)
+	 */
+	public static void writeDot(RBTree.RBNode root, Writer out, int maxDepth, int maxNodes) throws IOException {
+		checkLimits(maxDepth, maxNodes);
+		out.write("digraph RBTree {\n");
+		out.write("  node [style=filled, fontcolor=white];\n");
+		if (root != null) {
+			out.write("  n0 [label=" + quote(String.valueOf(root.getK())) + ", fillcolor=" + (root.isColor() ? "red" : "black") + "];\n");
+			writeDotChildren(root, 0, new int[]{1}, 1, maxDepth, Math.min(maxNodes, sizeOf(root)), out);
+		}
+		out.write("}\n");
+	}
+
+	/**
+	 * @param id     node在DOT中的编号
+	 * @param nextId 下一个可用的编号
+	 */
+	private static void writeDotChildren(RBTree.RBNode node, int id, int[] nextId, int depth, int maxDepth, int budget,
+										 Writer out) throws IOException {
+		RBTree.RBNode left = node.getLeft();
+		RBTree.RBNode right = node.getRight();
+		if (left == null && right == null) {
+			return;
+		}
+		if (depth >= maxDepth) {
+			writeDotElided(id, nextId[0]++, sizeOf(left) + sizeOf(right), out);
+			return;
+		}
+		int leftBudget = leftBudget(node, budget);
+		writeDotChild(left, id, nextId, depth + 1, maxDepth, leftBudget, out);
+		writeDotChild(right, id, nextId, depth + 1, maxDepth, budget - 1 - leftBudget, out);
+	}
+
+	private static void writeDotChild(RBTree.RBNode child, int parentId, int[] nextId, int depth, int maxDepth, int budget,
+									  Writer out) throws IOException {
+		if (child == null) {
+			return;
+		}
+		int id = nextId[0]++;
+		if (budget <= 0) {
+			writeDotElided(parentId, id, child.getSize(), out);
+			return;
+		}
+		out.write("  n" + id + " [label=" + quote(String.valueOf(child.getK())) + ", fillcolor=" + (child.isColor() ? "red" : "black") + "];\n");
+		out.write("  n" + parentId + " -> n" + id + ";\n");
+		writeDotChildren(child, id, nextId, depth, maxDepth, budget, out);
+	}
+
+	private static void writeDotElided(int parentId, int id, int count, Writer out) throws IOException {
+		out.write("  n" + id + " [label=" + quote(elided(count)) + ", shape=box, style=dashed, fontcolor=black];\n");
+		out.write("  n" + parentId + " -> n" + id + " [style=dashed];\n");
+	}
+
+	public static void writeJson(RBTree.RBNode root, Writer out) throws IOException {
+		writeJson(root, out, Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * 输出嵌套的JSON：{"key":"50","color":"B","size":7,"left":{...},"right":null}，
+	 * key统一写成字符串，省略的子树写成{"elided":节点数}，空树写成null
+	 *
+	 * @see #writeText(RBTree.RBNode, Writer, int, int)
+	 */
+	public static void writeJson(RBTree.RBNode root, Writer out, int maxDepth, int maxNodes) throws IOException {
+		checkLimits(maxDepth, maxNodes);
+		writeJson(root, 1, maxDepth, root == null ? 0 : Math.min(maxNodes, sizeOf(root)), out);
+		out.write('\n');
+	}
+
+	private static void writeJson(RBTree.RBNode node, int depth, int maxDepth, int budget, Writer out) throws IOException {
+		if (node == null) {
+			out.write("null");
+			return;
+		}
+		if (budget <= 0 || depth > maxDepth) {
+			out.write("{\"elided\":" + node.getSize() + "}");
+			return;
+		}
+		out.write("{\"key\":" + quote(String.valueOf(node.getK())));
+		out.write(",\"color\":\"" + (node.isColor() ? "R" : "B") + "\",\"size\":" + node.getSize());
+		int leftBudget = leftBudget(node, budget);
+		out.write(",\"left\":");
+		writeJson(node.getLeft(), depth + 1, maxDepth, leftBudget, out);
+		out.write(",\"right\":");
+		writeJson(node.getRight(), depth + 1, maxDepth, budget - 1 - leftBudget, out);
+		out.write('}');
+	}
+
+	private static void checkLimits(int maxDepth, int maxNodes) {
+		if (maxDepth < 1 || maxNodes < 1) {
+			throw new IllegalArgumentException("maxDepth: " + maxDepth + ", maxNodes: " + maxNodes);
+		}
+	}
+
+	/**
+	 * node自己占一个，剩下的按左右子树的大小分，都能放下时左子树拿到全部
+	 *
+	 * @param budget node这棵子树能输出的节点数，至少为1
+	 * @return 分给左子树的节点数，右子树得到budget - 1 - 返回值，两边都不会超过各自子树的大小
+	 */
+	private static int leftBudget(RBTree.RBNode node, int budget) {
+		int rest = budget - 1;
+		int leftSize = sizeOf(node.getLeft());
+		int rightSize = sizeOf(node.getRight());
+		if (rest >= leftSize + rightSize) {
+			return leftSize;
+		}
+		return (int) ((long) rest * leftSize / (leftSize + rightSize));
+	}
+
+	private static int sizeOf(RBTree.RBNode node) {
+		return node == null ? 0 : node.getSize();
+	}
+
+	private static String label(RBTree.RBNode node) {
+		return node.getK() + "-" + (node.isColor() ? "R" : "B");
+	}
+
+	private static String elided(int count) {
+		return "... (" + count + " nodes)";
+	}
+
+	/**
+	 * 加上双引号，转义DOT和JSON中都有特殊含义的字符
+	 */
+	private static String quote(String s) {
+		StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
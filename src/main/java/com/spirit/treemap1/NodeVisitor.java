@@ -0,0 +1,15 @@
+package com.spirit.treemap1;
+
+/**
+ * 遍历回调，直接拿到节点本身，遍历过程中不会为每个元素创建对象
+ *
+ * @author Spirit
+ */
+public interface NodeVisitor<K extends Comparable<K>, V> {
+
+	/**
+	 * @param node 当前节点
+	 * @return false表示提前结束遍历
+	 */
+	boolean visit(RBNode<K, V> node);
+}
@@ -1,5 +1,8 @@
 package com.spirit.treemap1;
 
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
 /**
  * 红黑树的实现：
  * 1、红黑树的遍历：先序、中序和后序遍历
@@ -23,15 +26,15 @@ public class RBTree<K extends Comparable<K>, V> {
 	}
 
 	public RBNode leftOf(RBNode node) {
-		return node.getLeft() == null ? null : node.getLeft();
+		return node == null ? null : node.getLeft();
 	}
 
 	public RBNode rightOf(RBNode node) {
-		return node.getRight() == null ? null : node.getRight();
+		return node == null ? null : node.getRight();
 	}
 
 	public RBNode parentOf(RBNode node) {
-		return node.getParent() == null ? null : node.getParent();
+		return node == null ? null : node.getParent();
 	}
 
 	public void setColor(RBNode node, boolean color) {
@@ -84,8 +87,9 @@ public class RBTree<K extends Comparable<K>, V> {
 			return null;
 		}
 
-		deleteNode(node);
+		// 先取值：两个子节点的情况下deleteNode会把前驱的值拷贝到node上
 		V value = (V) node.getValue();
+		deleteNode(node);
 
 		return value;
 	}
@@ -116,9 +120,9 @@ public class RBTree<K extends Comparable<K>, V> {
 			replaceNode.setParent(parentOf(x));
 			if (parentOf(x) == null) {
 				this.root = replaceNode;
-			} else if (leftOf(parentOf(x)) == replaceNode) {
+			} else if (leftOf(parentOf(x)) == x) {
 				parentOf(x).setLeft(replaceNode);
-			} else if (rightOf(parentOf(x)) == replaceNode) {
+			} else {
 				parentOf(x).setRight(replaceNode);
 			}
 			x.setRight(null);
@@ -243,7 +247,7 @@ public class RBTree<K extends Comparable<K>, V> {
 	}
 
 
-	private RBNode getNode(K key) {
+	public RBNode getNode(K key) {
 
 		RBNode node = this.root;
 		while (node != null) {
@@ -267,8 +271,9 @@ public class RBTree<K extends Comparable<K>, V> {
 		RBNode node = this.root;
 
 		if (node == null) {
-			root = node = new RBNode(key, value == null ? key : value);
+			root = new RBNode(key, value == null ? key : value);
 			root.setColor(BLACK);
+			return;
 		}
 
 		RBNode parent;
@@ -469,43 +474,231 @@ public class RBTree<K extends Comparable<K>, V> {
 	}
 
 
-	// 中序遍历，左根右
-	public void MiddleOrder(RBNode node) {
-		if (node != null) {
-			if (leftOf(node) != null) {
-				MiddleOrder(leftOf(node));
+	/**
+	 * 遍历整棵树
+	 *
+	 * @see #traverse(RBNode, TraversalOrder, NodeVisitor)
+	 */
+	public void traverse(TraversalOrder order, NodeVisitor<K, V> visitor) {
+		traverse(root, order, visitor);
+	}
+
+	/**
+	 * 遍历以top为根的子树：沿left/right/parent指针移动，不递归、不用栈，也不为每个元素创建对象
+	 *
+	 * @param top     子树的根，为null时什么都不做
+	 * @param order   遍历顺序
+	 * @param visitor 返回false时提前结束
+	 * @author Spirit
+	 */
+	public void traverse(RBNode top, TraversalOrder order, NodeVisitor<K, V> visitor) {
+		if (top == null) {
+			return;
+		}
+		switch (order) {
+			case IN_ORDER:
+				for (RBNode x = first(top); x != null; x = nextInOrder(top, x)) {
+					if (!visitor.visit(x)) {
+						return;
+					}
+				}
+				break;
+			case DESCENDING:
+				for (RBNode x = last(top); x != null; x = nextDescending(top, x)) {
+					if (!visitor.visit(x)) {
+						return;
+					}
+				}
+				break;
+			case PRE_ORDER:
+				for (RBNode x = top; x != null; x = nextPreOrder(top, x)) {
+					if (!visitor.visit(x)) {
+						return;
+					}
+				}
+				break;
+			case POST_ORDER:
+				for (RBNode x = firstPostOrder(top); x != null; x = nextPostOrder(top, x)) {
+					if (!visitor.visit(x)) {
+						return;
+					}
+				}
+				break;
+			default:
+				throw new IllegalArgumentException("unknown order: " + order);
+		}
+	}
+
+	public Iterator<RBNode<K, V>> iterator(TraversalOrder order) {
+		return iterator(root, order);
+	}
+
+	/**
+	 * 子树的迭代器，整个遍历只创建迭代器这一个对象；遍历期间不能修改树
+	 */
+	public Iterator<RBNode<K, V>> iterator(final RBNode top, final TraversalOrder order) {
+		return new Iterator<RBNode<K, V>>() {
+
+			private RBNode next = start(top, order);
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
 			}
-			System.out.println(node.getKey());
-			if (rightOf(node) != null) {
-				MiddleOrder(rightOf(node));
+
+			@Override
+			public RBNode<K, V> next() {
+				RBNode x = next;
+				if (x == null) {
+					throw new NoSuchElementException();
+				}
+				next = advance(top, x, order);
+				return x;
 			}
+		};
+	}
+
+	private RBNode start(RBNode top, TraversalOrder order) {
+		if (top == null) {
+			return null;
+		}
+		switch (order) {
+			case IN_ORDER:
+				return first(top);
+			case DESCENDING:
+				return last(top);
+			case PRE_ORDER:
+				return top;
+			case POST_ORDER:
+				return firstPostOrder(top);
+			default:
+				throw new IllegalArgumentException("unknown order: " + order);
 		}
 	}
 
-	// 先序遍历，根左右
-	public void PreambleOrder(RBNode node) {
-		if (node != null) {
-			System.out.println(node.getKey());
-			if (leftOf(node) != null) {
-				PreambleOrder(leftOf(node));
+	private RBNode advance(RBNode top, RBNode x, TraversalOrder order) {
+		switch (order) {
+			case IN_ORDER:
+				return nextInOrder(top, x);
+			case DESCENDING:
+				return nextDescending(top, x);
+			case PRE_ORDER:
+				return nextPreOrder(top, x);
+			case POST_ORDER:
+				return nextPostOrder(top, x);
+			default:
+				throw new IllegalArgumentException("unknown order: " + order);
+		}
+	}
+
+	// 子树中最小的节点
+	private RBNode first(RBNode x) {
+		while (leftOf(x) != null) {
+			x = leftOf(x);
+		}
+		return x;
+	}
+
+	// 子树中最大的节点
+	private RBNode last(RBNode x) {
+		while (rightOf(x) != null) {
+			x = rightOf(x);
+		}
+		return x;
+	}
+
+	// 中序的下一个节点，即successor，但不会走出top这棵子树
+	private RBNode nextInOrder(RBNode top, RBNode x) {
+		if (rightOf(x) != null) {
+			return first(rightOf(x));
+		}
+		while (x != top && rightOf(parentOf(x)) == x) {
+			x = parentOf(x);
+		}
+		return x == top ? null : parentOf(x);
+	}
+
+	// 反向中序的下一个节点，即predecessor，但不会走出top这棵子树
+	private RBNode nextDescending(RBNode top, RBNode x) {
+		if (leftOf(x) != null) {
+			return last(leftOf(x));
+		}
+		while (x != top && leftOf(parentOf(x)) == x) {
+			x = parentOf(x);
+		}
+		return x == top ? null : parentOf(x);
+	}
+
+	/**
+	 * 先序的下一个节点：有左子节点走左边，否则有右子节点走右边；
+	 * 都没有就向上回溯，找到第一个"从左边回来并且有右子节点"的祖先，走它的右子节点
+	 */
+	private RBNode nextPreOrder(RBNode top, RBNode x) {
+		if (leftOf(x) != null) {
+			return leftOf(x);
+		}
+		if (rightOf(x) != null) {
+			return rightOf(x);
+		}
+		while (x != top) {
+			RBNode p = parentOf(x);
+			if (leftOf(p) == x && rightOf(p) != null) {
+				return rightOf(p);
 			}
-			if (rightOf(node) != null) {
-				PreambleOrder(rightOf(node));
+			x = p;
+		}
+		return null;
+	}
+
+	// 后序的第一个节点：一直往下走，优先走左边，没有左边才走右边，直到叶子节点
+	private RBNode firstPostOrder(RBNode x) {
+		while (true) {
+			if (leftOf(x) != null) {
+				x = leftOf(x);
+			} else if (rightOf(x) != null) {
+				x = rightOf(x);
+			} else {
+				return x;
 			}
 		}
 	}
 
+	/**
+	 * 后序的下一个节点：从右子节点回来，或者父节点没有右子节点，下一个就是父节点；
+	 * 否则是父节点右子树中后序的第一个节点
+	 */
+	private RBNode nextPostOrder(RBNode top, RBNode x) {
+		if (x == top) {
+			return null;
+		}
+		RBNode p = parentOf(x);
+		if (rightOf(p) == x || rightOf(p) == null) {
+			return p;
+		}
+		return firstPostOrder(rightOf(p));
+	}
+
+	// 中序遍历，左根右
+	public void MiddleOrder(RBNode node) {
+		traverse(node, TraversalOrder.IN_ORDER, PRINT_KEY);
+	}
+
+	// 先序遍历，根左右
+	public void PreambleOrder(RBNode node) {
+		traverse(node, TraversalOrder.PRE_ORDER, PRINT_KEY);
+	}
+
 	// 后序遍历，左右根
 	public void PostOrder(RBNode node) {
-		if (node != null) {
-			if (leftOf(node) != null) {
-				PostOrder(leftOf(node));
-			}
-			if (rightOf(node) != null) {
-				PostOrder(rightOf(node));
-			}
+		traverse(node, TraversalOrder.POST_ORDER, PRINT_KEY);
+	}
+
+	private final NodeVisitor<K, V> PRINT_KEY = new NodeVisitor<K, V>() {
+		@Override
+		public boolean visit(RBNode<K, V> node) {
 			System.out.println(node.getKey());
+			return true;
 		}
-	}
+	};
 
 }
@@ -0,0 +1,29 @@
+package com.spirit.treemap1;
+
+/**
+ * 遍历顺序
+ *
+ * @author Spirit
+ */
+public enum TraversalOrder {
+
+	/**
+	 * 中序遍历，左根右，即key升序
+	 */
+	IN_ORDER,
+
+	/**
+	 * 反向中序遍历，右根左，即key降序
+	 */
+	DESCENDING,
+
+	/**
+	 * 先序遍历，根左右
+	 */
+	PRE_ORDER,
+
+	/**
+	 * 后序遍历，左右根
+	 */
+	POST_ORDER
+}
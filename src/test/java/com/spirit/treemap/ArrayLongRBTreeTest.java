@@ -0,0 +1,72 @@
+package com.spirit.treemap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * 数组红黑树与TreeMap的对照测试
+ */
+public class ArrayLongRBTreeTest {
+
+	private static int blackHeight(ArrayLongRBTree<?> tree, int node, int parent) {
+		if (node == ArrayLongRBTree.NIL) {
+			return 1;
+		}
+		assertEquals(parent, tree.getParent(node));
+		if (tree.isColor(node)) {
+			assertTrue(!tree.isColor(tree.getLeft(node)) || tree.getLeft(node) == ArrayLongRBTree.NIL);
+			assertTrue(!tree.isColor(tree.getRight(node)) || tree.getRight(node) == ArrayLongRBTree.NIL);
+		}
+		int left = blackHeight(tree, tree.getLeft(node), node);
+		assertEquals(left, blackHeight(tree, tree.getRight(node), node));
+		return left + (tree.isColor(node) ? 0 : 1);
+	}
+
+	@Test
+	public void matchesTreeMap() {
+		Random random = new Random(3);
+		ArrayLongRBTree<Integer> tree = new ArrayLongRBTree<>(4);
+		TreeMap<Long, Integer> expected = new TreeMap<>();
+		for (int i = 0; i < 20000; i++) {
+			long key = random.nextInt(1500);
+			if (random.nextInt(3) > 0) {
+				tree.put(key, i);
+				expected.put(key, i);
+			} else {
+				assertEquals(expected.remove(key), tree.remove(key));
+			}
+		}
+		assertEquals(expected.size(), tree.size());
+		blackHeight(tree, tree.getRoot(), ArrayLongRBTree.NIL);
+
+		int node = tree.getRoot();
+		while (tree.getLeft(node) != ArrayLongRBTree.NIL) {
+			node = tree.getLeft(node);
+		}
+		for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+			assertEquals((long) entry.getKey(), tree.getK(node));
+			assertEquals(entry.getValue(), tree.getV(node));
+			node = tree.successor(node);
+		}
+		assertEquals(ArrayLongRBTree.NIL, node);
+	}
+
+	@Test
+	public void removedSlotIsReused() {
+		ArrayLongRBTree<String> tree = new ArrayLongRBTree<>();
+		for (long i = 0; i < 100; i++) {
+			tree.put(i, "v" + i);
+		}
+		int leaf = tree.getNode(99);
+		tree.remove(99);
+		tree.put(1000, "new");
+		assertEquals(leaf, tree.getNode(1000));
+		assertEquals(100, tree.size());
+	}
+}
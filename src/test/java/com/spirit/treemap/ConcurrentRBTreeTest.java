@@ -0,0 +1,73 @@
+package com.spirit.treemap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * 并发读写下乐观读不会返回错误的结果
+ */
+public class ConcurrentRBTreeTest {
+
+	@Test
+	public void readersNeverSeeForeignValues() throws InterruptedException {
+		final ConcurrentRBTree<Integer, Integer> tree = new ConcurrentRBTree<>();
+		for (int i = 0; i < 1000; i += 2) {
+			tree.put(i, -i);
+		}
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		List<Thread> readers = new ArrayList<>();
+		for (int r = 0; r < 4; r++) {
+			final long seed = r;
+			Thread reader = new Thread(() -> {
+				Random random = new Random(seed);
+				try {
+					while (running.get()) {
+						int key = random.nextInt(1000);
+						Integer value = tree.get(key);
+						assertTrue(value == null || value == -key);
+						Integer next = tree.successorKey(key);
+						assertTrue(next == null || next > key);
+						Integer prev = tree.predecessorKey(key);
+						assertTrue(prev == null || prev < key);
+					}
+				} catch (Throwable e) {
+					failure.set(e);
+				}
+			});
+			reader.start();
+			readers.add(reader);
+		}
+
+		Random random = new Random(99);
+		for (int i = 0; i < 200000; i++) {
+			int key = random.nextInt(1000);
+			if (random.nextBoolean()) {
+				tree.put(key, -key);
+			} else {
+				tree.remove(key);
+			}
+		}
+		running.set(false);
+		for (Thread reader : readers) {
+			reader.join();
+		}
+		assertNull(failure.get());
+
+		tree.put(500, -500);
+		tree.put(502, -502);
+		tree.remove(501);
+		assertEquals(Integer.valueOf(502), tree.successorKey(500));
+		assertEquals(Integer.valueOf(500), tree.predecessorKey(501));
+	}
+}
@@ -0,0 +1,186 @@
+package com.spirit.treemap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * DeadlineScheduler的测试
+ */
+public class DeadlineSchedulerTest {
+
+	@Test
+	public void firesInDeadlineOrderAndSkipsCancelled() throws InterruptedException {
+		// 在定时器线程上直接执行，执行顺序就是摘下的顺序
+		DeadlineScheduler scheduler = new DeadlineScheduler(Runnable::run);
+		Random random = new Random(16);
+		final List<Long> fired = Collections.synchronizedList(new ArrayList<Long>());
+		final CountDownLatch done = new CountDownLatch(100);
+		List<DeadlineScheduler.Timeout> timeouts = new ArrayList<>();
+		long base = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50);
+		for (int i = 0; i < 200; i++) {
+			// 截止时间有重复，相同时按调度的先后
+			final long deadline = base + TimeUnit.MILLISECONDS.toNanos(random.nextInt(50));
+			final int index = i;
+			timeouts.add(scheduler.scheduleAt(new Runnable() {
+				@Override
+				public void run() {
+					fired.add(deadline * 1000 + index);
+					done.countDown();
+				}
+			}, deadline));
+		}
+		// 取消一半
+		for (int i = 0; i < 200; i += 2) {
+			assertTrue(timeouts.get(i).cancel());
+			assertFalse(timeouts.get(i).cancel());
+			assertTrue(timeouts.get(i).isCancelled());
+		}
+		assertEquals(100, scheduler.size());
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(100, fired.size());
+		List<Long> sorted = new ArrayList<>(fired);
+		Collections.sort(sorted);
+		assertEquals(sorted, fired);
+		for (long id : fired) {
+			assertEquals(1, id % 1000 % 2);
+		}
+		// 已经到期的不能再取消
+		assertFalse(timeouts.get(1).cancel());
+		assertFalse(timeouts.get(1).isCancelled());
+		assertEquals(0, scheduler.size());
+		scheduler.close();
+	}
+
+	@Test
+	public void earlierTimerWakesTheThread() throws InterruptedException {
+		DeadlineScheduler scheduler = new DeadlineScheduler();
+		final CountDownLatch late = new CountDownLatch(1);
+		final CountDownLatch early = new CountDownLatch(1);
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				late.countDown();
+			}
+		}, 1, TimeUnit.HOURS);
+		long start = System.nanoTime();
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				early.countDown();
+			}
+		}, 20, TimeUnit.MILLISECONDS);
+		assertTrue(early.await(5, TimeUnit.SECONDS));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+		assertEquals(1, late.getCount());
+		assertEquals(1, scheduler.size());
+
+		scheduler.close();
+		try {
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+				}
+			}, 1, TimeUnit.MILLISECONDS);
+			fail("scheduled after close");
+		} catch (IllegalStateException expected) {
+			// ok
+		}
+	}
+
+	@Test
+	public void interruptedTimerThreadClosesTheScheduler() throws InterruptedException {
+		// 任务在定时器线程上执行，借此中断定时器线程
+		DeadlineScheduler scheduler = new DeadlineScheduler(Runnable::run);
+		DeadlineScheduler.Timeout pending = scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+			}
+		}, 1, TimeUnit.HOURS);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				Thread.currentThread().interrupt();
+				interrupted.countDown();
+			}
+		}, 1, TimeUnit.MILLISECONDS);
+		assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+
+		// 定时器线程下一次等待时就会退出
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (true) {
+			try {
+				scheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+					}
+				}, 1, TimeUnit.HOURS).cancel();
+			} catch (IllegalStateException expected) {
+				break;
+			}
+			assertTrue("scheduler still accepting timers", System.nanoTime() < deadline);
+			Thread.sleep(1);
+		}
+		assertEquals(0, scheduler.size());
+		assertFalse(pending.cancel());
+		scheduler.close();
+	}
+
+	@Test
+	public void failingTaskDoesNotStopTheTimer() throws InterruptedException {
+		DeadlineScheduler scheduler = new DeadlineScheduler(Runnable::run);
+		final CountDownLatch fired = new CountDownLatch(1);
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				throw new IllegalStateException("expected failure from a timer task");
+			}
+		}, 1, TimeUnit.MILLISECONDS);
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				fired.countDown();
+			}
+		}, 20, TimeUnit.MILLISECONDS);
+		assertTrue(fired.await(5, TimeUnit.SECONDS));
+		scheduler.close();
+	}
+
+	@Test
+	public void closeFromATaskOnTheTimerThread() throws InterruptedException {
+		final DeadlineScheduler scheduler = new DeadlineScheduler(Runnable::run);
+		final CountDownLatch closed = new CountDownLatch(1);
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				// join自己会永远等下去
+				scheduler.close();
+				closed.countDown();
+			}
+		}, 1, TimeUnit.MILLISECONDS);
+		assertTrue(closed.await(5, TimeUnit.SECONDS));
+		try {
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+				}
+			}, 1, TimeUnit.HOURS);
+			fail("closed scheduler should reject timers");
+		} catch (IllegalStateException expected) {
+			// ok
+		}
+		scheduler.close();
+	}
+}
@@ -0,0 +1,206 @@
+package com.spirit.treemap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * 预写日志的重放、检查点和截断测试
+ */
+public class DurableRBTreeTest {
+
+	private static File tempDir() throws IOException {
+		File dir = Files.createTempDirectory("rbtree-wal").toFile();
+		dir.deleteOnExit();
+		return dir;
+	}
+
+	private static void deleteAll(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private static DurableRBTree<Long, String> open(File dir, long checkpointBytes) throws IOException {
+		return DurableRBTree.open(dir, RBTreeSnapshot.LONG_KEYS, RBTreeSnapshot.STRING_VALUES, 5, checkpointBytes);
+	}
+
+	private static void assertSameContent(Map<Long, String> expected, DurableRBTree<Long, String> tree) {
+		assertEquals(expected.size(), tree.size());
+		for (Map.Entry<Long, String> entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), tree.get(entry.getKey()));
+		}
+	}
+
+	@Test
+	public void reopenReplaysLogAndCheckpoints() throws IOException {
+		File dir = tempDir();
+		Random random = new Random(9);
+		TreeMap<Long, String> expected = new TreeMap<>();
+
+		// 检查点阈值很小，过程中会切换多次日志段
+		DurableRBTree<Long, String> tree = open(dir, 16 * 1024);
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 5000; i++) {
+				long key = random.nextInt(3000);
+				if (random.nextInt(4) > 0) {
+					String value = "v" + i;
+					tree.put(key, value);
+					expected.put(key, value);
+				} else {
+					assertEquals(expected.remove(key), tree.remove(key));
+				}
+			}
+			tree.awaitDurable();
+			tree.close();
+
+			tree = open(dir, 16 * 1024);
+			assertSameContent(expected, tree);
+		}
+		tree.checkpoint();
+		tree.close();
+
+		// 检查点之后只剩一个快照和一个(空的)日志段
+		String[] names = dir.list();
+		assertEquals(2, names.length);
+
+		tree = open(dir, 16 * 1024);
+		assertSameContent(expected, tree);
+		tree.close();
+		deleteAll(dir);
+	}
+
+	@Test
+	public void tornTailIsTruncated() throws IOException {
+		File dir = tempDir();
+		DurableRBTree<Long, String> tree = open(dir, Long.MAX_VALUE);
+		for (long i = 0; i < 100; i++) {
+			tree.put(i, i % 2 == 0 ? "even" : null);
+		}
+		tree.sync();
+		tree.close();
+
+		// 模拟崩溃时写了一半的记录
+		File wal = new File(dir, "wal-0");
+		long length = wal.length();
+		try (FileOutputStream out = new FileOutputStream(wal, true)) {
+			out.write(new byte[]{0, 0, 0, 40, 1, 2, 3, 4, 5});
+		}
+
+		tree = open(dir, Long.MAX_VALUE);
+		assertEquals(100, tree.size());
+		assertEquals("even", tree.get(10L));
+		// value为null时与put一样存放key
+		assertEquals(11L, (Object) tree.get(11L));
+		assertEquals(length, wal.length());
+
+		assertEquals("even", tree.remove(10L));
+		assertNull(tree.remove(10L));
+		tree.close();
+
+		tree = open(dir, Long.MAX_VALUE);
+		assertEquals(99, tree.size());
+		assertTrue(!tree.containsKey(10L));
+		tree.close();
+		deleteAll(dir);
+	}
+
+	@Test
+	public void interruptedFlusherFailsLaterWrites() throws Exception {
+		File dir = tempDir();
+		DurableRBTree<Long, String> tree = open(dir, Long.MAX_VALUE);
+		tree.put(1L, "one");
+		tree.sync();
+		Thread flusher = null;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().equals("rbtree-wal-" + dir.getName())) {
+				flusher = thread;
+			}
+		}
+		flusher.interrupt();
+		flusher.join();
+		try {
+			tree.put(2L, "two");
+			fail("write after the flusher stopped should fail");
+		} catch (IllegalStateException expected) {
+			assertTrue(expected.getCause() instanceof InterruptedIOException);
+		}
+		tree.close();
+
+		tree = open(dir, Long.MAX_VALUE);
+		assertEquals(1, tree.size());
+		assertEquals("one", tree.get(1L));
+		tree.close();
+		deleteAll(dir);
+	}
+
+	private static volatile boolean failValues;
+
+	/**
+	 * failValues为true时写value失败，用来让检查点写快照失败
+	 */
+	private static final SnapshotCodec<String> FAILING_VALUES = new SnapshotCodec<String>() {
+		@Override
+		public void write(String previous, String value, DataOutput out) throws IOException {
+			if (failValues) {
+				throw new IOException("injected");
+			}
+			RBTreeSnapshot.STRING_VALUES.write(previous, value, out);
+		}
+
+		@Override
+		public String read(String previous, DataInput in) throws IOException {
+			return RBTreeSnapshot.STRING_VALUES.read(previous, in);
+		}
+	};
+
+	@Test
+	public void failedCheckpointLeavesNoPartialSnapshot() throws IOException {
+		File dir = tempDir();
+		DurableRBTree<Long, String> tree = DurableRBTree.open(dir, RBTreeSnapshot.LONG_KEYS, FAILING_VALUES, 5, Long.MAX_VALUE);
+		for (long i = 0; i < 100000; i++) {
+			tree.put(i, "v" + i);
+		}
+		failValues = true;
+		try {
+			tree.checkpoint();
+			fail("checkpoint should fail");
+		} catch (IOException expected) {
+			assertEquals("injected", expected.getMessage());
+		} finally {
+			failValues = false;
+		}
+		for (String name : dir.list()) {
+			assertTrue(name, !name.endsWith(".tmp"));
+		}
+		// 检查点失败不影响树，切换后的日志段照常写入
+		tree.put(100000L, "last");
+		tree.close();
+
+		tree = DurableRBTree.open(dir, RBTreeSnapshot.LONG_KEYS, FAILING_VALUES, 5, Long.MAX_VALUE);
+		assertEquals(100001, tree.size());
+		assertEquals("v7", tree.get(7L));
+		assertEquals("last", tree.get(100000L));
+		tree.checkpoint();
+		tree.close();
+		deleteAll(dir);
+	}
+}
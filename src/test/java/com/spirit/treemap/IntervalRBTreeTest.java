@@ -0,0 +1,139 @@
+package com.spirit.treemap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * IntervalRBTree的测试，与暴力扫描的结果对比
+ */
+public class IntervalRBTreeTest {
+
+	/**
+	 * 检查红黑树的性质、parent指针和maxEnd，返回黑高度
+	 */
+	private static int check(IntervalRBTree.RBNode<Integer, String> node, IntervalRBTree.RBNode<Integer, String> parent) {
+		if (node == null) {
+			return 1;
+		}
+		assertTrue(node.getParent() == parent);
+		if (node.isColor()) {
+			assertTrue(node.getLeft() == null || !node.getLeft().isColor());
+			assertTrue(node.getRight() == null || !node.getRight().isColor());
+		}
+		int maxEnd = node.getEnd();
+		if (node.getLeft() != null) {
+			maxEnd = Math.max(maxEnd, node.getLeft().getMaxEnd());
+		}
+		if (node.getRight() != null) {
+			maxEnd = Math.max(maxEnd, node.getRight().getMaxEnd());
+		}
+		assertEquals(Integer.valueOf(maxEnd), node.getMaxEnd());
+
+		int left = check(node.getLeft(), node);
+		assertEquals(left, check(node.getRight(), node));
+		return left + (node.isColor() ? 0 : 1);
+	}
+
+	private static long key(int start, int end) {
+		return (long) start << 32 | end;
+	}
+
+	private static List<String> collect(IntervalRBTree<Integer, String> tree, Integer lo, Integer hi) {
+		final List<String> result = new ArrayList<>();
+		IntervalVisitor<Integer, String> visitor = new IntervalVisitor<Integer, String>() {
+			@Override
+			public boolean visit(Integer start, Integer end, String v) {
+				result.add(v);
+				return true;
+			}
+		};
+		if (hi == null) {
+			tree.stab(lo, visitor);
+		} else {
+			tree.overlap(lo, hi, visitor);
+		}
+		return result;
+	}
+
+	@Test
+	public void queriesMatchBruteForce() {
+		Random random = new Random(5);
+		IntervalRBTree<Integer, String> tree = new IntervalRBTree<>();
+		// 按(start, end)排序，与树的中序顺序相同
+		TreeMap<Long, int[]> expected = new TreeMap<>();
+		for (int i = 0; i < 20000; i++) {
+			int start = random.nextInt(1000);
+			int end = start + 1 + random.nextInt(random.nextInt(10) == 0 ? 300 : 20);
+			if (random.nextInt(3) > 0) {
+				tree.put(start, end, start + "-" + end);
+				expected.put(key(start, end), new int[]{start, end});
+			} else {
+				String removed = tree.remove(start, end);
+				assertEquals(expected.remove(key(start, end)) == null, removed == null);
+			}
+			if (i % 1000 == 0) {
+				check(tree.getRoot(), null);
+			}
+		}
+		check(tree.getRoot(), null);
+		assertEquals(expected.size(), tree.size());
+
+		for (int i = 0; i < 500; i++) {
+			int lo = random.nextInt(1400) - 50;
+			int hi = lo + random.nextInt(50);
+			List<String> overlap = new ArrayList<>();
+			List<String> stab = new ArrayList<>();
+			for (Map.Entry<Long, int[]> entry : expected.entrySet()) {
+				int start = entry.getValue()[0];
+				int end = entry.getValue()[1];
+				if (start < hi && end > lo) {
+					overlap.add(start + "-" + end);
+				}
+				if (start <= lo && lo < end) {
+					stab.add(start + "-" + end);
+				}
+			}
+			assertEquals(overlap, collect(tree, lo, hi));
+			assertEquals(stab, collect(tree, lo, null));
+		}
+	}
+
+	@Test
+	public void queryStopsWhenVisitorReturnsFalse() {
+		IntervalRBTree<Integer, String> tree = new IntervalRBTree<>();
+		for (int i = 0; i < 100; i++) {
+			tree.put(i, i + 10, "v" + i);
+		}
+		final List<Integer> starts = new ArrayList<>();
+		tree.stab(50, new IntervalVisitor<Integer, String>() {
+			@Override
+			public boolean visit(Integer start, Integer end, String v) {
+				starts.add(start);
+				return starts.size() < 3;
+			}
+		});
+		assertEquals(3, starts.size());
+		assertEquals(Integer.valueOf(41), starts.get(0));
+
+		tree.put(5, 15, "replaced");
+		assertEquals(100, tree.size());
+		assertEquals("replaced", tree.getNode(5, 15).getV());
+		assertNull(tree.remove(5, 16));
+		try {
+			tree.put(3, 3, "empty");
+			fail("empty interval should be rejected");
+		} catch (IllegalArgumentException expected) {
+			// ok
+		}
+	}
+}
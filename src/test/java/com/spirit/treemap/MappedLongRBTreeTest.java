@@ -0,0 +1,142 @@
+package com.spirit.treemap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+/**
+ * 映射文件红黑树的重新打开和崩溃恢复测试
+ */
+public class MappedLongRBTreeTest {
+
+	private static File tempFile() throws IOException {
+		File file = File.createTempFile("rbtree", ".tree");
+		file.delete();
+		file.deleteOnExit();
+		journal(file).deleteOnExit();
+		return file;
+	}
+
+	private static File journal(File file) {
+		return new File(file.getPath() + ".journal");
+	}
+
+	private static void delete(File file) {
+		assertTrue(file.delete());
+		assertTrue(journal(file).delete());
+	}
+
+	@Test
+	public void reopenKeepsEntries() throws IOException {
+		File file = tempFile();
+		int count = OffHeapRBTree.SLAB_NODES + 100;
+		MappedLongRBTree tree = MappedLongRBTree.open(file);
+		for (long i = 0; i < count; i++) {
+			tree.put(i, i * 10);
+		}
+		tree.remove(7);
+		tree.close();
+
+		tree = MappedLongRBTree.open(file, -1L);
+		assertEquals(count - 1, tree.size());
+		assertEquals(-1L, tree.remove(7));
+		assertEquals(50L, tree.getV(tree.getNode(5)));
+		assertEquals(10L * (count - 1), tree.getV(tree.getNode(count - 1)));
+		tree.put(7, 70);
+		tree.close();
+
+		tree = MappedLongRBTree.open(file);
+		assertEquals(70L, tree.getV(tree.getNode(7)));
+		tree.close();
+		delete(file);
+	}
+
+	/**
+	 * 模拟崩溃：不sync直接丢掉，重新打开看到上次sync时的树
+	 */
+	@Test
+	public void unsyncedChangesRollBack() throws IOException {
+		File file = tempFile();
+		MappedLongRBTree tree = MappedLongRBTree.open(file, -1L);
+		for (long i = 0; i < 1000; i++) {
+			tree.put(i, i);
+		}
+		tree.sync();
+		for (long i = 0; i < 1000; i += 2) {
+			tree.remove(i);
+		}
+		// 新的slab也不会被引用
+		for (long i = 1000; i < OffHeapRBTree.SLAB_NODES + 1000; i++) {
+			tree.put(i, i);
+		}
+		tree.discard();
+
+		tree = MappedLongRBTree.open(file, -1L);
+		assertEquals(1000, tree.size());
+		for (long i = 0; i < 1000; i++) {
+			assertEquals(i, tree.getV(tree.getNode(i)));
+		}
+		assertEquals(0, tree.getNode(1000));
+		tree.put(5000, 5);
+		tree.close();
+
+		tree = MappedLongRBTree.open(file, -1L);
+		assertEquals(1001, tree.size());
+		assertEquals(5L, tree.getV(tree.getNode(5000)));
+		tree.close();
+		delete(file);
+	}
+
+	/**
+	 * 崩溃在写完日志之后：打开时重做
+	 */
+	@Test
+	public void journalIsReplayed() throws IOException {
+		File file = tempFile();
+		MappedLongRBTree tree = MappedLongRBTree.open(file, -1L);
+		tree.put(1, 1);
+		tree.sync();
+		tree.put(2, 2);
+		tree.remove(1);
+		tree.writeJournal();
+		tree.discard();
+		assertTrue(journal(file).length() > 0);
+
+		tree = MappedLongRBTree.open(file, -1L);
+		assertEquals(0, journal(file).length());
+		assertEquals(1, tree.size());
+		assertEquals(0, tree.getNode(1));
+		assertEquals(2L, tree.getV(tree.getNode(2)));
+		tree.close();
+		delete(file);
+	}
+
+	/**
+	 * 崩溃在写日志的过程中：日志不完整，文件还没动过
+	 */
+	@Test
+	public void tornJournalIsIgnored() throws IOException {
+		File file = tempFile();
+		MappedLongRBTree tree = MappedLongRBTree.open(file, -1L);
+		tree.put(1, 1);
+		tree.sync();
+		tree.put(2, 2);
+		tree.writeJournal();
+		tree.discard();
+		try (RandomAccessFile journal = new RandomAccessFile(journal(file), "rw")) {
+			journal.setLength(journal.length() - 3);
+		}
+
+		tree = MappedLongRBTree.open(file, -1L);
+		assertEquals(0, journal(file).length());
+		assertEquals(1, tree.size());
+		assertEquals(0, tree.getNode(2));
+		tree.close();
+		delete(file);
+	}
+}
@@ -0,0 +1,87 @@
+package com.spirit.treemap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * 堆外红黑树与TreeMap的对照测试
+ */
+public class OffHeapRBTreeTest {
+
+	private static int blackHeight(OffHeapRBTree tree, int node, int parent) {
+		if (node == OffHeapRBTree.NIL) {
+			return 1;
+		}
+		assertEquals(parent, tree.getParent(node));
+		int left = blackHeight(tree, tree.getLeft(node), node);
+		assertEquals(left, blackHeight(tree, tree.getRight(node), node));
+		if (tree.isColor(node)) {
+			assertTrue(tree.getLeft(node) == OffHeapRBTree.NIL || !tree.isColor(tree.getLeft(node)));
+			assertTrue(tree.getRight(node) == OffHeapRBTree.NIL || !tree.isColor(tree.getRight(node)));
+		}
+		return left + (tree.isColor(node) ? 0 : 1);
+	}
+
+	@Test
+	public void longTreeSpansSeveralSlabs() {
+		Random random = new Random(11);
+		TreeMap<Long, Long> expected = new TreeMap<>();
+		try (OffHeapLongRBTree tree = new OffHeapLongRBTree(-1L)) {
+			for (int i = 0; i < 3 * OffHeapRBTree.SLAB_NODES; i++) {
+				long key = random.nextInt(2 * OffHeapRBTree.SLAB_NODES);
+				if (random.nextInt(4) > 0) {
+					tree.put(key, i);
+					expected.put(key, (long) i);
+				} else {
+					Long value = expected.remove(key);
+					assertEquals(value == null ? -1L : value, tree.remove(key));
+				}
+			}
+			assertEquals(expected.size(), tree.size());
+			blackHeight(tree, tree.getRoot(), OffHeapRBTree.NIL);
+
+			int node = tree.getRoot();
+			while (tree.getLeft(node) != OffHeapRBTree.NIL) {
+				node = tree.getLeft(node);
+			}
+			for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+				assertEquals((long) entry.getKey(), tree.getK(node));
+				assertEquals((long) entry.getValue(), tree.getV(node));
+				node = tree.successor(node);
+			}
+			assertEquals(OffHeapRBTree.NIL, node);
+		}
+	}
+
+	@Test
+	public void bytesTreeComparesUnsigned() {
+		try (OffHeapBytesRBTree tree = new OffHeapBytesRBTree(2, 3)) {
+			tree.put(new byte[]{(byte) 0xFF, 0}, new byte[]{1, 2, 3});
+			tree.put(new byte[]{0x01, 0}, new byte[]{4, 5, 6});
+			tree.put(new byte[]{0x01, 0}, new byte[]{7, 8, 9});
+
+			int first = tree.getNode(new byte[]{0x01, 0});
+			assertArrayEquals(new byte[]{7, 8, 9}, tree.getV(first));
+			assertArrayEquals(new byte[]{(byte) 0xFF, 0}, tree.getK(tree.successor(first)));
+			assertArrayEquals(new byte[]{1, 2, 3}, tree.remove(new byte[]{(byte) 0xFF, 0}));
+			assertNull(tree.remove(new byte[]{(byte) 0xFF, 0}));
+			assertEquals(1, tree.size());
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void closedTreeRejectsAccess() {
+		OffHeapLongRBTree tree = new OffHeapLongRBTree();
+		tree.put(1, 1);
+		tree.close();
+		tree.getNode(1);
+	}
+}
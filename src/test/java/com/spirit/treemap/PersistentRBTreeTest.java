@@ -0,0 +1,93 @@
+package com.spirit.treemap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * 持久化红黑树：每个版本都与对应时刻的TreeMap一致
+ */
+public class PersistentRBTreeTest {
+
+	private static int blackHeight(PersistentRBTree.Node<?, ?> node) {
+		if (node == null) {
+			return 1;
+		}
+		if (node.isColor()) {
+			assertTrue(node.getLeft() == null || !node.getLeft().isColor());
+			assertTrue(node.getRight() == null || !node.getRight().isColor());
+		}
+		int left = blackHeight(node.getLeft());
+		assertEquals(left, blackHeight(node.getRight()));
+		return left + (node.isColor() ? 0 : 1);
+	}
+
+	private static void assertSameContent(TreeMap<Integer, Integer> expected, PersistentRBTree<Integer, Integer> tree) {
+		assertEquals(expected.size(), tree.size());
+		Iterator<PersistentRBTree.Node<Integer, Integer>> it = tree.iterator();
+		for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+			PersistentRBTree.Node<Integer, Integer> node = it.next();
+			assertEquals(entry.getKey(), node.getK());
+			assertEquals(entry.getValue(), node.getV());
+		}
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void oldVersionsStayIntact() {
+		Random random = new Random(5);
+		PersistentRBTree<Integer, Integer> tree = PersistentRBTree.empty();
+		TreeMap<Integer, Integer> expected = new TreeMap<>();
+
+		PersistentRBTree<Integer, Integer> snapshot = null;
+		TreeMap<Integer, Integer> snapshotExpected = null;
+		for (int i = 0; i < 20000; i++) {
+			int key = random.nextInt(1000);
+			if (random.nextInt(3) > 0) {
+				tree = tree.put(key, i);
+				expected.put(key, i);
+			} else {
+				tree = tree.remove(key);
+				expected.remove(key);
+			}
+			if (i == 10000) {
+				snapshot = tree.snapshot();
+				snapshotExpected = new TreeMap<>(expected);
+			}
+		}
+		blackHeight(tree.getRoot());
+		assertFalse(tree.getRoot().isColor());
+		assertSameContent(expected, tree);
+		blackHeight(snapshot.getRoot());
+		assertSameContent(snapshotExpected, snapshot);
+	}
+
+	@Test
+	public void removingAbsentKeyReturnsSameTree() {
+		PersistentRBTree<Integer, Integer> tree = PersistentRBTree.<Integer, Integer>empty().put(1, 1).put(2, 2);
+		assertSame(tree, tree.remove(3));
+		assertNull(tree.remove(1).remove(2).getRoot());
+	}
+
+	@Test
+	public void snapshotTreeKeepsVersion() {
+		SnapshotRBTree<String, Integer> tree = new SnapshotRBTree<>();
+		tree.put("a", 1);
+		PersistentRBTree<String, Integer> before = tree.snapshot();
+		tree.put("b", 2);
+		assertEquals(Integer.valueOf(1), tree.remove("a"));
+		assertEquals(1, before.size());
+		assertEquals(Integer.valueOf(1), before.get("a"));
+		assertNull(tree.get("a"));
+		assertEquals(1, tree.size());
+	}
+}
@@ -0,0 +1,338 @@
+package com.spirit.treemap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * 基本类型key的红黑树与TreeMap的对照测试
+ */
+public class PrimitiveRBTreeTest {
+
+	private static int blackHeight(LongRBTree.RBNode<?> node) {
+		if (node == null) {
+			return 1;
+		}
+		if (node.isColor()) {
+			assertTrue(node.getLeft() == null || !node.getLeft().isColor());
+			assertTrue(node.getRight() == null || !node.getRight().isColor());
+		}
+		int left = blackHeight(node.getLeft());
+		assertEquals(left, blackHeight(node.getRight()));
+		return left + (node.isColor() ? 0 : 1);
+	}
+
+	@Test
+	public void longTreeMatchesTreeMap() {
+		Random random = new Random(7);
+		LongRBTree<String> tree = new LongRBTree<>();
+		TreeMap<Long, String> expected = new TreeMap<>();
+		for (int i = 0; i < 20000; i++) {
+			long key = random.nextInt(2000) - 1000;
+			if (random.nextInt(3) > 0) {
+				tree.put(key, "v" + i);
+				expected.put(key, "v" + i);
+			} else {
+				assertEquals(expected.remove(key), tree.remove(key));
+			}
+		}
+		blackHeight(tree.getRoot());
+
+		LongRBTree.RBNode<String> node = tree.getRoot();
+		while (node.getLeft() != null) {
+			node = node.getLeft();
+		}
+		for (Map.Entry<Long, String> entry : expected.entrySet()) {
+			assertEquals((long) entry.getKey(), node.getK());
+			assertEquals(entry.getValue(), node.getV());
+			node = tree.successor(node);
+		}
+		assertNull(node);
+	}
+
+	@Test
+	public void longLongTreeReturnsMissingValue() {
+		LongLongRBTree tree = new LongLongRBTree(-1L);
+		for (long i = 0; i < 1000; i++) {
+			tree.put(i * 3, i);
+		}
+		assertEquals(-1L, tree.remove(1));
+		assertEquals(10L, tree.remove(30));
+		assertNull(tree.getNode(30));
+		assertEquals(27L, tree.predecessor(tree.getNode(33)).getK());
+		assertEquals(999L, tree.getNode(2997).getV());
+	}
+
+	@Test
+	public void intTreeHandlesExtremeKeys() {
+		IntRBTree<Integer> tree = new IntRBTree<>();
+		tree.put(Integer.MIN_VALUE, 1);
+		tree.put(Integer.MAX_VALUE, 2);
+		tree.put(0, 3);
+		assertEquals(Integer.valueOf(1), tree.getNode(Integer.MIN_VALUE).getV());
+		assertEquals(Integer.MAX_VALUE, tree.successor(tree.getNode(0)).getK());
+		assertNull(tree.successor(tree.getNode(Integer.MAX_VALUE)));
+		assertEquals(Integer.valueOf(3), tree.remove(0));
+	}
+
+	// ---------------- 四个变体共用的对照测试 ----------------
+	// 四个变体的插入删除和调整代码是各自独立的一份，每个都要跑一遍相同的随机对照
+
+	/**
+	 * 把不同变体的操作统一成long的key和value
+	 */
+	private interface Adapter {
+
+		void put(long k, long v);
+
+		/**
+		 * @return 不存在时返回null
+		 */
+		Long remove(long k);
+
+		Long get(long k);
+
+		Object root();
+
+		Object successor(Object node);
+
+		Object predecessor(Object node);
+	}
+
+	private static Object call(Object node, String method) {
+		try {
+			Method m = node.getClass().getMethod(method);
+			return m.invoke(node);
+		} catch (ReflectiveOperationException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private static long keyOf(Object node) {
+		return ((Number) call(node, "getK")).longValue();
+	}
+
+	/**
+	 * 检查红黑性质、parent指针和key的顺序，节点的方法名在四个变体中相同
+	 *
+	 * @return 黑高
+	 */
+	private static int checkShape(Object node, Object parent, long lo, long hi) {
+		if (node == null) {
+			return 1;
+		}
+		assertSame(parent, call(node, "getParent"));
+		long k = keyOf(node);
+		assertTrue(k >= lo && k <= hi);
+		Object left = call(node, "getLeft");
+		Object right = call(node, "getRight");
+		boolean red = (Boolean) call(node, "isColor");
+		if (red) {
+			assertTrue(left == null || !(Boolean) call(left, "isColor"));
+			assertTrue(right == null || !(Boolean) call(right, "isColor"));
+		}
+		int leftHeight = checkShape(left, node, lo, k - 1);
+		assertEquals(leftHeight, checkShape(right, node, k + 1, hi));
+		return leftHeight + (red ? 0 : 1);
+	}
+
+	private static void crossCheck(Adapter tree, long min, long max, long seed) {
+		Random random = new Random(seed);
+		TreeMap<Long, Long> expected = new TreeMap<>();
+		long[] extremes = {min, max, 0, min + 1, max - 1};
+		for (int i = 0; i < 30000; i++) {
+			long key;
+			if (i < extremes.length) {
+				key = extremes[i];
+			} else if (random.nextInt(20) == 0) {
+				key = min + (long) (random.nextDouble() * ((double) max - min));
+			} else {
+				key = random.nextInt(3000) - 1500;
+			}
+			int op = random.nextInt(4);
+			if (op < 2) {
+				tree.put(key, i);
+				expected.put(key, (long) i);
+			} else if (op == 2) {
+				assertEquals(expected.remove(key), tree.remove(key));
+			} else {
+				assertEquals(expected.get(key), tree.get(key));
+			}
+			if (i % 5000 == 0) {
+				assertRoot(tree);
+				checkShape(tree.root(), null, min, max);
+			}
+		}
+		assertRoot(tree);
+		checkShape(tree.root(), null, min, max);
+
+		// 正向和反向遍历都与TreeMap一致
+		Object node = tree.root();
+		while (node != null && call(node, "getLeft") != null) {
+			node = call(node, "getLeft");
+		}
+		for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+			assertEquals((long) entry.getKey(), keyOf(node));
+			assertEquals((long) entry.getValue(), ((Number) call(node, "getV")).longValue());
+			node = tree.successor(node);
+		}
+		assertNull(node);
+		node = tree.root();
+		while (node != null && call(node, "getRight") != null) {
+			node = call(node, "getRight");
+		}
+		for (Long key : expected.descendingKeySet()) {
+			assertEquals((long) key, keyOf(node));
+			node = tree.predecessor(node);
+		}
+		assertNull(node);
+
+		// 全部删掉
+		for (Long key : expected.keySet()) {
+			assertEquals(expected.get(key), tree.remove(key));
+		}
+		assertNull(tree.root());
+	}
+
+	private static void assertRoot(Adapter tree) {
+		Object root = tree.root();
+		if (root != null) {
+			assertTrue(!(Boolean) call(root, "isColor"));
+		}
+	}
+
+	@Test
+	public void longTreeCrossCheck() {
+		final LongRBTree<Long> tree = new LongRBTree<>();
+		crossCheck(new Adapter() {
+			public void put(long k, long v) {
+				tree.put(k, v);
+			}
+
+			public Long remove(long k) {
+				return tree.remove(k);
+			}
+
+			public Long get(long k) {
+				LongRBTree.RBNode<Long> node = tree.getNode(k);
+				return node == null ? null : node.getV();
+			}
+
+			public Object root() {
+				return tree.getRoot();
+			}
+
+			public Object successor(Object node) {
+				return tree.successor((LongRBTree.RBNode<Long>) node);
+			}
+
+			public Object predecessor(Object node) {
+				return tree.predecessor((LongRBTree.RBNode<Long>) node);
+			}
+		}, Long.MIN_VALUE, Long.MAX_VALUE, 21);
+	}
+
+	@Test
+	public void intTreeCrossCheck() {
+		final IntRBTree<Long> tree = new IntRBTree<>();
+		crossCheck(new Adapter() {
+			public void put(long k, long v) {
+				tree.put((int) k, v);
+			}
+
+			public Long remove(long k) {
+				return tree.remove((int) k);
+			}
+
+			public Long get(long k) {
+				IntRBTree.RBNode<Long> node = tree.getNode((int) k);
+				return node == null ? null : node.getV();
+			}
+
+			public Object root() {
+				return tree.getRoot();
+			}
+
+			public Object successor(Object node) {
+				return tree.successor((IntRBTree.RBNode<Long>) node);
+			}
+
+			public Object predecessor(Object node) {
+				return tree.predecessor((IntRBTree.RBNode<Long>) node);
+			}
+		}, Integer.MIN_VALUE, Integer.MAX_VALUE, 22);
+	}
+
+	@Test
+	public void longLongTreeCrossCheck() {
+		// value都不小于0，-1表示不存在
+		final LongLongRBTree tree = new LongLongRBTree(-1L);
+		crossCheck(new Adapter() {
+			public void put(long k, long v) {
+				tree.put(k, v);
+			}
+
+			public Long remove(long k) {
+				long v = tree.remove(k);
+				return v == -1L ? null : v;
+			}
+
+			public Long get(long k) {
+				LongLongRBTree.RBNode node = tree.getNode(k);
+				return node == null ? null : node.getV();
+			}
+
+			public Object root() {
+				return tree.getRoot();
+			}
+
+			public Object successor(Object node) {
+				return tree.successor((LongLongRBTree.RBNode) node);
+			}
+
+			public Object predecessor(Object node) {
+				return tree.predecessor((LongLongRBTree.RBNode) node);
+			}
+		}, Long.MIN_VALUE, Long.MAX_VALUE, 23);
+	}
+
+	@Test
+	public void intLongTreeCrossCheck() {
+		final IntLongRBTree tree = new IntLongRBTree(-1L);
+		crossCheck(new Adapter() {
+			public void put(long k, long v) {
+				tree.put((int) k, v);
+			}
+
+			public Long remove(long k) {
+				long v = tree.remove((int) k);
+				return v == -1L ? null : v;
+			}
+
+			public Long get(long k) {
+				IntLongRBTree.RBNode node = tree.getNode((int) k);
+				return node == null ? null : node.getV();
+			}
+
+			public Object root() {
+				return tree.getRoot();
+			}
+
+			public Object successor(Object node) {
+				return tree.successor((IntLongRBTree.RBNode) node);
+			}
+
+			public Object predecessor(Object node) {
+				return tree.predecessor((IntLongRBTree.RBNode) node);
+			}
+		}, Integer.MIN_VALUE, Integer.MAX_VALUE, 24);
+	}
+}
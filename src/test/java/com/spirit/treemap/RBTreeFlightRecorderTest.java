@@ -0,0 +1,111 @@
+package com.spirit.treemap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+/**
+ * JFR事件的测试
+ */
+public class RBTreeFlightRecorderTest {
+
+	@Test
+	public void operationAndShapeEventsAreRecorded() throws IOException, InterruptedException {
+		RBTree<Integer, Integer> tree = new RBTree<>();
+		List<RecordedEvent> events;
+		Path file = Files.createTempFile("rbtree", ".jfr");
+		// 先登记，周期事件的回调要在录制开始前注册好，否则要等JFR的周期线程醒来后才生效
+		RBTreeFlightRecorder.monitor("test-tree", tree);
+		try (Recording recording = new Recording()) {
+			recording.enable(RBTreeOperationEvent.class).withThreshold(Duration.ZERO);
+			recording.enable(RBTreeShapeEvent.class).withPeriod(Duration.ofMillis(50));
+			recording.start();
+			assertTrue(RBTreeEvents.enabled);
+
+			for (int i = 0; i < 1000; i++) {
+				tree.put(i, i);
+			}
+			tree.getNode(500);
+			tree.remove(500);
+			tree.merge(500, 1, Integer::sum);
+			tree.remove(500);
+			Thread.sleep(500);
+
+			recording.stop();
+			recording.dump(file);
+			events = RecordingFile.readAllEvents(file);
+		} finally {
+			RBTreeFlightRecorder.unmonitor(tree);
+			Files.delete(file);
+		}
+
+		int puts = 0;
+		int rotations = 0;
+		boolean sawGet = false;
+		boolean sawRemove = false;
+		boolean sawMerge = false;
+		RecordedEvent lastShape = null;
+		for (RecordedEvent event : events) {
+			String name = event.getEventType().getName();
+			if (name.equals("com.spirit.treemap.Operation")) {
+				String operation = event.getString("operation");
+				if (operation.equals("put")) {
+					puts++;
+					rotations += event.getInt("rotations");
+				} else if (operation.equals("get")) {
+					sawGet = true;
+					assertEquals(Integer.valueOf(500).hashCode(), event.getInt("keyHash"));
+					assertTrue(event.getInt("depth") >= 1);
+					assertEquals(1000, event.getInt("size"));
+				} else if (operation.equals("remove")) {
+					sawRemove = true;
+					assertEquals(999, event.getInt("size"));
+				} else if (operation.equals("merge")) {
+					// 读-改-写方法与put走同样的记录
+					sawMerge = true;
+					assertTrue(event.getInt("depth") >= 1);
+					assertEquals(1000, event.getInt("size"));
+				}
+			} else if (name.equals("com.spirit.treemap.Shape") && "test-tree".equals(event.getString("tree"))) {
+				// 录制刚开始时树可能还是空的，看最后一个
+				lastShape = event;
+			}
+		}
+		assertEquals(1000, puts);
+		// 升序插入会不断旋转
+		assertTrue(rotations > 0);
+		assertTrue(sawGet);
+		assertTrue(sawRemove);
+		assertTrue(sawMerge);
+		assertTrue(lastShape != null);
+		assertEquals(999, lastShape.getInt("size"));
+		// 999个节点的高度至少是10，上界不超过2*log2(1000)
+		int bound = lastShape.getInt("heightBound");
+		assertEquals(2 * lastShape.getInt("blackHeight"), bound);
+		assertTrue(bound >= 10 && bound <= 20);
+	}
+
+	@Test
+	public void recordingWithoutOperationEventCreatesNoEvents() {
+		try (Recording recording = new Recording()) {
+			recording.enable(RBTreeShapeEvent.class);
+			recording.start();
+			// 有录制在进行，但操作事件默认不启用
+			assertFalse(RBTreeEvents.enabled);
+			assertNull(RBTreeEvents.begin(0));
+			recording.stop();
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package com.spirit.treemap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+/**
+ * RBTreeMetrics的测试
+ */
+public class RBTreeMetricsTest {
+
+	@Test
+	public void countersFollowTheTree() {
+		RBTree<Integer, Integer> tree = new RBTree<>();
+		RBTreeMetrics metrics = new RBTreeMetrics();
+		tree.setMetrics(metrics);
+
+		Random random = new Random(11);
+		int n = 20000;
+		for (int i = 0; i < n; i++) {
+			tree.put(random.nextInt(), i);
+		}
+		int size = tree.size();
+		for (int i = 0; i < n; i++) {
+			tree.getNode(random.nextInt());
+		}
+		// 根节点只比较一次
+		tree.getNode((Integer) tree.getRoot().getK());
+		int removed = 0;
+		while (tree.size() > size / 2) {
+			tree.remove((Integer) tree.getRoot().getK());
+			removed++;
+		}
+		RBTreeTest.assertValid(tree);
+
+		RBTreeMetrics.Snapshot snapshot = metrics.snapshot();
+		assertEquals(n, snapshot.getInserts());
+		// remove内部也是先getNode
+		assertEquals(n + 1 + removed, snapshot.getLookups());
+		assertEquals(removed, snapshot.getDeletes());
+
+		// 每次插入最多两次旋转，每次删除最多三次
+		assertTrue(snapshot.getInsertRotations() > 0);
+		assertTrue(snapshot.getInsertRotations() <= 2 * snapshot.getInserts());
+		assertTrue(snapshot.getDeleteRotations() <= 3 * snapshot.getDeletes());
+		assertTrue(snapshot.getInsertRecolors() > 0);
+		assertTrue(snapshot.getInsertFixupIterations() >= snapshot.getInsertRotations() / 2);
+
+		// 红黑树高度不超过2log(n+1)
+		double bound = 2 * Math.log(n + 1) / Math.log(2);
+		assertTrue(snapshot.getAverageLookupComparisons() <= bound);
+		assertTrue(snapshot.getAverageInsertComparisons() <= bound);
+		assertTrue(snapshot.getMaxFixupIterations() <= bound);
+
+		long[] histogram = snapshot.getPathLengthHistogram();
+		long total = 0;
+		for (long count : histogram) {
+			total += count;
+		}
+		assertEquals(snapshot.getLookups() + snapshot.getInserts(), total);
+		assertTrue(histogram[1] >= 1 + removed);
+		assertEquals(0, histogram[RBTreeMetrics.PATH_BUCKETS - 1]);
+
+		metrics.reset();
+		assertEquals(0, metrics.getLookups());
+		assertEquals(0, metrics.getPathLengthHistogram()[1]);
+
+		// 关闭后不再记录
+		tree.setMetrics(null);
+		tree.put(1, 1);
+		tree.getNode(1);
+		assertEquals(0, metrics.getInserts());
+		assertEquals(0, metrics.getLookups());
+	}
+
+	@Test
+	public void readModifyWriteMethodsAreCounted() {
+		RBTree<Integer, Integer> tree = new RBTree<>();
+		RBTreeMetrics metrics = new RBTreeMetrics();
+		tree.setMetrics(metrics);
+
+		// 插入或者替换value按insert计
+		tree.putIfAbsent(1, 1);
+		tree.putIfAbsent(2, 2);
+		tree.replace(2, 20);
+		tree.computeIfAbsent(3, k -> 30);
+		tree.computeIfPresent(3, (k, v) -> v + 1);
+		tree.compute(5, (k, v) -> 5);
+		tree.merge(5, 1, Integer::sum);
+		tree.merge(6, 6, Integer::sum);
+		// 没有修改或者删除按lookup计，删除另外计一次
+		tree.putIfAbsent(1, 10);
+		tree.replace(4, 4);
+		tree.computeIfAbsent(4, k -> null);
+		tree.computeIfPresent(3, (k, v) -> null);
+		tree.merge(6, 0, (a, b) -> null);
+
+		assertEquals(8, metrics.getInserts());
+		assertEquals(5, metrics.getLookups());
+		assertEquals(2, metrics.getDeletes());
+		assertEquals(3, tree.size());
+	}
+
+	@Test
+	public void exposedThroughJmx() throws Exception {
+		RBTree<Long, Long> tree = new RBTree<>();
+		RBTreeMetrics metrics = new RBTreeMetrics();
+		tree.setMetrics(metrics);
+		for (long i = 0; i < 100; i++) {
+			tree.put(i, null);
+		}
+
+		metrics.register("jmx-test");
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("com.spirit.treemap:type=RBTree,name=" + ObjectName.quote("jmx-test"));
+		try {
+			assertEquals(100L, server.getAttribute(name, "Inserts"));
+			// 升序插入会不断旋转
+			assertTrue((Long) server.getAttribute(name, "InsertRotations") > 0);
+			server.invoke(name, "reset", null, null);
+			assertEquals(0L, metrics.getInserts());
+		} finally {
+			metrics.unregister();
+		}
+		assertFalse(server.isRegistered(name));
+	}
+}
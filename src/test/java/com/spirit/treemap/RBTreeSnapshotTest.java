@@ -0,0 +1,138 @@
+package com.spirit.treemap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.junit.Test;
+
+/**
+ * RBTreeSnapshot的测试
+ */
+public class RBTreeSnapshotTest {
+
+	@Test
+	public void longKeysRoundTrip() throws IOException {
+		Random random = new Random(8);
+		RBTree<Long, Long> tree = new RBTree<>();
+		TreeMap<Long, Long> expected = new TreeMap<>();
+		long[] extremes = {Long.MIN_VALUE, -1, 0, Long.MAX_VALUE};
+		for (long key : extremes) {
+			tree.put(key, key);
+			expected.put(key, key);
+		}
+		for (int i = 0; i < 50000; i++) {
+			long key = random.nextInt(10) == 0 ? random.nextLong() : random.nextInt(1000000);
+			// 一部分value就是key本身，一部分单独存
+			Long value = random.nextBoolean() ? null : random.nextLong();
+			tree.put(key, value);
+			expected.put(key, value == null ? key : value);
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		RBTreeSnapshot.write(tree, out, RBTreeSnapshot.LONG_KEYS, RBTreeSnapshot.LONG_VALUES);
+		RBTree<Long, Long> loaded = RBTreeSnapshot.read(new ByteArrayInputStream(out.toByteArray()),
+				RBTreeSnapshot.LONG_KEYS, RBTreeSnapshot.LONG_VALUES);
+
+		RBTreeTest.assertValid(loaded);
+		RBTreeTest.assertSameContent(expected, loaded);
+		assertEquals(expected.size(), loaded.size());
+	}
+
+	@Test
+	public void paddedStringKeysShareTheirPrefix() throws IOException {
+		// 与TreeTest一样补零到三位，value就是key本身
+		RBTree<String, String> tree = new RBTree<>();
+		TreeMap<String, String> expected = new TreeMap<>();
+		for (int i = 0; i < 1000; i++) {
+			String key = String.format("%03d", i);
+			tree.put(key, null);
+			expected.put(key, key);
+		}
+		tree.put("😀a", "emoji");
+		tree.put("😁b", "emoji");
+		expected.put("😀a", "emoji");
+		expected.put("😁b", "emoji");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		RBTreeSnapshot.write(tree, out, RBTreeSnapshot.STRING_KEYS, RBTreeSnapshot.STRING_VALUES);
+		// 文件头24字节，块头尾12字节，其余每条数据:前缀长度、后缀长度、后缀、标记，大多数是4个字节
+		assertTrue(out.size() < 24 + 12 + 1002 * 5);
+
+		RBTree<String, String> loaded = RBTreeSnapshot.read(new ByteArrayInputStream(out.toByteArray()),
+				RBTreeSnapshot.STRING_KEYS, RBTreeSnapshot.STRING_VALUES);
+		RBTreeTest.assertValid(loaded);
+		RBTreeTest.assertSameContent(expected, loaded);
+	}
+
+	@Test
+	public void corruptedOrTruncatedSnapshotIsRejected() throws IOException {
+		RBTree<Integer, Integer> tree = new RBTree<>();
+		for (int i = 0; i < 100000; i++) {
+			tree.put(i * 7, i);
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		RBTreeSnapshot.write(tree, out, RBTreeSnapshot.INTEGER_KEYS, RBTreeSnapshot.INTEGER_VALUES);
+		byte[] bytes = out.toByteArray();
+
+		byte[] corrupted = bytes.clone();
+		corrupted[corrupted.length / 2] ^= 0x10;
+		assertRejected(corrupted);
+		assertRejected(Arrays.copyOf(bytes, bytes.length - 100));
+		assertRejected(Arrays.copyOf(bytes, 30));
+
+		// 文件头有自己的CRC：改了条数就拒绝
+		ByteBuffer header = ByteBuffer.wrap(bytes.clone());
+		header.putLong(12, header.getLong(12) - 1);
+		try {
+			RBTreeSnapshot.read(new ByteArrayInputStream(header.array()), RBTreeSnapshot.INTEGER_KEYS, RBTreeSnapshot.INTEGER_VALUES);
+			fail("header change should be rejected");
+		} catch (IOException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().contains("header checksum"));
+		}
+		// 第一个块头在文件头(24字节)之后：长度过大时不分配缓冲区就拒绝
+		header = ByteBuffer.wrap(bytes.clone());
+		header.putInt(24, Integer.MAX_VALUE - 8);
+		assertRejected(header.array());
+		// 块头也在CRC之内
+		header = ByteBuffer.wrap(bytes.clone());
+		header.putInt(28, header.getInt(28) - 1);
+		assertRejected(header.array());
+		// 条数少一条并重新计算CRC：块内剩下的字节必须被发现
+		header = ByteBuffer.wrap(bytes.clone());
+		int length = header.getInt(24);
+		header.putInt(28, header.getInt(28) - 1);
+		CRC32 crc = new CRC32();
+		crc.update(header.array(), 24, 8 + length);
+		header.putInt(32 + length, (int) crc.getValue());
+		try {
+			RBTreeSnapshot.read(new ByteArrayInputStream(header.array()), RBTreeSnapshot.INTEGER_KEYS, RBTreeSnapshot.INTEGER_VALUES);
+			fail("trailing bytes should be rejected");
+		} catch (IOException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().contains("trailing bytes"));
+		}
+
+		RBTree<Integer, Integer> loaded = RBTreeSnapshot.read(new ByteArrayInputStream(bytes),
+				RBTreeSnapshot.INTEGER_KEYS, RBTreeSnapshot.INTEGER_VALUES);
+		assertEquals(100000, loaded.size());
+		assertEquals(Integer.valueOf(99999), loaded.select(99999).getV());
+	}
+
+	private static void assertRejected(byte[] bytes) {
+		try {
+			RBTreeSnapshot.read(new ByteArrayInputStream(bytes), RBTreeSnapshot.INTEGER_KEYS, RBTreeSnapshot.INTEGER_VALUES);
+			fail("damaged snapshot should be rejected");
+		} catch (IOException expected) {
+			// ok
+		}
+	}
+}
@@ -0,0 +1,754 @@
+package com.spirit.treemap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+/**
+ * RBTree的测试
+ */
+public class RBTreeTest {
+
+	/**
+	 * 检查红黑树的性质和parent指针，返回黑高度
+	 */
+	static int blackHeight(RBTree.RBNode node, RBTree.RBNode parent) {
+		if (node == null) {
+			return 1;
+		}
+		assertTrue(node.getParent() == parent);
+		if (node.isColor()) {
+			assertTrue(node.getLeft() == null || !node.getLeft().isColor());
+			assertTrue(node.getRight() == null || !node.getRight().isColor());
+		}
+		assertEquals(subtreeSize(node.getLeft()) + subtreeSize(node.getRight()) + 1, node.getSize());
+		int left = blackHeight(node.getLeft(), node);
+		assertEquals(left, blackHeight(node.getRight(), node));
+		return left + (node.isColor() ? 0 : 1);
+	}
+
+	private static int subtreeSize(RBTree.RBNode node) {
+		return node == null ? 0 : node.getSize();
+	}
+
+	static void assertValid(RBTree<?, ?> tree) {
+		assertTrue(tree.getRoot() == null || !tree.getRoot().isColor());
+		blackHeight(tree.getRoot(), null);
+		// 缓存的最小和最大节点
+		RBTree.RBNode first = tree.getRoot();
+		RBTree.RBNode last = tree.getRoot();
+		while (first != null && first.getLeft() != null) {
+			first = first.getLeft();
+		}
+		while (last != null && last.getRight() != null) {
+			last = last.getRight();
+		}
+		assertTrue(tree.getFirstNode() == first);
+		assertTrue(tree.getLastNode() == last);
+	}
+
+	static <K extends Comparable<K>, V> void assertSameContent(Map<K, V> expected, RBTree<K, V> tree) {
+		RBTree.RBNode node = tree.getRoot();
+		while (node != null && node.getLeft() != null) {
+			node = node.getLeft();
+		}
+		for (Map.Entry<K, V> entry : expected.entrySet()) {
+			assertEquals(entry.getKey(), node.getK());
+			assertEquals(entry.getValue(), node.getV());
+			node = tree.successor(node);
+		}
+		assertNull(node);
+	}
+
+	private static List<Map.Entry<Integer, Integer>> entries(int size) {
+		List<Map.Entry<Integer, Integer>> entries = new ArrayList<>();
+		for (int i = 0; i < size; i++) {
+			entries.add(new AbstractMap.SimpleEntry<>(i * 2, i));
+		}
+		return entries;
+	}
+
+	@Test
+	public void putAndRemoveMatchTreeMap() {
+		Random random = new Random(1);
+		RBTree<Integer, Integer> tree = new RBTree<>();
+		TreeMap<Integer, Integer> expected = new TreeMap<>();
+		for (int i = 0; i < 20000; i++) {
+			int key = random.nextInt(1000);
+			if (random.nextInt(3) > 0) {
+				tree.put(key, i);
+				expected.put(key, i);
+			} else {
+				assertEquals(expected.remove(key), tree.remove(key));
+			}
+		}
+		assertValid(tree);
+		assertSameContent(expected, tree);
+	}
+
+	@Test
+	public void bulkLoadBuildsValidTree() {
+		for (int size = 0; size < 300; size++) {
+			RBTree<Integer, Integer> tree = new RBTree<>();
+			tree.put(-1, -1);
+			tree.bulkLoad(entries(size).iterator(), size);
+			assertValid(tree);
+
+			TreeMap<Integer, Integer> expected = new TreeMap<>();
+			for (Map.Entry<Integer, Integer> entry : entries(size)) {
+				expected.put(entry.getKey(), entry.getValue());
+			}
+			assertSameContent(expected, tree);
+		}
+
+		RBTree<Integer, Integer> tree = new RBTree<>();
+		tree.bulkLoad(entries(1000).iterator(), 1000);
+		tree.put(7, 7);
+		tree.remove(10);
+		assertValid(tree);
+	}
+
+	@Test
+	public void bulkLoadRejectsUnsortedInput() {
+		RBTree<Integer, Integer> tree = new RBTree<>();
+		tree.put(42, 42);
+		List<Map.Entry<Integer, Integer>> entries = entries(10);
+		entries.set(5, new AbstractMap.SimpleEntry<>(2, 0));
+		try {
+			tree.bulkLoad(entries.iterator(), 10);
+			fail("unsorted input should be rejected");
+		} catch (IllegalArgumentException expected) {
+			// 原来的树保持不变
+			assertEquals(Integer.valueOf(42), tree.getNode(42).getV());
+		}
+		try {
+			tree.bulkLoad(entries(3).iterator(), 4);
+			fail("size mismatch should be rejected");
+		} catch (IllegalArgumentException expected) {
+			assertFalse(tree.getRoot() == null);
+		}
+	}
+
+	@Test
+	public void putAllAndRemoveAllMatchTreeMap() {
+		Random random = new Random(2);
+		RBTree<Integer, Integer> tree = new RBTree<>();
+		TreeMap<Integer, Integer> expected = new TreeMap<>();
+		for (int round = 0; round < 200; round++) {
+			Map<Integer, Integer> batch = round % 2 == 0 ? new HashMap<Integer, Integer>() : new TreeMap<Integer, Integer>();
+			int base = random.nextInt(5000);
+			for (int i = 0; i < 100; i++) {
+				batch.put(base + random.nextInt(300), round);
+			}
+			tree.putAll(batch);
+			expected.putAll(batch);
+
+			Set<Integer> keys = round % 3 == 0 ? new TreeSet<Integer>() : new HashSet<Integer>();
+			for (int i = 0; i < 60; i++) {
+				keys.add(random.nextInt(5300));
+			}
+			int removed = 0;
+			for (Integer key : keys) {
+				if (expected.remove(key) != null) {
+					removed++;
+				}
+			}
+			assertEquals(removed, tree.removeAll(keys));
+			assertValid(tree);
+		}
+		assertSameContent(expected, tree);
+	}
+
+	private static <K extends Comparable<K>, V> void assertSameView(NavigableMap<K, V> expected, RBTreeView<K, V> view) {
+		final List<K> keys = new ArrayList<>();
+		for (RBTree.RBNode node : view) {
+			keys.add((K) node.getK());
+		}
+		assertEquals(new ArrayList<>(expected.keySet()), keys);
+		assertEquals(expected.size(), view.size());
+		assertEquals(expected.isEmpty(), view.isEmpty());
+
+		final List<V> values = new ArrayList<>();
+		view.scan(new EntryVisitor<K, V>() {
+			@Override
+			public boolean visit(K k, V v) {
+				values.add(v);
+				return true;
+			}
+		});
+		assertEquals(new ArrayList<>(expected.values()), values);
+	}
+
+	@Test
+	public void viewsMatchTreeMap() {
+		Random random = new Random(3);
+		RBTree<Integer, Integer> tree = new RBTree<>();
+		TreeMap<Integer, Integer> expected = new TreeMap<>();
+		for (int i = 0; i < 300; i++) {
+			int key = random.nextInt(1000) * 2;
+			tree.put(key, i);
+			expected.put(key, i);
+		}
+		assertSameView(expected.descendingMap(), tree.descendingMap());
+
+		for (int i = 0; i < 500; i++) {
+			int lo = random.nextInt(2100) - 50;
+			int hi = lo + 2 + random.nextInt(400);
+			boolean loInc = random.nextBoolean();
+			boolean hiInc = random.nextBoolean();
+			assertSameView(expected.subMap(lo, loInc, hi, hiInc), tree.subMap(lo, loInc, hi, hiInc));
+			assertSameView(expected.headMap(hi, hiInc), tree.headMap(hi, hiInc));
+			assertSameView(expected.tailMap(lo, loInc), tree.tailMap(lo, loInc));
+			assertSameView(expected.subMap(lo, loInc, hi, hiInc).descendingMap(),
+					tree.subMap(lo, loInc, hi, hiInc).descendingMap());
+
+			int mid = lo + (hi - lo) / 2;
+			assertSameView(expected.subMap(lo, loInc, hi, hiInc).headMap(mid, true),
+					tree.subMap(lo, loInc, hi, hiInc).headMap(mid, true));
+			assertSameView(expected.subMap(lo, loInc, hi, hiInc).descendingMap().tailMap(mid, false),
+					tree.subMap(lo, loInc, hi, hiInc).descendingMap().tailMap(mid, false));
+		}
+
+		final List<Integer> firstThree = new ArrayList<>();
+		tree.rangeScan(100, true, 900, true, new EntryVisitor<Integer, Integer>() {
+			@Override
+			public boolean visit(Integer k, Integer v) {
+				firstThree.add(k);
+				return firstThree.size() < 3;
+			}
+		});
+		assertEquals(new ArrayList<>(expected.subMap(100, true, 900, true).keySet()).subList(0, 3), firstThree);
+	}
+
+	@Test
+	public void viewsAreLive() {
+		RBTree<Integer, Integer> tree = new RBTree<>();
+		for (int i = 0; i < 10; i++) {
+			tree.put(i * 10, i);
+		}
+		RBTreeView<Integer, Integer> view = tree.subMap(20, true, 50, false);
+		assertEquals(3, view.size());
+		assertEquals(Integer.valueOf(20), view.firstNode().getK());
+		assertEquals(Integer.valueOf(40), view.lastNode().getK());
+
+		tree.put(45, 45);
+		tree.remove(20);
+		assertEquals(3, view.size());
+		assertEquals(Integer.valueOf(30), view.firstNode().getK());
+		assertEquals(Integer.valueOf(45), view.lastNode().getK());
+
+		view.put(35, 35);
+		assertEquals(Integer.valueOf(35), tree.getNode(35).getV());
+		assertNull(view.get(50));
+		assertNull(view.remove(50));
+		assertEquals(Integer.valueOf(5), tree.getNode(50).getV());
+		try {
+			view.put(50, 50);
+			fail("key out of range should be rejected");
+		} catch (IllegalArgumentException expected) {
+			// ok
+		}
+		try {
+			view.subMap(10, true, 30, true);
+			fail("bound out of range should be rejected");
+		} catch (IllegalArgumentException expected) {
+			// ok
+		}
+		assertValid(tree);
+	}
+
+	@Test
+	public void orderStatisticsMatchTreeMap() {
+		Random random = new Random(4);
+		RBTree<Integer, Integer> tree = new RBTree<>();
+		TreeMap<Integer, Integer> expected = new TreeMap<>();
+		for (int i = 0; i < 5000; i++) {
+			int key = random.nextInt(2000);
+			if (random.nextInt(3) > 0) {
+				tree.put(key, i);
+				expected.put(key, i);
+			} else {
+				tree.remove(key);
+				expected.remove(key);
+			}
+			assertEquals(expected.size(), tree.size());
+		}
+		assertValid(tree);
+
+		List<Integer> keys = new ArrayList<>(expected.keySet());
+		for (int i = 0; i < keys.size(); i++) {
+			assertEquals(keys.get(i), tree.select(i).getK());
+		}
+		for (int key = -1; key <= 2000; key++) {
+			assertEquals(expected.headMap(key, false).size(), tree.rank(key));
+			assertEquals(expected.headMap(key, true).size(), tree.rank(key, true));
+		}
+		for (int i = 0; i < 1000; i++) {
+			int lo = random.nextInt(2100) - 50;
+			int hi = lo + random.nextInt(300);
+			boolean loInc = random.nextBoolean();
+			boolean hiInc = random.nextBoolean();
+			assertEquals(expected.subMap(lo, loInc, hi, hiInc).size(), tree.countInRange(lo, loInc, hi, hiInc));
+			assertEquals(expected.subMap(lo, true, hi, true).size(), tree.countInRange(lo, hi));
+		}
+		try {
+			tree.select(tree.size());
+			fail("index out of range should be rejected");
+		} catch (IndexOutOfBoundsException e) {
+			// ok
+		}
+
+		// bulkLoad和putAll/removeAll同样维护子树大小
+		tree.bulkLoad(entries(777).iterator(), 777);
+		assertValid(tree);
+		assertEquals(777, tree.size());
+		assertEquals(Integer.valueOf(200), tree.select(100).getK());
+		Map<Integer, Integer> batch = new HashMap<>();
+		for (int i = 0; i < 100; i++) {
+			batch.put(i * 2 + 1, i);
+		}
+		tree.putAll(batch);
+		assertEquals(877, tree.size());
+		Set<Integer> evens = new TreeSet<>();
+		for (int i = 0; i < 50; i++) {
+			evens.add(i * 2);
+		}
+		assertEquals(50, tree.removeAll(evens));
+		assertEquals(827, tree.size());
+		assertValid(tree);
+	}
+
+	@Test
+	public void spliteratorSplitsEvenlyAndCoversAllNodes() {
+		RBTree<Integer, Integer> tree = new RBTree<>();
+		for (int i = 0; i < 1000; i++) {
+			tree.put(i, i);
+		}
+		Spliterator<RBTree.RBNode<Integer, Integer>> suffix = tree.spliterator();
+		assertTrue(suffix.hasCharacteristics(Spliterator.SORTED | Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED));
+		Spliterator<RBTree.RBNode<Integer, Integer>> prefix = suffix.trySplit();
+		assertEquals(500, prefix.estimateSize());
+		assertEquals(500, suffix.estimateSize());
+
+		final List<Integer> keys = new ArrayList<>();
+		Consumer<RBTree.RBNode<Integer, Integer>> collect = new Consumer<RBTree.RBNode<Integer, Integer>>() {
+			@Override
+			public void accept(RBTree.RBNode<Integer, Integer> node) {
+				keys.add(node.getK());
+			}
+		};
+		Spliterator<RBTree.RBNode<Integer, Integer>> quarter = prefix.trySplit();
+		assertTrue(quarter.tryAdvance(collect));
+		quarter.forEachRemaining(collect);
+		prefix.forEachRemaining(collect);
+		suffix.forEachRemaining(collect);
+		assertEquals(1000, keys.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(Integer.valueOf(i), keys.get(i));
+		}
+		assertNull(tree.stream().filter(n -> n.getK() < 0).findAny().orElse(null));
+	}
+
+	@Test
+	public void parallelOperationsMatchSequential() {
+		RBTree<Integer, Long> tree = new RBTree<>();
+		long expectedSum = 0;
+		for (int i = 0; i < 100000; i++) {
+			tree.put(i, (long) i * 3);
+			expectedSum += (long) i * 3;
+		}
+		assertEquals(Long.valueOf(expectedSum), tree.parallelStream().map(RBTree.RBNode::getV).reduce(0L, Long::sum));
+		assertEquals(expectedSum, tree.parallelStream().mapToLong(RBTree.RBNode::getV).sum());
+		assertEquals(Long.valueOf(expectedSum), RBTreeParallel.reduce(tree, 1000, (k, v) -> v, Long::sum));
+
+		// reduce按key的顺序合并，结合律成立的非交换操作结果也与顺序执行相同
+		RBTree<Integer, Integer> small = new RBTree<>();
+		for (int i = 0; i < 50; i++) {
+			small.put(i, i);
+		}
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 50; i++) {
+			expected.append(i).append(',');
+		}
+		assertEquals(expected.toString(), RBTreeParallel.reduce(small, 3, (k, v) -> k + ",", String::concat));
+
+		LongAdder count = new LongAdder();
+		RBTreeParallel.forEach(tree, 1000, (k, v) -> count.increment());
+		assertEquals(100000, count.sum());
+
+		assertEquals(Integer.valueOf(77777), RBTreeParallel.search(tree, 1000, (k, v) -> v == 77777L * 3 ? k : null));
+		assertNull(RBTreeParallel.search(tree, 1000, (k, v) -> v < 0 ? k : null));
+		assertNull(RBTreeParallel.reduce(new RBTree<Integer, Long>(), 1, (k, v) -> v, Long::sum));
+	}
+
+	private static RBTree<Integer, Integer> randomTree(Random random, int size, int bound, TreeMap<Integer, Integer> expected) {
+		RBTree<Integer, Integer> tree = new RBTree<>();
+		for (int i = 0; i < size; i++) {
+			int key = random.nextInt(bound);
+			tree.put(key, i);
+			expected.put(key, i);
+		}
+		return tree;
+	}
+
+	@Test
+	public void splitAndJoinKeepTreesValid() {
+		Random random = new Random(6);
+		for (int round = 0; round < 200; round++) {
+			TreeMap<Integer, Integer> expected = new TreeMap<>();
+			RBTree<Integer, Integer> tree = randomTree(random, random.nextInt(2000), 4000, expected);
+			int key = random.nextInt(4200) - 100;
+
+			RBTree<Integer, Integer> right = tree.split(key);
+			assertValid(tree);
+			assertValid(right);
+			assertSameContent(expected.headMap(key, false), tree);
+			assertSameContent(expected.tailMap(key, true), right);
+			assertEquals(expected.headMap(key, false).size(), tree.size());
+			assertEquals(expected.tailMap(key, true).size(), right.size());
+
+			// 拆开后再接回去，中间用一个不存在的key
+			if (!expected.containsKey(key)) {
+				RBTree<Integer, Integer> joined = RBTree.join(tree, key, -1, right);
+				assertValid(joined);
+				expected.put(key, -1);
+				assertSameContent(expected, joined);
+				assertNull(tree.getRoot());
+				assertNull(right.getRoot());
+			}
+		}
+
+		RBTree<Integer, Integer> small = new RBTree<>();
+		small.put(5, 5);
+		try {
+			RBTree.join(small, 3, 3, new RBTree<Integer, Integer>());
+			fail("unordered join should be rejected");
+		} catch (IllegalArgumentException expected) {
+			assertEquals(1, small.size());
+		}
+	}
+
+	@Test
+	public void setOperationsMatchTreeMap() {
+		Random random = new Random(7);
+		for (int round = 0; round < 60; round++) {
+			// 大小差别很大的和差不多的都要覆盖，大的那次会超过fork的阈值
+			int sizeA = round == 0 ? 40000 : random.nextInt(3000);
+			int sizeB = round == 1 ? 40000 : random.nextInt(round % 2 == 0 ? 50 : 3000);
+			int bound = random.nextInt(10000) + 1;
+			for (int op = 0; op < 3; op++) {
+				Random r = new Random(round * 3L + op);
+				TreeMap<Integer, Integer> a = new TreeMap<>();
+				TreeMap<Integer, Integer> b = new TreeMap<>();
+				RBTree<Integer, Integer> treeA = randomTree(r, sizeA, bound, a);
+				RBTree<Integer, Integer> treeB = randomTree(r, sizeB, bound, b);
+
+				TreeMap<Integer, Integer> expected;
+				RBTree<Integer, Integer> result;
+				if (op == 0) {
+					expected = new TreeMap<>(b);
+					expected.putAll(a);
+					result = RBTree.union(treeA, treeB);
+				} else if (op == 1) {
+					expected = new TreeMap<>(a);
+					expected.keySet().retainAll(b.keySet());
+					result = RBTree.intersection(treeA, treeB);
+				} else {
+					expected = new TreeMap<>(a);
+					expected.keySet().removeAll(b.keySet());
+					result = RBTree.difference(treeA, treeB);
+				}
+				assertValid(result);
+				assertSameContent(expected, result);
+				assertEquals(expected.size(), result.size());
+				assertNull(treeA.getRoot());
+				assertNull(treeB.getRoot());
+			}
+		}
+	}
+
+	@Test
+	public void handlesSurviveDeletionOfOtherNodes() {
+		Random random = new Random(13);
+		RBTree<Integer, Integer> tree = new RBTree<>();
+		TreeMap<Integer, Integer> expected = new TreeMap<>();
+		Map<Integer, RBTree.RBNode<Integer, Integer>> handles = new HashMap<>();
+		for (int i = 0; i < 20000; i++) {
+			int key = random.nextInt(5000);
+			int op = random.nextInt(4);
+			if (op < 2) {
+				RBTree.RBNode<Integer, Integer> handle = tree.putAndGetHandle(key, i);
+				RBTree.RBNode<Integer, Integer> old = handles.put(key, handle);
+				// 已有的key返回同一个节点
+				assertTrue(old == null || old == handle);
+				expected.put(key, i);
+			} else if (op == 2) {
+				RBTree.RBNode<Integer, Integer> handle = handles.remove(key);
+				if (handle != null) {
+					assertEquals(expected.remove(key), tree.removeByHandle(handle));
+				}
+			} else {
+				RBTree.RBNode<Integer, Integer> handle = handles.get(key);
+				if (handle != null) {
+					assertEquals(expected.put(key, -i), tree.updateValueByHandle(handle, -i));
+				}
+			}
+		}
+		assertValid(tree);
+		assertSameContent(expected, tree);
+		assertEquals(expected.size(), tree.size());
+		// 其它节点被删除后，句柄仍然对应原来的key
+		for (Map.Entry<Integer, RBTree.RBNode<Integer, Integer>> entry : handles.entrySet()) {
+			assertEquals(entry.getKey(), entry.getValue().getK());
+			assertTrue(tree.getNode(entry.getKey()) == entry.getValue());
+		}
+
+		// 删除有两个子节点的根节点，其它节点不变
+		RBTree.RBNode root = tree.getRoot();
+		RBTree.RBNode left = root.getLeft();
+		Object rootKey = root.getK();
+		Object leftKey = left.getK();
+		tree.deleteNode(root);
+		assertEquals(rootKey, root.getK());
+		assertEquals(leftKey, left.getK());
+		assertNull(tree.getNode((Integer) rootKey));
+		assertValid(tree);
+
+		// 已删除的句柄和别的树的句柄
+		RBTree.RBNode<Integer, Integer> stale = tree.putAndGetHandle(-1, -1);
+		tree.removeByHandle(stale);
+		RBTree<Integer, Integer> other = new RBTree<>();
+		other.put(1, 1);
+		RBTree.RBNode<Integer, Integer> foreign = other.putAndGetHandle(2, 2);
+		for (RBTree.RBNode<Integer, Integer> handle : Arrays.asList(stale, foreign)) {
+			try {
+				tree.removeByHandle(handle);
+				fail("removed " + handle);
+			} catch (IllegalArgumentException expectedException) {
+				// ok
+			}
+		}
+		try {
+			tree.updateValueByHandle(stale, 0);
+			fail("updated a removed node");
+		} catch (IllegalArgumentException expectedException) {
+			// ok
+		}
+		assertValid(tree);
+		assertEquals(expected.size() - 1, tree.size());
+	}
+
+	/**
+	 * 记录compareTo调用次数的key
+	 */
+	private static final class CountingKey implements Comparable<CountingKey> {
+		static long comparisons;
+		final int value;
+
+		CountingKey(int value) {
+			this.value = value;
+		}
+
+		@Override
+		public int compareTo(CountingKey o) {
+			comparisons++;
+			return Integer.compare(value, o.value);
+		}
+	}
+
+	@Test
+	public void singleDescentUpdatesMatchTreeMap() {
+		Random random = new Random(14);
+		RBTree<Integer, Integer> tree = new RBTree<>();
+		TreeMap<Integer, Integer> expected = new TreeMap<>();
+		for (int i = 0; i < 30000; i++) {
+			int key = random.nextInt(2000);
+			int value = random.nextInt(100) + 1;
+			switch (random.nextInt(6)) {
+				case 0:
+					assertEquals(expected.putIfAbsent(key, value), tree.putIfAbsent(key, value));
+					break;
+				case 1:
+					assertEquals(expected.replace(key, value), tree.replace(key, value));
+					break;
+				case 2:
+					assertEquals(expected.computeIfAbsent(key, k -> k % 3 == 0 ? null : k + value),
+							tree.computeIfAbsent(key, k -> k % 3 == 0 ? null : k + value));
+					break;
+				case 3:
+					assertEquals(expected.computeIfPresent(key, (k, v) -> v > 50 ? null : v + value),
+							tree.computeIfPresent(key, (k, v) -> v > 50 ? null : v + value));
+					break;
+				case 4:
+					assertEquals(expected.compute(key, (k, v) -> v == null ? Integer.valueOf(value) : v % 7 == 0 ? null : v * 2 % 1000),
+							tree.compute(key, (k, v) -> v == null ? Integer.valueOf(value) : v % 7 == 0 ? null : v * 2 % 1000));
+					break;
+				default:
+					assertEquals(expected.merge(key, value, (a, b) -> a + b > 150 ? null : a + b),
+							tree.merge(key, value, (a, b) -> a + b > 150 ? null : a + b));
+					break;
+			}
+		}
+		assertValid(tree);
+		assertSameContent(expected, tree);
+		assertEquals(expected.size(), tree.size());
+
+		try {
+			tree.computeIfAbsent(-1, k -> {
+				tree.put(-2, -2);
+				return -1;
+			});
+			fail("tree modified by the mapping function");
+		} catch (ConcurrentModificationException e) {
+			// ok
+		}
+	}
+
+	@Test
+	public void modificationInRemappingFunctionIsDetected() {
+		RBTree<Integer, Integer> tree = new RBTree<>();
+		for (int i = 0; i < 100; i++) {
+			tree.put(i * 2, i);
+		}
+
+		// 删掉正在处理的节点再返回非null：不能把value写进已经摘除的节点
+		try {
+			tree.computeIfPresent(50, (k, v) -> {
+				tree.remove(k);
+				return v + 1;
+			});
+			fail("tree modified by the remapping function");
+		} catch (ConcurrentModificationException e) {
+			// ok
+		}
+		assertNull(tree.getNode(50));
+		assertValid(tree);
+
+		// 删一个加一个，大小不变，但下降时记下的父节点可能已经不在原来的位置
+		try {
+			tree.compute(51, (k, v) -> {
+				tree.remove(52);
+				tree.put(1001, 1001);
+				return 1;
+			});
+			fail("tree modified by the remapping function");
+		} catch (ConcurrentModificationException e) {
+			// ok
+		}
+		assertNull(tree.getNode(51));
+		assertValid(tree);
+
+		try {
+			tree.merge(60, 1, (a, b) -> {
+				tree.remove(62);
+				return a + b;
+			});
+			fail("tree modified by the remapping function");
+		} catch (ConcurrentModificationException e) {
+			// ok
+		}
+		assertValid(tree);
+
+		// 只改value不算结构修改
+		assertEquals(Integer.valueOf(100), tree.computeIfPresent(70, (k, v) -> {
+			tree.replace(72, -1);
+			return 100;
+		}));
+		assertEquals(Integer.valueOf(-1), tree.getNode(72).getV());
+	}
+
+	@Test
+	public void mergeDescendsOnce() {
+		RBTree<CountingKey, Long> tree = new RBTree<>();
+		CountingKey[] keys = new CountingKey[1 << 14];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = new CountingKey(i);
+			tree.put(keys[i], 0L);
+		}
+
+		CountingKey.comparisons = 0;
+		for (CountingKey key : keys) {
+			RBTree.RBNode node = tree.getNode(key);
+			tree.put(key, (Long) node.getV() + 1);
+		}
+		long twoDescents = CountingKey.comparisons;
+
+		CountingKey.comparisons = 0;
+		for (CountingKey key : keys) {
+			tree.merge(key, 1L, Long::sum);
+		}
+		long oneDescent = CountingKey.comparisons;
+
+		assertEquals(twoDescents, 2 * oneDescent);
+		for (CountingKey key : keys) {
+			assertEquals(Long.valueOf(2), tree.getNode(key).getV());
+		}
+	}
+
+	@Test
+	public void cachedEndsServeAsPriorityQueue() {
+		Random random = new Random(15);
+		RBTree<Long, Integer> tree = new RBTree<>();
+		TreeMap<Long, Integer> expected = new TreeMap<>();
+		for (int i = 0; i < 50000; i++) {
+			long key = random.nextInt(10000);
+			switch (random.nextInt(8)) {
+				case 0:
+					assertEquals(expected.pollFirstEntry(), tree.pollFirstEntry());
+					break;
+				case 1:
+					assertEquals(expected.pollLastEntry(), tree.pollLastEntry());
+					break;
+				case 2:
+					assertEquals(expected.remove(key), tree.remove(key));
+					break;
+				case 3:
+					assertEquals(expected.floorEntry(key), tree.floorEntry(key));
+					assertEquals(expected.ceilingEntry(key), tree.ceilingEntry(key));
+					assertEquals(expected.higherEntry(key), tree.higherEntry(key));
+					assertEquals(expected.lowerEntry(key), tree.lowerEntry(key));
+					break;
+				default:
+					tree.put(key, i);
+					expected.put(key, i);
+					break;
+			}
+			assertEquals(expected.firstEntry(), tree.firstEntry());
+			assertEquals(expected.lastEntry(), tree.lastEntry());
+			if (i % 1000 == 0) {
+				assertValid(tree);
+			}
+		}
+		assertValid(tree);
+
+		// 当优先队列用：按key顺序全部取出
+		while (!expected.isEmpty()) {
+			assertEquals(expected.pollFirstEntry(), tree.pollFirstEntry());
+		}
+		assertNull(tree.pollFirstEntry());
+		assertNull(tree.firstEntry());
+		assertNull(tree.lastEntry());
+		assertValid(tree);
+	}
+}
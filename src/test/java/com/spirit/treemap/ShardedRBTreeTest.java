@@ -0,0 +1,251 @@
+package com.spirit.treemap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * ShardedRBTree的测试
+ */
+public class ShardedRBTreeTest {
+
+	private static List<Map.Entry<Integer, Integer>> scan(ShardedRBTree<Integer, Integer> tree, Integer lo, boolean loInclusive,
+														  Integer hi, boolean hiInclusive) {
+		List<Map.Entry<Integer, Integer>> entries = new ArrayList<>();
+		tree.scan(lo, loInclusive, hi, hiInclusive, (k, v) -> {
+			entries.add(new AbstractMap.SimpleImmutableEntry<>(k, v));
+			return true;
+		});
+		return entries;
+	}
+
+	private static List<Map.Entry<Integer, Integer>> entries(Map<Integer, Integer> map) {
+		return new ArrayList<>(map.entrySet());
+	}
+
+	private static void assertSame(TreeMap<Integer, Integer> expected, ShardedRBTree<Integer, Integer> tree) {
+		assertEquals(expected.size(), tree.size());
+		assertEquals(entries(expected), scan(tree, null, false, null, false));
+		List<Map.Entry<Integer, Integer>> iterated = new ArrayList<>();
+		for (Iterator<Map.Entry<Integer, Integer>> it = tree.iterator(); it.hasNext(); ) {
+			iterated.add(it.next());
+		}
+		assertEquals(entries(expected), iterated);
+	}
+
+	@Test
+	public void matchesTreeMapAcrossShards() {
+		ShardedRBTree<Integer, Integer> tree = new ShardedRBTree<>(Arrays.asList(0, 1000, 2000, 5000));
+		assertEquals(5, tree.shardCount());
+		TreeMap<Integer, Integer> expected = new TreeMap<>();
+		Random random = new Random(25);
+		for (int i = 0; i < 20000; i++) {
+			int k = random.nextInt(8000) - 1000;
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(k), tree.remove(k));
+			} else {
+				expected.put(k, i);
+				tree.put(k, i);
+			}
+		}
+		assertSame(expected, tree);
+		for (int k = -1100; k < 7100; k += 7) {
+			assertEquals(expected.get(k), tree.get(k));
+		}
+
+		// 范围跨过多个分片，边界正好落在分片的下界上
+		int[][] ranges = {{-1000, 7000}, {0, 1000}, {999, 2000}, {1500, 1600}, {4999, 5000}, {6500, 10000}, {-5000, -1001}};
+		for (int[] range : ranges) {
+			for (int flags = 0; flags < 4; flags++) {
+				boolean loInclusive = (flags & 1) != 0;
+				boolean hiInclusive = (flags & 2) != 0;
+				assertEquals(entries(expected.subMap(range[0], loInclusive, range[1], hiInclusive)),
+						scan(tree, range[0], loInclusive, range[1], hiInclusive));
+			}
+		}
+		assertEquals(entries(expected.headMap(1000, false)), scan(tree, null, false, 1000, false));
+		assertEquals(entries(expected.tailMap(2000, true)), scan(tree, 2000, true, null, false));
+
+		// 提前结束
+		int[] visited = {0};
+		tree.scan((k, v) -> ++visited[0] < 600);
+		assertEquals(600, visited[0]);
+	}
+
+	@Test
+	public void emptyShardsAreSkipped() {
+		ShardedRBTree<Integer, Integer> tree = new ShardedRBTree<>(Arrays.asList(10, 20, 30, 40));
+		assertFalse(tree.iterator().hasNext());
+		tree.put(5, null);
+		tree.put(45, null);
+		assertEquals(Arrays.asList(5, 45), keys(tree));
+		assertTrue(scan(tree, 6, true, 44, true).isEmpty());
+		assertNull(tree.get(25));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void boundariesMustAscend() {
+		new ShardedRBTree<Integer, Integer>(Arrays.asList(1, 3, 3));
+	}
+
+	private static List<Integer> keys(ShardedRBTree<Integer, Integer> tree) {
+		List<Integer> keys = new ArrayList<>();
+		tree.scan((k, v) -> keys.add(k));
+		return keys;
+	}
+
+	@Test
+	public void rebalanceMovesBoundaries() {
+		ShardedRBTree<Integer, Integer> tree = new ShardedRBTree<>(Arrays.asList(100, 200, 300));
+		TreeMap<Integer, Integer> expected = new TreeMap<>();
+		// 全部写到最后一个分片
+		for (int i = 0; i < 4000; i++) {
+			tree.put(1000 + i, i);
+			expected.put(1000 + i, i);
+		}
+		assertEquals(Arrays.asList(0, 0, 0, 4000), toList(tree.shardSizes()));
+
+		assertTrue(tree.rebalance(2));
+		assertEquals(Arrays.asList(0, 0, 2000, 2000), toList(tree.shardSizes()));
+		assertEquals(Arrays.asList(100, 200, 3000), tree.boundaries());
+		assertSame(expected, tree);
+
+		for (int round = 0; round < 10; round++) {
+			for (int i = 0; i < tree.shardCount() - 1; i++) {
+				tree.rebalance(i);
+			}
+		}
+		for (int size : tree.shardSizes()) {
+			assertTrue(Arrays.toString(tree.shardSizes()), Math.abs(size - 1000) <= 10);
+		}
+		assertSame(expected, tree);
+
+		// 调整后写入仍然落到正确的分片
+		for (int i = 0; i < 500; i++) {
+			tree.put(i, -i);
+			expected.put(i, -i);
+		}
+		tree.remove(1500);
+		expected.remove(1500);
+		assertSame(expected, tree);
+
+		assertFalse(new ShardedRBTree<Integer, Integer>(Arrays.asList(1)).rebalance(0));
+	}
+
+	@Test
+	public void hotShardIsSplitAutomatically() {
+		ShardedRBTree<Integer, Integer> tree = new ShardedRBTree<>(Arrays.asList(1 << 20, 2 << 20, 3 << 20));
+		Random random = new Random(250);
+		for (int i = 0; i < 50000; i++) {
+			tree.put(random.nextInt(1 << 20), i);
+		}
+		// 第一个分片太大，和右边的邻居平分过
+		assertTrue(tree.boundaries().get(0) < 1 << 20);
+	}
+
+	private static List<Integer> toList(int[] values) {
+		List<Integer> list = new ArrayList<>();
+		for (int value : values) {
+			list.add(value);
+		}
+		return list;
+	}
+
+	@Test
+	public void concurrentWritesScansAndRebalances() throws InterruptedException {
+		final int threads = 4;
+		final int perThread = 20000;
+		final ShardedRBTree<Integer, Integer> tree = new ShardedRBTree<>(Arrays.asList(10000, 20000, 40000, 60000));
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final AtomicBoolean running = new AtomicBoolean(true);
+		List<Thread> writers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			final int id = t;
+			writers.add(new Thread(() -> {
+				Random random = new Random(id);
+				for (int i = 0; i < perThread; i++) {
+					// 每个线程写自己的key(k % threads == id)，最后删掉一半
+					int k = random.nextInt(80000 / threads) * threads + id;
+					tree.put(k, k);
+					if (i % 2 == 0) {
+						tree.remove(k);
+					}
+				}
+			}));
+		}
+		Thread scanner = new Thread(() -> {
+			try {
+				while (running.get()) {
+					final int[] last = {Integer.MIN_VALUE};
+					tree.scan((k, v) -> {
+						if (k <= last[0] || !k.equals(v)) {
+							throw new AssertionError("out of order: " + last[0] + ", " + k);
+						}
+						last[0] = k;
+						return true;
+					});
+				}
+			} catch (Throwable e) {
+				failure.set(e);
+			}
+		});
+		Thread rebalancer = new Thread(() -> {
+			try {
+				Random random = new Random(7);
+				while (running.get()) {
+					tree.rebalance(random.nextInt(tree.shardCount() - 1));
+					tree.rebalance();
+				}
+			} catch (Throwable e) {
+				failure.set(e);
+			}
+		});
+		scanner.start();
+		rebalancer.start();
+		for (Thread writer : writers) {
+			writer.start();
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		running.set(false);
+		scanner.join();
+		rebalancer.join();
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+
+		// 单线程重放每个线程的操作，结果应该相同
+		TreeMap<Integer, Integer> expected = new TreeMap<>();
+		for (int id = 0; id < threads; id++) {
+			Random random = new Random(id);
+			for (int i = 0; i < perThread; i++) {
+				int k = random.nextInt(80000 / threads) * threads + id;
+				expected.put(k, k);
+				if (i % 2 == 0) {
+					expected.remove(k);
+				}
+			}
+		}
+		assertSame(expected, tree);
+		List<Integer> boundaries = tree.boundaries();
+		List<Integer> sorted = new ArrayList<>(boundaries);
+		Collections.sort(sorted);
+		assertEquals(sorted, boundaries);
+	}
+}
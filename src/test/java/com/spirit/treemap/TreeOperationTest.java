@@ -0,0 +1,108 @@
+package com.spirit.treemap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * TreeOperation的测试
+ */
+public class TreeOperationTest {
+
+	private static int recursiveDepth(RBTree.RBNode node) {
+		return node == null ? 0 : 1 + Math.max(recursiveDepth(node.getLeft()), recursiveDepth(node.getRight()));
+	}
+
+	@Test
+	public void iterativeDepthMatchesRecursion() {
+		assertEquals(0, TreeOperation.getTreeDepth(null));
+		Random random = new Random(12);
+		RBTree<Integer, Integer> tree = new RBTree<>();
+		for (int i = 0; i < 5000; i++) {
+			tree.put(random.nextInt(100000), i);
+			if (i % 97 == 0) {
+				assertEquals(recursiveDepth(tree.getRoot()), TreeOperation.getTreeDepth(tree.getRoot()));
+			}
+		}
+		// 子树
+		RBTree.RBNode left = tree.getRoot().getLeft();
+		assertEquals(recursiveDepth(left), TreeOperation.getTreeDepth(left));
+		assertEquals(recursiveDepth(left.getRight()), TreeOperation.getTreeDepth(left.getRight()));
+	}
+
+	@Test
+	public void textLayout() throws IOException {
+		RBTree<Integer, Integer> tree = new RBTree<>();
+		for (int i = 1; i <= 6; i++) {
+			tree.put(i, null);
+		}
+		StringWriter out = new StringWriter();
+		TreeOperation.writeText(tree.getRoot(), out);
+		assertEquals("2-B\n" +
+				"|-- 1-B\n" +
+				"`-- 4-R\n" +
+				"    |-- 3-B\n" +
+				"    `-- 5-B\n" +
+				"        |-- -\n" +
+				"        `-- 6-R\n", out.toString());
+
+		out = new StringWriter();
+		TreeOperation.writeText(tree.getRoot(), out, 2, Integer.MAX_VALUE);
+		assertEquals("2-B\n" +
+				"|-- 1-B\n" +
+				"`-- 4-R\n" +
+				"    `-- ... (3 nodes)\n", out.toString());
+
+		out = new StringWriter();
+		TreeOperation.writeText(null, out);
+		assertEquals("EMPTY!\n", out.toString());
+	}
+
+	@Test
+	public void largeTreeIsSampled() throws IOException {
+		RBTree<Integer, Integer> tree = new RBTree<>();
+		for (int i = 0; i < 1000000; i++) {
+			tree.put(i, null);
+		}
+
+		StringWriter out = new StringWriter();
+		TreeOperation.writeText(tree.getRoot(), out, Integer.MAX_VALUE, 100);
+		String[] lines = out.toString().split("\n");
+		int shown = 0;
+		long elided = 0;
+		for (String line : lines) {
+			int at = line.indexOf("... (");
+			if (at >= 0) {
+				elided += Long.parseLong(line.substring(at + 5, line.indexOf(' ', at + 5)));
+			} else if (!line.endsWith("-- -")) {
+				shown++;
+			}
+		}
+		assertEquals(100, shown);
+		assertEquals(1000000, shown + elided);
+
+		// 子树
+		RBTree.RBNode subtree = tree.getRoot().getRight().getLeft();
+		out = new StringWriter();
+		TreeOperation.writeDot(subtree, out, 4, Integer.MAX_VALUE);
+		String dot = out.toString();
+		assertTrue(dot.startsWith("digraph RBTree {\n"));
+		assertTrue(dot.endsWith("}\n"));
+		assertTrue(dot.contains("n0 [label=\"" + subtree.getK() + "\""));
+		// 4层最多15个节点，再加第4层下面的省略框
+		assertTrue(dot.split("->").length - 1 <= 14 + 16);
+
+		out = new StringWriter();
+		TreeOperation.writeJson(tree.getRoot(), out, 3, 1000);
+		String json = out.toString();
+		assertTrue(json.startsWith("{\"key\":\"" + tree.getRoot().getK() + "\",\"color\":\"B\",\"size\":1000000,"));
+		// 前3层7个节点，第3层下面8个省略
+		assertEquals(7, json.split("\"key\"").length - 1);
+		assertEquals(8, json.split("\"elided\"").length - 1);
+	}
+}
@@ -0,0 +1,78 @@
+package com.spirit.treemap1;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * 非递归遍历与递归遍历的结果一致
+ */
+public class RBTreeTraversalTest {
+
+	private static void recursive(RBNode node, TraversalOrder order, List<Object> out) {
+		if (node == null) {
+			return;
+		}
+		if (order == TraversalOrder.PRE_ORDER) {
+			out.add(node.getKey());
+		}
+		recursive(order == TraversalOrder.DESCENDING ? node.getRight() : node.getLeft(), order, out);
+		if (order == TraversalOrder.IN_ORDER || order == TraversalOrder.DESCENDING) {
+			out.add(node.getKey());
+		}
+		recursive(order == TraversalOrder.DESCENDING ? node.getLeft() : node.getRight(), order, out);
+		if (order == TraversalOrder.POST_ORDER) {
+			out.add(node.getKey());
+		}
+	}
+
+	@Test
+	public void matchesRecursiveTraversal() {
+		Random random = new Random(4);
+		for (int size = 0; size < 200; size += 7) {
+			RBTree<Integer, Integer> tree = new RBTree<>();
+			for (int i = 0; i < size; i++) {
+				tree.put(random.nextInt(1000), i);
+			}
+			List<RBNode> subtrees = new ArrayList<>();
+			subtrees.add(tree.getRoot());
+			if (tree.getRoot() != null) {
+				subtrees.add(tree.getRoot().getLeft());
+				subtrees.add(tree.getRoot().getRight());
+			}
+			for (RBNode top : subtrees) {
+				for (TraversalOrder order : TraversalOrder.values()) {
+					List<Object> expected = new ArrayList<>();
+					recursive(top, order, expected);
+
+					final List<Object> visited = new ArrayList<>();
+					tree.traverse(top, order, node -> visited.add(node.getKey()));
+					assertEquals(expected, visited);
+
+					List<Object> iterated = new ArrayList<>();
+					for (Iterator<RBNode<Integer, Integer>> it = tree.iterator(top, order); it.hasNext(); ) {
+						iterated.add(it.next().getKey());
+					}
+					assertEquals(expected, iterated);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void visitorCanStopEarly() {
+		RBTree<Integer, Integer> tree = new RBTree<>();
+		for (int i = 0; i < 100; i++) {
+			tree.put(i, i);
+		}
+		final List<Object> visited = new ArrayList<>();
+		tree.traverse(TraversalOrder.DESCENDING, node -> visited.add(node.getKey()) && visited.size() < 3);
+		assertEquals(3, visited.size());
+		assertEquals(97, visited.get(2));
+	}
+}